@@ -4,6 +4,8 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -13,15 +15,35 @@ import android.widget.Toast;
 
 import com.google.android.material.snackbar.Snackbar;
 import com.mintedtech.tic_tac_toe.R;
+import com.mintedtech.tic_tac_toe.ai.RandomStrategy;
+import com.mintedtech.tic_tac_toe.analysis.OpeningIndex;
+import com.mintedtech.tic_tac_toe.analysis.PositionHasher;
+import com.mintedtech.tic_tac_toe.classes.BoardView;
 import com.mintedtech.tic_tac_toe.classes.CardViewImageAdapter;
+import com.mintedtech.tic_tac_toe.classes.ParcelableGame;
+import com.mintedtech.tic_tac_toe.classes.PerformanceMonitor;
+import com.mintedtech.tic_tac_toe.classes.StartupWarmer;
 import com.mintedtech.tic_tac_toe.classes.Utils;
+import com.mintedtech.tic_tac_toe.classes.ViewportBoardView;
+import com.mintedtech.tic_tac_toe.enums.OpponentType;
 import com.mintedtech.tic_tac_toe.enums.PlayerTurn;
 import com.mintedtech.tic_tac_toe.enums.WinType;
 import com.mintedtech.tic_tac_toe.enums.WinTypeDiagonal;
+import com.mintedtech.tic_tac_toe.interfaces.BoardDisplay;
+import com.mintedtech.tic_tac_toe.interfaces.ComputerStrategy;
 import com.mintedtech.tic_tac_toe.interfaces.OnItemClickCustomListener;
+import com.mintedtech.tic_tac_toe.metrics.EngineMetrics;
+import com.mintedtech.tic_tac_toe.metrics.PerformanceMetrics;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+import com.mintedtech.tic_tac_toe.models.GameRecord;
 import com.mintedtech.tic_tac_toe.models.TicTacToe;
+import com.mintedtech.tic_tac_toe.persistence.GameHistoryStore;
+import com.mintedtech.tic_tac_toe.persistence.GameJournal;
+import com.mintedtech.tic_tac_toe.persistence.StatisticsStore;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Random;
 
 import androidx.annotation.NonNull;
@@ -35,6 +57,11 @@ import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 public class MainActivity extends AppCompatActivity
 {
+    private static final String TAG = "MainActivity";
+
+    // set by SplashActivity when StartupWarmer has (or may have) replayed the saved game
+    public static final String EXTRA_WARMED_UP = "com.mintedtech.tic_tac_toe.WARMED_UP";
+
     // named constants (finals)
     private final int mEMPTY_SPACE = R.drawable.ic_xo_light,
             mINVALID_ICON_VALUE_FLAG = -99;
@@ -60,11 +87,52 @@ public class MainActivity extends AppCompatActivity
     private final String mKEY_ICON_X = "ICON_X";
     private final String mKEY_ICON_O = "ICON_O";
     private final String mKEY_ICON_XO = "ICON_XO";
+    private final String mKEY_GAME_START_MILLIS = "GAME_START_MILLIS";
+    private final String mKEY_THINK_MILLIS = "THINK_MILLIS";
+    private final String mKEY_TURN_START_MILLIS = "TURN_START_MILLIS";
 
     private TicTacToe mCurrentGame;
 
-    // Reference to our custom Adapter used to create and maintain a board in our GridView here
-    private CardViewImageAdapter mAdapter;
+    // Append-only auto-save of the game model (replaces the per-key board in SharedPreferences)
+    private GameJournal mJournal;
+
+    // Every finished game, with its moves, outcome and duration
+    private GameHistoryStore mHistory;
+    private long mGameStartMillis;
+
+    // Aggregates shown by StatisticsActivity, kept up to date from the history
+    private StatisticsStore mStatisticsStore;
+
+    // Outcomes of stored games by position, for the opening explorer
+    private OpeningIndex mOpeningIndex;
+
+    // Time the person (or people) playing have spent choosing moves this game (elapsedRealtime)
+    private long mThinkMillis, mTurnStartMillis;
+
+    // Allocation reading at the start of this game; -1 for games resumed from saved state
+    private long mAllocationMark = -1;
+
+    // The saved game as StartupWarmer replayed it before this Activity started, if it did
+    private TicTacToe mWarmedUpGame;
+
+    // What is currently stored in SharedPreferences, so onPause only writes what changed
+    private String mSavedLastTurnResults;
+    private boolean mPrefsChanged;
+
+    // Startup instrumentation: time-to-interactive-board is measured from here
+    private long mCreateStartNanos;
+
+    // How the computer opponent picks its moves, and how long it may take to (nanoseconds)
+    private final ComputerStrategy mComputerStrategy = new RandomStrategy ();
+    private final long mCOMPUTER_TURN_NANOS = 50_000_000L;
+
+    // Turn latency, frame times and the performance overlay
+    private PerformanceMonitor mPerformanceMonitor;
+    private final String mKEY_PERFORMANCE_OVERLAY = "PERFORMANCE_OVERLAY";
+
+    // The board on screen: our custom Adapter in the RecyclerView grid for small boards,
+    // or the single-View BoardView for large ones (see setupBoard)
+    private BoardDisplay mBoard;
 
     // References to various Views
     private TextView mStatusBar;
@@ -77,12 +145,25 @@ public class MainActivity extends AppCompatActivity
     @Override
     protected void onCreate (Bundle savedInstanceState)
     {
+        mCreateStartNanos = SystemClock.elapsedRealtimeNanos ();
         super.onCreate (savedInstanceState);
         setContentView (R.layout.activity_main);
         setupToolbar ();
         setupViews ();
-        setupRV ();
+        mPerformanceMonitor = new PerformanceMonitor (this);
+        setupBoard (getResources ().getIntArray (R.array.board_sizes)[0]);
         initializePreferenceKeys ();
+        mJournal = GameJournal.getInstance (getFilesDir ());
+        mHistory = GameHistoryStore.getInstance (getFilesDir ());
+        mStatisticsStore = StatisticsStore.getInstance (getFilesDir ());
+        mStatisticsStore.preload ();
+        mOpeningIndex = OpeningIndex.getInstance (getFilesDir ());
+        mOpeningIndex.preload ();
+        if (savedInstanceState == null && getIntent ().getBooleanExtra (EXTRA_WARMED_UP, false)) {
+            mWarmedUpGame = StartupWarmer.getInstance (this).takeReplayedGame ();
+        }
+        // the warm-up's game is good for this first start only
+        getIntent ().removeExtra (EXTRA_WARMED_UP);
         initializeViewAndModel (savedInstanceState);
     }
 
@@ -119,7 +200,7 @@ public class MainActivity extends AppCompatActivity
     {
         // If we are starting a fresh Activity (meaning, not after rotation), then do initial setup
         if (savedInstanceState == null) {
-            mCurrentGame = new TicTacToe ((int) Math.sqrt (mAdapter.getItemCount ()));
+            mCurrentGame = new TicTacToe (getBoardRowsOrColumns ());
             setupInitialSession ();
         }
         // If we're in the middle of a game then onRestoreInstanceState will restore the App's state
@@ -134,29 +215,62 @@ public class MainActivity extends AppCompatActivity
         mSwipeRefreshLayout.setOnRefreshListener (() -> {
             prepareForNewGame ();
             mCurrentGame.startGame ();
+            mJournal.recordNewGame ();
             startNewOrResumeGameState ();
         });
     }
 
     /**
-     * Creates an unfilled board, which includes creating the array of winning spaces (9/3 elements)
-     * and the RecyclerView grid, including layout... and an instance of out custom adapter class.
+     * Creates an unfilled board of the given size: small boards get the RecyclerView grid,
+     * including layout... and an instance of our custom adapter class; boards of
+     * canvas_board_min_rows_or_columns and up are drawn by the single-View BoardView instead,
+     * and boards of viewport_board_min_rows_or_columns and up by the pan/zoom ViewportBoardView
+     *
+     * @param rowsOrColumns number of rows (and columns) of the board
      */
-    private void setupRV ()
+    private void setupBoard (int rowsOrColumns)
     {
-        final int totalSpaces = 9;
-
-        // Create the adapter for later use in the RecyclerView
-        mAdapter = new CardViewImageAdapter (totalSpaces, R.drawable.ic_xo_light);
+        // get references to all board Views; only one of them is shown
+        RecyclerView rvBoard = findViewById (R.id.rv_board);
+        BoardView boardView = findViewById (R.id.board_view);
+        ViewportBoardView viewportBoardView = findViewById (R.id.viewport_board_view);
+
+        boolean useViewportBoardView = isViewportBoardSize (rowsOrColumns);
+        boolean useBoardView = !useViewportBoardView && rowsOrColumns >=
+                getResources ().getInteger (R.integer.canvas_board_min_rows_or_columns);
+        boolean useRV = !useViewportBoardView && !useBoardView;
+        rvBoard.setVisibility (useRV ? View.VISIBLE : View.GONE);
+        boardView.setVisibility (useBoardView ? View.VISIBLE : View.GONE);
+        viewportBoardView.setVisibility (useViewportBoardView ? View.VISIBLE : View.GONE);
+
+        if (useRV) {
+            setupRV (rvBoard, rowsOrColumns);
+        }
+        else {
+            rvBoard.setAdapter (null);
+            if (useBoardView) {
+                boardView.setBoardSize (rowsOrColumns, R.drawable.ic_xo_light);
+                mBoard = boardView;
+            }
+            else {
+                viewportBoardView.setBoardSize (rowsOrColumns, R.drawable.ic_xo_light);
+                mBoard = viewportBoardView;
+            }
+        }
 
-        // set the listener which will listen to the clicks in the RecyclerView
-        mAdapter.setOnItemClickListener (listener);
+        // set the listener which will listen to the clicks on the board
+        mBoard.setOnItemClickListener (listener);
+    }
 
-        // get a reference to the RecyclerView
-        RecyclerView rvBoard = findViewById (R.id.rv_board);
+    private void setupRV (RecyclerView rvBoard, int rowsOrColumns)
+    {
+        // Create the adapter for later use in the RecyclerView
+        CardViewImageAdapter adapter = new CardViewImageAdapter (rowsOrColumns * rowsOrColumns,
+                                                                 R.drawable.ic_xo_light);
+        mBoard = adapter;
 
         // Create a new LayoutManager object to be used in the RecyclerView
-        int rvColumnCount = (int) Math.sqrt (mAdapter.getItemCount ());
+        int rvColumnCount = rowsOrColumns;
         RecyclerView.LayoutManager layoutManager =
                 new GridLayoutManager (this, rvColumnCount);/*
                 {
@@ -178,7 +292,7 @@ public class MainActivity extends AppCompatActivity
 
         // set the adapter as the data source (model) for the RecyclerView
         rvBoard.setHasFixedSize (true);
-        rvBoard.setAdapter (mAdapter);
+        rvBoard.setAdapter (adapter);
     }
 
     /**
@@ -227,12 +341,25 @@ public class MainActivity extends AppCompatActivity
         mCurrentGame.startGame ();
         restoreAllDataFromPrefs ();
         startNewOrResumeGameState ();
+
+        Log.i (TAG, "Board interactive " + getMillisSince (mCreateStartNanos) + " ms after onCreate");
+        reportFullyDrawn ();
+    }
+
+    private static String getMillisSince (long startNanos)
+    {
+        return String.format (Locale.US, "%.2f",
+                              (SystemClock.elapsedRealtimeNanos () - startNanos) / 1e6);
     }
 
     private void prepareForNewGame ()
     {
-        mAdapter.resetAllImagesAndTints ();
+        mBoard.resetAllImagesAndTints ();
         mLastTurnResults = getString (R.string.info_first_turn_of_the_game);
+        mGameStartMillis = System.currentTimeMillis ();
+        mThinkMillis = 0;
+        mTurnStartMillis = SystemClock.elapsedRealtime ();
+        mAllocationMark = EngineMetrics.markAllocations ();
         dismissSnackBarIfShown ();
     }
 
@@ -292,20 +419,36 @@ public class MainActivity extends AppCompatActivity
     private void restoreLastStateIfAutoSaveIsOn ()
     {
         SharedPreferences preferences = getSharedPreferences (mPREFS, MODE_PRIVATE);
+        mSavedLastTurnResults = preferences.getString (mKEY_LAST_TURN_RESULTS, null);
 
         if (mPrefUseAutoSave) {
-            // restore Model
-            String restoredGame = preferences.getString (mKEY_GAME, null);
-
-            if (restoredGame != null) {
+            // restore Model: snapshot + journal replay, or else the pre-journal SharedPreferences
+            long replayStartNanos = SystemClock.elapsedRealtimeNanos ();
+            TicTacToe journaledGame = mWarmedUpGame != null ? mWarmedUpGame : mJournal.replay ();
+            mWarmedUpGame = null;
+            Log.i (TAG, "Game snapshot read and journal replayed in " +
+                    getMillisSince (replayStartNanos) + " ms");
+            String restoredGame = journaledGame == null
+                                  ? preferences.getString (mKEY_GAME, null) : null;
+
+            if (journaledGame != null || restoredGame != null) {
                 // restore the last turn
                 mLastTurnResults = preferences.getString (mKEY_LAST_TURN_RESULTS,
                                                           getString (
                                                                   R.string.info_defaultValue_lastTurnResults));
 
-                restoreAllBoardData (preferences);
+                if (journaledGame != null) {
+                    mCurrentGame = journaledGame;
 
-                mCurrentGame = TicTacToe.getGameFromJSON (restoredGame);
+                    long boardStartNanos = SystemClock.elapsedRealtimeNanos ();
+                    restoreBoardFromModel ();
+                    Log.i (TAG, "Board rebuilt from model in " +
+                            getMillisSince (boardStartNanos) + " ms");
+                }
+                else {
+                    restoreAllBoardData (preferences);
+                    mCurrentGame = TicTacToe.getGameFromJSON (restoredGame);
+                }
 
                 // restore current player
                 updateUIWithCurrentPlayer ();
@@ -320,6 +463,73 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
+    /**
+     * Fills the adapter's image and tint arrays straight from the restored model in one pass,
+     * with a single adapter update; the model was validated when it was read, so no per-space
+     * checks (as in restoreBoard) are needed
+     */
+    private void restoreBoardFromModel ()
+    {
+        Tracer.begin ("MainActivity.restoreBoardFromModel");
+        try {
+            if (getBoardRowsOrColumns () != mCurrentGame.getTotalRowsOrColumns ()) {
+                setupBoard (mCurrentGame.getTotalRowsOrColumns ());
+            }
+
+            if (isViewportBoardSize (mCurrentGame.getTotalRowsOrColumns ())) {
+                restoreSparseBoardFromModel ();
+                return;
+            }
+
+            int totalSpaces = mBoard.getItemCount ();
+            int rowsAndColumns = (int) Math.sqrt (totalSpaces);
+            boolean[][] winningSpaces = mCurrentGame.getWinningSpaces ();
+            boolean tintWinningSpaces = mCurrentGame.isGameOver () && mCurrentGame.isWinner ();
+
+            int[] images = new int[totalSpaces];
+            int[] tints = new int[totalSpaces];
+
+            for (int i = 0; i < totalSpaces; i++) {
+                int row = i / rowsAndColumns, col = i % rowsAndColumns;
+
+                images[i] = getIconForPlayer (mCurrentGame.getPlayerAtPosition (row, col));
+                tints[i] = tintWinningSpaces && winningSpaces[row][col]
+                           ? R.color.color_yes : mINVALID_ICON_VALUE_FLAG;
+            }
+
+            mBoard.setAllImagesAndTints (images, tints);
+        }
+        finally {
+            Tracer.end ();
+        }
+    }
+
+    /**
+     * The same for the pan/zoom board, without arrays of every space: replays the moves
+     * onto the cleared board, so the work follows the pieces played and not the board size
+     */
+    private void restoreSparseBoardFromModel ()
+    {
+        mBoard.resetAllImagesAndTints ();
+        for (int i = 0; i < mCurrentGame.getMoveCount (); i++) {
+            int position = mCurrentGame.getMoveAt (i);
+            int row = position / mCurrentGame.getTotalRowsOrColumns ();
+            int col = position % mCurrentGame.getTotalRowsOrColumns ();
+            mBoard.setImage (position,
+                             getIconForPlayer (mCurrentGame.getPlayerAtPosition (row, col)));
+        }
+
+        if (mCurrentGame.isGameOver ()) {
+            tintWinningSpacesIfNotDraw ();
+        }
+    }
+
+    /**
+     * Reads the board as saved in SharedPreferences before the game journal existed
+     * so that a game in progress survives the upgrade
+     *
+     * @param preferences the SharedPreferences holding the pre-journal board keys
+     */
     private void restoreAllBoardData (SharedPreferences preferences)
     {
         // restore the board icon values from SharedPreferences
@@ -338,11 +548,11 @@ public class MainActivity extends AppCompatActivity
         int currentSpace;
 
         // restore the board one square at a time
-        for (int i = 0; i < mAdapter.getItemCount (); i++) {
+        for (int i = 0; i < mBoard.getItemCount (); i++) {
             currentKeyName = mKEY_BOARD + i;
             currentSpace = (int) preferences.getLong (currentKeyName, mEMPTY_SPACE);
             currentSpace = getValidCurrentSpace (currentSpace);
-            mAdapter.setImage (i, currentSpace);
+            mBoard.setImage (i, currentSpace);
         }
     }
 
@@ -373,12 +583,12 @@ public class MainActivity extends AppCompatActivity
             int currentSpaceTint;
 
             // restore the tints one square at a time
-            for (int i = 0; i < mAdapter.getItemCount (); i++) {
+            for (int i = 0; i < mBoard.getItemCount (); i++) {
                 currentKeyName = mKEY_TINTS + i;
                 currentSpaceTint =
                         (int) preferences.getLong (currentKeyName, mINVALID_ICON_VALUE_FLAG);
                 currentSpaceTint = getValidCurrentSpaceTint (currentSpaceTint);
-                mAdapter.setImageTint (i, currentSpaceTint);
+                mBoard.setImageTint (i, currentSpaceTint);
             }
         }
     }
@@ -448,8 +658,13 @@ public class MainActivity extends AppCompatActivity
 
         outState.putString (mKEY_LAST_TURN_RESULTS, mLastTurnResults);
 
-        // save the game Model
-        outState.putString (mKEY_GAME, mCurrentGame.getJSONFromCurrentGame ());
+        outState.putLong (mKEY_GAME_START_MILLIS, mGameStartMillis);
+        outState.putLong (mKEY_THINK_MILLIS, mThinkMillis);
+        outState.putLong (mKEY_TURN_START_MILLIS, mTurnStartMillis);
+        outState.putBoolean (mKEY_PERFORMANCE_OVERLAY, mPerformanceMonitor.isOverlayVisible ());
+
+        // save the game Model (packed; the board's images and tints are rebuilt from it)
+        outState.putParcelable (mKEY_GAME, new ParcelableGame (mCurrentGame));
 
         // save the user's choice of opponent and start
         outState.putBoolean (mKEY_COMPUTER_OPPONENT, mPrefComputerOpponent);
@@ -457,12 +672,6 @@ public class MainActivity extends AppCompatActivity
 
         // save the current autoSave boolean
         outState.putBoolean (mKEY_USE_AUTO_SAVE, mPrefUseAutoSave);
-
-        // save the board layout as a whole to the bundle to be saved
-        outState.putIntArray (mKEY_BOARD, mAdapter.getAllImages ());
-
-        // save the tinting data model
-        outState.putIntArray (mKEY_TINTS, mAdapter.getAllImageTints ());
     }
 
     /**
@@ -478,7 +687,14 @@ public class MainActivity extends AppCompatActivity
         super.onRestoreInstanceState (savedInstanceState);
 
         // restore game
-        mCurrentGame = TicTacToe.getGameFromJSON (savedInstanceState.getString (mKEY_GAME));
+        ParcelableGame savedGame = savedInstanceState.getParcelable (mKEY_GAME);
+        assert savedGame != null;
+        mCurrentGame = savedGame.getGame ();
+        mGameStartMillis = savedInstanceState.getLong (mKEY_GAME_START_MILLIS);
+        mThinkMillis = savedInstanceState.getLong (mKEY_THINK_MILLIS);
+        mTurnStartMillis = savedInstanceState.getLong (mKEY_TURN_START_MILLIS);
+        mPerformanceMonitor.setOverlayVisible (
+                savedInstanceState.getBoolean (mKEY_PERFORMANCE_OVERLAY));
 
         // restore autoSave
         mPrefUseAutoSave = savedInstanceState.getBoolean (mKEY_USE_AUTO_SAVE);
@@ -494,47 +710,13 @@ public class MainActivity extends AppCompatActivity
         // restore the current player
         updateUIWithCurrentPlayer ();
 
-        // restore the game board one space at a time
-        restoreBoardFromSavedState (savedInstanceState);
+        // restore the game board's images and tints from the model in one pass
+        restoreBoardFromModel ();
 
         // show game over message if the current saved game had already ended
         showGameOverSnackBarIfGameOver ();
     }
 
-    private void restoreBoardFromSavedState (Bundle savedInstanceState)
-    {
-        restoreBoardImageData (savedInstanceState);
-        restoreBoardTintData (savedInstanceState);
-    }
-
-
-    private void restoreBoardImageData (Bundle savedInstanceState)
-    {
-        // This is essentially a copy of the board as it was before the rotation, etc.
-        int[] existingBoard = savedInstanceState.getIntArray (mKEY_BOARD);
-
-        if (existingBoard != null) {
-            for (int i = 0; i < existingBoard.length; i++) {
-                // since the Adapter's array is private, call the public setImage for each image
-                mAdapter.setImage (i, existingBoard[i]);
-            }
-        }
-    }
-
-
-    private void restoreBoardTintData (Bundle savedInstanceState)
-    {
-        int[] existingTint = savedInstanceState.getIntArray (mKEY_TINTS);
-
-        if (existingTint != null) {
-            for (int i = 0; i < existingTint.length; i++) {
-                if (existingTint[i] != mINVALID_ICON_VALUE_FLAG) {
-                    mAdapter.setImageTint (i, R.color.color_yes);
-                }
-            }
-        }
-    }
-
     private void showGameOverSnackBarIfGameOver ()
     {
         if (mCurrentGame.isGameOver ()) {
@@ -550,98 +732,92 @@ public class MainActivity extends AppCompatActivity
     protected void onPause ()
     {
         super.onPause ();
+        mPerformanceMonitor.stop ();
         savePrefAndBoardToSharedPref ();
     }
 
-    private void savePrefAndBoardToSharedPref ()
+    @Override
+    protected void onResume ()
     {
-        // Create a SP object that (creates if needed and) uses the value of mPREFS as the file name
-        SharedPreferences preferences = getSharedPreferences (mPREFS, MODE_PRIVATE);
-
-        // Create an Editor object to write changes to the preferences object above
-        SharedPreferences.Editor editor = preferences.edit ();
-
-        // clear whatever was set last time
-        editor.clear ();
+        super.onResume ();
+        mPerformanceMonitor.start ();
+    }
 
-        // save autoSave preference
-        editor.putBoolean (mKEY_USE_AUTO_SAVE, mPrefUseAutoSave);
+    private void savePrefAndBoardToSharedPref ()
+    {
+        savePrefsToSharedPrefIfChanged ();
+        saveGameToJournalIfAutoSaveIsOn ();
+    }
 
-        // save opponent type and start preferences
-        editor.putBoolean (mKEY_COMPUTER_OPPONENT, mPrefComputerOpponent);
-        editor.putBoolean (mKEY_COMPUTER_STARTS, mPrefComputerStarts);
+    /**
+     * Only the keys whose values changed since they were last written are saved;
+     * the board itself is no longer kept in SharedPreferences (see saveGameToJournal...)
+     */
+    private void savePrefsToSharedPrefIfChanged ()
+    {
+        boolean lastTurnResultsChanged = mPrefUseAutoSave &&
+                (mLastTurnResults != null && !mLastTurnResults.equals (mSavedLastTurnResults));
 
+        if (mPrefsChanged || lastTurnResultsChanged || hasPreJournalBoardKeys ()) {
+            // Create a SP object that (creates if needed and) uses the value of mPREFS as the file name
+            SharedPreferences preferences = getSharedPreferences (mPREFS, MODE_PRIVATE);
 
-        // if autoSave is on then save the board
-        saveBoardToSharedPrefsIfAutoSaveIsOn (editor);
+            // Create an Editor object to write changes to the preferences object above
+            SharedPreferences.Editor editor = preferences.edit ();
 
-        // apply the changes to the XML file in the device's storage
-        editor.apply ();
+            // save autoSave preference
+            editor.putBoolean (mKEY_USE_AUTO_SAVE, mPrefUseAutoSave);
 
-    }
-
-    private void saveBoardToSharedPrefsIfAutoSaveIsOn (SharedPreferences.Editor editor)
-    {
-        // (Only) if autoSave is enabled, then save the board and current player to the SP file
-        if (mPrefUseAutoSave) {
-            // save model
-            editor.putString (mKEY_GAME, mCurrentGame.getJSONFromCurrentGame ());
-
-            // save "game over" state
-            editor.putString (mKEY_GAME, mCurrentGame.getJSONFromCurrentGame ());
+            // save opponent type and start preferences
+            editor.putBoolean (mKEY_COMPUTER_OPPONENT, mPrefComputerOpponent);
+            editor.putBoolean (mKEY_COMPUTER_STARTS, mPrefComputerStarts);
 
             // save last turn information
             editor.putString (mKEY_LAST_TURN_RESULTS, mLastTurnResults);
 
-            saveAllBoardData (editor);
-        }
-    }
-
-    private void saveAllBoardData (SharedPreferences.Editor editor)
-    {
-        // save the board icon IDs to SharedPreferences
-        saveBoardIcons (editor);
+            // the journal now holds the game; drop the board as saved by earlier versions
+            removePreJournalBoardKeys (editor);
 
-        // save the board to SharedPreferences
-        saveBoard (editor);
+            // apply the changes to the XML file in the device's storage
+            editor.apply ();
 
-        // save the tints to SharedPreferences (if gameOver)
-        saveTints (editor);
+            mSavedLastTurnResults = mLastTurnResults;
+            mPrefsChanged = false;
+        }
     }
 
-    /**
-     * Stores the current IDs of the X, O and XO icons.
-     * This is needed for auto-save purposes in case the IDs change between runs
-     * such as if a new build is released
-     *
-     * @param editor The SharedPreferences Editor that saves the icons
-     */
-    private void saveBoardIcons (SharedPreferences.Editor editor)
+    private boolean hasPreJournalBoardKeys ()
     {
-        editor.putLong (mKEY_ICON_X, R.drawable.ic_x);
-        editor.putLong (mKEY_ICON_O, R.drawable.ic_o);
-        editor.putLong (mKEY_ICON_XO, R.drawable.ic_xo_light);
+        return getSharedPreferences (mPREFS, MODE_PRIVATE).contains (mKEY_GAME);
     }
 
-
-    private void saveBoard (SharedPreferences.Editor editor)
+    private void removePreJournalBoardKeys (SharedPreferences.Editor editor)
     {
-        String currentKeyName;// save board one square at a time
-        for (int i = 0; i < mAdapter.getItemCount (); i++) {
-            currentKeyName = mKEY_BOARD + i;
-            editor.putLong (currentKeyName, mAdapter.getItemId (i));
+        editor.remove (mKEY_GAME);
+        editor.remove (mKEY_ICON_X);
+        editor.remove (mKEY_ICON_O);
+        editor.remove (mKEY_ICON_XO);
+
+        // earlier versions only ever saved 3x3 boards
+        final int preJournalSpaces = 9;
+        for (int i = 0; i < preJournalSpaces; i++) {
+            editor.remove (mKEY_BOARD + i);
+            editor.remove (mKEY_TINTS + i);
         }
     }
 
-    private void saveTints (SharedPreferences.Editor editor)
+    /**
+     * (Only) if autoSave is enabled, then append this session's moves to the game journal;
+     * otherwise any previously saved game is removed
+     */
+    private void saveGameToJournalIfAutoSaveIsOn ()
     {
-
-        // There are no tints unless the game has ended
-        if (mCurrentGame.isGameOver ()) {
-            int[] currentTint = mAdapter.getAllImageTints ();
-            for (int i = 0; i < currentTint.length; i++) {
-                editor.putLong (mKEY_TINTS + i, currentTint[i]);
-            }
+        if (mPrefUseAutoSave) {
+            // only queues the write; encoding and I/O happen on the persistence writer thread
+            mJournal.flush (mCurrentGame);
+        }
+        else {
+            mJournal.clear ();
         }
     }
 
@@ -662,6 +838,8 @@ public class MainActivity extends AppCompatActivity
         menu.findItem (R.id.action_autoSave).setChecked (mPrefUseAutoSave);
         menu.findItem (R.id.action_computerOpponent).setChecked (mPrefComputerOpponent);
         menu.findItem (R.id.action_computerStarts).setChecked (mPrefComputerStarts);
+        menu.findItem (R.id.action_performanceOverlay)
+                .setChecked (mPerformanceMonitor.isOverlayVisible ());
         return super.onPrepareOptionsMenu (menu);
     }
 
@@ -675,7 +853,7 @@ public class MainActivity extends AppCompatActivity
 
     private int getAdapterPositionFromRowCol(int currentRow, int currentColumn)
     {
-        return currentRow * (int)Math.sqrt(mAdapter.getItemCount()) + currentColumn;
+        return currentRow * getBoardRowsOrColumns () + currentColumn;
     }
 
     @Override
@@ -699,17 +877,20 @@ public class MainActivity extends AppCompatActivity
         else if (itemId == R.id.action_autoSave) {
             toggleItemCheck (item);
             mPrefUseAutoSave = item.isChecked ();
+            mPrefsChanged = true;
             return true;
         }
         else if (itemId == R.id.action_computerOpponent) {
             toggleItemCheck (item);
             mPrefComputerOpponent = item.isChecked ();
+            mPrefsChanged = true;
             doComputerTurnCycleIfCheckedAndNotGameOverAndIsComputerTurn ();
             return true;
         }
         else if (itemId == R.id.action_computerStarts) {
             toggleItemCheck (item);
             mPrefComputerStarts = item.isChecked ();
+            mPrefsChanged = true;
             doComputerTurnCycleIfCheckedAndNotGameOverAndIsComputerTurn ();
             return true;
         }
@@ -717,8 +898,29 @@ public class MainActivity extends AppCompatActivity
             showStatistics ();
             return true;
         }
+        else if (itemId == R.id.action_performanceOverlay) {
+            mPerformanceMonitor.setOverlayVisible (!mPerformanceMonitor.isOverlayVisible ());
+            return true;
+        }
+        else if (itemId == R.id.action_exportPerformance) {
+            File exported = mPerformanceMonitor.exportReport ();
+            Snackbar.make (mSbParentView, getString (R.string.info_performance_exported,
+                                                     exported.getPath ()),
+                           Snackbar.LENGTH_LONG).show ();
+            return true;
+        }
+        else if (itemId == R.id.action_boardSize) {
+            showBoardSizeChoices ();
+            return true;
+        }
+        else if (itemId == R.id.action_explorer) {
+            showOpeningExplorer ();
+            return true;
+        }
         else if (itemId == R.id.action_reset_stats) {
             mCurrentGame.resetStatistics ();
+            mJournal.recordResetStatistics ();
+            mStatisticsStore.resetStatistics ();
             return true;
         }
         else if (itemId == R.id.action_about) {
@@ -734,16 +936,136 @@ public class MainActivity extends AppCompatActivity
     {
         dismissSnackBarIfShown ();
         Intent intent = new Intent (getApplicationContext (), StatisticsActivity.class);
-        intent.putExtra ("GAME", mCurrentGame.getJSONFromCurrentGame ());
+
+        // only the counters the statistics screen displays, not the whole game
+        intent.putExtra (StatisticsActivity.EXTRA_GAMES_PLAYED,
+                         mCurrentGame.getNumberOfGamesPlayed ());
+        intent.putExtra (StatisticsActivity.EXTRA_X_WINS,
+                         mCurrentGame.getNumberOfWinsForPlayer (PlayerTurn.X));
+        intent.putExtra (StatisticsActivity.EXTRA_O_WINS,
+                         mCurrentGame.getNumberOfWinsForPlayer (PlayerTurn.O));
+        intent.putExtra (StatisticsActivity.EXTRA_BOARD_SIZE,
+                         mCurrentGame.getTotalRowsOrColumns ());
         startActivity (intent);
     }
 
+    /**
+     * Shows, for each space the current player could take, how the stored games that reached
+     * the resulting position (or any rotation/reflection of it) ended
+     */
+    private void showOpeningExplorer ()
+    {
+        dismissSnackBarIfShown ();
+        if (!mOpeningIndex.isReady ()) {
+            Toast.makeText (getApplicationContext (),
+                            R.string.info_explorer_not_ready, Toast.LENGTH_SHORT).show ();
+            return;
+        }
+
+        int rowsOrColumns = mCurrentGame.getTotalRowsOrColumns ();
+        PositionHasher hasher = PositionHasher.forBoardSize (rowsOrColumns);
+        long[] symmetricHashes = hasher.newSymmetricHashes ();
+
+        for (int row = 0; row < rowsOrColumns; row++) {
+            for (int col = 0; col < rowsOrColumns; col++) {
+                PlayerTurn player = mCurrentGame.getPlayerAtPosition (row, col);
+                if (player != PlayerTurn.None) {
+                    hasher.play (symmetricHashes, row * rowsOrColumns + col,
+                                 player == PlayerTurn.X ? PositionHasher.PLAYER_X
+                                                        : PositionHasher.PLAYER_O);
+                }
+            }
+        }
+
+        int playerToMove = mCurrentGame.getCurrentPlayer () == PlayerTurn.X
+                           ? PositionHasher.PLAYER_X : PositionHasher.PLAYER_O;
+        int[] counts = new int[OpeningIndex.COUNTS_PER_POSITION];
+        StringBuilder sbText = new StringBuilder ();
+
+        if (!mCurrentGame.isGameOver ()) {
+            for (int row = 0; row < rowsOrColumns; row++) {
+                for (int col = 0; col < rowsOrColumns; col++) {
+                    if (mCurrentGame.getPlayerAtPosition (row, col) == PlayerTurn.None
+                            && mOpeningIndex.getCounts (hasher.getCanonicalHashAfter (
+                            symmetricHashes, row * rowsOrColumns + col, playerToMove), counts)) {
+                        sbText.append (getString (
+                                R.string.explorer_candidate_move, row, col,
+                                counts[OpeningIndex.GAMES],
+                                getPercentOf (counts[OpeningIndex.X_WINS], counts[OpeningIndex.GAMES]),
+                                getPercentOf (counts[OpeningIndex.O_WINS], counts[OpeningIndex.GAMES]),
+                                getPercentOf (counts[OpeningIndex.DRAWS], counts[OpeningIndex.GAMES])))
+                              .append ('\n');
+                    }
+                }
+            }
+        }
+
+        showTTTDialog (getString (R.string.explorer_title),
+                       sbText.length () > 0 ? sbText.toString ()
+                                            : getString (R.string.explorer_no_games));
+    }
+
+    private static String getPercentOf (int count, int total)
+    {
+        return String.format (Locale.US, "%.0f%%", count * 100.0 / total);
+    }
+
+    private boolean isViewportBoardSize (int rowsOrColumns)
+    {
+        return rowsOrColumns >=
+                getResources ().getInteger (R.integer.viewport_board_min_rows_or_columns);
+    }
+
+    private int getBoardRowsOrColumns ()
+    {
+        return (int) Math.sqrt (mBoard.getItemCount ());
+    }
+
+    private void showBoardSizeChoices ()
+    {
+        dismissSnackBarIfShown ();
+
+        final int[] sizes = getResources ().getIntArray (R.array.board_sizes);
+        String[] choices = new String[sizes.length];
+        int checkedItem = -1;
+        for (int i = 0; i < sizes.length; i++) {
+            choices[i] = getString (R.string.board_size_choice, sizes[i]);
+            if (sizes[i] == mCurrentGame.getTotalRowsOrColumns ()) {
+                checkedItem = i;
+            }
+        }
+
+        new AlertDialog.Builder (MainActivity.this)
+                .setTitle (R.string.action_boardSize)
+                .setSingleChoiceItems (choices, checkedItem, (dialog, which) -> {
+                    dialog.dismiss ();
+                    if (sizes[which] != mCurrentGame.getTotalRowsOrColumns ()) {
+                        startNewGameOnBoardSize (sizes[which]);
+                    }
+                })
+                .show ();
+    }
+
+    /**
+     * Abandons the current game and starts one on a board of another size;
+     * the games-played and win totals carry over
+     */
+    private void startNewGameOnBoardSize (int rowsOrColumns)
+    {
+        mCurrentGame = new TicTacToe (rowsOrColumns, mCurrentGame);
+        mJournal.recordNewBoard ();
+        setupBoard (rowsOrColumns);
+        prepareForNewGame ();
+        startNewOrResumeGameState ();
+    }
+
     private void startNewGame ()
     {
         // start animation
         mSwipeRefreshLayout.setRefreshing (true);
         prepareForNewGame ();
         mCurrentGame.startGame ();
+        mJournal.recordNewGame ();
         startNewOrResumeGameState ();
     }
 
@@ -805,6 +1127,8 @@ public class MainActivity extends AppCompatActivity
     {
         public void onItemClick (int position, View view)
         {
+            long tapNanos = System.nanoTime ();
+
             // if the game is already over then there is nothing more to do here
             if (mCurrentGame.isGameOver ()) {
                 showGameOverSB (true);
@@ -812,6 +1136,7 @@ public class MainActivity extends AppCompatActivity
             // If the current space is empty and, therefore available and thus a valid space
             else if (isSpaceEmpty (position)) {
                 processClickOnValidSpace (position);
+                mPerformanceMonitor.recordTapToFrame (tapNanos);
             }
             else {
                 showInvalidSpaceSB ();
@@ -821,7 +1146,7 @@ public class MainActivity extends AppCompatActivity
 
     private boolean isSpaceEmpty (int position)
     {
-        return mAdapter.getItemId (position) == mEMPTY_SPACE;
+        return mBoard.getItemId (position) == mEMPTY_SPACE;
     }
 
     private void processClickOnValidSpace (int position)
@@ -843,6 +1168,9 @@ public class MainActivity extends AppCompatActivity
 
     private void doHumanTurnCycle (int position)
     {
+        long startNanos = System.nanoTime ();
+        mThinkMillis += SystemClock.elapsedRealtime () - mTurnStartMillis;
+
         // process this turn/move
         doPlayerTurn (position);
 
@@ -850,6 +1178,7 @@ public class MainActivity extends AppCompatActivity
 
         // check for win and/or full board
         doPostPlayerTurn ();
+        PerformanceMetrics.HUMAN_TURN.recordSince (startNanos);
     }
 
     /**
@@ -860,16 +1189,25 @@ public class MainActivity extends AppCompatActivity
      */
     private void doPlayerTurn (final int position)
     {
-        int rvColumnCount = (int) Math.sqrt (mAdapter.getItemCount ());
+        int rvColumnCount = getBoardRowsOrColumns ();
         int row = position / rvColumnCount;
         int col = position % rvColumnCount;
 
         // update the model
+        long modelStartNanos = System.nanoTime ();
         mCurrentGame.attemptTurn (row, col);
+        PerformanceMetrics.MODEL_UPDATE.recordSince (modelStartNanos);
+        mJournal.recordMove (row, col);
+        if (mCurrentGame.isGameOver ()) {
+            recordFinishedGame ();
+        }
 
         // change the icon at that position from empty to either X or O as appropriate
         // icon must be for prior player because model already moved on to next player
-        mAdapter.setImage (position, getIconForPriorPlayer ());
+        mBoard.setImage (position, getIconForPriorPlayer ());
+
+        // the next player starts thinking now
+        mTurnStartMillis = SystemClock.elapsedRealtime ();
     }
 
 
@@ -882,6 +1220,12 @@ public class MainActivity extends AppCompatActivity
         return currentPlayer == PlayerTurn.X ? R.drawable.ic_x : R.drawable.ic_o;
     }
 
+    private int getIconForPlayer (PlayerTurn player)
+    {
+        return player == PlayerTurn.X ? R.drawable.ic_x :
+               player == PlayerTurn.O ? R.drawable.ic_o : mEMPTY_SPACE;
+    }
+
 
     private void showTurnStatus (final int position)
     {
@@ -892,7 +1236,7 @@ public class MainActivity extends AppCompatActivity
     @NonNull
     private String getOneBasedRowAndColumnAt (int position)
     {
-        int totalSpaces = mAdapter.getItemCount ();
+        int totalSpaces = mBoard.getItemCount ();
         int rowsAndColumns = (int) Math.sqrt (totalSpaces);
 
         int row = position / rowsAndColumns;
@@ -928,9 +1272,10 @@ public class MainActivity extends AppCompatActivity
     {
         dismissSnackBarIfShown();
         if (mCurrentGame.isCanUndo () && !mPrefComputerOpponent) {
-            mAdapter.setImage (position, R.drawable.ic_xo_light);
+            mBoard.setImage (position, R.drawable.ic_xo_light);
             mCurrentGame.undoLastTurn ();
-            mAdapter.clearAllImageTints();
+            mJournal.recordUndo ();
+            mBoard.clearAllImageTints();
             updateUIWithCurrentPlayer ();
         }
         else {
@@ -950,6 +1295,15 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
+    private void recordFinishedGame ()
+    {
+        mHistory.append (GameRecord.fromFinishedGame (
+                mCurrentGame, mGameStartMillis, System.currentTimeMillis (), mThinkMillis,
+                mPrefComputerOpponent ? OpponentType.COMPUTER : OpponentType.HUMAN,
+                !(mPrefComputerOpponent && mPrefComputerStarts)));
+        EngineMetrics.recordGameAllocations (mAllocationMark);
+    }
+
     private void doGameOverTasks ()
     {
         generateGameResultsMessage ();
@@ -984,18 +1338,24 @@ public class MainActivity extends AppCompatActivity
         if (mCurrentGame.isWinner ()) {
 
             boolean[][] winningSpaces = mCurrentGame.getWinningSpaces ();
+            int[] winningPositions = new int[winningSpaces.length * winningSpaces.length];
+            int winningCount = 0;
 
             int idx = 0;
             for (boolean[] arrWinningSpace : winningSpaces) {
                 for (boolean isWinningSpace : arrWinningSpace) {
                     if (isWinningSpace) {
-                        mAdapter.setImageTint (idx, R.color.color_yes);
+                        winningPositions[winningCount++] = idx;
                     }
 
                     idx++;
                 }
 
             }
+
+            // one batched update that rebinds (the tint of) only the winning line
+            mBoard.setAllImagesTint (Arrays.copyOf (winningPositions, winningCount),
+                                       R.color.color_yes);
         }
     }
 
@@ -1013,42 +1373,29 @@ public class MainActivity extends AppCompatActivity
                        Snackbar.LENGTH_SHORT).show ();
     }
 
-    private int[] getAvailableSpaces ()
-    {
-        ArrayList<Integer> availableSpacesList = new ArrayList<> ();
-        int[] availableSpacesArray;
-
-        for (int i = 0; i < mAdapter.getItemCount (); i++) {
-            if (isSpaceEmpty (i)) {
-                availableSpacesList.add (i);
-            }
-        }
-
-        availableSpacesArray = new int[availableSpacesList.size ()];
-        for (int i = 0; i < availableSpacesArray.length; i++) {
-            availableSpacesArray[i] = availableSpacesList.get (i);
-        }
-
-        return availableSpacesArray;
-    }
-
     private void doComputerTurnCycle ()
     {
+        long startNanos = System.nanoTime ();
         int computerPosition = doComputerTurn ();
         showTurnStatus (computerPosition);
         doPostPlayerTurn ();
+        PerformanceMetrics.COMPUTER_TURN.recordSince (startNanos);
     }
 
     private int doComputerTurn ()
     {
-        Random generator = new Random ();
-        int[] spaces = getAvailableSpaces ();
-        int length = spaces.length;
-        int element = generator.nextInt (length);
-        int position = spaces[element];
+        Tracer.begin ("MainActivity.doComputerTurn");
+        try {
+            Random generator = new Random ();
+            int position = mComputerStrategy.chooseMove (
+                    mCurrentGame, generator, System.nanoTime () + mCOMPUTER_TURN_NANOS);
 
-        doPlayerTurn (position);
-        return position;
+            doPlayerTurn (position);
+            return position;
+        }
+        finally {
+            Tracer.end ();
+        }
     }
 
     /**
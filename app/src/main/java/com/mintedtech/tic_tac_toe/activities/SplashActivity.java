@@ -3,15 +3,34 @@ package com.mintedtech.tic_tac_toe.activities;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ProgressBar;
 
 import com.mintedtech.tic_tac_toe.R;
+import com.mintedtech.tic_tac_toe.classes.StartupWarmer;
+import com.mintedtech.tic_tac_toe.interfaces.OnWarmUpProgressListener;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
 import androidx.preference.PreferenceManager;
 
-public class SplashActivity extends AppCompatActivity
+/**
+ * Shows the splash screen while StartupWarmer warms up, in the background, what the first game
+ * needs, then starts MainActivity - when the warm-up is done, or after WARM_UP_TIMEOUT_MILLIS
+ * at most, as MainActivity loads anything still cold itself
+ */
+public class SplashActivity extends AppCompatActivity implements OnWarmUpProgressListener
 {
+    private static final long WARM_UP_TIMEOUT_MILLIS = 2000;
+
+    private final Handler mHandler = new Handler (Looper.getMainLooper ());
+    private final Runnable mStartMainActivity = this::startMainActivity;
+
+    private StartupWarmer mWarmer;
+    private ProgressBar mProgressBar;
+    private boolean mMainActivityStarted;
+
     @Override
     protected void onCreate (Bundle savedInstanceState)
     {
@@ -21,7 +40,44 @@ public class SplashActivity extends AppCompatActivity
         AppCompatDelegate.setDefaultNightMode (Build.VERSION.SDK_INT < 28
                                                ? AppCompatDelegate.MODE_NIGHT_AUTO_BATTERY
                                                : AppCompatDelegate.MODE_NIGHT_FOLLOW_SYSTEM);
-        startActivity (new Intent (getApplicationContext (), MainActivity.class));
+
+        setContentView (R.layout.activity_splash);
+        mProgressBar = findViewById (R.id.progress_warm_up);
+        mProgressBar.setMax (StartupWarmer.TOTAL_STEPS);
+
+        mWarmer = StartupWarmer.getInstance (this);
+        mWarmer.start ();
+        mWarmer.setOnProgressListener (this);
+        mHandler.postDelayed (mStartMainActivity, WARM_UP_TIMEOUT_MILLIS);
+    }
+
+    @Override
+    public void onWarmUpProgress (int stepsDone, int totalSteps)
+    {
+        mProgressBar.setProgress (stepsDone);
+        if (stepsDone == totalSteps) {
+            startMainActivity ();
+        }
+    }
+
+    private void startMainActivity ()
+    {
+        if (mMainActivityStarted) {
+            return;
+        }
+        mMainActivityStarted = true;
+        mHandler.removeCallbacks (mStartMainActivity);
+
+        startActivity (new Intent (getApplicationContext (), MainActivity.class)
+                               .putExtra (MainActivity.EXTRA_WARMED_UP, true));
         finish ();
     }
+
+    @Override
+    protected void onDestroy ()
+    {
+        mHandler.removeCallbacks (mStartMainActivity);
+        mWarmer.setOnProgressListener (null);
+        super.onDestroy ();
+    }
 }
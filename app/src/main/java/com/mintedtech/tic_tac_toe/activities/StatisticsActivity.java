@@ -7,8 +7,10 @@ import android.widget.TextView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.mintedtech.tic_tac_toe.R;
-import com.mintedtech.tic_tac_toe.enums.PlayerTurn;
-import com.mintedtech.tic_tac_toe.models.TicTacToe;
+import com.mintedtech.tic_tac_toe.enums.GameOutcome;
+import com.mintedtech.tic_tac_toe.enums.OpponentType;
+import com.mintedtech.tic_tac_toe.models.GameStatistics;
+import com.mintedtech.tic_tac_toe.persistence.StatisticsStore;
 
 import java.util.Locale;
 
@@ -18,11 +20,21 @@ import androidx.appcompat.widget.Toolbar;
 
 public class StatisticsActivity extends AppCompatActivity {
 
+    // Intent extras sent by MainActivity
+    public static final String EXTRA_GAMES_PLAYED = "GAMES_PLAYED";
+    public static final String EXTRA_X_WINS = "X_WINS";
+    public static final String EXTRA_O_WINS = "O_WINS";
+    public static final String EXTRA_BOARD_SIZE = "BOARD_SIZE";
+
     private TextView tvDataGamesPlayed,
             tvDataPlayer1Wins, tvDataPlayer1WinsPercent,
-            tvDataPlayer2Wins, tvDataPlayer2WinsPercent;
+            tvDataPlayer2Wins, tvDataPlayer2WinsPercent,
+            tvDataBreakdowns;
+
+    private int mNumberOfGamesPlayed, mP1Wins, mP2Wins, mBoardSize;
 
-    private TicTacToe mCurrentGame;
+    // Aggregates over the whole game history, maintained as games end (see StatisticsStore)
+    private GameStatistics mStatistics;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -33,6 +45,7 @@ public class StatisticsActivity extends AppCompatActivity {
         setupViews();
         getIncomingData();
         processAndOutputIncomingData();
+        loadBreakdowns();
     }
 
     private void setupToolbar() {
@@ -53,19 +66,22 @@ public class StatisticsActivity extends AppCompatActivity {
         tvDataPlayer1WinsPercent = findViewById(R.id.tv_data_player1_win_percent);
         tvDataPlayer2Wins = findViewById(R.id.tv_data_player2_wins);
         tvDataPlayer2WinsPercent = findViewById(R.id.tv_data_player2_win_percent);
+        tvDataBreakdowns = findViewById(R.id.tv_data_breakdowns);
     }
 
     private void getIncomingData() {
         Intent intent = getIntent();
-        String gameJSON = intent.getStringExtra("GAME");
-        mCurrentGame = TicTacToe.getGameFromJSON(gameJSON);
+        mNumberOfGamesPlayed = intent.getIntExtra(EXTRA_GAMES_PLAYED, 0);
+        mP1Wins = intent.getIntExtra(EXTRA_X_WINS, 0);
+        mP2Wins = intent.getIntExtra(EXTRA_O_WINS, 0);
+        mBoardSize = intent.getIntExtra(EXTRA_BOARD_SIZE, 3);
     }
 
     private void processAndOutputIncomingData() {
         final String FORMAT_STRING = "%2.1f%%", N_A = "N/A";
-        int numberOfGamesPlayed = mCurrentGame.getNumberOfGamesPlayed();
-        int p1Wins = mCurrentGame.getNumberOfWinsForPlayer(PlayerTurn.X);
-        int p2Wins = mCurrentGame.getNumberOfWinsForPlayer(PlayerTurn.O);
+        int numberOfGamesPlayed = mNumberOfGamesPlayed;
+        int p1Wins = mP1Wins;
+        int p2Wins = mP2Wins;
         String p1WinPct = numberOfGamesPlayed  == 0 ? N_A :
                 String.format(Locale.US, FORMAT_STRING, (p1Wins/(double)numberOfGamesPlayed)*100);
         String p2WinPct = numberOfGamesPlayed == 0 ? N_A :
@@ -77,6 +93,99 @@ public class StatisticsActivity extends AppCompatActivity {
         tvDataPlayer2WinsPercent.setText(p2WinPct);
     }
 
+    /**
+     * Gets the aggregates off the main thread: normally MainActivity has loaded them already and
+     * this is just a copy, but if not, the snapshot is read and the history scanned first
+     */
+    private void loadBreakdowns() {
+        tvDataBreakdowns.setText(R.string.stats_loading);
+        StatisticsStore store = StatisticsStore.getInstance(getFilesDir());
+        store.loadStatistics(statistics -> runOnUiThread(() -> {
+            if (!isDestroyed()) {
+                mStatistics = statistics;
+                outputBreakdowns();
+            }
+        }));
+    }
+
+    /**
+     * Every line comes straight from the precomputed aggregates; nothing here depends on how
+     * many games have been played.
+     */
+    private void outputBreakdowns() {
+        if (mStatistics == null || mStatistics.getGamesCounted() == 0) {
+            tvDataBreakdowns.setText(R.string.stats_no_history);
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        appendWinsDrawsLosses(text, R.string.stats_vs_computer_you_first, true);
+        appendWinsDrawsLosses(text, R.string.stats_vs_computer_computer_first, false);
+        appendLine(text, getString(R.string.stats_two_players,
+                mStatistics.getOutcomeCount(OpponentType.HUMAN, true, GameOutcome.X_WON),
+                mStatistics.getOutcomeCount(OpponentType.HUMAN, true, GameOutcome.O_WON),
+                mStatistics.getOutcomeCount(OpponentType.HUMAN, true, GameOutcome.DRAW)));
+
+        text.append('\n');
+        appendLine(text, getString(R.string.stats_openings_heading));
+        for (int space = 0; space < mBoardSize * mBoardSize; space++) {
+            long games = mStatistics.getOpeningGameCount(mBoardSize, space);
+            if (games > 0) {
+                long xWins = mStatistics.getOpeningOutcomeCount(mBoardSize, space, GameOutcome.X_WON);
+                appendLine(text, getString(R.string.stats_opening,
+                        space / mBoardSize, space % mBoardSize,
+                        String.format(Locale.US, "%2.1f%%", xWins * 100.0 / games), games));
+            }
+        }
+
+        text.append('\n');
+        appendLine(text, getString(R.string.stats_current_streak,
+                mStatistics.getCurrentStreakLength(),
+                getOutcomeName(mStatistics.getCurrentStreakOutcome())));
+        appendLine(text, getString(R.string.stats_longest_streaks,
+                mStatistics.getLongestStreak(GameOutcome.X_WON),
+                mStatistics.getLongestStreak(GameOutcome.O_WON),
+                mStatistics.getLongestStreak(GameOutcome.DRAW)));
+        appendLine(text, getString(R.string.stats_win_streak_vs_computer,
+                mStatistics.getCurrentHumanWinStreak(),
+                mStatistics.getLongestHumanWinStreak()));
+
+        text.append('\n');
+        appendLine(text, getString(R.string.stats_lengths_heading));
+        for (int moves = 0; moves <= GameStatistics.MAX_TRACKED_GAME_LENGTH; moves++) {
+            long games = mStatistics.getGameLengthCount(moves);
+            if (games > 0) {
+                appendLine(text, getString(moves == GameStatistics.MAX_TRACKED_GAME_LENGTH
+                        ? R.string.stats_length_or_more : R.string.stats_length, moves, games));
+            }
+        }
+
+        text.append('\n');
+        text.append(getString(R.string.stats_average_times,
+                mStatistics.getAverageDurationMillis() / 1000.0,
+                mStatistics.getAverageThinkMillis() / 1000.0));
+
+        tvDataBreakdowns.setText(text);
+    }
+
+    private void appendWinsDrawsLosses(StringBuilder text, int formatId, boolean humanMovedFirst) {
+        GameOutcome humanWin = humanMovedFirst ? GameOutcome.X_WON : GameOutcome.O_WON;
+        GameOutcome humanLoss = humanMovedFirst ? GameOutcome.O_WON : GameOutcome.X_WON;
+        appendLine(text, getString(formatId,
+                mStatistics.getOutcomeCount(OpponentType.COMPUTER, humanMovedFirst, humanWin),
+                mStatistics.getOutcomeCount(OpponentType.COMPUTER, humanMovedFirst, GameOutcome.DRAW),
+                mStatistics.getOutcomeCount(OpponentType.COMPUTER, humanMovedFirst, humanLoss)));
+    }
+
+    private static void appendLine(StringBuilder text, String line) {
+        text.append(line).append('\n');
+    }
+
+    private String getOutcomeName(GameOutcome outcome) {
+        return getString(outcome == GameOutcome.X_WON ? R.string.stats_x_won :
+                outcome == GameOutcome.O_WON ? R.string.stats_o_won : R.string.stats_draw);
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
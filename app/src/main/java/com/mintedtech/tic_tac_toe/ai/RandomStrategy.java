@@ -0,0 +1,37 @@
+package com.mintedtech.tic_tac_toe.ai;
+
+import com.mintedtech.tic_tac_toe.interfaces.ComputerStrategy;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.util.Random;
+
+/**
+ * Picks uniformly among the empty spaces: on a big, mostly empty board one of a few random
+ * probes nearly always finds one, so the empty spaces are only counted when they all miss.
+ * The cheapest strategy there is, and the computer opponent's original one.
+ */
+public class RandomStrategy implements ComputerStrategy
+{
+    private static final int MAX_PROBES = 8;
+
+    @Override
+    public int chooseMove (TicTacToe game, Random random, long deadlineNanos)
+    {
+        int rowsOrColumns = game.getTotalRowsOrColumns ();
+        int spaces = rowsOrColumns * rowsOrColumns;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int space = random.nextInt (spaces);
+            if (game.isValidClick (space / rowsOrColumns, space % rowsOrColumns)) {
+                return space;
+            }
+        }
+
+        int pick = random.nextInt (spaces - game.getMoveCount ());
+        for (int space = 0; ; space++) {
+            if (game.isValidClick (space / rowsOrColumns, space % rowsOrColumns)
+                    && pick-- == 0) {
+                return space;
+            }
+        }
+    }
+}
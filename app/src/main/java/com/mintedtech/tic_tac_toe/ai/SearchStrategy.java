@@ -0,0 +1,396 @@
+package com.mintedtech.tic_tac_toe.ai;
+
+import com.mintedtech.tic_tac_toe.analysis.PositionHasher;
+import com.mintedtech.tic_tac_toe.collections.LongHashTable;
+import com.mintedtech.tic_tac_toe.enums.PlayerTurn;
+import com.mintedtech.tic_tac_toe.interfaces.ComputerStrategy;
+import com.mintedtech.tic_tac_toe.metrics.EngineMetrics;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Looks ahead: negamax with alpha-beta pruning, deepened one ply at a time (each iteration a
+ * trace span) until maxDepth or the deadline, whichever comes first. The answer is the best
+ * move of the last iteration that finished, so a deadline costs depth, never a move.
+ * <p/>
+ * The search plays on its own copy of the board: per line (every row, column and the two
+ * diagonals) how many pieces each player has, so a move, its win check and its undo are a few
+ * array updates, and a position is scored by its open lines - a line only one player is in is
+ * worth the square of their pieces in it to them. Positions already searched are kept in a
+ * transposition table under their canonical hash (see PositionHasher), so transpositions and
+ * mirror images are searched once.
+ * <p/>
+ * The root tries every empty space; deeper plies only the MAX_BRANCHING spaces on the most
+ * live lines, picked from near the front of the root's order, which keeps a node's cost the
+ * same on any board size. On 3 x 3, depth 9 is perfect play.
+ */
+public class SearchStrategy implements ComputerStrategy
+{
+    private static final int MAX_BRANCHING = 12;
+
+    // scores are for the player to move; a win sooner scores higher than a win later, and
+    // anything beyond FORCED is a win or loss the search has seen through to the end
+    private static final int WIN = 1 << 20, INFINITY = WIN + 1, FORCED = WIN - 64;
+
+    private static final int DEADLINE_CHECK_NODES = 256;
+
+    // transposition table entries: score (22 bits), depth (6), bound (2)
+    private static final int NO_ENTRY = -1;
+    private static final int EXACT = 0, LOWER_BOUND = 1, UPPER_BOUND = 2;
+
+    private final int mMaxDepth;
+
+    /**
+     * @param maxDepth how many plies to look ahead at most (at most 63)
+     */
+    public SearchStrategy (int maxDepth)
+    {
+        mMaxDepth = Math.min (maxDepth, 63);
+    }
+
+    public int getMaxDepth ()
+    {
+        return mMaxDepth;
+    }
+
+    @Override
+    public int chooseMove (TicTacToe game, Random random, long deadlineNanos)
+    {
+        Search search = new Search (game, deadlineNanos);
+        try {
+            return search.run (mMaxDepth, random);
+        }
+        finally {
+            // once per search, not per node: the counters are shared by every thread
+            EngineMetrics.SEARCH_NODES.add (search.mNodes);
+            EngineMetrics.TT_PROBES.add (search.mProbes);
+            EngineMetrics.TT_HITS.add (search.mHits);
+        }
+    }
+
+    /**
+     * Thrown (preallocated, without a stack trace) to abandon an iteration at the deadline
+     */
+    private static final class DeadlinePassed extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        static final DeadlinePassed INSTANCE = new DeadlinePassed ();
+
+        private DeadlinePassed ()
+        {
+            super ("Search deadline passed", null, false, false);
+        }
+    }
+
+    /**
+     * One search: the board, the table and the statistics; one thread
+     */
+    private static final class Search
+    {
+        private final int mRowsOrColumns, mSpaces;
+        private final long mDeadlineNanos;
+
+        // 0 empty, else 1 + the player (PositionHasher.PLAYER_X or _O)
+        private final byte[] mBoard;
+        private int mMoveCount, mPlayer;
+
+        // [player][line]: pieces per row, column and diagonal (0: top left to bottom right)
+        private final int[][] mRows, mColumns, mDiagonals;
+
+        private final PositionHasher mHasher;
+        private final long[] mHashes;
+        private final LongHashTable mTable = new LongHashTable (256);
+
+        // the empty spaces at the root, heaviest first; deeper plies choose from its front
+        private int[] mRootOrder;
+
+        // [ply]: the spaces to try there, and their weights
+        private final int[][] mCandidates, mWeights;
+
+        private long mNodes, mProbes, mHits;
+
+        Search (TicTacToe game, long deadlineNanos)
+        {
+            mRowsOrColumns = game.getTotalRowsOrColumns ();
+            mSpaces = mRowsOrColumns * mRowsOrColumns;
+            mDeadlineNanos = deadlineNanos;
+            mBoard = new byte[mSpaces];
+            mRows = new int[2][mRowsOrColumns];
+            mColumns = new int[2][mRowsOrColumns];
+            mDiagonals = new int[2][2];
+            mHasher = PositionHasher.forBoardSize (mRowsOrColumns);
+            mHashes = mHasher.newSymmetricHashes ();
+            mCandidates = new int[64][];
+            mWeights = new int[64][];
+
+            // X always moves first
+            for (int i = 0; i < game.getMoveCount (); i++) {
+                mPlayer = i % 2 == 0 ? PositionHasher.PLAYER_X : PositionHasher.PLAYER_O;
+                play (game.getMoveAt (i));
+            }
+            mPlayer = game.getCurrentPlayer () == PlayerTurn.O ? PositionHasher.PLAYER_O
+                                                               : PositionHasher.PLAYER_X;
+        }
+
+        int run (int maxDepth, Random random)
+        {
+            int[] root = orderedSpaces (random);
+            mRootOrder = root.clone ();
+            int best = root[0];
+            int depthLimit = Math.min (maxDepth, mSpaces - mMoveCount);
+            for (int depth = 1; depth <= depthLimit; depth++) {
+                Tracer.begin ("SearchStrategy.iteration");
+                try {
+                    int alpha = -INFINITY, bestIndex = 0;
+                    for (int i = 0; i < root.length; i++) {
+                        int score = playAndScore (root[i], depth, alpha, INFINITY, 0);
+                        if (score > alpha) {
+                            alpha = score;
+                            bestIndex = i;
+                        }
+                    }
+
+                    // the next iteration tries this move first, which prunes the most
+                    best = root[bestIndex];
+                    System.arraycopy (root, 0, root, 1, bestIndex);
+                    root[0] = best;
+                    if (Math.abs (alpha) >= FORCED) {
+                        break;      // a forced win or loss: looking deeper changes nothing
+                    }
+                }
+                catch (DeadlinePassed e) {
+                    break;
+                }
+                finally {
+                    Tracer.end ();
+                }
+            }
+            return best;
+        }
+
+        private int negamax (int depth, int alpha, int beta, int ply)
+        {
+            if ((++mNodes & (DEADLINE_CHECK_NODES - 1)) == 0
+                    && System.nanoTime () - mDeadlineNanos > 0) {
+                throw DeadlinePassed.INSTANCE;
+            }
+            if (mMoveCount == mSpaces) {
+                return 0;
+            }
+            if (depth == 0) {
+                return evaluate ();
+            }
+
+            long key = mHasher.getCanonicalHash (mHashes);
+            mProbes++;
+            int entry = mTable.get (key, NO_ENTRY);
+            if (entry != NO_ENTRY) {
+                mHits++;
+                if ((entry >>> 22 & 0x3F) >= depth) {
+                    int score = entry << 10 >> 10, bound = entry >>> 28;
+                    if (bound == EXACT) {
+                        return score;
+                    }
+                    if (bound == LOWER_BOUND) {
+                        alpha = Math.max (alpha, score);
+                    }
+                    else {
+                        beta = Math.min (beta, score);
+                    }
+                    if (alpha >= beta) {
+                        return score;
+                    }
+                }
+            }
+
+            int originalAlpha = alpha, best = -INFINITY;
+            int[] candidates = candidates (ply);
+            for (int space : candidates) {
+                if (space < 0) {
+                    break;
+                }
+                int score = playAndScore (space, depth, alpha, beta, ply);
+                if (score > best) {
+                    best = score;
+                    if (score > alpha) {
+                        alpha = score;
+                        if (alpha >= beta) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            int bound = best <= originalAlpha ? UPPER_BOUND
+                                              : best >= beta ? LOWER_BOUND : EXACT;
+            mTable.put (key, (best & 0x3FFFFF) | depth << 22 | bound << 28);
+            return best;
+        }
+
+        /**
+         * @return the score of playing space, for the player to move now
+         */
+        private int playAndScore (int space, int depth, int alpha, int beta, int ply)
+        {
+            boolean won = play (space);
+            mPlayer ^= 1;
+            try {
+                return won ? WIN - ply - 1 : -negamax (depth - 1, -beta, -alpha, ply + 1);
+            }
+            finally {
+                mPlayer ^= 1;
+                undo (space);
+            }
+        }
+
+        /**
+         * Puts mPlayer's piece on space
+         *
+         * @return whether that completes a line
+         */
+        private boolean play (int space)
+        {
+            int row = space / mRowsOrColumns, col = space % mRowsOrColumns, n = mRowsOrColumns;
+            mBoard[space] = (byte) (mPlayer + 1);
+            mMoveCount++;
+            mHasher.play (mHashes, space, mPlayer);
+
+            int[] diagonals = mDiagonals[mPlayer];
+            boolean won = ++mRows[mPlayer][row] == n | ++mColumns[mPlayer][col] == n;
+            if (row == col) {
+                won |= ++diagonals[0] == n;
+            }
+            if (row + col == n - 1) {
+                won |= ++diagonals[1] == n;
+            }
+            return won;
+        }
+
+        private void undo (int space)
+        {
+            int row = space / mRowsOrColumns, col = space % mRowsOrColumns;
+            mBoard[space] = 0;
+            mMoveCount--;
+            mHasher.play (mHashes, space, mPlayer);
+
+            mRows[mPlayer][row]--;
+            mColumns[mPlayer][col]--;
+            if (row == col) {
+                mDiagonals[mPlayer][0]--;
+            }
+            if (row + col == mRowsOrColumns - 1) {
+                mDiagonals[mPlayer][1]--;
+            }
+        }
+
+        /**
+         * @return the open lines' worth to the player to move, less their worth to the other
+         */
+        private int evaluate ()
+        {
+            int me = mPlayer, them = mPlayer ^ 1, score = 0;
+            for (int i = 0; i < mRowsOrColumns; i++) {
+                score += lineScore (mRows[me][i], mRows[them][i]);
+                score += lineScore (mColumns[me][i], mColumns[them][i]);
+            }
+            score += lineScore (mDiagonals[me][0], mDiagonals[them][0]);
+            score += lineScore (mDiagonals[me][1], mDiagonals[them][1]);
+            return score;
+        }
+
+        private static int lineScore (int mine, int theirs)
+        {
+            return theirs == 0 ? mine * mine : mine == 0 ? -theirs * theirs : 0;
+        }
+
+        /**
+         * @return how many pieces are on the still-winnable lines through space, plus one per
+         * such line: the spaces that matter most to either player come first
+         */
+        private int weigh (int space)
+        {
+            int row = space / mRowsOrColumns, col = space % mRowsOrColumns;
+            int weight = lineWeight (mRows[0][row], mRows[1][row])
+                    + lineWeight (mColumns[0][col], mColumns[1][col]);
+            if (row == col) {
+                weight += lineWeight (mDiagonals[0][0], mDiagonals[1][0]);
+            }
+            if (row + col == mRowsOrColumns - 1) {
+                weight += lineWeight (mDiagonals[0][1], mDiagonals[1][1]);
+            }
+            return weight;
+        }
+
+        private static int lineWeight (int x, int o)
+        {
+            return x == 0 || o == 0 ? 1 + x + o : 0;
+        }
+
+        /**
+         * @return every empty space, heaviest first, equally heavy ones in random order
+         */
+        private int[] orderedSpaces (Random random)
+        {
+            long[] keys = new long[mSpaces - mMoveCount];
+            int count = 0;
+            for (int space = 0; space < mSpaces; space++) {
+                if (mBoard[space] == 0) {
+                    // weight, then a random tie-breaker, then the space (below 2^16)
+                    keys[count++] = (long) weigh (space) << 40
+                            | (long) random.nextInt (1 << 24) << 16 | space;
+                }
+            }
+            Arrays.sort (keys);
+
+            int[] spaces = new int[count];
+            for (int i = 0; i < count; i++) {
+                spaces[i] = (int) (keys[count - 1 - i] & 0xFFFF);
+            }
+            return spaces;
+        }
+
+        /**
+         * @return of the first 2 * MAX_BRANCHING spaces of the root's order that are still
+         * empty, the MAX_BRANCHING heaviest now, heaviest first, ended by -1 if fewer; so a
+         * node costs the same on any board size
+         */
+        private int[] candidates (int ply)
+        {
+            int[] best = mCandidates[ply], weights = mWeights[ply];
+            if (best == null) {
+                best = mCandidates[ply] = new int[MAX_BRANCHING];
+                weights = mWeights[ply] = new int[MAX_BRANCHING];
+            }
+            int count = 0, looked = 0;
+            for (int j = 0; j < mRootOrder.length && looked < 2 * MAX_BRANCHING; j++) {
+                int space = mRootOrder[j];
+                if (mBoard[space] != 0) {
+                    continue;
+                }
+                looked++;
+                int weight = weigh (space);
+                if (count == MAX_BRANCHING && weight <= weights[count - 1]) {
+                    continue;
+                }
+
+                // insertion into the short sorted list
+                int i = count < MAX_BRANCHING ? count++ : count - 1;
+                while (i > 0 && weights[i - 1] < weight) {
+                    weights[i] = weights[i - 1];
+                    best[i] = best[i - 1];
+                    i--;
+                }
+                weights[i] = weight;
+                best[i] = space;
+            }
+            if (count < MAX_BRANCHING) {
+                best[count] = -1;
+            }
+            return best;
+        }
+    }
+}
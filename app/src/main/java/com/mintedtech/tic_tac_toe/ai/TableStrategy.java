@@ -0,0 +1,103 @@
+package com.mintedtech.tic_tac_toe.ai;
+
+import com.mintedtech.tic_tac_toe.analysis.PositionHasher;
+import com.mintedtech.tic_tac_toe.collections.LongHashTable;
+import com.mintedtech.tic_tac_toe.interfaces.ComputerStrategy;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.util.Random;
+
+/**
+ * Answers positions it has seen before with the move a costlier strategy (the solver) chose
+ * for them, at the price of one hash lookup: solve asks the solver about new positions and
+ * remembers its answers, chooseMove only looks them up and leaves new positions to a cheaper
+ * strategy. Games against the computer go through the same openings again and again, so most
+ * of their early positions are soon in the table.
+ * <p/>
+ * Positions are keyed by their plain Zobrist hash (PositionHasher.getHash), not the canonical
+ * one, since a remembered move is only right for the board the way it was seen. Once the
+ * table holds capacity positions it stops learning. Thread-safe.
+ */
+public class TableStrategy implements ComputerStrategy
+{
+    private final ComputerStrategy mSolver, mOnMiss;
+    private final int mCapacity;
+
+    // position hash -> move; guarded by itself
+    private final LongHashTable mMoves;
+
+    /**
+     * @param solver   answers (and teaches) solve's new positions
+     * @param onMiss   answers chooseMove's new positions
+     * @param capacity how many positions to remember at most
+     */
+    public TableStrategy (ComputerStrategy solver, ComputerStrategy onMiss, int capacity)
+    {
+        mSolver = solver;
+        mOnMiss = onMiss;
+        mCapacity = capacity;
+        mMoves = new LongHashTable (Math.min (capacity, 1 << 16));
+    }
+
+    /**
+     * Looks the position up; the cheaper strategy answers if it is not in the table
+     */
+    @Override
+    public int chooseMove (TicTacToe game, Random random, long deadlineNanos)
+    {
+        long key = getKey (game);
+        int move = lookUp (game, key);
+        return move >= 0 ? move : mOnMiss.chooseMove (game, random, deadlineNanos);
+    }
+
+    /**
+     * Looks the position up; the solver answers if it is not in the table, and its answer is
+     * remembered
+     */
+    public int solve (TicTacToe game, Random random, long deadlineNanos)
+    {
+        long key = getKey (game);
+        int move = lookUp (game, key);
+        if (move < 0) {
+            move = mSolver.chooseMove (game, random, deadlineNanos);
+            synchronized (mMoves) {
+                if (mMoves.size () < mCapacity) {
+                    mMoves.put (key, move);
+                }
+            }
+        }
+        return move;
+    }
+
+    public int size ()
+    {
+        synchronized (mMoves) {
+            return mMoves.size ();
+        }
+    }
+
+    /**
+     * @return the remembered move, or -1 (also for the odd hash collision naming a taken space)
+     */
+    private int lookUp (TicTacToe game, long key)
+    {
+        int move;
+        synchronized (mMoves) {
+            move = mMoves.get (key, -1);
+        }
+        int rowsOrColumns = game.getTotalRowsOrColumns ();
+        return move >= 0 && game.isValidClick (move / rowsOrColumns, move % rowsOrColumns)
+               ? move : -1;
+    }
+
+    private static long getKey (TicTacToe game)
+    {
+        PositionHasher hasher = PositionHasher.forBoardSize (game.getTotalRowsOrColumns ());
+        long[] hashes = hasher.newSymmetricHashes ();
+        for (int i = 0; i < game.getMoveCount (); i++) {
+            hasher.play (hashes, game.getMoveAt (i),
+                         i % 2 == 0 ? PositionHasher.PLAYER_X : PositionHasher.PLAYER_O);
+        }
+        return hasher.getHash (hashes);
+    }
+}
@@ -0,0 +1,193 @@
+package com.mintedtech.tic_tac_toe.analysis;
+
+import com.mintedtech.tic_tac_toe.collections.LongHashTable;
+import com.mintedtech.tic_tac_toe.enums.GameOutcome;
+import com.mintedtech.tic_tac_toe.interfaces.OnGameRecordsAppendedListener;
+import com.mintedtech.tic_tac_toe.models.GameRecord;
+import com.mintedtech.tic_tac_toe.persistence.GameHistoryStore;
+import com.mintedtech.tic_tac_toe.persistence.PersistenceWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * For every position reached in the stored games: how many games passed through it and how
+ * they ended. Positions are keyed by their canonical hash (see PositionHasher) in a
+ * LongHashTable whose values index a flat int array of counts, so a lookup is a hash probe
+ * and four array reads.
+ * <p/>
+ * The index is built from the history in one pass on the writer thread (see preload) and then
+ * follows the history as games are added. Only the first MAX_INDEXED_MOVES moves of a game
+ * are indexed: that covers every 3x3 position, and deeper positions on big boards are nearly
+ * always unique to one game.
+ */
+public class OpeningIndex implements OnGameRecordsAppendedListener
+{
+    public static final int MAX_INDEXED_MOVES = 16;
+
+    // Layout of the counts returned by getCounts
+    public static final int GAMES = 0, X_WINS = 1, O_WINS = 2, DRAWS = 3;
+    public static final int COUNTS_PER_POSITION = 4;
+
+    private static OpeningIndex sInstance;
+
+    private final GameHistoryStore mHistory;
+    private final PersistenceWriter mWriter;
+
+    // null until built; guarded by this
+    private Positions mPositions;
+
+    /**
+     * The index proper; built off to the side and then swapped in
+     */
+    private static class Positions
+    {
+        final LongHashTable slots = new LongHashTable (1024);
+        int[] counts = new int[1024 * COUNTS_PER_POSITION];
+        long recordsSeen;
+
+        void add (GameRecord record)
+        {
+            recordsSeen++;
+
+            int outcomeColumn = record.getOutcome () == GameOutcome.X_WON ? X_WINS :
+                                record.getOutcome () == GameOutcome.O_WON ? O_WINS : DRAWS;
+            PositionHasher hasher = PositionHasher.forBoardSize (record.getRowsOrColumns ());
+            long[] symmetricHashes = hasher.newSymmetricHashes ();
+
+            int indexedMoves = Math.min (record.getMoveCount (), MAX_INDEXED_MOVES);
+            for (int move = 0; ; move++) {
+                int slot = getOrAddSlot (hasher.getCanonicalHash (symmetricHashes));
+                counts[slot * COUNTS_PER_POSITION + GAMES]++;
+                counts[slot * COUNTS_PER_POSITION + outcomeColumn]++;
+
+                if (move == indexedMoves) {
+                    break;
+                }
+                hasher.play (symmetricHashes, record.getMoveAt (move),
+                             move % 2 == 0 ? PositionHasher.PLAYER_X : PositionHasher.PLAYER_O);
+            }
+        }
+
+        private int getOrAddSlot (long canonicalHash)
+        {
+            int slot = slots.get (canonicalHash, -1);
+            if (slot < 0) {
+                slot = slots.size ();
+                slots.put (canonicalHash, slot);
+                if ((slot + 1) * COUNTS_PER_POSITION > counts.length) {
+                    int[] grown = new int[counts.length * 2];
+                    System.arraycopy (counts, 0, grown, 0, counts.length);
+                    counts = grown;
+                }
+            }
+            return slot;
+        }
+    }
+
+    public OpeningIndex (GameHistoryStore history, PersistenceWriter writer)
+    {
+        mHistory = history;
+        mWriter = writer;
+        mHistory.addListener (this);
+    }
+
+    /**
+     * @param directory where the game history is kept
+     * @return the index shared by everything in this process
+     */
+    public static synchronized OpeningIndex getInstance (File directory)
+    {
+        if (sInstance == null) {
+            sInstance = new OpeningIndex (GameHistoryStore.getInstance (directory),
+                                          PersistenceWriter.getInstance ());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Builds the index from the history on the writer thread (once); until then isReady is false
+     */
+    public void preload ()
+    {
+        mWriter.submit ("opening-index#build", () -> {
+            synchronized (this) {
+                if (mPositions != null) {
+                    return;
+                }
+            }
+
+            // history appends (and so onGameRecordsAppended) also run on this thread,
+            // so nothing is added to the history while this builds
+            Positions positions = new Positions ();
+            try {
+                mHistory.scanFrom (0, record -> {
+                    positions.add (record);
+                    return true;
+                });
+            }
+            catch (IOException e) {
+                return;
+            }
+
+            synchronized (this) {
+                mPositions = positions;
+            }
+        });
+    }
+
+    public synchronized boolean isReady ()
+    {
+        return mPositions != null;
+    }
+
+    /**
+     * @return the number of distinct positions indexed (0 until ready)
+     */
+    public synchronized int getPositionCount ()
+    {
+        return mPositions == null ? 0 : mPositions.slots.size ();
+    }
+
+    /**
+     * Looks up one position
+     *
+     * @param canonicalHash from PositionHasher.getCanonicalHash or getCanonicalHashAfter
+     * @param counts        receives GAMES, X_WINS, O_WINS and DRAWS (COUNTS_PER_POSITION ints)
+     * @return false if no stored game reached the position (or the index is not ready yet)
+     */
+    public synchronized boolean getCounts (long canonicalHash, int[] counts)
+    {
+        if (mPositions == null) {
+            return false;
+        }
+
+        int slot = mPositions.slots.get (canonicalHash, -1);
+        if (slot < 0) {
+            return false;
+        }
+
+        System.arraycopy (mPositions.counts, slot * COUNTS_PER_POSITION,
+                          counts, 0, COUNTS_PER_POSITION);
+        return true;
+    }
+
+    @Override
+    public void onGameRecordsAppended (long firstRecordIndex, List<GameRecord> records)
+    {
+        synchronized (this) {
+            if (mPositions == null) {
+                // not built yet; the build reads these from the history
+                return;
+            }
+
+            long recordIndex = firstRecordIndex;
+            for (GameRecord record : records) {
+                if (recordIndex++ == mPositions.recordsSeen) {
+                    mPositions.add (record);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.mintedtech.tic_tac_toe.analysis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Zobrist hashing of board positions, with rotations and reflections folded together.
+ * <p/>
+ * A position's hash is the XOR of one random key per occupied (space, player), so playing a
+ * move updates it with a single XOR. The hash is kept for all eight symmetric views of the
+ * board at once (eight XORs per move); the canonical hash is the smallest of the eight, so a
+ * position and its mirror images share one entry in the OpeningIndex. Keys come from a fixed
+ * seed per board size and are therefore the same on every run.
+ */
+public final class PositionHasher
+{
+    public static final int SYMMETRIES = 8;
+
+    // players as used by play: X = 0, O = 1
+    public static final int PLAYER_X = 0, PLAYER_O = 1;
+
+    private static final Map<Integer, PositionHasher> sHashers = new HashMap<> ();
+
+    private final int mRowsOrColumns;
+
+    // [space * 2 + player]
+    private final long[] mKeys;
+
+    // [symmetry][space] -> the space it maps to
+    private final int[][] mSymmetricSpaces;
+
+    // distinguishes boards of different sizes (the empty board hashes to 0 otherwise)
+    private final long mBoardSizeKey;
+
+    private PositionHasher (int rowsOrColumns)
+    {
+        mRowsOrColumns = rowsOrColumns;
+        int spaces = rowsOrColumns * rowsOrColumns;
+
+        Random random = new Random (0x5454_5A00L + rowsOrColumns);
+        mKeys = new long[spaces * 2];
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = random.nextLong ();
+        }
+        mBoardSizeKey = random.nextLong ();
+
+        mSymmetricSpaces = new int[SYMMETRIES][spaces];
+        int last = rowsOrColumns - 1;
+        for (int row = 0; row < rowsOrColumns; row++) {
+            for (int col = 0; col < rowsOrColumns; col++) {
+                int space = row * rowsOrColumns + col;
+                mSymmetricSpaces[0][space] = row * rowsOrColumns + col;
+                mSymmetricSpaces[1][space] = col * rowsOrColumns + (last - row);
+                mSymmetricSpaces[2][space] = (last - row) * rowsOrColumns + (last - col);
+                mSymmetricSpaces[3][space] = (last - col) * rowsOrColumns + row;
+                mSymmetricSpaces[4][space] = row * rowsOrColumns + (last - col);
+                mSymmetricSpaces[5][space] = (last - row) * rowsOrColumns + col;
+                mSymmetricSpaces[6][space] = col * rowsOrColumns + row;
+                mSymmetricSpaces[7][space] = (last - col) * rowsOrColumns + (last - row);
+            }
+        }
+    }
+
+    /**
+     * @return the (shared, immutable) hasher for boards of that size
+     */
+    public static synchronized PositionHasher forBoardSize (int rowsOrColumns)
+    {
+        PositionHasher hasher = sHashers.get (rowsOrColumns);
+        if (hasher == null) {
+            hasher = new PositionHasher (rowsOrColumns);
+            sHashers.put (rowsOrColumns, hasher);
+        }
+        return hasher;
+    }
+
+    public int getRowsOrColumns ()
+    {
+        return mRowsOrColumns;
+    }
+
+    /**
+     * @return the symmetric hashes of the empty board, ready for play
+     */
+    public long[] newSymmetricHashes ()
+    {
+        return new long[SYMMETRIES];
+    }
+
+    /**
+     * Adds a piece to the position described by symmetricHashes
+     *
+     * @param space  row * size + col
+     * @param player PLAYER_X or PLAYER_O
+     */
+    public void play (long[] symmetricHashes, int space, int player)
+    {
+        for (int symmetry = 0; symmetry < SYMMETRIES; symmetry++) {
+            symmetricHashes[symmetry] ^= mKeys[mSymmetricSpaces[symmetry][space] * 2 + player];
+        }
+    }
+
+    /**
+     * @return the hash of the position as it stands, not folded with its rotations and
+     * reflections; for tables whose entries name spaces (a move), which symmetry would change
+     */
+    public long getHash (long[] symmetricHashes)
+    {
+        return symmetricHashes[0] ^ mBoardSizeKey;
+    }
+
+    /**
+     * @return the hash shared by the position and all its rotations and reflections
+     */
+    public long getCanonicalHash (long[] symmetricHashes)
+    {
+        long canonical = symmetricHashes[0];
+        for (int symmetry = 1; symmetry < SYMMETRIES; symmetry++) {
+            canonical = Math.min (canonical, symmetricHashes[symmetry]);
+        }
+        return canonical ^ mBoardSizeKey;
+    }
+
+    /**
+     * @return the canonical hash of the position after player moves to space,
+     * without changing symmetricHashes
+     */
+    public long getCanonicalHashAfter (long[] symmetricHashes, int space, int player)
+    {
+        long canonical = Long.MAX_VALUE;
+        for (int symmetry = 0; symmetry < SYMMETRIES; symmetry++) {
+            canonical = Math.min (canonical, symmetricHashes[symmetry]
+                    ^ mKeys[mSymmetricSpaces[symmetry][space] * 2 + player]);
+        }
+        return canonical ^ mBoardSizeKey;
+    }
+}
@@ -0,0 +1,39 @@
+package com.mintedtech.tic_tac_toe.classes;
+
+import android.os.Trace;
+
+import com.mintedtech.tic_tac_toe.interfaces.TraceSink;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+
+/**
+ * Sends Tracer spans to android.os.Trace, so they appear as slices on the app's threads in
+ * systrace and Perfetto captures. While no capture is running, each span is android.os.Trace's
+ * own enabled-check and nothing more.
+ */
+public class AndroidTraceSink implements TraceSink
+{
+    private static final int MAX_NAME_LENGTH = 127;
+
+    /**
+     * Makes this the Tracer's sink for the rest of the process, unless it already is
+     */
+    public static void install ()
+    {
+        if (!(Tracer.getSink () instanceof AndroidTraceSink)) {
+            Tracer.setSink (new AndroidTraceSink ());
+        }
+    }
+
+    @Override
+    public void beginSection (String name)
+    {
+        Trace.beginSection (name.length () > MAX_NAME_LENGTH
+                            ? name.substring (0, MAX_NAME_LENGTH) : name);
+    }
+
+    @Override
+    public void endSection ()
+    {
+        Trace.endSection ();
+    }
+}
@@ -0,0 +1,428 @@
+package com.mintedtech.tic_tac_toe.classes;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.mintedtech.tic_tac_toe.R;
+import com.mintedtech.tic_tac_toe.interfaces.BoardDisplay;
+import com.mintedtech.tic_tac_toe.interfaces.OnItemClickCustomListener;
+import com.mintedtech.tic_tac_toe.metrics.PerformanceMetrics;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+/**
+ * The whole board drawn by one View, for boards too big for a RecyclerView of CardViews.
+ * <p/>
+ * Cell backgrounds and pieces are kept in an offscreen bitmap the size of the View. A change
+ * to a space redraws only that cell into the bitmap and invalidates only its rectangle; onDraw
+ * just blits the bitmap and adds the grid lines and the win line. Memory is two ints per space
+ * plus the one bitmap, and the work per move is one cell, however many spaces there are.
+ * A touch is mapped to its space arithmetically (row = y / cell size, col = x / cell size).
+ */
+public class BoardView extends View implements BoardDisplay
+{
+    private final int mINVALID_FLAG = -99;
+
+    private int mRowsOrColumns;
+    private int[] mImages = new int[0], mImageTints = new int[0];
+    private int mDefaultDrawableID;
+    private OnItemClickCustomListener mOnItemClickListener;
+
+    // Offscreen copy of the cells (background and piece); null until the View has a size
+    private Bitmap mBoardBitmap;
+    private Canvas mBoardCanvas;
+    private float mCellSize;
+
+    private final Paint mGridPaint = new Paint ();
+    private final Paint mWinLinePaint = new Paint (Paint.ANTI_ALIAS_FLAG);
+    private final int mCellBackgroundColor;
+    private float[] mGridLines = new float[0];
+    private float[] mWinLine;
+
+    // Pieces pre-rendered (and tinted) at mPiecePixelSize, shared by every cell
+    private final PieceBitmapCache mBitmapCache;
+    private int mPiecePixelSize;
+
+    private final Rect mCellRect = new Rect ();
+    private int mTouchDownPosition = -1;
+
+    public BoardView (Context context, AttributeSet attrs)
+    {
+        super (context, attrs);
+
+        mBitmapCache = PieceBitmapCache.getInstance (context);
+        mCellBackgroundColor = ContextCompat.getColor (context, R.color.backgroundDefaultColor);
+        mGridPaint.setColor (ContextCompat.getColor (context, R.color.md_theme_light_outline));
+        mGridPaint.setStrokeWidth (getResources ().getDisplayMetrics ().density);
+        mWinLinePaint.setColor (ContextCompat.getColor (context, R.color.color_yes));
+        mWinLinePaint.setStrokeCap (Paint.Cap.ROUND);
+    }
+
+    /**
+     * Starts over with an empty board of the given size
+     *
+     * @param rowsOrColumns      number of rows (and columns)
+     * @param defaultDrawableID image of an empty space
+     */
+    public void setBoardSize (int rowsOrColumns, int defaultDrawableID)
+    {
+        mRowsOrColumns = rowsOrColumns;
+        mDefaultDrawableID = defaultDrawableID;
+        mImages = new int[rowsOrColumns * rowsOrColumns];
+        mImageTints = new int[rowsOrColumns * rowsOrColumns];
+        fillMemberArrays ();
+        layoutCells (getWidth ());
+        redrawAllCells ();
+    }
+
+    private void fillMemberArrays ()
+    {
+        Arrays.fill (mImages, mDefaultDrawableID);
+        Arrays.fill (mImageTints, mINVALID_FLAG);
+        mWinLine = null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Size and drawing
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    protected void onMeasure (int widthMeasureSpec, int heightMeasureSpec)
+    {
+        // square, as wide as allowed (or as tall, if the height is the tighter limit)
+        int width = MeasureSpec.getSize (widthMeasureSpec);
+        int height = MeasureSpec.getSize (heightMeasureSpec);
+        int size = MeasureSpec.getMode (heightMeasureSpec) == MeasureSpec.UNSPECIFIED
+                   ? width : Math.min (width, height);
+        setMeasuredDimension (size, size);
+    }
+
+    @Override
+    protected void onSizeChanged (int w, int h, int oldw, int oldh)
+    {
+        super.onSizeChanged (w, h, oldw, oldh);
+
+        if (w > 0 && h > 0) {
+            mBoardBitmap = Bitmap.createBitmap (w, h, Bitmap.Config.ARGB_8888);
+            mBoardCanvas = new Canvas (mBoardBitmap);
+        }
+        else {
+            mBoardBitmap = null;
+            mBoardCanvas = null;
+        }
+        layoutCells (w);
+        redrawAllCells ();
+    }
+
+    private void layoutCells (int width)
+    {
+        if (mRowsOrColumns == 0 || width == 0) {
+            return;
+        }
+
+        mCellSize = (float) width / mRowsOrColumns;
+        mPiecePixelSize = (int) mCellSize - 2 * getPieceInset ();
+        mWinLinePaint.setStrokeWidth (Math.max (mCellSize / 8, mGridPaint.getStrokeWidth () * 2));
+
+        // inner lines only; each line is 4 floats
+        mGridLines = new float[(mRowsOrColumns - 1) * 2 * 4];
+        int i = 0;
+        for (int line = 1; line < mRowsOrColumns; line++) {
+            float offset = line * mCellSize;
+            mGridLines[i++] = offset;
+            mGridLines[i++] = 0;
+            mGridLines[i++] = offset;
+            mGridLines[i++] = width;
+            mGridLines[i++] = 0;
+            mGridLines[i++] = offset;
+            mGridLines[i++] = width;
+            mGridLines[i++] = offset;
+        }
+        updateWinLine ();
+    }
+
+    private void redrawAllCells ()
+    {
+        if (mBoardCanvas == null) {
+            return;
+        }
+        for (int position = 0; position < mImages.length; position++) {
+            drawCell (position);
+        }
+        invalidate ();
+    }
+
+    private void getCellRect (int position, Rect rect)
+    {
+        int row = position / mRowsOrColumns, col = position % mRowsOrColumns;
+        rect.set ((int) (col * mCellSize), (int) (row * mCellSize),
+                  (int) ((col + 1) * mCellSize), (int) ((row + 1) * mCellSize));
+    }
+
+    /**
+     * Redraws one cell into the offscreen bitmap
+     */
+    private void drawCell (int position)
+    {
+        getCellRect (position, mCellRect);
+
+        mBoardCanvas.save ();
+        mBoardCanvas.clipRect (mCellRect);
+        mBoardCanvas.drawColor (mCellBackgroundColor);
+
+        int imageTint = mImageTints[position];
+        Bitmap piece = mBitmapCache.get (mImages[position],
+                                         imageTint == mINVALID_FLAG
+                                         ? PieceBitmapCache.NO_TINT : imageTint,
+                                         mPiecePixelSize);
+        if (piece != null) {
+            int inset = getPieceInset ();
+            mBoardCanvas.drawBitmap (piece, mCellRect.left + inset, mCellRect.top + inset, null);
+        }
+        mBoardCanvas.restore ();
+    }
+
+    private int getPieceInset ()
+    {
+        return (int) (mCellSize / 10);
+    }
+
+    /**
+     * Redraws one cell and invalidates only its rectangle
+     */
+    private void updateCell (int position)
+    {
+        Tracer.begin ("BoardView.updateCell");
+        try {
+            if (mBoardCanvas == null) {
+                return;
+            }
+            long startNanos = System.nanoTime ();
+            drawCell (position);
+            PerformanceMetrics.BOARD_BIND.recordSince (startNanos);
+            //noinspection deprecation - still limits the redraw in software-rendered windows
+            invalidate (mCellRect);
+        }
+        finally {
+            Tracer.end ();
+        }
+    }
+
+    /**
+     * The win line runs from the center of the first tinted space to the center of the last;
+     * tints are only set on the winning spaces, which always form one straight line
+     */
+    private void updateWinLine ()
+    {
+        int first = -1, last = -1;
+        for (int position = 0; position < mImageTints.length; position++) {
+            if (mImageTints[position] != mINVALID_FLAG) {
+                if (first < 0) {
+                    first = position;
+                }
+                last = position;
+            }
+        }
+
+        if (first < 0 || first == last || mCellSize == 0) {
+            mWinLine = null;
+            return;
+        }
+
+        mWinLine = new float[] {
+                (first % mRowsOrColumns + .5f) * mCellSize, (first / mRowsOrColumns + .5f) * mCellSize,
+                (last % mRowsOrColumns + .5f) * mCellSize, (last / mRowsOrColumns + .5f) * mCellSize};
+    }
+
+    @Override
+    protected void onDraw (@NonNull Canvas canvas)
+    {
+        super.onDraw (canvas);
+
+        if (mBoardBitmap == null) {
+            return;
+        }
+
+        canvas.drawBitmap (mBoardBitmap, 0, 0, null);
+        canvas.drawLines (mGridLines, mGridPaint);
+        if (mWinLine != null) {
+            canvas.drawLine (mWinLine[0], mWinLine[1], mWinLine[2], mWinLine[3], mWinLinePaint);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Touch: pointer position -> space, no per-space Views or listeners
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public boolean onTouchEvent (MotionEvent event)
+    {
+        switch (event.getActionMasked ()) {
+            case MotionEvent.ACTION_DOWN:
+                mTouchDownPosition = getPositionAt (event.getX (), event.getY ());
+                return mTouchDownPosition >= 0;
+            case MotionEvent.ACTION_UP:
+                int position = getPositionAt (event.getX (), event.getY ());
+                if (position >= 0 && position == mTouchDownPosition) {
+                    mTouchDownPosition = -1;
+                    performClick ();
+                    if (mOnItemClickListener != null) {
+                        mOnItemClickListener.onItemClick (position, this);
+                    }
+                }
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                mTouchDownPosition = -1;
+                return true;
+            default:
+                return super.onTouchEvent (event);
+        }
+    }
+
+    @Override
+    public boolean performClick ()
+    {
+        return super.performClick ();
+    }
+
+    /**
+     * @return the space (row * size + col) under the point, or -1 if it is outside the board
+     */
+    public int getPositionAt (float x, float y)
+    {
+        if (mCellSize == 0 || x < 0 || y < 0) {
+            return -1;
+        }
+
+        int row = (int) (y / mCellSize), col = (int) (x / mCellSize);
+        return row < mRowsOrColumns && col < mRowsOrColumns ? row * mRowsOrColumns + col : -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // BoardDisplay
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public int getItemCount ()
+    {
+        return mImages.length;
+    }
+
+    @Override
+    public long getItemId (int position)
+    {
+        return position >= 0 && position < mImages.length ? mImages[position] : -1;
+    }
+
+    @Override
+    public void setImage (int position, int newDrawableID)
+    {
+        if (mImages[position] != newDrawableID) {
+            mImages[position] = newDrawableID;
+            updateCell (position);
+        }
+    }
+
+    @Override
+    public void setImageTint (int position, int colorID)
+    {
+        if (mImageTints[position] != colorID) {
+            mImageTints[position] = colorID;
+            updateCell (position);
+            updateWinLine ();
+            invalidate ();
+        }
+    }
+
+    @Override
+    public void clearImageTint (int position)
+    {
+        setImageTint (position, mINVALID_FLAG);
+    }
+
+    @Override
+    public void clearAllImageTints ()
+    {
+        boolean changed = false;
+        for (int position = 0; position < mImageTints.length; position++) {
+            if (mImageTints[position] != mINVALID_FLAG) {
+                mImageTints[position] = mINVALID_FLAG;
+                updateCell (position);
+                changed = true;
+            }
+        }
+        if (changed) {
+            updateWinLine ();
+            invalidate ();
+        }
+    }
+
+    @Override
+    public void setAllImagesTint (int[] positions, int newColor)
+    {
+        for (int position : positions) {
+            if (mImageTints[position] != newColor) {
+                mImageTints[position] = newColor;
+                updateCell (position);
+            }
+        }
+        updateWinLine ();
+        invalidate ();
+    }
+
+    @Override
+    public void setAllImagesAndTints (int[] images, int[] tints)
+    {
+        for (int position = 0; position < mImages.length; position++) {
+            if (mImages[position] != images[position] || mImageTints[position] != tints[position]) {
+                mImages[position] = images[position];
+                mImageTints[position] = tints[position];
+                updateCell (position);
+            }
+        }
+        updateWinLine ();
+        invalidate ();
+    }
+
+    @Override
+    public void resetAllImagesAndTints ()
+    {
+        for (int position = 0; position < mImages.length; position++) {
+            if (mImages[position] != mDefaultDrawableID || mImageTints[position] != mINVALID_FLAG) {
+                mImages[position] = mDefaultDrawableID;
+                mImageTints[position] = mINVALID_FLAG;
+                updateCell (position);
+            }
+        }
+        mWinLine = null;
+        invalidate ();
+    }
+
+    @Override
+    public int[] getAllImages ()
+    {
+        return mImages.clone ();
+    }
+
+    @Override
+    public int[] getAllImageTints ()
+    {
+        return mImageTints.clone ();
+    }
+
+    @Override
+    public void setOnItemClickListener (OnItemClickCustomListener onItemClickListener)
+    {
+        mOnItemClickListener = onItemClickListener;
+    }
+}
@@ -10,18 +10,40 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 
 import com.mintedtech.tic_tac_toe.R;
+import com.mintedtech.tic_tac_toe.interfaces.BoardDisplay;
 import com.mintedtech.tic_tac_toe.interfaces.OnItemClickCustomListener;
+import com.mintedtech.tic_tac_toe.metrics.PerformanceMetrics;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+
+import java.util.List;
 
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
+/**
+ * Board adapter. Every update notifies only the spaces whose image or tint actually changed,
+ * as ranges of adjacent spaces, with a payload saying which of the two changed, so each is
+ * rebound in place (see onBindViewHolder with payloads). Ending a game thus rebinds just the
+ * winning line, and a reset just the spaces that were played.
+ * <p/>
+ * A bind is one bitmap assignment: pieces come pre-rendered, tint included, at the size they
+ * are shown at from the shared PieceBitmapCache.
+ */
 public class CardViewImageAdapter extends RecyclerView.Adapter<CardImageViewHolder>
+        implements BoardDisplay
 {
+    // Partial-bind payloads; RecyclerView merges both into one bind if both are posted
+    private static final Object PAYLOAD_IMAGE = "IMAGE", PAYLOAD_TINT = "TINT";
+
     public static OnItemClickCustomListener sOnItemClickListener;
     private final int[] mImages, mImageTints;
     private final int mINVALID_FLAG = -99;
     private final int mDefaultDrawableID;
 
+    // Set up with the first ViewHolder, when the RecyclerView has its size
+    private PieceBitmapCache mBitmapCache;
+    private int mPiecePixelSize;
+
     public CardViewImageAdapter (int numberOfSpaces, int defaultDrawableID)
     {
         // This holds the characters (X or O) on the board
@@ -46,8 +68,46 @@ public class CardViewImageAdapter extends RecyclerView.Adapter<CardImageViewHold
 
     public void resetAllImagesAndTints ()
     {
+        boolean[] changedImages = new boolean[mImages.length];
+        boolean[] changedTints = new boolean[mImages.length];
+
+        for (int i = 0; i < mImages.length; i++) {
+            changedImages[i] = mImages[i] != mDefaultDrawableID;
+            changedTints[i] = mImageTints[i] != mINVALID_FLAG;
+        }
+
         fillMemberArrays ();
-        notifyDataSetChanged ();
+        notifyChangedRanges (changedImages, PAYLOAD_IMAGE);
+        notifyChangedRanges (changedTints, PAYLOAD_TINT);
+    }
+
+    /**
+     * Notifies each run of adjacent changed positions with a single ranged notification
+     *
+     * @param changed parallel to the board; true where something changed
+     * @param payload which part of the space changed
+     */
+    private void notifyChangedRanges (boolean[] changed, Object payload)
+    {
+        Tracer.begin ("CardViewImageAdapter.notifyChanged");
+        try {
+            int position = 0;
+            while (position < changed.length) {
+                if (!changed[position]) {
+                    position++;
+                    continue;
+                }
+
+                int rangeStart = position;
+                while (position < changed.length && changed[position]) {
+                    position++;
+                }
+                notifyItemRangeChanged (rangeStart, position - rangeStart, payload);
+            }
+        }
+        finally {
+            Tracer.end ();
+        }
     }
 
 
@@ -59,11 +119,37 @@ public class CardViewImageAdapter extends RecyclerView.Adapter<CardImageViewHold
      */
     public void setAllImagesTint (int[] positions, int newColor)
     {
+        boolean[] changedTints = new boolean[mImageTints.length];
+
         for (int position : positions) {
+            changedTints[position] = mImageTints[position] != newColor;
             mImageTints[position] = newColor;
         }
 
-        notifyDataSetChanged ();
+        notifyChangedRanges (changedTints, PAYLOAD_TINT);
+    }
+
+    /**
+     * Replaces the whole board at once, e.g. when restoring a saved game, with a single
+     * notification instead of one per space
+     *
+     * @param images drawable ID for each space (parallel to the board)
+     * @param tints  color for each space, or the invalid flag for no tint (parallel to images)
+     */
+    public void setAllImagesAndTints (int[] images, int[] tints)
+    {
+        boolean[] changedImages = new boolean[mImages.length];
+        boolean[] changedTints = new boolean[mImages.length];
+
+        for (int i = 0; i < mImages.length; i++) {
+            changedImages[i] = mImages[i] != images[i];
+            changedTints[i] = mImageTints[i] != tints[i];
+        }
+
+        System.arraycopy (images, 0, mImages, 0, mImages.length);
+        System.arraycopy (tints, 0, mImageTints, 0, mImageTints.length);
+        notifyChangedRanges (changedImages, PAYLOAD_IMAGE);
+        notifyChangedRanges (changedTints, PAYLOAD_TINT);
     }
 
     /**
@@ -74,30 +160,38 @@ public class CardViewImageAdapter extends RecyclerView.Adapter<CardImageViewHold
      */
     public void setImage (int position, int newDrawableID)
     {
-        // update space with new picture (x or o)
-        mImages[position] = newDrawableID;
+        if (mImages[position] != newDrawableID) {
+            // update space with new picture (x or o)
+            mImages[position] = newDrawableID;
 
-        // Update view to reflect updates to model
-        notifyItemChanged (position);
+            // Update view to reflect updates to model (only its image)
+            notifyItemChanged (position, PAYLOAD_IMAGE);
+        }
     }
 
     public void setImageTint (int position, int colorID)
     {
-        mImageTints[position] = colorID;
-        notifyItemChanged (position);
+        if (mImageTints[position] != colorID) {
+            mImageTints[position] = colorID;
+            notifyItemChanged (position, PAYLOAD_TINT);
+        }
     }
 
     public void clearImageTint (int position)
     {
-        mImageTints[position] = mINVALID_FLAG;
-        notifyItemChanged (position);
+        setImageTint (position, mINVALID_FLAG);
     }
 
     public void clearAllImageTints ()
     {
+        boolean[] changedTints = new boolean[mImageTints.length];
+
         for (int i = 0; i < mImageTints.length; i++) {
-            clearImageTint(i);
+            changedTints[i] = mImageTints[i] != mINVALID_FLAG;
+            mImageTints[i] = mINVALID_FLAG;
         }
+
+        notifyChangedRanges (changedTints, PAYLOAD_TINT);
     }
 
     @NonNull @Override
@@ -110,6 +204,7 @@ public class CardViewImageAdapter extends RecyclerView.Adapter<CardImageViewHold
         // Create a new ViewHolder with that newly-inflated View
         CardImageViewHolder cardImageViewHolder = new CardImageViewHolder (itemLayoutView);
         adjustScaling (cardImageViewHolder, parent.getContext ());
+        setupPieceBitmaps (parent);
 
         // return the created and then modified ViewHolder
         return cardImageViewHolder;
@@ -132,7 +227,34 @@ public class CardViewImageAdapter extends RecyclerView.Adapter<CardImageViewHold
         imageInNewlyInflatedView.setLayoutParams (currentLayoutParams);
     }
 
-    private int calcHeightSize (Context context)
+    private void setupPieceBitmaps (ViewGroup parent)
+    {
+        Context context = parent.getContext ();
+        if (mBitmapCache == null) {
+            mBitmapCache = PieceBitmapCache.getInstance (context);
+        }
+        mPiecePixelSize = getPiecePixelSize (context, (int) Math.sqrt (mImages.length),
+                                             parent.getWidth ());
+    }
+
+    /**
+     * Pieces are rendered as tall as adjustScaling makes the ImageViews, or as wide as a column
+     * (less the card margins) if that is narrower - the size fitCenter would draw them at
+     *
+     * @param boardWidth the RecyclerView's width, or 0 if it is not known yet
+     */
+    static int getPiecePixelSize (Context context, int columns, int boardWidth)
+    {
+        int pixelSize = calcHeightSize (context);
+        if (boardWidth > 0) {
+            int margins = 2 * context.getResources ()
+                    .getDimensionPixelSize (R.dimen.outside_half_margin);
+            pixelSize = Math.min (pixelSize, boardWidth / columns - margins);
+        }
+        return pixelSize;
+    }
+
+    private static int calcHeightSize (Context context)
     {
         // constants - try changing these values to see the effect on image-spacing in the RV
         final double SCALE = 4.5, SCALE_LANDSCAPE = 5.75;
@@ -165,19 +287,30 @@ public class CardViewImageAdapter extends RecyclerView.Adapter<CardImageViewHold
 
     @Override public void onBindViewHolder (CardImageViewHolder holder, int position)
     {
-        ImageView currentImageView = holder.mCurrentImageView;
-        currentImageView.setImageResource (mImages[position]);
-        setOrClearTint (mImageTints[position], currentImageView);
+        Tracer.begin ("CardViewImageAdapter.bind");
+        try {
+            long startNanos = System.nanoTime ();
+            int imageTint = mImageTints[position];
+            int colorID = imageTint == mINVALID_FLAG ? PieceBitmapCache.NO_TINT : imageTint;
+            holder.mCurrentImageView.setImageBitmap (
+                    mBitmapCache.get (mImages[position], colorID, mPiecePixelSize));
+            PerformanceMetrics.BOARD_BIND.recordSince (startNanos);
+        }
+        finally {
+            Tracer.end ();
+        }
     }
 
-    private void setOrClearTint (int imageTint, ImageView currentImageView)
+    /**
+     * Partial bind: the image and the tint are one cached bitmap, so whichever of the two
+     * changed, the bind is the same; the payload only spares the ViewHolder the full rebind
+     * (and its change animation)
+     */
+    @Override
+    public void onBindViewHolder (@NonNull CardImageViewHolder holder, int position,
+                                  @NonNull List<Object> payloads)
     {
-        if (imageTint != mINVALID_FLAG) {
-            currentImageView.setColorFilter (imageTint);
-        }
-        else {
-            currentImageView.clearColorFilter ();
-        }
+        onBindViewHolder (holder, position);
     }
 
 
@@ -0,0 +1,90 @@
+package com.mintedtech.tic_tac_toe.classes;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.mintedtech.tic_tac_toe.metrics.EngineMetrics;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Carries a game across a Bundle (e.g. rotation) in its packed binary form
+ * (see TicTacToe.writeTo): bit-packed board, counters and the current game's moves.
+ * A 3x3 game is a few dozen bytes instead of the JSON String plus per-space arrays.
+ */
+public class ParcelableGame implements Parcelable
+{
+    private final byte[] mPackedGame;
+
+    public ParcelableGame (TicTacToe game)
+    {
+        long startNanos = System.nanoTime ();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+        try (DataOutputStream out = new DataOutputStream (bytes)) {
+            game.writeTo (out);
+        }
+        catch (IOException e) {
+            // cannot happen when writing to memory
+            throw new IllegalStateException (e);
+        }
+        mPackedGame = bytes.toByteArray ();
+        EngineMetrics.GAME_CODEC.recordEncode (startNanos, mPackedGame.length);
+    }
+
+    private ParcelableGame (Parcel in)
+    {
+        mPackedGame = in.createByteArray ();
+    }
+
+    /**
+     * @return a new game object equal to the one this was created from
+     */
+    public TicTacToe getGame ()
+    {
+        try {
+            long startNanos = System.nanoTime ();
+            TicTacToe game = TicTacToe.readFrom (
+                    new DataInputStream (new ByteArrayInputStream (mPackedGame)));
+            EngineMetrics.GAME_CODEC.recordDecode (startNanos, mPackedGame.length);
+            return game;
+        }
+        catch (IOException e) {
+            // the bytes were produced by TicTacToe.writeTo of this same app
+            throw new IllegalStateException (e);
+        }
+    }
+
+    @Override
+    public void writeToParcel (@NonNull Parcel dest, int flags)
+    {
+        dest.writeByteArray (mPackedGame);
+    }
+
+    @Override
+    public int describeContents ()
+    {
+        return 0;
+    }
+
+    public static final Creator<ParcelableGame> CREATOR = new Creator<ParcelableGame> ()
+    {
+        @Override
+        public ParcelableGame createFromParcel (Parcel in)
+        {
+            return new ParcelableGame (in);
+        }
+
+        @Override
+        public ParcelableGame[] newArray (int size)
+        {
+            return new ParcelableGame[size];
+        }
+    };
+}
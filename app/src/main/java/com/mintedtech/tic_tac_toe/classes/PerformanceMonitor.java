@@ -0,0 +1,252 @@
+package com.mintedtech.tic_tac_toe.classes;
+
+import android.app.Activity;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.FrameMetrics;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.mintedtech.tic_tac_toe.metrics.MetricsRegistry;
+import com.mintedtech.tic_tac_toe.metrics.PerformanceMetrics;
+import com.mintedtech.tic_tac_toe.metrics.PrometheusMetricsExporter;
+import com.mintedtech.tic_tac_toe.metrics.TextMetricsExporter;
+import com.mintedtech.tic_tac_toe.persistence.PersistenceWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * The Android side of PerformanceMetrics for one Activity: measures tap-to-frame latency,
+ * feeds every frame of the window into the frame histogram (FrameMetrics, Android 7+),
+ * shows the numbers in an overlay on top of the Activity, and exports them to a file.
+ * <p/>
+ * Call start from onResume and stop from onPause.
+ */
+public class PerformanceMonitor
+{
+    private static final String TAG = "PerformanceMonitor";
+    private static final long OVERLAY_REFRESH_MILLIS = 500;
+
+    private final Activity mActivity;
+    private final Handler mMainHandler = new Handler (Looper.getMainLooper ());
+    private final Runnable mRefreshOverlay = this::refreshOverlay;
+
+    private boolean mStarted;
+    private boolean mOverlayVisible;
+    private TextView mOverlay;
+    private FrameMetricsRecorder mFrameMetricsRecorder;
+
+    public PerformanceMonitor (Activity activity)
+    {
+        mActivity = activity;
+        MetricsRegistry.getDefault ().setAllocationProbe (PerformanceMonitor::getBytesAllocated);
+        AndroidTraceSink.install ();
+    }
+
+    /**
+     * ART has no per-thread allocation counter; its process-wide one still tells what a game
+     * costs when nothing else is busy allocating
+     *
+     * @return the bytes allocated by this process so far, or -1 if ART does not say
+     */
+    private static long getBytesAllocated ()
+    {
+        try {
+            return Long.parseLong (Debug.getRuntimeStat ("art.gc.bytes-allocated"));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public void start ()
+    {
+        mStarted = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mFrameMetricsRecorder = new FrameMetricsRecorder (mActivity);
+        }
+        refreshOverlay ();
+    }
+
+    public void stop ()
+    {
+        mStarted = false;
+        if (mFrameMetricsRecorder != null) {
+            mFrameMetricsRecorder.stop ();
+            mFrameMetricsRecorder = null;
+        }
+        mMainHandler.removeCallbacks (mRefreshOverlay);
+    }
+
+    /**
+     * Records, into TAP_TO_FRAME, the time from startNanos until the next frame has been drawn:
+     * the frame callback runs before that frame's layout and draw, and a message posted from it
+     * to the front of the queue runs right after them.
+     *
+     * @param startNanos System.nanoTime () when the tap was handed to the Activity
+     */
+    public void recordTapToFrame (final long startNanos)
+    {
+        Choreographer.getInstance ().postFrameCallback (
+                frameTimeNanos -> mMainHandler.postAtFrontOfQueue (
+                        () -> PerformanceMetrics.TAP_TO_FRAME.recordSince (startNanos)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Overlay
+    // ---------------------------------------------------------------------------------------------
+
+    public boolean isOverlayVisible ()
+    {
+        return mOverlayVisible;
+    }
+
+    public void setOverlayVisible (boolean visible)
+    {
+        mOverlayVisible = visible;
+        if (visible && mOverlay == null) {
+            mOverlay = createOverlay ();
+        }
+        if (mOverlay != null) {
+            mOverlay.setVisibility (visible ? View.VISIBLE : View.GONE);
+        }
+        refreshOverlay ();
+    }
+
+    private TextView createOverlay ()
+    {
+        float density = mActivity.getResources ().getDisplayMetrics ().density;
+        int padding = (int) (4 * density);
+
+        TextView overlay = new TextView (mActivity);
+        overlay.setTypeface (Typeface.MONOSPACE);
+        overlay.setTextSize (9);
+        overlay.setTextColor (Color.WHITE);
+        overlay.setBackgroundColor (0xAA000000);
+        overlay.setPadding (padding, padding, padding, padding);
+        // the board underneath must still get the taps
+        overlay.setClickable (false);
+        overlay.setFocusable (false);
+
+        FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams (
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                Gravity.BOTTOM | Gravity.START);
+        ViewGroup content = mActivity.findViewById (android.R.id.content);
+        content.addView (overlay, layoutParams);
+        return overlay;
+    }
+
+    private void refreshOverlay ()
+    {
+        mMainHandler.removeCallbacks (mRefreshOverlay);
+        if (mOverlay == null || !mOverlayVisible || !mStarted) {
+            return;
+        }
+
+        mOverlay.setText (PerformanceMetrics.getReport ());
+        mMainHandler.postDelayed (mRefreshOverlay, OVERLAY_REFRESH_MILLIS);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Export
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the current report, followed by every metric in the registry, to a new,
+     * time-stamped file in the app's external files directory (no permission needed; reachable
+     * over USB / adb pull), and the registry alone to a .prom file next to it in the Prometheus
+     * text format; the writes themselves happen on the persistence writer thread
+     *
+     * @return the report file being written
+     */
+    public File exportReport ()
+    {
+        File directory = mActivity.getExternalFilesDir (null);
+        if (directory == null) {
+            directory = mActivity.getFilesDir ();
+        }
+
+        String timeStamp = new SimpleDateFormat ("yyyyMMdd-HHmmss", Locale.US).format (new Date ());
+        File file = new File (directory, "performance-" + timeStamp + ".txt");
+        File prometheusFile = new File (directory, "performance-" + timeStamp + ".prom");
+        MetricsRegistry registry = MetricsRegistry.getDefault ();
+
+        writeInBackground (file, Build.MODEL + ", Android " + Build.VERSION.RELEASE + "\n"
+                + PerformanceMetrics.getReport () + "\n"
+                + registry.exportToString (new TextMetricsExporter ()));
+        writeInBackground (prometheusFile,
+                           registry.exportToString (new PrometheusMetricsExporter ()));
+        return file;
+    }
+
+    private static void writeInBackground (final File file, String contents)
+    {
+        final byte[] bytes = contents.getBytes (StandardCharsets.UTF_8);
+        PersistenceWriter.getInstance ().submit (file.getPath (), () -> {
+            try {
+                PersistenceWriter.writeAtomically (file, bytes, false);
+            }
+            catch (IOException e) {
+                Log.w (TAG, "Could not export to " + file, e);
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // FrameMetrics (Android 7+); kept in its own class so older versions never load it
+    // ---------------------------------------------------------------------------------------------
+
+    @RequiresApi (api = Build.VERSION_CODES.N)
+    private static class FrameMetricsRecorder implements Window.OnFrameMetricsAvailableListener
+    {
+        private final Window mWindow;
+        private final HandlerThread mThread = new HandlerThread ("frame-metrics");
+        private final long mFrameBudgetNanos;
+
+        FrameMetricsRecorder (Activity activity)
+        {
+            mWindow = activity.getWindow ();
+            float refreshRate = activity.getWindowManager ().getDefaultDisplay ().getRefreshRate ();
+            mFrameBudgetNanos = (long) (1e9 / (refreshRate > 0 ? refreshRate : 60));
+
+            mThread.start ();
+            mWindow.addOnFrameMetricsAvailableListener (this, new Handler (mThread.getLooper ()));
+        }
+
+        void stop ()
+        {
+            mWindow.removeOnFrameMetricsAvailableListener (this);
+            mThread.quitSafely ();
+        }
+
+        @Override
+        public void onFrameMetricsAvailable (Window window, FrameMetrics frameMetrics,
+                                             int dropCountSinceLastInvocation)
+        {
+            // the first frame of a window includes inflating and laying it all out
+            if (frameMetrics.getMetric (FrameMetrics.FIRST_DRAW_FRAME) == 1) {
+                return;
+            }
+            PerformanceMetrics.recordFrame (frameMetrics.getMetric (FrameMetrics.TOTAL_DURATION),
+                                            mFrameBudgetNanos);
+        }
+    }
+}
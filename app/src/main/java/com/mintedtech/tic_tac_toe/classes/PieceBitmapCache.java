@@ -0,0 +1,170 @@
+package com.mintedtech.tic_tac_toe.classes;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+/**
+ * Board pieces (X, O and the empty space) rendered once into bitmaps of the exact size they
+ * are shown at, already tinted, and shared by all boards. Showing a space is then a bitmap
+ * assignment (or one drawBitmap) instead of loading a drawable and applying a color filter.
+ * <p/>
+ * Bitmaps are keyed by (drawable, tint, pixel size) and held in an LRU cache with a byte
+ * budget. They are dropped when the configuration changes (density, night mode... may pick
+ * other resources) and when the system asks to trim memory; either way they are simply
+ * rendered again on the next request.
+ */
+public class PieceBitmapCache
+{
+    // Same as the boards' "no tint" flag
+    public static final int NO_TINT = -99;
+
+    private static final int MAX_TINTS = 0xFFFF, MAX_PIXEL_SIZE = 0xFFFF;
+
+    private static PieceBitmapCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<Long, Bitmap> mBitmaps;
+
+    // color resource ID -> small number for the key; 0 is no tint; guarded by itself
+    private final SparseIntArray mTintNumbers = new SparseIntArray ();
+
+    private PieceBitmapCache (Context applicationContext)
+    {
+        mContext = applicationContext;
+
+        // an eighth of the heap is the usual budget for an image cache; pieces get half that
+        int maxBytes = (int) Math.min (Runtime.getRuntime ().maxMemory () / 16, Integer.MAX_VALUE);
+        mBitmaps = new LruCache<Long, Bitmap> (maxBytes)
+        {
+            @Override
+            protected int sizeOf (@NonNull Long key, @NonNull Bitmap bitmap)
+            {
+                return bitmap.getAllocationByteCount ();
+            }
+        };
+
+        mContext.registerComponentCallbacks (new ComponentCallbacks2 ()
+        {
+            @Override
+            public void onConfigurationChanged (@NonNull Configuration newConfig)
+            {
+                mBitmaps.evictAll ();
+            }
+
+            @Override
+            public void onTrimMemory (int level)
+            {
+                if (level >= TRIM_MEMORY_BACKGROUND) {
+                    mBitmaps.evictAll ();
+                }
+                else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                    mBitmaps.trimToSize (mBitmaps.maxSize () / 2);
+                }
+            }
+
+            @Override
+            public void onLowMemory ()
+            {
+                mBitmaps.evictAll ();
+            }
+        });
+    }
+
+    /**
+     * @return the cache shared by everything in this process
+     */
+    public static synchronized PieceBitmapCache getInstance (Context context)
+    {
+        if (sInstance == null) {
+            sInstance = new PieceBitmapCache (context.getApplicationContext ());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the piece as a square bitmap of pixelSize, rendering it first if it is not cached.
+     * Safe to call from any thread (e.g. to warm the cache up in the background).
+     *
+     * @param drawableID the piece's drawable
+     * @param colorID    tint color resource ID, or NO_TINT
+     * @param pixelSize  width and height of the bitmap
+     * @return the bitmap, or null if the drawable could not be loaded
+     */
+    public Bitmap get (int drawableID, int colorID, int pixelSize)
+    {
+        pixelSize = Math.max (1, Math.min (pixelSize, MAX_PIXEL_SIZE));
+        Long key = (long) drawableID << 32 | (long) getTintNumber (colorID) << 16 | pixelSize;
+
+        Bitmap bitmap = mBitmaps.get (key);
+        if (bitmap == null) {
+            bitmap = render (drawableID, colorID, pixelSize);
+            if (bitmap != null) {
+                mBitmaps.put (key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    private int getTintNumber (int colorID)
+    {
+        if (colorID == NO_TINT) {
+            return 0;
+        }
+
+        synchronized (mTintNumbers) {
+            int tintNumber = mTintNumbers.get (colorID);
+            if (tintNumber == 0) {
+                if (mTintNumbers.size () == MAX_TINTS) {
+                    throw new IllegalStateException ("Too many tints");
+                }
+                tintNumber = mTintNumbers.size () + 1;
+                mTintNumbers.put (colorID, tintNumber);
+            }
+            return tintNumber;
+        }
+    }
+
+    private Bitmap render (int drawableID, int colorID, int pixelSize)
+    {
+        Drawable drawable = ContextCompat.getDrawable (mContext, drawableID);
+        if (drawable == null) {
+            return null;
+        }
+        drawable = drawable.mutate ();
+
+        if (colorID != NO_TINT) {
+            // as ImageView.setColorFilter (color) does
+            drawable.setColorFilter (new PorterDuffColorFilter (
+                    ContextCompat.getColor (mContext, colorID), PorterDuff.Mode.SRC_ATOP));
+        }
+
+        // fit the drawable in the square, centered, keeping its aspect ratio (as fitCenter)
+        int width = drawable.getIntrinsicWidth (), height = drawable.getIntrinsicHeight ();
+        int drawnWidth = pixelSize, drawnHeight = pixelSize;
+        if (width > 0 && height > 0) {
+            if (width > height) {
+                drawnHeight = Math.max (1, pixelSize * height / width);
+            }
+            else {
+                drawnWidth = Math.max (1, pixelSize * width / height);
+            }
+        }
+        int left = (pixelSize - drawnWidth) / 2, top = (pixelSize - drawnHeight) / 2;
+        drawable.setBounds (left, top, left + drawnWidth, top + drawnHeight);
+
+        Bitmap bitmap = Bitmap.createBitmap (pixelSize, pixelSize, Bitmap.Config.ARGB_8888);
+        drawable.draw (new Canvas (bitmap));
+        return bitmap;
+    }
+}
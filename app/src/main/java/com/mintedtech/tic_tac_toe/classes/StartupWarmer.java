@@ -0,0 +1,207 @@
+package com.mintedtech.tic_tac_toe.classes;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.mintedtech.tic_tac_toe.R;
+import com.mintedtech.tic_tac_toe.analysis.OpeningIndex;
+import com.mintedtech.tic_tac_toe.analysis.PositionHasher;
+import com.mintedtech.tic_tac_toe.interfaces.OnWarmUpProgressListener;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+import com.mintedtech.tic_tac_toe.persistence.GameHistoryStore;
+import com.mintedtech.tic_tac_toe.persistence.GameJournal;
+import com.mintedtech.tic_tac_toe.persistence.StatisticsStore;
+
+import java.util.Locale;
+
+/**
+ * Does, on a background thread while the splash screen shows, the work the first game would
+ * otherwise do lazily on the main thread: opening the stores and starting their preloads,
+ * replaying the last saved game, building the position hash keys for the board sizes about to
+ * be played, and rendering the board pieces into the PieceBitmapCache.
+ * <p/>
+ * Progress is reported on the main thread (see OnWarmUpProgressListener). The replayed game is
+ * handed to the MainActivity the splash screen starts (see takeReplayedGame); everything else
+ * is simply found warm in the process-wide caches and stores.
+ */
+public class StartupWarmer
+{
+    public static final int TOTAL_STEPS = 4;
+
+    private static final String TAG = "StartupWarmer";
+
+    private static StartupWarmer sInstance;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler (Looper.getMainLooper ());
+
+    // main thread only
+    private OnWarmUpProgressListener mListener;
+    private boolean mRunning;
+    private int mStepsDone;
+
+    // set by the warm-up thread before it reports that step, unless MainActivity has already
+    // asked for it (and, finding none, replayed the journal itself); guarded by this
+    private TicTacToe mReplayedGame;
+    private boolean mReplayedGameTaken;
+
+    private StartupWarmer (Context applicationContext)
+    {
+        mContext = applicationContext;
+    }
+
+    public static synchronized StartupWarmer getInstance (Context context)
+    {
+        if (sInstance == null) {
+            sInstance = new StartupWarmer (context.getApplicationContext ());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts a warm-up unless one is running; call on the main thread
+     */
+    public void start ()
+    {
+        if (mRunning) {
+            return;
+        }
+
+        mRunning = true;
+        mStepsDone = 0;
+        synchronized (this) {
+            mReplayedGame = null;
+            mReplayedGameTaken = false;
+        }
+        AndroidTraceSink.install ();
+        new Thread (this::warmUp, "warm-up").start ();
+    }
+
+    /**
+     * @param listener told of every step from now on (and at once of the steps already done),
+     *                 or null to stop; called on the main thread
+     */
+    public void setOnProgressListener (OnWarmUpProgressListener listener)
+    {
+        mListener = listener;
+        if (listener != null && mStepsDone > 0) {
+            listener.onWarmUpProgress (mStepsDone, TOTAL_STEPS);
+        }
+    }
+
+    /**
+     * @return the game the last warm-up restored from the journal, once (null after that, if
+     * there was none, or if the warm-up has not got that far - it then keeps the game to itself,
+     * since the caller replays the journal and goes on from there); it is current only until the
+     * journal changes, so take it right away
+     */
+    public synchronized TicTacToe takeReplayedGame ()
+    {
+        TicTacToe game = mReplayedGame;
+        mReplayedGame = null;
+        mReplayedGameTaken = true;
+        return game;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Warm-up thread
+    // ---------------------------------------------------------------------------------------------
+
+    private void warmUp ()
+    {
+        long startNanos = SystemClock.elapsedRealtimeNanos ();
+        Tracer.begin ("StartupWarmer.warmUp");
+        try {
+            GameJournal journal = openStores ();
+            reportProgress (1);
+
+            TicTacToe game = journal.replay ();
+            offerReplayedGame (game);
+            reportProgress (2);
+
+            int defaultSize = mContext.getResources ().getIntArray (R.array.board_sizes)[0];
+            int gameSize = game != null ? game.getTotalRowsOrColumns () : defaultSize;
+            PositionHasher.forBoardSize (defaultSize);
+            PositionHasher.forBoardSize (gameSize);
+            reportProgress (3);
+
+            renderPieces (gameSize);
+        }
+        catch (RuntimeException e) {
+            // whatever is not warm is loaded lazily, as it would be without the warm-up
+            Log.w (TAG, "Warm-up failed", e);
+        }
+        finally {
+            Tracer.end ();
+            Log.i (TAG, String.format (Locale.US, "Warmed up in %.2f ms",
+                                       (SystemClock.elapsedRealtimeNanos () - startNanos) / 1e6));
+            mMainHandler.post (() -> {
+                mRunning = false;
+                mStepsDone = TOTAL_STEPS;
+                if (mListener != null) {
+                    mListener.onWarmUpProgress (TOTAL_STEPS, TOTAL_STEPS);
+                }
+            });
+        }
+    }
+
+    private synchronized void offerReplayedGame (TicTacToe game)
+    {
+        if (!mReplayedGameTaken) {
+            mReplayedGame = game;
+        }
+    }
+
+    /**
+     * Opens what MainActivity.onCreate opens; the history, statistics and index loads then run
+     * on the persistence writer thread
+     */
+    private GameJournal openStores ()
+    {
+        GameJournal journal = GameJournal.getInstance (mContext.getFilesDir ());
+        GameHistoryStore.getInstance (mContext.getFilesDir ());
+        StatisticsStore.getInstance (mContext.getFilesDir ()).preload ();
+        OpeningIndex.getInstance (mContext.getFilesDir ()).preload ();
+        return journal;
+    }
+
+    /**
+     * Renders X, O (plain and in the winning tint) and the empty space at about the size the
+     * board will show them: the board is as wide as the screen less its card's margins. If the
+     * guess is off, the drawables at least are loaded and in the Resources cache.
+     */
+    private void renderPieces (int rowsOrColumns)
+    {
+        Resources resources = mContext.getResources ();
+        int cardMargins = 2 * (resources.getDimensionPixelSize (R.dimen.default_margin)
+                + resources.getDimensionPixelSize (R.dimen.outside_half_margin));
+        int boardWidth = resources.getDisplayMetrics ().widthPixels - cardMargins;
+
+        int pixelSize =
+                rowsOrColumns < resources.getInteger (R.integer.canvas_board_min_rows_or_columns)
+                ? CardViewImageAdapter.getPiecePixelSize (mContext, rowsOrColumns, boardWidth)
+                : boardWidth / rowsOrColumns;
+
+        PieceBitmapCache cache = PieceBitmapCache.getInstance (mContext);
+        cache.get (R.drawable.ic_xo_light, PieceBitmapCache.NO_TINT, pixelSize);
+        cache.get (R.drawable.ic_x, PieceBitmapCache.NO_TINT, pixelSize);
+        cache.get (R.drawable.ic_o, PieceBitmapCache.NO_TINT, pixelSize);
+        cache.get (R.drawable.ic_x, R.color.color_yes, pixelSize);
+        cache.get (R.drawable.ic_o, R.color.color_yes, pixelSize);
+    }
+
+    private void reportProgress (final int stepsDone)
+    {
+        mMainHandler.post (() -> {
+            mStepsDone = stepsDone;
+            if (mListener != null) {
+                mListener.onWarmUpProgress (stepsDone, TOTAL_STEPS);
+            }
+        });
+    }
+}
@@ -0,0 +1,654 @@
+package com.mintedtech.tic_tac_toe.classes;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.OverScroller;
+
+import com.mintedtech.tic_tac_toe.R;
+import com.mintedtech.tic_tac_toe.collections.CellMap;
+import com.mintedtech.tic_tac_toe.interfaces.BoardDisplay;
+import com.mintedtech.tic_tac_toe.interfaces.OnItemClickCustomListener;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+/**
+ * A window onto a board far larger than the screen: pinch to zoom, drag or fling to pan.
+ * <p/>
+ * Only the spaces that differ from an empty one are stored (two CellMaps: images and tints),
+ * and onDraw walks just the cells inside the viewport, so memory follows the pieces played
+ * and the work per frame follows the number of cells on screen - which the minimum cell size
+ * bounds - not the size of the board. Nothing is kept per space or per cell on screen.
+ * <p/>
+ * Positions are the same as for the other boards (row * size + col), so MainActivity's
+ * listener and row/col mapping work unchanged; a touch is mapped to its cell arithmetically
+ * from the viewport offset and the cell size.
+ */
+public class ViewportBoardView extends View implements BoardDisplay
+{
+    private final int mINVALID_FLAG = -99;
+
+    private static final String KEY_SUPER_STATE = "SUPER_STATE";
+    private static final String KEY_ROWS_OR_COLUMNS = "ROWS_OR_COLUMNS";
+    private static final String KEY_CELL_SIZE = "CELL_SIZE";
+    private static final String KEY_CENTER_COLUMN = "CENTER_COLUMN";
+    private static final String KEY_CENTER_ROW = "CENTER_ROW";
+
+    private int mRowsOrColumns;
+    private int mDefaultDrawableID;
+    private OnItemClickCustomListener mOnItemClickListener;
+
+    // Only the spaces that are not the default image / untinted
+    private final CellMap mImages = new CellMap ();
+    private final CellMap mImageTints = new CellMap ();
+
+    // The viewport: board pixel shown at the View's top left corner, and the size of a cell
+    private float mLeft, mTop;
+    private float mCellSize;
+    private float mMinCellSize, mMaxCellSize;
+    private final float mMinCellSizeLimit, mMaxCellSizeLimit, mDefaultCellSize;
+
+    // Viewport restored after recreation, applied once the View has a size; 0 if none
+    private int mPendingRowsOrColumns;
+    private float mPendingCellSize, mPendingCenterColumn, mPendingCenterRow;
+
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+    private final OverScroller mScroller;
+
+    private final Paint mGridPaint = new Paint ();
+    private final Paint mBackgroundPaint = new Paint ();
+    private final Paint mWinLinePaint = new Paint (Paint.ANTI_ALIAS_FLAG);
+    // Room for the grid lines of the most cells the viewport can show (at the minimum cell size)
+    private float[] mGridLines = new float[0];
+    private int mWinLineFirst = -1, mWinLineLast = -1;
+
+    // Pieces pre-rendered (and tinted), shared by every cell; see drawCells for their size
+    private final PieceBitmapCache mBitmapCache;
+    private final Paint mPiecePaint = new Paint (Paint.FILTER_BITMAP_FLAG);
+    private final Rect mPieceRect = new Rect ();
+
+    public ViewportBoardView (Context context, AttributeSet attrs)
+    {
+        super (context, attrs);
+
+        mBitmapCache = PieceBitmapCache.getInstance (context);
+        mMinCellSizeLimit = getResources ().getDimension (R.dimen.viewport_board_min_cell_size);
+        mMaxCellSizeLimit = getResources ().getDimension (R.dimen.viewport_board_max_cell_size);
+        mDefaultCellSize = getResources ().getDimension (R.dimen.viewport_board_default_cell_size);
+
+        mBackgroundPaint.setColor (
+                ContextCompat.getColor (context, R.color.backgroundDefaultColor));
+        mGridPaint.setColor (ContextCompat.getColor (context, R.color.md_theme_light_outline));
+        mGridPaint.setStrokeWidth (getResources ().getDisplayMetrics ().density);
+        mWinLinePaint.setColor (ContextCompat.getColor (context, R.color.color_yes));
+        mWinLinePaint.setStrokeCap (Paint.Cap.ROUND);
+
+        mScaleDetector = new ScaleGestureDetector (context, new ScaleListener ());
+        mGestureDetector = new GestureDetector (context, new GestureListener ());
+        mScroller = new OverScroller (context);
+    }
+
+    /**
+     * Starts over with an empty board of the given size, zoomed to the default cell size
+     * around the center of the board
+     *
+     * @param rowsOrColumns     number of rows (and columns)
+     * @param defaultDrawableID image of an empty space
+     */
+    public void setBoardSize (int rowsOrColumns, int defaultDrawableID)
+    {
+        mRowsOrColumns = rowsOrColumns;
+        mDefaultDrawableID = defaultDrawableID;
+        mImages.clear ();
+        mImageTints.clear ();
+        mWinLineFirst = mWinLineLast = -1;
+        mScroller.forceFinished (true);
+
+        // a viewport restored for a board of another size does not apply
+        if (mPendingRowsOrColumns != rowsOrColumns) {
+            mPendingRowsOrColumns = 0;
+        }
+        mCellSize = 0;
+        layoutViewport (getWidth (), getHeight ());
+        invalidate ();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Viewport
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    protected void onMeasure (int widthMeasureSpec, int heightMeasureSpec)
+    {
+        // square, as wide as allowed (or as tall, if the height is the tighter limit)
+        int width = MeasureSpec.getSize (widthMeasureSpec);
+        int height = MeasureSpec.getSize (heightMeasureSpec);
+        int size = MeasureSpec.getMode (heightMeasureSpec) == MeasureSpec.UNSPECIFIED
+                   ? width : Math.min (width, height);
+        setMeasuredDimension (size, size);
+    }
+
+    @Override
+    protected void onSizeChanged (int w, int h, int oldw, int oldh)
+    {
+        super.onSizeChanged (w, h, oldw, oldh);
+
+        // keep the same cell in the middle of the View
+        if (mCellSize > 0 && oldw > 0 && oldh > 0) {
+            mLeft += (oldw - w) / 2f;
+            mTop += (oldh - h) / 2f;
+        }
+        layoutViewport (w, h);
+    }
+
+    private void layoutViewport (int width, int height)
+    {
+        if (mRowsOrColumns == 0 || width == 0 || height == 0) {
+            return;
+        }
+
+        // zoomed all the way out, the whole board fits - unless that would make cells too small
+        float wholeBoardCellSize = (float) Math.min (width, height) / mRowsOrColumns;
+        mMinCellSize = Math.max (mMinCellSizeLimit, wholeBoardCellSize);
+        mMaxCellSize = Math.max (mMaxCellSizeLimit, mMinCellSize);
+
+        int maxVisibleLines = (int) Math.ceil (Math.max (width, height) / mMinCellSize) + 2;
+        if (mGridLines.length < maxVisibleLines * 2 * 4) {
+            mGridLines = new float[maxVisibleLines * 2 * 4];
+        }
+
+        if (mPendingRowsOrColumns == mRowsOrColumns) {
+            mPendingRowsOrColumns = 0;
+            mCellSize = mPendingCellSize;
+            mLeft = mPendingCenterColumn * mCellSize - width / 2f;
+            mTop = mPendingCenterRow * mCellSize - height / 2f;
+        }
+        else if (mCellSize == 0) {
+            mCellSize = mDefaultCellSize;
+            mLeft = mRowsOrColumns * mCellSize / 2 - width / 2f;
+            mTop = mRowsOrColumns * mCellSize / 2 - height / 2f;
+        }
+        clampViewport ();
+        updateWinLineWidth ();
+        invalidate ();
+    }
+
+    private void clampViewport ()
+    {
+        mCellSize = Math.max (mMinCellSize, Math.min (mCellSize, mMaxCellSize));
+        mLeft = clampOffset (mLeft, mRowsOrColumns * mCellSize, getWidth ());
+        mTop = clampOffset (mTop, mRowsOrColumns * mCellSize, getHeight ());
+    }
+
+    private void updateWinLineWidth ()
+    {
+        mWinLinePaint.setStrokeWidth (Math.max (mCellSize / 8, mGridPaint.getStrokeWidth () * 2));
+    }
+
+    private static float clampOffset (float offset, float boardSize, int viewSize)
+    {
+        // a board smaller than the View is centered in it
+        return boardSize <= viewSize
+               ? (boardSize - viewSize) / 2
+               : Math.max (0, Math.min (offset, boardSize - viewSize));
+    }
+
+    private boolean isVisible (int row, int col)
+    {
+        return mCellSize > 0
+                && (col + 1) * mCellSize > mLeft && col * mCellSize < mLeft + getWidth ()
+                && (row + 1) * mCellSize > mTop && row * mCellSize < mTop + getHeight ();
+    }
+
+    /**
+     * Pans (animated) so that the space is on screen, if it is not already
+     */
+    public void scrollToPosition (int position)
+    {
+        int row = position / mRowsOrColumns, col = position % mRowsOrColumns;
+        if (mCellSize == 0 || isVisible (row, col)) {
+            return;
+        }
+
+        int toLeft = (int) clampOffset ((col + .5f) * mCellSize - getWidth () / 2f,
+                                        mRowsOrColumns * mCellSize, getWidth ());
+        int toTop = (int) clampOffset ((row + .5f) * mCellSize - getHeight () / 2f,
+                                       mRowsOrColumns * mCellSize, getHeight ());
+        mScroller.forceFinished (true);
+        mScroller.startScroll ((int) mLeft, (int) mTop, toLeft - (int) mLeft, toTop - (int) mTop);
+        postInvalidateOnAnimation ();
+    }
+
+    @Override
+    public void computeScroll ()
+    {
+        if (mScroller.computeScrollOffset ()) {
+            mLeft = mScroller.getCurrX ();
+            mTop = mScroller.getCurrY ();
+            clampViewport ();
+            postInvalidateOnAnimation ();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Drawing: only the cells in the viewport
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    protected void onDraw (@NonNull Canvas canvas)
+    {
+        super.onDraw (canvas);
+
+        if (mCellSize == 0) {
+            return;
+        }
+
+        int firstCol = Math.max (0, (int) (mLeft / mCellSize));
+        int lastCol = Math.min (mRowsOrColumns - 1, (int) ((mLeft + getWidth ()) / mCellSize));
+        int firstRow = Math.max (0, (int) (mTop / mCellSize));
+        int lastRow = Math.min (mRowsOrColumns - 1, (int) ((mTop + getHeight ()) / mCellSize));
+
+        canvas.save ();
+        canvas.translate (-mLeft, -mTop);
+
+        canvas.drawRect (firstCol * mCellSize, firstRow * mCellSize,
+                         (lastCol + 1) * mCellSize, (lastRow + 1) * mCellSize, mBackgroundPaint);
+        drawCells (canvas, firstRow, lastRow, firstCol, lastCol);
+        drawGridLines (canvas, firstRow, lastRow, firstCol, lastCol);
+
+        if (mWinLineFirst >= 0 && mWinLineFirst != mWinLineLast) {
+            canvas.drawLine ((mWinLineFirst % mRowsOrColumns + .5f) * mCellSize,
+                             (mWinLineFirst / mRowsOrColumns + .5f) * mCellSize,
+                             (mWinLineLast % mRowsOrColumns + .5f) * mCellSize,
+                             (mWinLineLast / mRowsOrColumns + .5f) * mCellSize, mWinLinePaint);
+        }
+        canvas.restore ();
+    }
+
+    /**
+     * Pieces come from the bitmap cache at the next power of two up from their size on screen
+     * and are scaled down when drawn, so zooming reuses a handful of cached sizes instead of
+     * rendering new ones every frame
+     */
+    private void drawCells (Canvas canvas, int firstRow, int lastRow, int firstCol, int lastCol)
+    {
+        int inset = (int) (mCellSize / 10);
+        int pieceSize = Math.max (1, (int) mCellSize - 2 * inset);
+        int cachedPieceSize = Integer.highestOneBit (pieceSize - 1) << 1;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            int top = (int) (row * mCellSize) + inset;
+
+            for (int col = firstCol; col <= lastCol; col++) {
+                int imageTint = mImageTints.get (row, col, mINVALID_FLAG);
+                Bitmap piece = mBitmapCache.get (mImages.get (row, col, mDefaultDrawableID),
+                                                 imageTint == mINVALID_FLAG
+                                                 ? PieceBitmapCache.NO_TINT : imageTint,
+                                                 cachedPieceSize);
+                if (piece != null) {
+                    int left = (int) (col * mCellSize) + inset;
+                    mPieceRect.set (left, top, left + pieceSize, top + pieceSize);
+                    canvas.drawBitmap (piece, null, mPieceRect, mPiecePaint);
+                }
+            }
+        }
+    }
+
+    private void drawGridLines (Canvas canvas, int firstRow, int lastRow, int firstCol, int lastCol)
+    {
+        // inner lines only; each line is 4 floats
+        float left = firstCol * mCellSize, right = (lastCol + 1) * mCellSize;
+        float top = firstRow * mCellSize, bottom = (lastRow + 1) * mCellSize;
+        int lastInnerLine = mRowsOrColumns - 1;
+        int i = 0;
+
+        for (int line = Math.max (1, firstCol); line <= Math.min (lastCol, lastInnerLine); line++) {
+            float x = line * mCellSize;
+            mGridLines[i++] = x;
+            mGridLines[i++] = top;
+            mGridLines[i++] = x;
+            mGridLines[i++] = bottom;
+        }
+        for (int line = Math.max (1, firstRow); line <= Math.min (lastRow, lastInnerLine); line++) {
+            float y = line * mCellSize;
+            mGridLines[i++] = left;
+            mGridLines[i++] = y;
+            mGridLines[i++] = right;
+            mGridLines[i++] = y;
+        }
+        canvas.drawLines (mGridLines, 0, i, mGridPaint);
+    }
+
+    /**
+     * The win line runs from the first tinted space to the last; tints are only set on the
+     * winning spaces, which always form one straight line, so only a few cells are visited
+     */
+    private void updateWinLine ()
+    {
+        mWinLineFirst = mWinLineLast = -1;
+        mImageTints.forEach ((key, colorID) -> {
+            int position = CellMap.rowOf (key) * mRowsOrColumns + CellMap.columnOf (key);
+            if (mWinLineFirst < 0 || position < mWinLineFirst) {
+                mWinLineFirst = position;
+            }
+            mWinLineLast = Math.max (mWinLineLast, position);
+            return true;
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Touch: pinch to zoom, drag and fling to pan, tap to play
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public boolean onTouchEvent (MotionEvent event)
+    {
+        boolean handled = mScaleDetector.onTouchEvent (event);
+        handled |= mGestureDetector.onTouchEvent (event);
+        return handled || super.onTouchEvent (event);
+    }
+
+    @Override
+    public boolean performClick ()
+    {
+        return super.performClick ();
+    }
+
+    /**
+     * @return the space (row * size + col) under the point, or -1 if it is outside the board
+     */
+    public int getPositionAt (float x, float y)
+    {
+        if (mCellSize == 0) {
+            return -1;
+        }
+
+        float boardX = mLeft + x, boardY = mTop + y;
+        if (boardX < 0 || boardY < 0) {
+            return -1;
+        }
+
+        int row = (int) (boardY / mCellSize), col = (int) (boardX / mCellSize);
+        return row < mRowsOrColumns && col < mRowsOrColumns ? row * mRowsOrColumns + col : -1;
+    }
+
+    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener
+    {
+        @Override
+        public boolean onScale (ScaleGestureDetector detector)
+        {
+            // zoom around the focus: the board point under the fingers stays under them
+            float focusX = detector.getFocusX (), focusY = detector.getFocusY ();
+            float boardCol = (mLeft + focusX) / mCellSize, boardRow = (mTop + focusY) / mCellSize;
+
+            mCellSize = Math.max (mMinCellSize,
+                                  Math.min (mCellSize * detector.getScaleFactor (), mMaxCellSize));
+            mLeft = boardCol * mCellSize - focusX;
+            mTop = boardRow * mCellSize - focusY;
+            clampViewport ();
+            updateWinLineWidth ();
+            invalidate ();
+            return true;
+        }
+    }
+
+    private class GestureListener extends GestureDetector.SimpleOnGestureListener
+    {
+        @Override
+        public boolean onDown (@NonNull MotionEvent e)
+        {
+            mScroller.forceFinished (true);
+            return true;
+        }
+
+        @Override
+        public boolean onSingleTapUp (@NonNull MotionEvent e)
+        {
+            int position = getPositionAt (e.getX (), e.getY ());
+            if (position < 0) {
+                return false;
+            }
+
+            performClick ();
+            if (mOnItemClickListener != null) {
+                mOnItemClickListener.onItemClick (position, ViewportBoardView.this);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onScroll (MotionEvent e1, @NonNull MotionEvent e2,
+                                 float distanceX, float distanceY)
+        {
+            mLeft += distanceX;
+            mTop += distanceY;
+            clampViewport ();
+            invalidate ();
+            return true;
+        }
+
+        @Override
+        public boolean onFling (MotionEvent e1, @NonNull MotionEvent e2,
+                                float velocityX, float velocityY)
+        {
+            int maxLeft = (int) Math.max (mLeft, mRowsOrColumns * mCellSize - getWidth ());
+            int maxTop = (int) Math.max (mTop, mRowsOrColumns * mCellSize - getHeight ());
+            mScroller.fling ((int) mLeft, (int) mTop, (int) -velocityX, (int) -velocityY,
+                             Math.min (0, (int) mLeft), maxLeft, Math.min (0, (int) mTop), maxTop);
+            postInvalidateOnAnimation ();
+            return true;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Keep the viewport across recreation (the pieces come back from the game model)
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    protected Parcelable onSaveInstanceState ()
+    {
+        Bundle state = new Bundle ();
+        state.putParcelable (KEY_SUPER_STATE, super.onSaveInstanceState ());
+        if (mCellSize > 0) {
+            state.putInt (KEY_ROWS_OR_COLUMNS, mRowsOrColumns);
+            state.putFloat (KEY_CELL_SIZE, mCellSize);
+            state.putFloat (KEY_CENTER_COLUMN, (mLeft + getWidth () / 2f) / mCellSize);
+            state.putFloat (KEY_CENTER_ROW, (mTop + getHeight () / 2f) / mCellSize);
+        }
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState (Parcelable state)
+    {
+        if (!(state instanceof Bundle)) {
+            super.onRestoreInstanceState (state);
+            return;
+        }
+
+        Bundle bundle = (Bundle) state;
+        super.onRestoreInstanceState (bundle.getParcelable (KEY_SUPER_STATE));
+
+        mPendingRowsOrColumns = bundle.getInt (KEY_ROWS_OR_COLUMNS);
+        mPendingCellSize = bundle.getFloat (KEY_CELL_SIZE);
+        mPendingCenterColumn = bundle.getFloat (KEY_CENTER_COLUMN);
+        mPendingCenterRow = bundle.getFloat (KEY_CENTER_ROW);
+        if (mPendingRowsOrColumns == mRowsOrColumns) {
+            // the board is already set up; otherwise setBoardSize picks this up
+            mCellSize = 0;
+            layoutViewport (getWidth (), getHeight ());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // BoardDisplay
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public int getItemCount ()
+    {
+        return mRowsOrColumns * mRowsOrColumns;
+    }
+
+    @Override
+    public long getItemId (int position)
+    {
+        return position >= 0 && position < getItemCount ()
+               ? mImages.get (position / mRowsOrColumns, position % mRowsOrColumns,
+                              mDefaultDrawableID)
+               : -1;
+    }
+
+    /**
+     * Also pans to the space when a piece is placed out of view (e.g. by the computer)
+     */
+    @Override
+    public void setImage (int position, int newDrawableID)
+    {
+        int row = position / mRowsOrColumns, col = position % mRowsOrColumns;
+        if (mImages.get (row, col, mDefaultDrawableID) == newDrawableID) {
+            return;
+        }
+
+        if (newDrawableID == mDefaultDrawableID) {
+            mImages.remove (row, col);
+        }
+        else {
+            mImages.put (row, col, newDrawableID);
+            scrollToPosition (position);
+        }
+        if (isVisible (row, col)) {
+            invalidate ();
+        }
+    }
+
+    @Override
+    public void setImageTint (int position, int colorID)
+    {
+        int row = position / mRowsOrColumns, col = position % mRowsOrColumns;
+        if (mImageTints.get (row, col, mINVALID_FLAG) == colorID) {
+            return;
+        }
+
+        if (colorID == mINVALID_FLAG) {
+            mImageTints.remove (row, col);
+        }
+        else {
+            mImageTints.put (row, col, colorID);
+        }
+        updateWinLine ();
+        invalidate ();
+    }
+
+    @Override
+    public void clearImageTint (int position)
+    {
+        setImageTint (position, mINVALID_FLAG);
+    }
+
+    @Override
+    public void clearAllImageTints ()
+    {
+        if (mImageTints.size () > 0) {
+            mImageTints.clear ();
+            mWinLineFirst = mWinLineLast = -1;
+            invalidate ();
+        }
+    }
+
+    @Override
+    public void setAllImagesTint (int[] positions, int newColor)
+    {
+        for (int position : positions) {
+            int row = position / mRowsOrColumns, col = position % mRowsOrColumns;
+            if (newColor == mINVALID_FLAG) {
+                mImageTints.remove (row, col);
+            }
+            else {
+                mImageTints.put (row, col, newColor);
+            }
+        }
+        updateWinLine ();
+        invalidate ();
+    }
+
+    /**
+     * Takes arrays with an entry for every space, so this is O(spaces); MainActivity restores
+     * this board from the moves played instead
+     */
+    @Override
+    public void setAllImagesAndTints (int[] images, int[] tints)
+    {
+        mImages.clear ();
+        mImageTints.clear ();
+        for (int position = 0; position < images.length; position++) {
+            int row = position / mRowsOrColumns, col = position % mRowsOrColumns;
+            if (images[position] != mDefaultDrawableID) {
+                mImages.put (row, col, images[position]);
+            }
+            if (tints[position] != mINVALID_FLAG) {
+                mImageTints.put (row, col, tints[position]);
+            }
+        }
+        updateWinLine ();
+        invalidate ();
+    }
+
+    @Override
+    public void resetAllImagesAndTints ()
+    {
+        mImages.clear ();
+        mImageTints.clear ();
+        mWinLineFirst = mWinLineLast = -1;
+        invalidate ();
+    }
+
+    /**
+     * @return a new array with an entry for every space - O(spaces), unlike the rest of this View
+     */
+    @Override
+    public int[] getAllImages ()
+    {
+        int[] images = new int[getItemCount ()];
+        Arrays.fill (images, mDefaultDrawableID);
+        mImages.forEach ((key, drawableID) -> {
+            images[CellMap.rowOf (key) * mRowsOrColumns + CellMap.columnOf (key)] = drawableID;
+            return true;
+        });
+        return images;
+    }
+
+    /**
+     * @return a new array with an entry for every space - O(spaces), unlike the rest of this View
+     */
+    @Override
+    public int[] getAllImageTints ()
+    {
+        int[] tints = new int[getItemCount ()];
+        Arrays.fill (tints, mINVALID_FLAG);
+        mImageTints.forEach ((key, colorID) -> {
+            tints[CellMap.rowOf (key) * mRowsOrColumns + CellMap.columnOf (key)] = colorID;
+            return true;
+        });
+        return tints;
+    }
+
+    @Override
+    public void setOnItemClickListener (OnItemClickCustomListener onItemClickListener)
+    {
+        mOnItemClickListener = onItemClickListener;
+    }
+}
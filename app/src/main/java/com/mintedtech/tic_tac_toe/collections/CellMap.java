@@ -0,0 +1,90 @@
+package com.mintedtech.tic_tac_toe.collections;
+
+import com.mintedtech.tic_tac_toe.interfaces.LongIntEntryVisitor;
+
+/**
+ * Sparse int per board cell, keyed by (row, col): only the cells that were set take memory,
+ * so a board can be as large as int coordinates allow (negative ones included) and costs
+ * what is on it rather than what it could hold. Backed by a LongHashTable whose keys pack
+ * the row into the high 32 bits and the column into the low 32 bits (see keyOf).
+ * Not thread-safe.
+ */
+public class CellMap
+{
+    private final LongHashTable mCells;
+
+    public CellMap ()
+    {
+        mCells = new LongHashTable ();
+    }
+
+    /**
+     * @param expectedSize number of cells the map should hold before it has to grow
+     */
+    public CellMap (int expectedSize)
+    {
+        mCells = new LongHashTable (expectedSize);
+    }
+
+    public static long keyOf (int row, int col)
+    {
+        return (long) row << 32 | (col & 0xFFFFFFFFL);
+    }
+
+    public static int rowOf (long key)
+    {
+        return (int) (key >> 32);
+    }
+
+    public static int columnOf (long key)
+    {
+        return (int) key;
+    }
+
+    public int size ()
+    {
+        return mCells.size ();
+    }
+
+    /**
+     * @return the value stored for the cell, or missingValue if there is none
+     */
+    public int get (int row, int col, int missingValue)
+    {
+        return mCells.get (keyOf (row, col), missingValue);
+    }
+
+    public boolean contains (int row, int col)
+    {
+        return mCells.containsKey (keyOf (row, col));
+    }
+
+    public void put (int row, int col, int value)
+    {
+        mCells.put (keyOf (row, col), value);
+    }
+
+    /**
+     * @return true if the cell had a value
+     */
+    public boolean remove (int row, int col)
+    {
+        return mCells.remove (keyOf (row, col));
+    }
+
+    public void clear ()
+    {
+        mCells.clear ();
+    }
+
+    /**
+     * Visits every cell that has a value, in no particular order; split each key with rowOf and
+     * columnOf. The map must not be changed meanwhile.
+     *
+     * @return false if the visitor stopped early
+     */
+    public boolean forEach (LongIntEntryVisitor visitor)
+    {
+        return mCells.forEach (visitor);
+    }
+}
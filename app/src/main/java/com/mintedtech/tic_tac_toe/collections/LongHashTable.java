@@ -0,0 +1,237 @@
+package com.mintedtech.tic_tac_toe.collections;
+
+import com.mintedtech.tic_tac_toe.interfaces.LongIntEntryVisitor;
+
+import java.util.Arrays;
+
+/**
+ * Hash table from long keys to int values without boxing or per-entry objects:
+ * keys and values live in two parallel arrays (open addressing, linear probing, power-of-two
+ * capacity, grown at 50% load). Lookups are a multiply, a shift and usually a single probe.
+ * <p/>
+ * Callers that need more than one int per key store an index here and keep the data in
+ * their own primitive arrays. Key 0 is allowed (it is kept outside the arrays, since 0 marks
+ * an empty slot). Not thread-safe.
+ */
+public class LongHashTable
+{
+    private static final int MIN_CAPACITY = 16;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private int mShift;
+    private int mSize;
+
+    private boolean mHasZeroKey;
+    private int mZeroKeyValue;
+
+    public LongHashTable ()
+    {
+        this (MIN_CAPACITY / 2);
+    }
+
+    /**
+     * @param expectedSize number of keys the table should hold before it has to grow
+     */
+    public LongHashTable (int expectedSize)
+    {
+        allocate (capacityFor (expectedSize));
+    }
+
+    private static int capacityFor (int size)
+    {
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate (int capacity)
+    {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mShift = 64 - Integer.numberOfTrailingZeros (capacity);
+    }
+
+    private int slotFor (long key)
+    {
+        return (int) ((key * HASH_MULTIPLIER) >>> mShift);
+    }
+
+    /**
+     * For keys split over several tables, e.g. one per lock stripe: the table is picked by the
+     * middle bits of the same hash, as each table indexes by its top bits, which would all be
+     * alike among the keys of one table
+     *
+     * @param stripeCount how many tables there are; a power of two
+     * @return the index of key's table, below stripeCount
+     */
+    public static int stripeOf (long key, int stripeCount)
+    {
+        return (int) ((key * HASH_MULTIPLIER) >>> 32) & (stripeCount - 1);
+    }
+
+    public int size ()
+    {
+        return mSize;
+    }
+
+    /**
+     * @return the value stored for key, or missingValue if there is none
+     */
+    public int get (long key, int missingValue)
+    {
+        if (key == 0) {
+            return mHasZeroKey ? mZeroKeyValue : missingValue;
+        }
+
+        int mask = mKeys.length - 1;
+        for (int slot = slotFor (key); ; slot = (slot + 1) & mask) {
+            long slotKey = mKeys[slot];
+            if (slotKey == key) {
+                return mValues[slot];
+            }
+            if (slotKey == 0) {
+                return missingValue;
+            }
+        }
+    }
+
+    public boolean containsKey (long key)
+    {
+        if (key == 0) {
+            return mHasZeroKey;
+        }
+
+        int mask = mKeys.length - 1;
+        for (int slot = slotFor (key); ; slot = (slot + 1) & mask) {
+            long slotKey = mKeys[slot];
+            if (slotKey == key) {
+                return true;
+            }
+            if (slotKey == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Stores value for key, replacing any earlier value
+     */
+    public void put (long key, int value)
+    {
+        if (key == 0) {
+            if (!mHasZeroKey) {
+                mHasZeroKey = true;
+                mSize++;
+            }
+            mZeroKeyValue = value;
+            return;
+        }
+
+        int mask = mKeys.length - 1;
+        int slot = slotFor (key);
+        while (mKeys[slot] != 0 && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        mValues[slot] = value;
+        if (mKeys[slot] == 0) {
+            mKeys[slot] = key;
+            if (++mSize * 2 > mKeys.length) {
+                grow ();
+            }
+        }
+    }
+
+    /**
+     * Removes key (if present); later keys in the same probe run are shifted back into the gap,
+     * so no tombstones are left behind
+     *
+     * @return true if the key was present
+     */
+    public boolean remove (long key)
+    {
+        if (key == 0) {
+            if (!mHasZeroKey) {
+                return false;
+            }
+            mHasZeroKey = false;
+            mSize--;
+            return true;
+        }
+
+        int mask = mKeys.length - 1;
+        int slot = slotFor (key);
+        while (mKeys[slot] != key) {
+            if (mKeys[slot] == 0) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int gap = slot;
+        for (int next = (gap + 1) & mask; mKeys[next] != 0; next = (next + 1) & mask) {
+            int home = slotFor (mKeys[next]);
+            // move the entry back unless its home slot lies (cyclically) after the gap
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                mKeys[gap] = mKeys[next];
+                mValues[gap] = mValues[next];
+                gap = next;
+            }
+        }
+        mKeys[gap] = 0;
+        mValues[gap] = 0;
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Visits every entry, in no particular order; the table must not be changed meanwhile
+     *
+     * @return false if the visitor stopped early
+     */
+    public boolean forEach (LongIntEntryVisitor visitor)
+    {
+        if (mHasZeroKey && !visitor.visit (0, mZeroKeyValue)) {
+            return false;
+        }
+
+        for (int slot = 0; slot < mKeys.length; slot++) {
+            if (mKeys[slot] != 0 && !visitor.visit (mKeys[slot], mValues[slot])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear ()
+    {
+        Arrays.fill (mKeys, 0);
+        Arrays.fill (mValues, 0);
+        mHasZeroKey = false;
+        mSize = 0;
+    }
+
+    private void grow ()
+    {
+        long[] oldKeys = mKeys;
+        int[] oldValues = mValues;
+        allocate (oldKeys.length * 2);
+
+        int mask = mKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int slot = slotFor (key);
+                while (mKeys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                mKeys[slot] = key;
+                mValues[slot] = oldValues[i];
+            }
+        }
+    }
+}
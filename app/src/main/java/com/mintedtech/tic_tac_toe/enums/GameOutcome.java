@@ -0,0 +1,6 @@
+package com.mintedtech.tic_tac_toe.enums;
+
+public enum GameOutcome
+{
+    X_WON, O_WON, DRAW
+}
@@ -0,0 +1,6 @@
+package com.mintedtech.tic_tac_toe.enums;
+
+public enum OpponentType
+{
+    HUMAN, COMPUTER
+}
@@ -0,0 +1,11 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+// used by MetricsRegistry to read how much memory has been allocated, which is runtime specific
+public interface AllocationProbe
+{
+    /**
+     * @return bytes allocated so far (by this thread, or by the process where the runtime only
+     * tracks that); only differences between two readings are meaningful
+     */
+    long getAllocatedBytes ();
+}
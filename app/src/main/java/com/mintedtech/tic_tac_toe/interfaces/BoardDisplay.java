@@ -0,0 +1,36 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+/**
+ * What MainActivity needs from whatever shows the board: the RecyclerView adapter
+ * (CardViewImageAdapter) for small boards, or the single-View BoardView for large ones.
+ * Spaces are numbered row * size + col; images are drawable IDs, tints color resource IDs.
+ */
+public interface BoardDisplay
+{
+    int getItemCount ();
+
+    /**
+     * @return the drawable ID shown in that space, or -1 for a position outside the board
+     */
+    long getItemId (int position);
+
+    void setImage (int position, int newDrawableID);
+
+    void setImageTint (int position, int colorID);
+
+    void clearImageTint (int position);
+
+    void clearAllImageTints ();
+
+    void setAllImagesTint (int[] positions, int newColor);
+
+    void setAllImagesAndTints (int[] images, int[] tints);
+
+    void resetAllImagesAndTints ();
+
+    int[] getAllImages ();
+
+    int[] getAllImageTints ();
+
+    void setOnItemClickListener (OnItemClickCustomListener onItemClickListener);
+}
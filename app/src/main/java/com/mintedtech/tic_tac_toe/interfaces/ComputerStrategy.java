@@ -0,0 +1,22 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.util.Random;
+
+// how a computer player picks its moves (see the ai package); used by MainActivity's
+// computer opponent and by the server's computer players
+public interface ComputerStrategy
+{
+    /**
+     * Picks a move for the current player; must not change the game, and may be called from
+     * several threads at once (each with its own game)
+     *
+     * @param game          a game that is not over
+     * @param random        for any choice left to chance
+     * @param deadlineNanos when to answer by (System.nanoTime); a strategy that searches stops
+     *                      there with the best move it has found so far
+     * @return the space to play, row * size + col
+     */
+    int chooseMove (TicTacToe game, Random random, long deadlineNanos);
+}
@@ -0,0 +1,13 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+import com.mintedtech.tic_tac_toe.models.GameRecord;
+
+// used to stream games out of the GameHistoryStore one at a time instead of loading them all
+public interface GameRecordVisitor
+{
+    /**
+     * @param record the next matching game, oldest first
+     * @return true to continue the scan, false to stop it
+     */
+    boolean visit (GameRecord record);
+}
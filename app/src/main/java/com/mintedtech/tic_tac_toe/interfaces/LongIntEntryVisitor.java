@@ -0,0 +1,12 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+// used to walk the entries of a LongHashTable (or a CellMap) without boxing them
+public interface LongIntEntryVisitor
+{
+    /**
+     * @param key   the entry's key
+     * @param value the value stored for it
+     * @return true to continue, false to stop
+     */
+    boolean visit (long key, int value);
+}
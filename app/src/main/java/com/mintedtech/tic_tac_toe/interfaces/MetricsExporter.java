@@ -0,0 +1,15 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+import com.mintedtech.tic_tac_toe.metrics.MetricsRegistry;
+
+import java.io.IOException;
+
+// used to write out all of a MetricsRegistry's metrics in one format (plain text, Prometheus...)
+public interface MetricsExporter
+{
+    /**
+     * @param registry the metrics to write, read as they are at this moment
+     * @param out      where to write them
+     */
+    void export (MetricsRegistry registry, Appendable out) throws IOException;
+}
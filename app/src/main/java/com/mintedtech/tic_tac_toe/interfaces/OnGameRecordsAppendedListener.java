@@ -0,0 +1,17 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+import com.mintedtech.tic_tac_toe.models.GameRecord;
+
+import java.util.List;
+
+// used by GameHistoryStore to let derived data (statistics, indexes) follow the history as it grows
+public interface OnGameRecordsAppendedListener
+{
+    /**
+     * Called on the writer thread after a batch of games has been written
+     *
+     * @param firstRecordIndex history position of the first game in records
+     * @param records          the games just written, oldest first
+     */
+    void onGameRecordsAppended (long firstRecordIndex, List<GameRecord> records);
+}
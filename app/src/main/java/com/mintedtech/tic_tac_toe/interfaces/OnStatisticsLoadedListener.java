@@ -0,0 +1,14 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+import com.mintedtech.tic_tac_toe.models.GameStatistics;
+
+// used by StatisticsStore to hand over the aggregates it loaded off the caller's thread
+public interface OnStatisticsLoadedListener
+{
+    /**
+     * Called on the writer thread
+     *
+     * @param statistics a copy of the aggregates, or null if they could not be read
+     */
+    void onStatisticsLoaded (GameStatistics statistics);
+}
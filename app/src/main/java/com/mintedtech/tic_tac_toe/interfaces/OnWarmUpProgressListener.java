@@ -0,0 +1,11 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+// used by StartupWarmer to report, on the main thread, how far the warm-up has got
+public interface OnWarmUpProgressListener
+{
+    /**
+     * @param stepsDone  steps finished so far; equal to totalSteps once the warm-up is over
+     * @param totalSteps steps in all
+     */
+    void onWarmUpProgress (int stepsDone, int totalSteps);
+}
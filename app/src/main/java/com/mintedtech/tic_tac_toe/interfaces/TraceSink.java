@@ -0,0 +1,17 @@
+package com.mintedtech.tic_tac_toe.interfaces;
+
+// used by Tracer to hand trace spans to whatever records them (android.os.Trace, a ring buffer...)
+public interface TraceSink
+{
+    /**
+     * Opens a span on the calling thread, nested in any span the thread already has open
+     *
+     * @param name what the span measures, e.g. "TicTacToe.attemptTurn"
+     */
+    void beginSection (String name);
+
+    /**
+     * Closes the span the calling thread opened last
+     */
+    void endSection ();
+}
@@ -0,0 +1,40 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+/**
+ * Time and bytes for one binary encoding, e.g. the game snapshot or the history record:
+ * "<name>.encode" and "<name>.decode" latencies, "<name>.bytes_encoded" and
+ * "<name>.bytes_decoded" counters
+ */
+public class CodecMetrics
+{
+    private final LatencyHistogram mEncodeTime, mDecodeTime;
+    private final Counter mBytesEncoded, mBytesDecoded;
+
+    public CodecMetrics (MetricsRegistry registry, String name, String what)
+    {
+        mEncodeTime = registry.latency (name + ".encode", "Time to encode " + what);
+        mDecodeTime = registry.latency (name + ".decode", "Time to decode " + what);
+        mBytesEncoded = registry.counter (name + ".bytes_encoded", "Bytes of " + what + " encoded");
+        mBytesDecoded = registry.counter (name + ".bytes_decoded", "Bytes of " + what + " decoded");
+    }
+
+    /**
+     * @param startNanos System.nanoTime () when encoding started
+     * @param bytes      size of the encoding
+     */
+    public void recordEncode (long startNanos, int bytes)
+    {
+        mEncodeTime.recordSince (startNanos);
+        mBytesEncoded.add (bytes);
+    }
+
+    /**
+     * @param startNanos System.nanoTime () when decoding started
+     * @param bytes      size of the encoding
+     */
+    public void recordDecode (long startNanos, int bytes)
+    {
+        mDecodeTime.recordSince (startNanos);
+        mBytesDecoded.add (bytes);
+    }
+}
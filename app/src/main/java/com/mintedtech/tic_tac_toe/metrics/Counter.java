@@ -0,0 +1,80 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count that many threads can add to without contending: each thread adds to one of several
+ * cells (picked by thread ID) and reads sum the cells, as java.util.concurrent's LongAdder does -
+ * which needs Android 7, so this is the minimal version of it. Cells are spread a cache line
+ * apart so threads on different cores do not share one.
+ */
+public class Counter
+{
+    // longs per cell: 8 longs = 64 bytes, a common cache line size
+    private static final int CELL_STRIDE = 8;
+    private static final int CELLS = cellCountFor (Runtime.getRuntime ().availableProcessors ());
+
+    private final String mName;
+    private final String mHelp;
+    private final AtomicLongArray mCells = new AtomicLongArray (CELLS * CELL_STRIDE);
+
+    /**
+     * @param name dotted name, e.g. "model.moves_applied"
+     * @param help one line saying what is counted
+     */
+    public Counter (String name, String help)
+    {
+        mName = name;
+        mHelp = help;
+    }
+
+    private static int cellCountFor (int processors)
+    {
+        int cells = 1;
+        while (cells < processors * 2 && cells < 64) {
+            cells <<= 1;
+        }
+        return cells;
+    }
+
+    public String getName ()
+    {
+        return mName;
+    }
+
+    public String getHelp ()
+    {
+        return mHelp;
+    }
+
+    public void increment ()
+    {
+        add (1);
+    }
+
+    public void add (long amount)
+    {
+        long threadID = Thread.currentThread ().getId ();
+        int cell = (int) (threadID ^ threadID >>> 16) & (CELLS - 1);
+        mCells.addAndGet (cell * CELL_STRIDE, amount);
+    }
+
+    /**
+     * @return the total; adds made while this runs may or may not be included
+     */
+    public long sum ()
+    {
+        long sum = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            sum += mCells.get (cell * CELL_STRIDE);
+        }
+        return sum;
+    }
+
+    public void reset ()
+    {
+        for (int cell = 0; cell < CELLS; cell++) {
+            mCells.set (cell * CELL_STRIDE, 0);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+/**
+ * The metrics of the game engine proper - model, computer players, encodings - in the
+ * default registry. None of this depends on Android, so a headless simulator or server
+ * records exactly what the app does.
+ */
+public final class EngineMetrics
+{
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault ();
+
+    // Model
+    public static final Counter MOVES_APPLIED =
+            REGISTRY.counter ("model.moves_applied", "Moves applied to a game");
+    public static final Counter WIN_CHECKS =
+            REGISTRY.counter ("model.win_checks", "Boards checked for a winner");
+    public static final Counter GAMES_FINISHED =
+            REGISTRY.counter ("model.games_finished", "Games that ended in a win or a draw");
+
+    // Computer players: the transposition table hit rate is tt_hits / tt_probes
+    public static final Counter SEARCH_NODES =
+            REGISTRY.counter ("ai.search_nodes", "Positions visited by game tree searches");
+    public static final Counter TT_PROBES =
+            REGISTRY.counter ("ai.tt_probes", "Transposition table lookups");
+    public static final Counter TT_HITS =
+            REGISTRY.counter ("ai.tt_hits", "Transposition table lookups that found the position");
+
+    // Encodings
+    public static final CodecMetrics GAME_CODEC =
+            new CodecMetrics (REGISTRY, "codec.game", "game snapshots (TicTacToe.writeTo)");
+    public static final CodecMetrics RECORD_CODEC =
+            new CodecMetrics (REGISTRY, "codec.record", "game history records");
+
+    // Memory
+    public static final Histogram GAME_ALLOCATED_BYTES =
+            REGISTRY.histogram ("game.allocated_bytes",
+                                "Bytes allocated from the start to the end of a game");
+
+    private EngineMetrics ()
+    {
+    }
+
+    /**
+     * @return a reading to pass to recordGameAllocations when the game ends (-1 if unknown)
+     */
+    public static long markAllocations ()
+    {
+        return REGISTRY.getAllocatedBytes ();
+    }
+
+    /**
+     * Records the bytes allocated since mark into GAME_ALLOCATED_BYTES (unless either reading
+     * is unknown)
+     */
+    public static void recordGameAllocations (long mark)
+    {
+        long now = REGISTRY.getAllocatedBytes ();
+        if (mark >= 0 && now >= mark) {
+            GAME_ALLOCATED_BYTES.record (now - mark);
+        }
+    }
+}
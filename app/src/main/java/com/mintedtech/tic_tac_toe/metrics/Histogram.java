@@ -0,0 +1,155 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values that any thread can record into without locking or
+ * allocating: a record is a few shifts and a few atomic adds.
+ * <p/>
+ * The buckets are fixed and log-linear: exact below 16, then 16 buckets per power of two,
+ * so any percentile read back is within about 6% of the true value. Values up to 2^40 have
+ * buckets of their own (under 700 counters); larger ones share the last bucket.
+ */
+public class Histogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS =
+            SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final String mName;
+    private final String mHelp;
+    private final AtomicLongArray mCounts = new AtomicLongArray (BUCKETS);
+    private final AtomicLong mCount = new AtomicLong ();
+    private final AtomicLong mTotal = new AtomicLong ();
+    private final AtomicLong mMax = new AtomicLong ();
+
+    /**
+     * @param name dotted name, e.g. "game.allocated_bytes"
+     * @param help one line saying what is recorded (and in which unit)
+     */
+    public Histogram (String name, String help)
+    {
+        mName = name;
+        mHelp = help;
+    }
+
+    public String getName ()
+    {
+        return mName;
+    }
+
+    public String getHelp ()
+    {
+        return mHelp;
+    }
+
+    /**
+     * @param value the value to count; negative values count as 0
+     */
+    public void record (long value)
+    {
+        value = Math.max (0, value);
+        mCounts.incrementAndGet (getBucket (value));
+        mCount.incrementAndGet ();
+        mTotal.addAndGet (value);
+
+        long max;
+        while (value > (max = mMax.get ()) && !mMax.compareAndSet (max, value)) {
+            // another thread raised the max meanwhile; look again
+        }
+    }
+
+    static int getBucket (long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = Math.min (63 - Long.numberOfLeadingZeros (value), MAX_EXPONENT);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        if (exponent == MAX_EXPONENT && value >>> MAX_EXPONENT > 1) {
+            subBucket = SUB_BUCKETS - 1;
+        }
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the middle of the range of values that fall into bucket
+     */
+    static long getBucketMidpoint (int bucket)
+    {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + subBucket * width + width / 2;
+    }
+
+    public long getCount ()
+    {
+        return mCount.get ();
+    }
+
+    public long getTotal ()
+    {
+        return mTotal.get ();
+    }
+
+    public long getMean ()
+    {
+        long count = mCount.get ();
+        return count == 0 ? 0 : mTotal.get () / count;
+    }
+
+    public long getMax ()
+    {
+        return mMax.get ();
+    }
+
+    /**
+     * @param percentile from 0 to 100, e.g. 99 for p99
+     * @return the value below which that share of the recorded values falls, or 0 if none were
+     */
+    public long getPercentile (double percentile)
+    {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts[bucket] = mCounts.get (bucket);
+            total += counts[bucket];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max (1, (long) Math.ceil (total * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                // never report more than was actually seen
+                return Math.min (getBucketMidpoint (bucket), mMax.get ());
+            }
+        }
+        return mMax.get ();
+    }
+
+    /**
+     * Starts over; values recorded while this runs may or may not survive it
+     */
+    public void reset ()
+    {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            mCounts.set (bucket, 0);
+        }
+        mCount.set (0);
+        mTotal.set (0);
+        mMax.set (0);
+    }
+}
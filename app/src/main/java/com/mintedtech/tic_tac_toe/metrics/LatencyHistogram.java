@@ -0,0 +1,49 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+/**
+ * Histogram of durations, kept in microseconds: the buckets then cover 1 us to about twelve
+ * days. Durations go in and come out in nanoseconds.
+ */
+public class LatencyHistogram extends Histogram
+{
+    public LatencyHistogram (String name, String help)
+    {
+        super (name, help);
+    }
+
+    /**
+     * @param nanos a duration, e.g. the difference of two System.nanoTime () readings;
+     *              negative values count as 0
+     */
+    public void recordNanos (long nanos)
+    {
+        record (nanos / 1000);
+    }
+
+    /**
+     * Records the time since startNanos (a System.nanoTime () reading)
+     */
+    public void recordSince (long startNanos)
+    {
+        record ((System.nanoTime () - startNanos) / 1000);
+    }
+
+    public long getMeanNanos ()
+    {
+        return getMean () * 1000;
+    }
+
+    public long getMaxNanos ()
+    {
+        return getMax () * 1000;
+    }
+
+    /**
+     * @param percentile from 0 to 100, e.g. 99 for p99
+     * @return the duration below which that share of the recorded ones falls, or 0 if none were
+     */
+    public long getPercentileNanos (double percentile)
+    {
+        return getPercentile (percentile) * 1000;
+    }
+}
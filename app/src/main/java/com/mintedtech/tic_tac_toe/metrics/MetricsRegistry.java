@@ -0,0 +1,194 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+import com.mintedtech.tic_tac_toe.interfaces.AllocationProbe;
+import com.mintedtech.tic_tac_toe.interfaces.MetricsExporter;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named counters and histograms, created on first use and then shared by every caller that
+ * asks for the same name. Looking a metric up takes a map read, so callers keep the returned
+ * object (usually in a static final field, see EngineMetrics) and updating it is lock-free.
+ * <p/>
+ * The default registry is what the app, the model, the persistence code and any headless
+ * runner built on TicTacToe all record into, so numbers from a device and from a benchmark
+ * come from the same code and can be exported (see MetricsExporter) the same way.
+ */
+public class MetricsRegistry
+{
+    private static final MetricsRegistry sDefault = new MetricsRegistry ();
+
+    private final ConcurrentMap<String, Counter> mCounters = new ConcurrentHashMap<> ();
+    private final ConcurrentMap<String, Histogram> mHistograms = new ConcurrentHashMap<> ();
+    private volatile AllocationProbe mAllocationProbe = getThreadAllocationProbeOrNull ();
+
+    /**
+     * @return the registry shared by everything in this process
+     */
+    public static MetricsRegistry getDefault ()
+    {
+        return sDefault;
+    }
+
+    /**
+     * @return the counter with this name, created (with this help text) if there is none yet
+     */
+    public Counter counter (String name, String help)
+    {
+        Counter counter = mCounters.get (name);
+        if (counter == null) {
+            Counter newCounter = new Counter (name, help);
+            counter = mCounters.putIfAbsent (name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return the histogram with this name, created (with this help text) if there is none yet
+     */
+    public Histogram histogram (String name, String help)
+    {
+        Histogram histogram = mHistograms.get (name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram (name, help);
+            histogram = mHistograms.putIfAbsent (name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the latency histogram with this name, created if there is none yet
+     * @throws IllegalArgumentException if the name is taken by a histogram of plain values
+     */
+    public LatencyHistogram latency (String name, String help)
+    {
+        Histogram histogram = mHistograms.get (name);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram (name, help);
+            histogram = mHistograms.putIfAbsent (name, newHistogram);
+            if (histogram == null) {
+                return newHistogram;
+            }
+        }
+
+        if (!(histogram instanceof LatencyHistogram)) {
+            throw new IllegalArgumentException (name + " is not a latency histogram");
+        }
+        return (LatencyHistogram) histogram;
+    }
+
+    /**
+     * @return all counters, sorted by name
+     */
+    public List<Counter> getCounters ()
+    {
+        List<Counter> counters = new ArrayList<> (mCounters.values ());
+        Collections.sort (counters, (a, b) -> a.getName ().compareTo (b.getName ()));
+        return counters;
+    }
+
+    /**
+     * @return all histograms (latency ones included), sorted by name
+     */
+    public List<Histogram> getHistograms ()
+    {
+        List<Histogram> histograms = new ArrayList<> (mHistograms.values ());
+        Collections.sort (histograms, (a, b) -> a.getName ().compareTo (b.getName ()));
+        return histograms;
+    }
+
+    public void export (MetricsExporter exporter, Appendable out) throws IOException
+    {
+        exporter.export (this, out);
+    }
+
+    public String exportToString (MetricsExporter exporter)
+    {
+        StringBuilder text = new StringBuilder ();
+        try {
+            exporter.export (this, text);
+        }
+        catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new IllegalStateException (e);
+        }
+        return text.toString ();
+    }
+
+    /**
+     * Zeroes every metric (they stay registered)
+     */
+    public void reset ()
+    {
+        for (Counter counter : mCounters.values ()) {
+            counter.reset ();
+        }
+        for (Histogram histogram : mHistograms.values ()) {
+            histogram.reset ();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Allocations
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Replaces the probe; on a JVM that reports per-thread allocations one is set up already,
+     * elsewhere (e.g. Android) the platform code sets one
+     */
+    public void setAllocationProbe (AllocationProbe probe)
+    {
+        mAllocationProbe = probe;
+    }
+
+    /**
+     * @return the probe's reading, or -1 if there is no probe
+     */
+    public long getAllocatedBytes ()
+    {
+        AllocationProbe probe = mAllocationProbe;
+        return probe == null ? -1 : probe.getAllocatedBytes ();
+    }
+
+    /**
+     * The JVM's per-thread allocation counter (com.sun.management.ThreadMXBean), looked up by
+     * reflection because neither it nor java.lang.management exist on Android
+     */
+    private static AllocationProbe getThreadAllocationProbeOrNull ()
+    {
+        try {
+            final Object threadBean = Class.forName ("java.lang.management.ManagementFactory")
+                    .getMethod ("getThreadMXBean").invoke (null);
+            final Method getThreadAllocatedBytes = Class.forName ("com.sun.management.ThreadMXBean")
+                    .getMethod ("getThreadAllocatedBytes", long.class);
+
+            // fail here rather than on every reading if it is not supported
+            getThreadAllocatedBytes.invoke (threadBean, Thread.currentThread ().getId ());
+
+            return () -> {
+                try {
+                    return (Long) getThreadAllocatedBytes.invoke (
+                            threadBean, Thread.currentThread ().getId ());
+                }
+                catch (ReflectiveOperationException e) {
+                    return -1;
+                }
+            };
+        }
+        catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The app's own timings, in the default registry: the steps of a turn, from the tap to the
+ * frame that shows the move, plus computer moves, saving, and every frame the window draws.
+ * Recording is lock-free, so it can stay on in release builds.
+ */
+public final class PerformanceMetrics
+{
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault ();
+
+    // A human move: the tap, through the model update and the board update, to the next frame
+    public static final LatencyHistogram TAP_TO_FRAME = REGISTRY.latency (
+            "turn.tap_to_frame", "Tap on a space until the frame showing the move is drawn");
+    public static final LatencyHistogram HUMAN_TURN = REGISTRY.latency (
+            "turn.human", "Handling of a human move on the main thread");
+    public static final LatencyHistogram MODEL_UPDATE = REGISTRY.latency (
+            "turn.model_update", "Applying a move to the model");
+    public static final LatencyHistogram BOARD_BIND = REGISTRY.latency (
+            "board.bind", "Binding (or redrawing) one space of the board");
+
+    public static final LatencyHistogram COMPUTER_TURN = REGISTRY.latency (
+            "turn.computer", "Choosing and showing a computer move");
+    public static final LatencyHistogram PERSISTENCE_TASK = REGISTRY.latency (
+            "persistence.task", "One task on the persistence writer thread");
+
+    // Whole frames as reported by the window; janky frames took longer than one refresh,
+    // frozen ones longer than FROZEN_FRAME_NANOS
+    public static final LatencyHistogram FRAME = REGISTRY.latency (
+            "frame.total", "Total duration of a frame");
+    public static final Counter JANKY_FRAMES = REGISTRY.counter (
+            "frame.janky", "Frames longer than one display refresh");
+    public static final Counter FROZEN_FRAMES = REGISTRY.counter (
+            "frame.frozen", "Frames longer than 700 ms");
+    public static final long FROZEN_FRAME_NANOS = 700_000_000L;
+
+    private static final LatencyHistogram[] ALL = {
+            TAP_TO_FRAME, HUMAN_TURN, MODEL_UPDATE, BOARD_BIND,
+            COMPUTER_TURN, PERSISTENCE_TASK, FRAME};
+
+    private PerformanceMetrics ()
+    {
+    }
+
+    /**
+     * Counts one frame
+     *
+     * @param totalNanos       how long the frame took
+     * @param frameBudgetNanos one refresh interval of the display
+     */
+    public static void recordFrame (long totalNanos, long frameBudgetNanos)
+    {
+        FRAME.recordNanos (totalNanos);
+        if (totalNanos > frameBudgetNanos) {
+            JANKY_FRAMES.increment ();
+        }
+        if (totalNanos > FROZEN_FRAME_NANOS) {
+            FROZEN_FRAMES.increment ();
+        }
+    }
+
+    /**
+     * Writes a compact summary for the overlay: one line per histogram above (count, p50, p95,
+     * p99, max; in ms) and the frame counts. The full set of metrics is exported through
+     * the registry.
+     */
+    public static void writeReport (Appendable out) throws IOException
+    {
+        for (LatencyHistogram histogram : ALL) {
+            out.append (String.format (Locale.US,
+                                       "%-20s n=%-6d p50=%.2f p95=%.2f p99=%.2f max=%.2f\n",
+                                       histogram.getName (), histogram.getCount (),
+                                       toMillis (histogram.getPercentileNanos (50)),
+                                       toMillis (histogram.getPercentileNanos (95)),
+                                       toMillis (histogram.getPercentileNanos (99)),
+                                       toMillis (histogram.getMaxNanos ())));
+        }
+
+        long frames = FRAME.getCount ();
+        out.append (String.format (Locale.US, "frames n=%d janky=%d (%.1f%%) frozen=%d\n",
+                                   frames, JANKY_FRAMES.sum (),
+                                   frames == 0 ? 0 : 100.0 * JANKY_FRAMES.sum () / frames,
+                                   FROZEN_FRAMES.sum ()));
+    }
+
+    /**
+     * @return the report of writeReport as a String
+     */
+    public static String getReport ()
+    {
+        StringBuilder report = new StringBuilder ();
+        try {
+            writeReport (report);
+        }
+        catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new IllegalStateException (e);
+        }
+        return report.toString ();
+    }
+
+    private static double toMillis (long nanos)
+    {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,71 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+import com.mintedtech.tic_tac_toe.interfaces.MetricsExporter;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The Prometheus text exposition format, e.g. for a node_exporter textfile collector or for
+ * diffing benchmark runs: counters as counters (name_total), histograms as summaries with
+ * the 0.5, 0.95 and 0.99 quantiles plus _sum and _count. Latencies are in seconds, as
+ * Prometheus expects. Dots in metric names become underscores, under the "tictactoe_" prefix.
+ */
+public class PrometheusMetricsExporter implements MetricsExporter
+{
+    private static final String PREFIX = "tictactoe_";
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    @Override
+    public void export (MetricsRegistry registry, Appendable out) throws IOException
+    {
+        for (Counter counter : registry.getCounters ()) {
+            String name = toMetricName (counter.getName ());
+            writeHeader (out, name, counter.getHelp (), "counter");
+            out.append (name).append ("_total ").append (Long.toString (counter.sum ()))
+                    .append ('\n');
+        }
+
+        for (Histogram histogram : registry.getHistograms ()) {
+            boolean isLatency = histogram instanceof LatencyHistogram;
+            // latency histograms hold microseconds
+            double scale = isLatency ? 1e-6 : 1;
+            String name = toMetricName (histogram.getName ()) + (isLatency ? "_seconds" : "");
+
+            writeHeader (out, name, histogram.getHelp (), "summary");
+            for (double quantile : QUANTILES) {
+                out.append (name).append ("{quantile=\"").append (Double.toString (quantile))
+                        .append ("\"} ")
+                        .append (format (histogram.getPercentile (quantile * 100) * scale))
+                        .append ('\n');
+            }
+            out.append (name).append ("_sum ").append (format (histogram.getTotal () * scale))
+                    .append ('\n');
+            out.append (name).append ("_count ").append (Long.toString (histogram.getCount ()))
+                    .append ('\n');
+        }
+    }
+
+    private static void writeHeader (Appendable out, String name, String help, String type)
+            throws IOException
+    {
+        out.append ("# HELP ").append (name).append (' ')
+                .append (help.replace ("\\", "\\\\").replace ("\n", "\\n")).append ('\n');
+        out.append ("# TYPE ").append (name).append (' ').append (type).append ('\n');
+    }
+
+    static String toMetricName (String name)
+    {
+        StringBuilder metricName = new StringBuilder (PREFIX);
+        for (int i = 0; i < name.length (); i++) {
+            char c = name.charAt (i);
+            metricName.append (Character.isLetterOrDigit (c) && c < 128 ? c : '_');
+        }
+        return metricName.toString ();
+    }
+
+    private static String format (double value)
+    {
+        return String.format (Locale.US, "%.9g", value);
+    }
+}
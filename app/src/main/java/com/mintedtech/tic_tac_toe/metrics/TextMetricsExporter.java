@@ -0,0 +1,52 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+import com.mintedtech.tic_tac_toe.interfaces.MetricsExporter;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * One line per metric, for people: counters with their value, histograms with count, mean,
+ * p50, p95, p99 and max (latencies in milliseconds)
+ */
+public class TextMetricsExporter implements MetricsExporter
+{
+    @Override
+    public void export (MetricsRegistry registry, Appendable out) throws IOException
+    {
+        for (Counter counter : registry.getCounters ()) {
+            out.append (String.format (Locale.US, "%-32s %d\n",
+                                       counter.getName (), counter.sum ()));
+        }
+
+        for (Histogram histogram : registry.getHistograms ()) {
+            if (histogram instanceof LatencyHistogram) {
+                LatencyHistogram latency = (LatencyHistogram) histogram;
+                out.append (String.format (
+                        Locale.US,
+                        "%-32s n=%d mean=%.3fms p50=%.3fms p95=%.3fms p99=%.3fms max=%.3fms\n",
+                        latency.getName (), latency.getCount (),
+                        toMillis (latency.getMeanNanos ()),
+                        toMillis (latency.getPercentileNanos (50)),
+                        toMillis (latency.getPercentileNanos (95)),
+                        toMillis (latency.getPercentileNanos (99)),
+                        toMillis (latency.getMaxNanos ())));
+            }
+            else {
+                out.append (String.format (Locale.US,
+                                           "%-32s n=%d mean=%d p50=%d p95=%d p99=%d max=%d\n",
+                                           histogram.getName (), histogram.getCount (),
+                                           histogram.getMean (),
+                                           histogram.getPercentile (50),
+                                           histogram.getPercentile (95),
+                                           histogram.getPercentile (99),
+                                           histogram.getMax ()));
+            }
+        }
+    }
+
+    private static double toMillis (long nanos)
+    {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,187 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+import com.mintedtech.tic_tac_toe.interfaces.TraceSink;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The TraceSink for headless runs (benchmarks, a server...): keeps the latest span events in a
+ * fixed-size ring buffer and writes them out as Chrome trace-event JSON, which chrome://tracing
+ * and ui.perfetto.dev open as one timeline per thread. Recording an event takes one atomic
+ * increment to claim a slot; nothing is allocated and no thread waits for another.
+ * <p/>
+ * Once the buffer is full, each event overwrites the oldest one. An end whose begin was
+ * overwritten is left out of the output; a begin whose end never came shows as open until the
+ * end of the trace.
+ */
+public class TraceRecorder implements TraceSink
+{
+    private static final int MAX_CAPACITY = 1 << 24;
+
+    private final int mMask;
+    private final long[] mTimes, mThreadIDs;
+    private final String[] mNames;
+
+    // slot number + 1 of the event in each entry, written after the event; 0 while it is written
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mNextSlot = new AtomicLong ();
+
+    private final ConcurrentMap<Long, String> mThreadNames = new ConcurrentHashMap<> ();
+    private final ThreadLocal<Boolean> mThreadNamed = new ThreadLocal<> ();
+    private final long mOriginNanos = System.nanoTime ();
+
+    /**
+     * @param capacity how many events (a span is two) to keep; rounded up to a power of two
+     */
+    public TraceRecorder (int capacity)
+    {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException ("Capacity must be 1 to " + MAX_CAPACITY);
+        }
+
+        int size = Integer.highestOneBit (capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mTimes = new long[size];
+        mThreadIDs = new long[size];
+        mNames = new String[size];
+        mSequences = new AtomicLongArray (size);
+    }
+
+    @Override
+    public void beginSection (String name)
+    {
+        if (mThreadNamed.get () == null) {
+            Thread thread = Thread.currentThread ();
+            mThreadNames.put (thread.getId (), thread.getName ());
+            mThreadNamed.set (Boolean.TRUE);
+        }
+        record (name);
+    }
+
+    @Override
+    public void endSection ()
+    {
+        record (null);
+    }
+
+    // name is null for an end
+    private void record (String name)
+    {
+        long time = System.nanoTime ();
+        long slot = mNextSlot.getAndIncrement ();
+        int index = (int) slot & mMask;
+
+        mSequences.set (index, 0);
+        mTimes[index] = time;
+        mThreadIDs[index] = Thread.currentThread ().getId ();
+        mNames[index] = name;
+        mSequences.lazySet (index, slot + 1);
+    }
+
+    /**
+     * @return how many events were recorded in all, including those since overwritten
+     */
+    public long getRecordedCount ()
+    {
+        return mNextSlot.get ();
+    }
+
+    /**
+     * Writes the events in the buffer as a Chrome trace-event JSON object. Best done once
+     * tracing has stopped: events recorded meanwhile may be left out.
+     */
+    public synchronized void writeChromeJson (Appendable out) throws IOException
+    {
+        long end = mNextSlot.get ();
+        long start = Math.max (0, end - mTimes.length);
+        Map<Long, Integer> openSpans = new HashMap<> ();
+        boolean first = true;
+
+        out.append ("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        for (Map.Entry<Long, String> thread : mThreadNames.entrySet ()) {
+            out.append (first ? "\n" : ",\n");
+            first = false;
+            out.append ("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":")
+                    .append (String.valueOf (thread.getKey ()))
+                    .append (",\"args\":{\"name\":");
+            appendJsonString (out, thread.getValue ());
+            out.append ("}}");
+        }
+
+        for (long slot = start; slot < end; slot++) {
+            int index = (int) slot & mMask;
+            if (mSequences.get (index) != slot + 1) {
+                continue;
+            }
+            long time = mTimes[index], threadID = mThreadIDs[index];
+            String name = mNames[index];
+            if (mSequences.get (index) != slot + 1) {
+                // overwritten while it was read
+                continue;
+            }
+
+            Integer open = openSpans.get (threadID);
+            int depth = open == null ? 0 : open;
+            if (name == null && depth == 0) {
+                continue;
+            }
+            openSpans.put (threadID, name == null ? depth - 1 : depth + 1);
+
+            out.append (first ? "\n" : ",\n");
+            first = false;
+            out.append ("{\"ph\":\"").append (name == null ? "E" : "B").append ('"');
+            if (name != null) {
+                out.append (",\"name\":");
+                appendJsonString (out, name);
+            }
+            out.append (String.format (Locale.US, ",\"ts\":%.3f,\"pid\":1,\"tid\":%d}",
+                                       (time - mOriginNanos) / 1e3, threadID));
+        }
+        out.append ("\n]}\n");
+    }
+
+    /**
+     * Writes the events to file (see writeChromeJson), replacing what it held
+     */
+    public void writeChromeJson (File file) throws IOException
+    {
+        try (Writer out = new BufferedWriter (new OutputStreamWriter (
+                new FileOutputStream (file), StandardCharsets.UTF_8))) {
+            writeChromeJson (out);
+        }
+    }
+
+    private static void appendJsonString (Appendable out, String text) throws IOException
+    {
+        out.append ('"');
+        for (int i = 0; i < text.length (); i++) {
+            char c = text.charAt (i);
+            if (c == '"' || c == '\\') {
+                out.append ('\\').append (c);
+            }
+            else if (c < ' ') {
+                out.append (String.format (Locale.US, "\\u%04x", (int) c));
+            }
+            else {
+                out.append (c);
+            }
+        }
+        out.append ('"');
+    }
+}
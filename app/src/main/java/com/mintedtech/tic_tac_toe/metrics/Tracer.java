@@ -0,0 +1,67 @@
+package com.mintedtech.tic_tac_toe.metrics;
+
+import com.mintedtech.tic_tac_toe.interfaces.TraceSink;
+
+/**
+ * Begin/end spans around the engine's and the UI's hot paths, for timeline views of where a slow
+ * move or save spent its time, thread by thread. Spans go to one TraceSink: android.os.Trace in
+ * the app (so they show up in systrace / Perfetto), a TraceRecorder in headless runs.
+ * <p/>
+ * With no sink set, which is the default, a span costs one volatile read at each end. Always
+ * end a span in a finally block, so a thrown exception does not leave it open:
+ * <pre>
+ * Tracer.begin ("GameJournal.compact");
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     Tracer.end ();
+ * }
+ * </pre>
+ */
+public final class Tracer
+{
+    private static volatile TraceSink sSink;
+
+    private Tracer ()
+    {
+    }
+
+    /**
+     * @param sink where spans go from now on, or null to stop tracing; spans open at the time
+     *             may end in the other sink, which both sinks tolerate
+     */
+    public static void setSink (TraceSink sink)
+    {
+        sSink = sink;
+    }
+
+    public static TraceSink getSink ()
+    {
+        return sSink;
+    }
+
+    public static boolean isEnabled ()
+    {
+        return sSink != null;
+    }
+
+    /**
+     * @param name a constant string: it is not copied, and android.os.Trace allows 127 chars
+     */
+    public static void begin (String name)
+    {
+        TraceSink sink = sSink;
+        if (sink != null) {
+            sink.beginSection (name);
+        }
+    }
+
+    public static void end ()
+    {
+        TraceSink sink = sSink;
+        if (sink != null) {
+            sink.endSection ();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.mintedtech.tic_tac_toe.models;
+
+import com.mintedtech.tic_tac_toe.enums.GameOutcome;
+import com.mintedtech.tic_tac_toe.enums.OpponentType;
+import com.mintedtech.tic_tac_toe.enums.PlayerTurn;
+
+/**
+ * One finished game as kept in the game history: who played, how it ended, how long it took
+ * and every move in order (as space indices, row * size + col; X always moves first)
+ */
+public final class GameRecord
+{
+    // Think time is the total time the person (or people) playing took to choose their moves
+    public static final long UNKNOWN_THINK_TIME = -1;
+
+    private final long mStartTimeMillis, mDurationMillis, mThinkMillis;
+    private final GameOutcome mOutcome;
+    private final OpponentType mOpponentType;
+    private final boolean mHumanMovedFirst;
+    private final int mRowsOrColumns;
+    private final int[] mMoves;
+
+    public GameRecord (long startTimeMillis, long durationMillis, long thinkMillis,
+                       GameOutcome outcome, OpponentType opponentType, boolean humanMovedFirst,
+                       int rowsOrColumns, int[] moves)
+    {
+        mStartTimeMillis = startTimeMillis;
+        mDurationMillis = durationMillis;
+        mThinkMillis = thinkMillis;
+        mOutcome = outcome;
+        mOpponentType = opponentType;
+        mHumanMovedFirst = humanMovedFirst;
+        mRowsOrColumns = rowsOrColumns;
+        mMoves = moves.clone ();
+    }
+
+    /**
+     * Creates the record of a game that has just ended
+     *
+     * @param game            the finished game
+     * @param startTimeMillis wall-clock time at which the game started
+     * @param endTimeMillis   wall-clock time at which the game ended
+     * @param thinkMillis     total time the human player(s) took over their moves
+     * @param opponentType    whether the game was against the computer or another person
+     * @param humanMovedFirst whether a person (rather than the computer) played X
+     * @return the new record
+     */
+    public static GameRecord fromFinishedGame (TicTacToe game, long startTimeMillis,
+                                               long endTimeMillis, long thinkMillis,
+                                               OpponentType opponentType,
+                                               boolean humanMovedFirst)
+    {
+        if (!game.isGameOver ()) {
+            throw new IllegalStateException ("Game is not over yet");
+        }
+
+        GameOutcome outcome = !game.isWinner () ? GameOutcome.DRAW :
+                              game.getCurrentPlayer () == PlayerTurn.X
+                              ? GameOutcome.X_WON : GameOutcome.O_WON;
+
+        int[] moves = new int[game.getMoveCount ()];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = game.getMoveAt (i);
+        }
+
+        return new GameRecord (startTimeMillis, Math.max (0, endTimeMillis - startTimeMillis),
+                               thinkMillis, outcome, opponentType, humanMovedFirst,
+                               game.getTotalRowsOrColumns (), moves);
+    }
+
+    public long getStartTimeMillis ()
+    {
+        return mStartTimeMillis;
+    }
+
+    public long getDurationMillis ()
+    {
+        return mDurationMillis;
+    }
+
+    /**
+     * @return the total think time of the human player(s), or UNKNOWN_THINK_TIME
+     */
+    public long getThinkMillis ()
+    {
+        return mThinkMillis;
+    }
+
+    public GameOutcome getOutcome ()
+    {
+        return mOutcome;
+    }
+
+    public OpponentType getOpponentType ()
+    {
+        return mOpponentType;
+    }
+
+    public boolean isHumanMovedFirst ()
+    {
+        return mHumanMovedFirst;
+    }
+
+    public int getRowsOrColumns ()
+    {
+        return mRowsOrColumns;
+    }
+
+    public int getMoveCount ()
+    {
+        return mMoves.length;
+    }
+
+    public int getMoveAt (int moveNumber)
+    {
+        return mMoves[moveNumber];
+    }
+
+    /**
+     * @return how many of the moves were made by a person rather than the computer
+     */
+    public int getHumanMoveCount ()
+    {
+        if (mOpponentType == OpponentType.HUMAN) {
+            return mMoves.length;
+        }
+        // X makes the odd-numbered moves (1st, 3rd, ...)
+        return mHumanMovedFirst ? (mMoves.length + 1) / 2 : mMoves.length / 2;
+    }
+}
@@ -0,0 +1,361 @@
+package com.mintedtech.tic_tac_toe.models;
+
+import com.mintedtech.tic_tac_toe.enums.GameOutcome;
+import com.mintedtech.tic_tac_toe.enums.OpponentType;
+import com.mintedtech.tic_tac_toe.persistence.VarInt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Running totals over the game history, updated one finished game at a time (see add),
+ * so that every figure the statistics screen shows is a lookup or a single division:
+ * <ul>
+ * <li>wins/draws/losses by opponent type and by who moved first</li>
+ * <li>outcomes per opening move, per board size</li>
+ * <li>current and longest streaks</li>
+ * <li>a histogram of game lengths (in moves)</li>
+ * <li>average game duration and average think time per human move</li>
+ * </ul>
+ * Not thread-safe; StatisticsStore hands out copies.
+ */
+public class GameStatistics
+{
+    // Games of this many moves or more share the histogram's last bucket
+    public static final int MAX_TRACKED_GAME_LENGTH = 25;
+
+    private static final int ENCODING_VERSION = 1;
+    private static final int OUTCOMES = GameOutcome.values ().length;
+
+    // How many history records have been seen, including any from before a reset
+    private long mRecordsSeen;
+
+    private long mGamesCounted;
+    private long mTotalDurationMillis;
+    private long mTotalThinkMillis, mTimedHumanMoves;
+
+    // [opponent type][human moved first ? 1 : 0][outcome]
+    private final long[][][] mOutcomes = new long[OpponentType.values ().length][2][OUTCOMES];
+
+    // board size -> [opening space * OUTCOMES + outcome]
+    private final Map<Integer, long[]> mOpeningOutcomes = new TreeMap<> ();
+
+    private final long[] mGameLengths = new long[MAX_TRACKED_GAME_LENGTH + 1];
+
+    private GameOutcome mCurrentStreakOutcome;
+    private int mCurrentStreakLength;
+    private final int[] mLongestStreaks = new int[OUTCOMES];
+    private int mCurrentHumanWinStreak, mLongestHumanWinStreak;
+
+    public GameStatistics ()
+    {
+    }
+
+    public GameStatistics (GameStatistics source)
+    {
+        mRecordsSeen = source.mRecordsSeen;
+        mGamesCounted = source.mGamesCounted;
+        mTotalDurationMillis = source.mTotalDurationMillis;
+        mTotalThinkMillis = source.mTotalThinkMillis;
+        mTimedHumanMoves = source.mTimedHumanMoves;
+
+        for (int opponent = 0; opponent < mOutcomes.length; opponent++) {
+            for (int first = 0; first < 2; first++) {
+                System.arraycopy (source.mOutcomes[opponent][first], 0,
+                                  mOutcomes[opponent][first], 0, OUTCOMES);
+            }
+        }
+        for (Map.Entry<Integer, long[]> entry : source.mOpeningOutcomes.entrySet ()) {
+            mOpeningOutcomes.put (entry.getKey (), entry.getValue ().clone ());
+        }
+        System.arraycopy (source.mGameLengths, 0, mGameLengths, 0, mGameLengths.length);
+
+        mCurrentStreakOutcome = source.mCurrentStreakOutcome;
+        mCurrentStreakLength = source.mCurrentStreakLength;
+        System.arraycopy (source.mLongestStreaks, 0, mLongestStreaks, 0, OUTCOMES);
+        mCurrentHumanWinStreak = source.mCurrentHumanWinStreak;
+        mLongestHumanWinStreak = source.mLongestHumanWinStreak;
+    }
+
+    /**
+     * Folds one more finished game into the totals; games must be added in the order played
+     *
+     * @param record the game that just ended
+     */
+    public void add (GameRecord record)
+    {
+        GameOutcome outcome = record.getOutcome ();
+
+        mRecordsSeen++;
+        mGamesCounted++;
+        mTotalDurationMillis += record.getDurationMillis ();
+        if (record.getThinkMillis () != GameRecord.UNKNOWN_THINK_TIME) {
+            mTotalThinkMillis += record.getThinkMillis ();
+            mTimedHumanMoves += record.getHumanMoveCount ();
+        }
+
+        mOutcomes[record.getOpponentType ().ordinal ()]
+                [record.isHumanMovedFirst () ? 1 : 0][outcome.ordinal ()]++;
+
+        if (record.getMoveCount () > 0) {
+            int rowsOrColumns = record.getRowsOrColumns ();
+            long[] openings = mOpeningOutcomes.get (rowsOrColumns);
+            if (openings == null) {
+                openings = new long[rowsOrColumns * rowsOrColumns * OUTCOMES];
+                mOpeningOutcomes.put (rowsOrColumns, openings);
+            }
+            openings[record.getMoveAt (0) * OUTCOMES + outcome.ordinal ()]++;
+        }
+
+        mGameLengths[Math.min (record.getMoveCount (), MAX_TRACKED_GAME_LENGTH)]++;
+
+        mCurrentStreakLength = outcome == mCurrentStreakOutcome ? mCurrentStreakLength + 1 : 1;
+        mCurrentStreakOutcome = outcome;
+        mLongestStreaks[outcome.ordinal ()] =
+                Math.max (mLongestStreaks[outcome.ordinal ()], mCurrentStreakLength);
+
+        if (record.getOpponentType () == OpponentType.COMPUTER) {
+            mCurrentHumanWinStreak = isHumanWin (record) ? mCurrentHumanWinStreak + 1 : 0;
+            mLongestHumanWinStreak = Math.max (mLongestHumanWinStreak, mCurrentHumanWinStreak);
+        }
+    }
+
+    private static boolean isHumanWin (GameRecord record)
+    {
+        return record.getOutcome () == (record.isHumanMovedFirst ()
+                                        ? GameOutcome.X_WON : GameOutcome.O_WON);
+    }
+
+    /**
+     * Clears every total; games already in the history stay excluded from now on
+     */
+    public void reset ()
+    {
+        mGamesCounted = 0;
+        mTotalDurationMillis = 0;
+        mTotalThinkMillis = 0;
+        mTimedHumanMoves = 0;
+        for (long[][] byOpponent : mOutcomes) {
+            for (long[] byFirst : byOpponent) {
+                Arrays.fill (byFirst, 0);
+            }
+        }
+        mOpeningOutcomes.clear ();
+        Arrays.fill (mGameLengths, 0);
+        mCurrentStreakOutcome = null;
+        mCurrentStreakLength = 0;
+        Arrays.fill (mLongestStreaks, 0);
+        mCurrentHumanWinStreak = 0;
+        mLongestHumanWinStreak = 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Queries
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * @return how many history records these totals have caught up with
+     */
+    public long getRecordsSeen ()
+    {
+        return mRecordsSeen;
+    }
+
+    public long getGamesCounted ()
+    {
+        return mGamesCounted;
+    }
+
+    /**
+     * @param opponentType    HUMAN for two-player games, COMPUTER for games against the computer
+     * @param humanMovedFirst whether the person played X (always true for two-player games)
+     * @param outcome         which result to count
+     * @return how many such games ended with that outcome
+     */
+    public long getOutcomeCount (OpponentType opponentType, boolean humanMovedFirst,
+                                 GameOutcome outcome)
+    {
+        return mOutcomes[opponentType.ordinal ()][humanMovedFirst ? 1 : 0][outcome.ordinal ()];
+    }
+
+    /**
+     * @return how many games on that board size opened on that space and ended with that outcome
+     */
+    public long getOpeningOutcomeCount (int rowsOrColumns, int space, GameOutcome outcome)
+    {
+        long[] openings = mOpeningOutcomes.get (rowsOrColumns);
+        return openings == null ? 0 : openings[space * OUTCOMES + outcome.ordinal ()];
+    }
+
+    /**
+     * @return how many games on that board size opened on that space
+     */
+    public long getOpeningGameCount (int rowsOrColumns, int space)
+    {
+        long games = 0;
+        for (GameOutcome outcome : GameOutcome.values ()) {
+            games += getOpeningOutcomeCount (rowsOrColumns, space, outcome);
+        }
+        return games;
+    }
+
+    /**
+     * @param moves number of moves; values at or above MAX_TRACKED_GAME_LENGTH share one bucket
+     * @return how many games lasted that many moves
+     */
+    public long getGameLengthCount (int moves)
+    {
+        return mGameLengths[Math.min (moves, MAX_TRACKED_GAME_LENGTH)];
+    }
+
+    /**
+     * @return the average duration of a game in milliseconds, or 0 if none were played
+     */
+    public long getAverageDurationMillis ()
+    {
+        return mGamesCounted == 0 ? 0 : mTotalDurationMillis / mGamesCounted;
+    }
+
+    /**
+     * @return the average time a person took per move in milliseconds, or 0 if unknown
+     */
+    public long getAverageThinkMillis ()
+    {
+        return mTimedHumanMoves == 0 ? 0 : mTotalThinkMillis / mTimedHumanMoves;
+    }
+
+    /**
+     * @return the outcome of the latest game(s), or null if no game has been counted
+     */
+    public GameOutcome getCurrentStreakOutcome ()
+    {
+        return mCurrentStreakOutcome;
+    }
+
+    /**
+     * @return how many games in a row (up to the latest) ended with getCurrentStreakOutcome
+     */
+    public int getCurrentStreakLength ()
+    {
+        return mCurrentStreakLength;
+    }
+
+    public int getLongestStreak (GameOutcome outcome)
+    {
+        return mLongestStreaks[outcome.ordinal ()];
+    }
+
+    /**
+     * @return how many games in a row (up to the latest) the person has won against the computer
+     */
+    public int getCurrentHumanWinStreak ()
+    {
+        return mCurrentHumanWinStreak;
+    }
+
+    public int getLongestHumanWinStreak ()
+    {
+        return mLongestHumanWinStreak;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Binary encoding (see StatisticsStore)
+    // ---------------------------------------------------------------------------------------------
+
+    public void writeTo (DataOutput out) throws IOException
+    {
+        out.writeByte (ENCODING_VERSION);
+        VarInt.writeLong (out, mRecordsSeen);
+        VarInt.writeLong (out, mGamesCounted);
+        VarInt.writeLong (out, mTotalDurationMillis);
+        VarInt.writeLong (out, mTotalThinkMillis);
+        VarInt.writeLong (out, mTimedHumanMoves);
+
+        for (long[][] byOpponent : mOutcomes) {
+            for (long[] byFirst : byOpponent) {
+                for (long count : byFirst) {
+                    VarInt.writeLong (out, count);
+                }
+            }
+        }
+
+        VarInt.write (out, mOpeningOutcomes.size ());
+        for (Map.Entry<Integer, long[]> entry : mOpeningOutcomes.entrySet ()) {
+            VarInt.write (out, entry.getKey ());
+            for (long count : entry.getValue ()) {
+                VarInt.writeLong (out, count);
+            }
+        }
+
+        for (long count : mGameLengths) {
+            VarInt.writeLong (out, count);
+        }
+
+        out.writeByte (mCurrentStreakOutcome == null ? 0 : mCurrentStreakOutcome.ordinal () + 1);
+        VarInt.write (out, mCurrentStreakLength);
+        for (int streak : mLongestStreaks) {
+            VarInt.write (out, streak);
+        }
+        VarInt.write (out, mCurrentHumanWinStreak);
+        VarInt.write (out, mLongestHumanWinStreak);
+    }
+
+    public static GameStatistics readFrom (DataInput in) throws IOException
+    {
+        int version = in.readUnsignedByte ();
+        if (version != ENCODING_VERSION) {
+            throw new IOException ("Unsupported statistics encoding version " + version);
+        }
+
+        GameStatistics statistics = new GameStatistics ();
+        statistics.mRecordsSeen = VarInt.readLong (in);
+        statistics.mGamesCounted = VarInt.readLong (in);
+        statistics.mTotalDurationMillis = VarInt.readLong (in);
+        statistics.mTotalThinkMillis = VarInt.readLong (in);
+        statistics.mTimedHumanMoves = VarInt.readLong (in);
+
+        for (long[][] byOpponent : statistics.mOutcomes) {
+            for (long[] byFirst : byOpponent) {
+                for (int i = 0; i < byFirst.length; i++) {
+                    byFirst[i] = VarInt.readLong (in);
+                }
+            }
+        }
+
+        int boardSizes = VarInt.read (in);
+        for (int i = 0; i < boardSizes; i++) {
+            int rowsOrColumns = VarInt.read (in);
+            if (rowsOrColumns < 1 || rowsOrColumns > TicTacToe.MAX_ENCODED_ROWS_OR_COLUMNS) {
+                throw new IOException ("Invalid board size " + rowsOrColumns);
+            }
+            long[] openings = new long[rowsOrColumns * rowsOrColumns * OUTCOMES];
+            for (int j = 0; j < openings.length; j++) {
+                openings[j] = VarInt.readLong (in);
+            }
+            statistics.mOpeningOutcomes.put (rowsOrColumns, openings);
+        }
+
+        for (int i = 0; i < statistics.mGameLengths.length; i++) {
+            statistics.mGameLengths[i] = VarInt.readLong (in);
+        }
+
+        int streakOutcome = in.readUnsignedByte ();
+        if (streakOutcome > OUTCOMES) {
+            throw new IOException ("Invalid streak outcome " + streakOutcome);
+        }
+        statistics.mCurrentStreakOutcome =
+                streakOutcome == 0 ? null : GameOutcome.values ()[streakOutcome - 1];
+        statistics.mCurrentStreakLength = VarInt.read (in);
+        for (int i = 0; i < OUTCOMES; i++) {
+            statistics.mLongestStreaks[i] = VarInt.read (in);
+        }
+        statistics.mCurrentHumanWinStreak = VarInt.read (in);
+        statistics.mLongestHumanWinStreak = VarInt.read (in);
+
+        return statistics;
+    }
+}
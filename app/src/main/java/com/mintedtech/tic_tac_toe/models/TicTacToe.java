@@ -4,7 +4,13 @@ import com.google.gson.Gson;
 import com.mintedtech.tic_tac_toe.enums.PlayerTurn;
 import com.mintedtech.tic_tac_toe.enums.WinType;
 import com.mintedtech.tic_tac_toe.enums.WinTypeDiagonal;
+import com.mintedtech.tic_tac_toe.metrics.EngineMetrics;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+import com.mintedtech.tic_tac_toe.persistence.VarInt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 
 public class TicTacToe
@@ -27,11 +33,19 @@ public class TicTacToe
     private int mCurrentColumn, mPriorColumn, mCurrentRow,  mPriorRow;
     private boolean mCanUndo;
 
+    // Journal of the current game: space index (row * size + col) of each move, in order
+    private int[] mMoves;
+    private int mMoveCount;
+
     // Stats
     private final int[] mWinCount;
     private int mWinningRowOrColumn;
     public int mNumberOfGamesPlayed;
 
+    // Binary encoding (writeTo/readFrom)
+    private static final int ENCODING_VERSION = 1;
+    static final int MAX_ENCODED_ROWS_OR_COLUMNS = 4096;
+
     public TicTacToe (int totalRowsOrColumns)
     {
         mTOTAL_ROWS_OR_COLUMNS = totalRowsOrColumns;
@@ -40,16 +54,67 @@ public class TicTacToe
         this.mWinningSpaces = new boolean[totalRowsOrColumns][totalRowsOrColumns];
         this.mWinCount = new int[PlayerTurn.values ().length];
         this.mNumberOfGamesPlayed = 0;
+        this.mMoves = new int[totalRowsOrColumns * totalRowsOrColumns];
 
         this.mCurrentPlayer = PlayerTurn.None;
 
         startGame ();
     }
 
+    /**
+     * Creates a new game on a board of a different size that carries over the running totals
+     * (games played and wins) of an earlier game
+     *
+     * @param totalRowsOrColumns size of the new board
+     * @param statisticsSource   the game whose totals to keep
+     */
+    public TicTacToe (int totalRowsOrColumns, TicTacToe statisticsSource)
+    {
+        this (totalRowsOrColumns);
+        System.arraycopy (statisticsSource.mWinCount, 0, mWinCount, 0, mWinCount.length);
+        mNumberOfGamesPlayed = statisticsSource.mNumberOfGamesPlayed;
+    }
+
+    /**
+     * Creates an independent deep copy of source, e.g. as a snapshot to be saved on another thread
+     * while the original game continues
+     *
+     * @param source the game to copy
+     */
+    public TicTacToe (TicTacToe source)
+    {
+        mTOTAL_ROWS_OR_COLUMNS = source.mTOTAL_ROWS_OR_COLUMNS;
+
+        this.mBoardGrid = new PlayerTurn[mTOTAL_ROWS_OR_COLUMNS][];
+        this.mWinningSpaces = new boolean[mTOTAL_ROWS_OR_COLUMNS][];
+        for (int i = 0; i < mTOTAL_ROWS_OR_COLUMNS; i++) {
+            mBoardGrid[i] = source.mBoardGrid[i].clone ();
+            mWinningSpaces[i] = source.mWinningSpaces[i].clone ();
+        }
+        this.mWinCount = source.mWinCount.clone ();
+        this.mNumberOfGamesPlayed = source.mNumberOfGamesPlayed;
+
+        mCurrentPlayer = source.mCurrentPlayer;
+        mWinType = source.mWinType;
+        mWinTypeDiagonal = source.mWinTypeDiagonal;
+        mGameOver = source.mGameOver;
+
+        mCurrentColumn = source.mCurrentColumn;
+        mPriorColumn = source.mPriorColumn;
+        mCurrentRow = source.mCurrentRow;
+        mPriorRow = source.mPriorRow;
+        mCanUndo = source.mCanUndo;
+        mMoves = source.mMoves == null ? null : source.mMoves.clone ();
+        mMoveCount = source.mMoveCount;
+
+        mWinningRowOrColumn = source.mWinningRowOrColumn;
+    }
+
     public void startGame ()
     {
         mGameOver = false;
         mCanUndo = false;
+        clearMoveJournal ();
         setupBoardForNewGame ();
         setWinningSpacesArrayToAllFalse ();
 
@@ -63,6 +128,7 @@ public class TicTacToe
     private void endCurrentGame ()
     {
         mGameOver=true;
+        EngineMetrics.GAMES_FINISHED.increment ();
         if (isWinner ())
             mWinCount[mCurrentPlayer.ordinal ()]++;
 
@@ -126,9 +192,17 @@ public class TicTacToe
     public void attemptTurn (int row, int col)
     {
         if (isValidClick (row, col)) {
-            updateUndoStatus(row, col);
-            setSpaceXYToPlayer (row, col, mCurrentPlayer);
-            doNextPlayerOrEndGame ();
+            Tracer.begin ("TicTacToe.attemptTurn");
+            try {
+                updateUndoStatus (row, col);
+                addMoveToJournal (row, col);
+                setSpaceXYToPlayer (row, col, mCurrentPlayer);
+                EngineMetrics.MOVES_APPLIED.increment ();
+                doNextPlayerOrEndGame ();
+            }
+            finally {
+                Tracer.end ();
+            }
         }
         else {
             String errorMessage = "Cannot set row " + row + ", col " + col + " to " + mCurrentPlayer;
@@ -147,6 +221,24 @@ public class TicTacToe
         mCurrentColumn = col;
     }
 
+    private void clearMoveJournal ()
+    {
+        if (mMoves != null) {
+            Arrays.fill (mMoves, 0, mMoveCount, 0);
+        }
+        mMoveCount = 0;
+    }
+
+    private void addMoveToJournal (int row, int col)
+    {
+        // games restored from JSON saved before the journal existed have no array yet
+        if (mMoves == null) {
+            mMoves = new int[mTOTAL_ROWS_OR_COLUMNS * mTOTAL_ROWS_OR_COLUMNS];
+            mMoveCount = 0;
+        }
+        mMoves[mMoveCount++] = row * mTOTAL_ROWS_OR_COLUMNS + col;
+    }
+
     private void doNextPlayerOrEndGame ()
     {
         if (isBoardFull () || isWinner()) {
@@ -173,6 +265,31 @@ public class TicTacToe
         return mBoardGrid.clone (); //Arrays.copyOf (boardGrid, boardGrid.length);
     }
 
+    public int getTotalRowsOrColumns ()
+    {
+        return mTOTAL_ROWS_OR_COLUMNS;
+    }
+
+    /**
+     * @return the number of moves made so far in the current game
+     */
+    public int getMoveCount ()
+    {
+        return mMoveCount;
+    }
+
+    /**
+     * @param moveNumber zero-based index of a move in the current game (X's first move is 0)
+     * @return the space of that move as row * getTotalRowsOrColumns () + col
+     */
+    public int getMoveAt (int moveNumber)
+    {
+        if (moveNumber < 0 || moveNumber >= mMoveCount) {
+            throw new IndexOutOfBoundsException ("No move " + moveNumber + " in this game");
+        }
+        return mMoves[moveNumber];
+    }
+
     public PlayerTurn getCurrentPlayer ()
     {
         return mCurrentPlayer;
@@ -235,6 +352,8 @@ public class TicTacToe
         if (mCanUndo)
         {
             mBoardGrid[mCurrentRow][mCurrentColumn] = PlayerTurn.None;
+            if (mMoveCount > 0)
+                mMoves[--mMoveCount] = 0;
 
             mCurrentRow = mPriorRow;
             mCurrentColumn = mPriorColumn;
@@ -278,8 +397,15 @@ public class TicTacToe
 
     public boolean isWinner ()
     {
-        return (isRowWinner () || isColWinner ()
-                        || isDiagonalTopLeftWinner () || isDiagonalTopRightWinner ());
+        EngineMetrics.WIN_CHECKS.increment ();
+        Tracer.begin ("TicTacToe.isWinner");
+        try {
+            return (isRowWinner () || isColWinner ()
+                            || isDiagonalTopLeftWinner () || isDiagonalTopRightWinner ());
+        }
+        finally {
+            Tracer.end ();
+        }
     }
 
     private boolean isDiagonalTopRightWinner ()
@@ -458,4 +584,189 @@ public class TicTacToe
     {
         return getJSONFromGame (this);
     }
+
+    /**
+     * Writes the complete game state in a compact, bit-packed binary form:
+     * 2 bits per space for its player, 1 bit per space for the winning spaces,
+     * one byte for the current player, win types and flags, then varints for the
+     * undo positions, the statistics counters and the current game's moves.
+     * A 3x3 game in progress takes about 20 bytes (the JSON form takes about 500).
+     *
+     * @param out destination of the encoded game
+     * @throws IOException if out cannot be written
+     */
+    public void writeTo (DataOutput out) throws IOException
+    {
+        int totalSpaces = mTOTAL_ROWS_OR_COLUMNS * mTOTAL_ROWS_OR_COLUMNS;
+        byte[] players = new byte[(totalSpaces + 3) / 4];
+        byte[] winningSpaces = new byte[(totalSpaces + 7) / 8];
+
+        for (int space = 0; space < totalSpaces; space++) {
+            int row = space / mTOTAL_ROWS_OR_COLUMNS, col = space % mTOTAL_ROWS_OR_COLUMNS;
+            players[space >> 2] |= mBoardGrid[row][col].ordinal () << ((space & 3) << 1);
+            if (mWinningSpaces[row][col]) {
+                winningSpaces[space >> 3] |= 1 << (space & 7);
+            }
+        }
+
+        out.writeByte (ENCODING_VERSION);
+        VarInt.write (out, mTOTAL_ROWS_OR_COLUMNS);
+        out.write (players);
+        out.write (winningSpaces);
+
+        out.writeByte (mCurrentPlayer.ordinal ()
+                               | mWinType.ordinal () << 2
+                               | mWinTypeDiagonal.ordinal () << 4
+                               | (mGameOver ? 1 << 6 : 0)
+                               | (mCanUndo ? 1 << 7 : 0));
+
+        VarInt.write (out, mCurrentRow);
+        VarInt.write (out, mCurrentColumn);
+        VarInt.write (out, mPriorRow);
+        VarInt.write (out, mPriorColumn);
+        VarInt.write (out, mWinningRowOrColumn + 1);    // -1 (none) is stored as 0
+
+        VarInt.write (out, mNumberOfGamesPlayed);
+        for (int wins : mWinCount) {
+            VarInt.write (out, wins);
+        }
+
+        VarInt.write (out, mMoveCount);
+        for (int i = 0; i < mMoveCount; i++) {
+            VarInt.write (out, mMoves[i]);
+        }
+    }
+
+    /**
+     * Reverses writeTo. Every ordinal, index and count is range-checked, and the moves checked
+     * against the board (see checkMoves), so a damaged stream is an IOException rather than a
+     * game that fails later, on an undo or when its win is drawn
+     *
+     * @param in source of the encoded game
+     * @return The game object
+     * @throws IOException if in cannot be read or does not hold a valid game
+     */
+    public static TicTacToe readFrom (DataInput in) throws IOException
+    {
+        if (in.readUnsignedByte () != ENCODING_VERSION) {
+            throw new IOException ("Unknown game encoding");
+        }
+
+        int rowsOrColumns = VarInt.read (in);
+        if (rowsOrColumns == 0 || rowsOrColumns > MAX_ENCODED_ROWS_OR_COLUMNS) {
+            throw new IOException ("Invalid board size " + rowsOrColumns);
+        }
+
+        int totalSpaces = rowsOrColumns * rowsOrColumns;
+        byte[] players = new byte[(totalSpaces + 3) / 4];
+        byte[] winningSpaces = new byte[(totalSpaces + 7) / 8];
+        in.readFully (players);
+        in.readFully (winningSpaces);
+
+        TicTacToe game = new TicTacToe (rowsOrColumns);
+
+        for (int space = 0; space < totalSpaces; space++) {
+            int row = space / rowsOrColumns, col = space % rowsOrColumns;
+            game.mBoardGrid[row][col] = readEnum (PlayerTurn.values (),
+                                                  (players[space >> 2] >> ((space & 3) << 1)) & 3);
+            game.mWinningSpaces[row][col] = (winningSpaces[space >> 3] & (1 << (space & 7))) != 0;
+        }
+
+        int state = in.readUnsignedByte ();
+        game.mCurrentPlayer = readEnum (PlayerTurn.values (), state & 3);
+        game.mWinType = readEnum (WinType.values (), (state >> 2) & 3);
+        game.mWinTypeDiagonal = readEnum (WinTypeDiagonal.values (), (state >> 4) & 3);
+        game.mGameOver = (state & 1 << 6) != 0;
+        game.mCanUndo = (state & 1 << 7) != 0;
+
+        game.mCurrentRow = readIndex (in, rowsOrColumns, "row");
+        game.mCurrentColumn = readIndex (in, rowsOrColumns, "column");
+        game.mPriorRow = readIndex (in, rowsOrColumns, "row");
+        game.mPriorColumn = readIndex (in, rowsOrColumns, "column");
+        game.mWinningRowOrColumn = readIndex (in, rowsOrColumns + 1, "winning line") - 1;
+        if (game.mWinningRowOrColumn < 0
+                && (game.mWinType == WinType.ROW || game.mWinType == WinType.COLUMN)) {
+            throw new IOException ("No winning line for a " + game.mWinType + " win");
+        }
+
+        game.mNumberOfGamesPlayed = VarInt.read (in);
+        for (int i = 0; i < game.mWinCount.length; i++) {
+            game.mWinCount[i] = VarInt.read (in);
+        }
+
+        game.mMoveCount = readIndex (in, totalSpaces + 1, "move count");
+        for (int i = 0; i < game.mMoveCount; i++) {
+            game.mMoves[i] = readIndex (in, totalSpaces, "move");
+        }
+        checkMoves (game);
+
+        return game;
+    }
+
+    /**
+     * @return a varint from in, if it is below bound
+     */
+    private static int readIndex (DataInput in, int bound, String what) throws IOException
+    {
+        int value = VarInt.read (in);
+        if (value < 0 || value >= bound) {
+            throw new IOException ("Invalid " + what + " " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Checks that the board, the moves and whose turn it is agree: X has as many pieces as O or
+     * one more, as the player to move (or, once the game is over, the one who moved last)
+     * implies; the moves are on distinct spaces, each holding the piece of the player who
+     * alternately made them; and an undo would take back the last of them. The moves need not
+     * cover the board - games restored from the JSON saved before they were kept only have the
+     * moves made since.
+     */
+    private static void checkMoves (TicTacToe game) throws IOException
+    {
+        if (game.mCurrentPlayer == PlayerTurn.None) {
+            throw new IOException ("No player to move");
+        }
+
+        int size = game.mTOTAL_ROWS_OR_COLUMNS;
+        int surplusOfX = 0;
+        for (PlayerTurn[] row : game.mBoardGrid) {
+            for (PlayerTurn player : row) {
+                surplusOfX += player == PlayerTurn.X ? 1 : player == PlayerTurn.O ? -1 : 0;
+            }
+        }
+        PlayerTurn lastMover = game.mGameOver ? game.mCurrentPlayer : game.getPriorPlayer ();
+        if (surplusOfX != (lastMover == PlayerTurn.X ? 1 : 0)) {
+            throw new IOException ("Board does not match " + game.mCurrentPlayer + " to move");
+        }
+
+        boolean[] played = new boolean[size * size];
+        PlayerTurn player = lastMover;
+        for (int i = game.mMoveCount - 1; i >= 0; i--) {
+            int space = game.mMoves[i];
+            if (played[space] || game.mBoardGrid[space / size][space % size] != player) {
+                throw new IOException ("Move " + i + " does not match the board");
+            }
+            played[space] = true;
+            player = player == PlayerTurn.X ? PlayerTurn.O : PlayerTurn.X;
+        }
+
+        if (game.mCanUndo) {
+            int space = game.mCurrentRow * size + game.mCurrentColumn;
+            if (game.mBoardGrid[game.mCurrentRow][game.mCurrentColumn] == PlayerTurn.None
+                    || game.mMoveCount > 0 && game.mMoves[game.mMoveCount - 1] != space) {
+                throw new IOException ("Undo does not match the last move");
+            }
+        }
+    }
+
+    private static <E extends Enum<E>> E readEnum (E[] values, int ordinal) throws IOException
+    {
+        if (ordinal >= values.length) {
+            throw new IOException ("Invalid value " + ordinal + " for " +
+                                           values[0].getDeclaringClass ().getSimpleName ());
+        }
+        return values[ordinal];
+    }
 }
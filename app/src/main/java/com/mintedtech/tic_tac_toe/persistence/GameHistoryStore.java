@@ -0,0 +1,611 @@
+package com.mintedtech.tic_tac_toe.persistence;
+
+import com.mintedtech.tic_tac_toe.enums.GameOutcome;
+import com.mintedtech.tic_tac_toe.enums.OpponentType;
+import com.mintedtech.tic_tac_toe.interfaces.GameRecordVisitor;
+import com.mintedtech.tic_tac_toe.interfaces.OnGameRecordsAppendedListener;
+import com.mintedtech.tic_tac_toe.metrics.EngineMetrics;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+import com.mintedtech.tic_tac_toe.models.GameRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Every finished game, kept on disk as a compact move sequence.
+ * <p/>
+ * Records are appended to a data file and grouped into pages of about 4 KB. A small index file
+ * holds one summary per page (file offset, record count, earliest/latest start time and how
+ * many games of each outcome it contains); only those summaries are kept in memory. Scans read
+ * one page at a time, skipping every page whose summary rules it out, so a query by date range
+ * or outcome touches only the pages that can match and memory use does not grow with the
+ * number of games stored.
+ * <p/>
+ * Record layout (after a varint length): a flags byte (outcome, opponent type, who moved first,
+ * absolute/relative time, think time present), the start time (absolute for the first record
+ * of a page, otherwise the delta from the previous record), the duration, the think time if
+ * known, the board size and the moves - one nibble
+ * per move when the board has at most 16 spaces (3x3), otherwise one varint per move.
+ * A typical 3x3 game takes about 12 bytes.
+ * <p/>
+ * Appends are queued and written on the PersistenceWriter thread; listeners are told about
+ * each batch once it is on disk, so anything derived from the history can be kept up to date
+ * incrementally (and caught up later with scanFrom).
+ */
+public class GameHistoryStore
+{
+    private static final int PAGE_SIZE = 4 * 1024;
+    private static final int INDEX_ENTRY_SIZE = 8 + 4 + 4 + 8 + 8 + 4 * 3;
+    private static final int NIBBLE_PACKED_MAX_SPACES = 16;
+
+    // Record flags
+    private static final int FLAG_OPPONENT_COMPUTER = 1 << 2;
+    private static final int FLAG_HUMAN_MOVED_FIRST = 1 << 3;
+    private static final int FLAG_ABSOLUTE_TIME = 1 << 4;
+    private static final int FLAG_HAS_THINK_TIME = 1 << 5;
+
+    private static GameHistoryStore sInstance;
+
+    private final File mDataFile, mIndexFile;
+    private final PersistenceWriter mWriter;
+
+    // Appended by append(), drained on the writer thread
+    private final List<GameRecord> mQueuedRecords = new ArrayList<> ();
+
+    private final List<OnGameRecordsAppendedListener> mListeners =
+            new CopyOnWriteArrayList<> ();
+
+    // Summaries of all closed pages followed by the open (last) page; guarded by this
+    private List<PageSummary> mPages;
+    private long mLastStartTimeMillis;
+    private int mRecordCount;
+
+    /**
+     * In-memory summary of one page of the data file
+     */
+    private static class PageSummary
+    {
+        long offset;
+        int byteLength, recordCount;
+        long minStartTimeMillis = Long.MAX_VALUE, maxStartTimeMillis = Long.MIN_VALUE;
+        final int[] outcomeCounts = new int[GameOutcome.values ().length];
+
+        void add (GameRecord record, int recordLength)
+        {
+            byteLength += recordLength;
+            recordCount++;
+            minStartTimeMillis = Math.min (minStartTimeMillis, record.getStartTimeMillis ());
+            maxStartTimeMillis = Math.max (maxStartTimeMillis, record.getStartTimeMillis ());
+            outcomeCounts[record.getOutcome ().ordinal ()]++;
+        }
+
+        boolean mayContain (long fromMillis, long toMillis, Set<GameOutcome> outcomes)
+        {
+            if (recordCount == 0 || maxStartTimeMillis < fromMillis
+                    || minStartTimeMillis > toMillis) {
+                return false;
+            }
+            for (GameOutcome outcome : outcomes) {
+                if (outcomeCounts[outcome.ordinal ()] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public GameHistoryStore (File directory, PersistenceWriter writer)
+    {
+        mDataFile = new File (directory, "history.dat");
+        mIndexFile = new File (directory, "history.idx");
+        mWriter = writer;
+    }
+
+    /**
+     * @param directory where the history files are kept
+     * @return the history shared by everything in this process
+     */
+    public static synchronized GameHistoryStore getInstance (File directory)
+    {
+        if (sInstance == null) {
+            sInstance = new GameHistoryStore (directory, PersistenceWriter.getInstance ());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues a finished game to be added to the history; returns without waiting for the write
+     *
+     * @param record the game to add
+     */
+    public void append (GameRecord record)
+    {
+        synchronized (mQueuedRecords) {
+            mQueuedRecords.add (record);
+        }
+        mWriter.submit (mDataFile.getPath (), this::writeQueued);
+    }
+
+    /**
+     * @param listener told (on the writer thread) about every batch of games once it is written
+     */
+    public void addListener (OnGameRecordsAppendedListener listener)
+    {
+        mListeners.add (listener);
+    }
+
+    public void removeListener (OnGameRecordsAppendedListener listener)
+    {
+        mListeners.remove (listener);
+    }
+
+    /**
+     * @return the number of games written so far
+     */
+    public synchronized int getRecordCount () throws IOException
+    {
+        ensureOpen ();
+        return mRecordCount;
+    }
+
+    /**
+     * Streams the stored games from the given position on, oldest first; earlier pages are
+     * skipped using their record counts, so catching up on a few new games reads one page
+     *
+     * @param firstRecordIndex position (0 = oldest game) of the first game to visit
+     * @param visitor          receives each game; may stop the scan early
+     * @throws IOException if the history cannot be read
+     */
+    public synchronized void scanFrom (long firstRecordIndex, GameRecordVisitor visitor)
+            throws IOException
+    {
+        ensureOpen ();
+
+        long pageStartIndex = 0;
+        int firstPage = 0;
+        while (firstPage < mPages.size ()
+                && pageStartIndex + mPages.get (firstPage).recordCount <= firstRecordIndex) {
+            pageStartIndex += mPages.get (firstPage).recordCount;
+            firstPage++;
+        }
+
+        scanPages (mPages.subList (firstPage, mPages.size ()),
+                   (int) Math.max (0, firstRecordIndex - pageStartIndex),
+                   Long.MIN_VALUE, Long.MAX_VALUE, EnumSet.allOf (GameOutcome.class), visitor);
+    }
+
+    /**
+     * Streams every stored game, oldest first
+     *
+     * @param visitor receives each game; may stop the scan early
+     * @throws IOException if the history cannot be read
+     */
+    public void scanAll (GameRecordVisitor visitor) throws IOException
+    {
+        scan (Long.MIN_VALUE, Long.MAX_VALUE, EnumSet.allOf (GameOutcome.class), visitor);
+    }
+
+    /**
+     * Streams the stored games that started within [fromMillis, toMillis] and ended with one
+     * of the given outcomes, oldest first. Pages that cannot hold a match are not read.
+     *
+     * @param fromMillis earliest start time to include
+     * @param toMillis   latest start time to include
+     * @param outcomes   outcomes to include
+     * @param visitor    receives each matching game; may stop the scan early
+     * @throws IOException if the history cannot be read
+     */
+    public synchronized void scan (long fromMillis, long toMillis, Set<GameOutcome> outcomes,
+                                   GameRecordVisitor visitor) throws IOException
+    {
+        ensureOpen ();
+        scanPages (mPages, 0, fromMillis, toMillis, outcomes, visitor);
+    }
+
+    /**
+     * @param skipRecords how many records at the start of the first page not to visit
+     */
+    private void scanPages (List<PageSummary> pages, int skipRecords, long fromMillis,
+                            long toMillis, Set<GameOutcome> outcomes, GameRecordVisitor visitor)
+            throws IOException
+    {
+        try (RandomAccessFile data = new RandomAccessFile (mDataFile, "r")) {
+            byte[] pageBytes = new byte[PAGE_SIZE];
+
+            for (PageSummary page : pages) {
+                if (!page.mayContain (fromMillis, toMillis, outcomes)) {
+                    continue;
+                }
+
+                if (pageBytes.length < page.byteLength) {
+                    pageBytes = new byte[page.byteLength];
+                }
+                data.seek (page.offset);
+                data.readFully (pageBytes, 0, page.byteLength);
+
+                DataInputStream in = new DataInputStream (
+                        new ByteArrayInputStream (pageBytes, 0, page.byteLength));
+                long previousStartTime = 0;
+
+                for (int i = 0; i < page.recordCount; i++) {
+                    GameRecord record = readRecord (in, previousStartTime);
+                    previousStartTime = record.getStartTimeMillis ();
+
+                    if (skipRecords > 0) {
+                        skipRecords--;
+                    }
+                    else if (record.getStartTimeMillis () >= fromMillis
+                            && record.getStartTimeMillis () <= toMillis
+                            && outcomes.contains (record.getOutcome ())
+                            && !visitor.visit (record)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts games by start time and outcome; pages entirely inside the range are answered
+     * from their summaries, so only the (at most two) boundary pages are read
+     *
+     * @return the number of games that started within [fromMillis, toMillis] with that outcome
+     * @throws IOException if the history cannot be read
+     */
+    public synchronized int countGames (long fromMillis, long toMillis, GameOutcome outcome)
+            throws IOException
+    {
+        ensureOpen ();
+
+        int count = 0;
+        List<PageSummary> boundaryPages = new ArrayList<> ();
+
+        for (PageSummary page : mPages) {
+            if (!page.mayContain (fromMillis, toMillis, EnumSet.of (outcome))) {
+                continue;
+            }
+            if (page.minStartTimeMillis >= fromMillis && page.maxStartTimeMillis <= toMillis) {
+                count += page.outcomeCounts[outcome.ordinal ()];
+            }
+            else {
+                boundaryPages.add (page);
+            }
+        }
+
+        if (!boundaryPages.isEmpty ()) {
+            int[] boundaryCount = new int[1];
+            scanPages (boundaryPages, 0, fromMillis, toMillis, EnumSet.of (outcome), record -> {
+                boundaryCount[0]++;
+                return true;
+            });
+            count += boundaryCount[0];
+        }
+
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Writing (writer thread)
+    // ---------------------------------------------------------------------------------------------
+
+    private void writeQueued ()
+    {
+        Tracer.begin ("GameHistoryStore.write");
+        try {
+            List<GameRecord> records;
+            synchronized (mQueuedRecords) {
+                records = new ArrayList<> (mQueuedRecords);
+                mQueuedRecords.clear ();
+            }
+
+            int firstRecordIndex;
+            synchronized (this) {
+                try {
+                    ensureOpen ();
+                    firstRecordIndex = mRecordCount;
+                    appendRecords (records);
+                }
+                catch (IOException e) {
+                    // the history is best effort; drop the in-memory summaries and re-read them
+                    mPages = null;
+                    return;
+                }
+            }
+
+            // outside the lock: listeners may scan the history themselves
+            for (OnGameRecordsAppendedListener listener : mListeners) {
+                listener.onGameRecordsAppended (firstRecordIndex, records);
+            }
+        }
+        finally {
+            Tracer.end ();
+        }
+    }
+
+    private void appendRecords (List<GameRecord> records) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+        DataOutputStream out = new DataOutputStream (bytes);
+        List<PageSummary> closedPages = new ArrayList<> ();
+
+        for (GameRecord record : records) {
+            PageSummary openPage = mPages.get (mPages.size () - 1);
+
+            if (openPage.byteLength >= PAGE_SIZE) {
+                closedPages.add (openPage);
+
+                PageSummary newPage = new PageSummary ();
+                newPage.offset = openPage.offset + openPage.byteLength;
+                mPages.add (newPage);
+                openPage = newPage;
+            }
+
+            int sizeBefore = bytes.size ();
+            writeRecord (out, record, openPage.recordCount == 0);
+            openPage.add (record, bytes.size () - sizeBefore);
+            mRecordCount++;
+            mLastStartTimeMillis = record.getStartTimeMillis ();
+        }
+
+        try (FileOutputStream dataOut = new FileOutputStream (mDataFile, true)) {
+            bytes.writeTo (dataOut);
+        }
+
+        // the index only ever lists complete pages; the open page is rebuilt from the data file
+        if (!closedPages.isEmpty ()) {
+            try (DataOutputStream indexOut = new DataOutputStream (
+                    new FileOutputStream (mIndexFile, true))) {
+                for (PageSummary page : closedPages) {
+                    writeIndexEntry (indexOut, page);
+                }
+            }
+        }
+    }
+
+    private void writeRecord (DataOutputStream out, GameRecord record, boolean firstInPage)
+            throws IOException
+    {
+        long startNanos = System.nanoTime ();
+        long timeDelta = record.getStartTimeMillis () - mLastStartTimeMillis;
+        boolean absoluteTime = firstInPage || timeDelta < 0;
+        boolean hasThinkTime = record.getThinkMillis () >= 0;
+
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream (32);
+        DataOutputStream body = new DataOutputStream (bodyBytes);
+
+        body.writeByte (record.getOutcome ().ordinal ()
+                                | (record.getOpponentType () == OpponentType.COMPUTER
+                                   ? FLAG_OPPONENT_COMPUTER : 0)
+                                | (record.isHumanMovedFirst () ? FLAG_HUMAN_MOVED_FIRST : 0)
+                                | (absoluteTime ? FLAG_ABSOLUTE_TIME : 0)
+                                | (hasThinkTime ? FLAG_HAS_THINK_TIME : 0));
+        VarInt.writeLong (body, absoluteTime ? record.getStartTimeMillis () : timeDelta);
+        VarInt.writeLong (body, record.getDurationMillis ());
+        if (hasThinkTime) {
+            VarInt.writeLong (body, record.getThinkMillis ());
+        }
+        VarInt.write (body, record.getRowsOrColumns ());
+        VarInt.write (body, record.getMoveCount ());
+
+        if (isNibblePacked (record.getRowsOrColumns ())) {
+            for (int i = 0; i < record.getMoveCount (); i += 2) {
+                int high = i + 1 < record.getMoveCount () ? record.getMoveAt (i + 1) : 0;
+                body.writeByte (record.getMoveAt (i) | high << 4);
+            }
+        }
+        else {
+            for (int i = 0; i < record.getMoveCount (); i++) {
+                VarInt.write (body, record.getMoveAt (i));
+            }
+        }
+
+        VarInt.write (out, bodyBytes.size ());
+        bodyBytes.writeTo (out);
+        EngineMetrics.RECORD_CODEC.recordEncode (startNanos, bodyBytes.size ());
+    }
+
+    private static boolean isNibblePacked (int rowsOrColumns)
+    {
+        return rowsOrColumns * rowsOrColumns <= NIBBLE_PACKED_MAX_SPACES;
+    }
+
+    private static GameRecord readRecord (DataInputStream in, long previousStartTimeMillis)
+            throws IOException
+    {
+        long startNanos = System.nanoTime ();
+        int bodyLength = VarInt.read (in);
+        if (bodyLength <= 0) {
+            throw new IOException ("Invalid record length");
+        }
+
+        int flags = in.readUnsignedByte ();
+        int outcomeOrdinal = flags & 3;
+        if (outcomeOrdinal >= GameOutcome.values ().length) {
+            throw new IOException ("Invalid outcome " + outcomeOrdinal);
+        }
+
+        long time = VarInt.readLong (in);
+        long startTimeMillis = (flags & FLAG_ABSOLUTE_TIME) != 0
+                               ? time : previousStartTimeMillis + time;
+        long durationMillis = VarInt.readLong (in);
+        long thinkMillis = (flags & FLAG_HAS_THINK_TIME) != 0
+                           ? VarInt.readLong (in) : GameRecord.UNKNOWN_THINK_TIME;
+        int rowsOrColumns = VarInt.read (in);
+        int moveCount = VarInt.read (in);
+        if (moveCount > rowsOrColumns * rowsOrColumns) {
+            throw new IOException ("Invalid move count " + moveCount);
+        }
+
+        int[] moves = new int[moveCount];
+        if (isNibblePacked (rowsOrColumns)) {
+            for (int i = 0; i < moveCount; i += 2) {
+                int packed = in.readUnsignedByte ();
+                moves[i] = packed & 0x0F;
+                if (i + 1 < moveCount) {
+                    moves[i + 1] = packed >> 4;
+                }
+            }
+        }
+        else {
+            for (int i = 0; i < moveCount; i++) {
+                moves[i] = VarInt.read (in);
+            }
+        }
+
+        GameRecord record = new GameRecord (startTimeMillis, durationMillis, thinkMillis,
+                                            GameOutcome.values ()[outcomeOrdinal],
+                                            (flags & FLAG_OPPONENT_COMPUTER) != 0
+                                            ? OpponentType.COMPUTER : OpponentType.HUMAN,
+                                            (flags & FLAG_HUMAN_MOVED_FIRST) != 0,
+                                            rowsOrColumns, moves);
+        EngineMetrics.RECORD_CODEC.recordDecode (startNanos, bodyLength);
+        return record;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Opening: load the page index, rebuild the open page, cut off a torn tail
+    // ---------------------------------------------------------------------------------------------
+
+    private void ensureOpen () throws IOException
+    {
+        if (mPages != null) {
+            return;
+        }
+
+        List<PageSummary> pages = readIndex ();
+        PageSummary openPage = new PageSummary ();
+        if (!pages.isEmpty ()) {
+            PageSummary lastClosedPage = pages.get (pages.size () - 1);
+            openPage.offset = lastClosedPage.offset + lastClosedPage.byteLength;
+        }
+        pages.add (openPage);
+
+        rebuildOpenPage (openPage);
+        mPages = pages;
+
+        mRecordCount = 0;
+        for (PageSummary page : pages) {
+            mRecordCount += page.recordCount;
+        }
+    }
+
+    private List<PageSummary> readIndex () throws IOException
+    {
+        List<PageSummary> pages = new ArrayList<> ();
+        long dataLength = mDataFile.length ();
+        long expectedOffset = 0;
+
+        if (mIndexFile.exists ()) {
+            long completeEntries = mIndexFile.length () / INDEX_ENTRY_SIZE;
+
+            try (RandomAccessFile index = new RandomAccessFile (mIndexFile, "r")) {
+                byte[] entries = new byte[(int) (completeEntries * INDEX_ENTRY_SIZE)];
+                index.readFully (entries);
+                DataInputStream in = new DataInputStream (new ByteArrayInputStream (entries));
+
+                for (long i = 0; i < completeEntries; i++) {
+                    PageSummary page = readIndexEntry (in);
+
+                    // keep only pages that follow each other and are fully present in the data
+                    if (page.offset != expectedOffset
+                            || page.offset + page.byteLength > dataLength) {
+                        break;
+                    }
+                    pages.add (page);
+                    expectedOffset += page.byteLength;
+                }
+            }
+
+            // drop torn or inconsistent entries so later appends line up again
+            truncate (mIndexFile, (long) pages.size () * INDEX_ENTRY_SIZE);
+        }
+
+        return pages;
+    }
+
+    private void rebuildOpenPage (PageSummary openPage) throws IOException
+    {
+        long tailLength = mDataFile.length () - openPage.offset;
+        if (tailLength <= 0) {
+            return;
+        }
+
+        byte[] tail = new byte[(int) tailLength];
+        try (RandomAccessFile data = new RandomAccessFile (mDataFile, "r")) {
+            data.seek (openPage.offset);
+            data.readFully (tail);
+        }
+
+        DataInputStream in = new DataInputStream (new ByteArrayInputStream (tail));
+        long previousStartTime = 0;
+        int validLength = 0;
+
+        try {
+            while (validLength < tail.length) {
+                GameRecord record = readRecord (in, previousStartTime);
+                int recordLength = (int) tailLength - in.available () - validLength;
+
+                openPage.add (record, recordLength);
+                validLength += recordLength;
+                previousStartTime = record.getStartTimeMillis ();
+                mLastStartTimeMillis = previousStartTime;
+            }
+        }
+        catch (EOFException | RuntimeException e) {
+            // torn last record (e.g. process killed mid-append); cut it off below
+        }
+        catch (IOException e) {
+            // corrupt record; everything from here on is unreadable
+        }
+
+        truncate (mDataFile, openPage.offset + validLength);
+    }
+
+    private static void truncate (File file, long length) throws IOException
+    {
+        if (file.length () > length) {
+            try (RandomAccessFile raf = new RandomAccessFile (file, "rw")) {
+                raf.setLength (length);
+            }
+        }
+    }
+
+    private static void writeIndexEntry (DataOutputStream out, PageSummary page)
+            throws IOException
+    {
+        out.writeLong (page.offset);
+        out.writeInt (page.byteLength);
+        out.writeInt (page.recordCount);
+        out.writeLong (page.minStartTimeMillis);
+        out.writeLong (page.maxStartTimeMillis);
+        for (int count : page.outcomeCounts) {
+            out.writeInt (count);
+        }
+    }
+
+    private static PageSummary readIndexEntry (DataInputStream in) throws IOException
+    {
+        PageSummary page = new PageSummary ();
+        page.offset = in.readLong ();
+        page.byteLength = in.readInt ();
+        page.recordCount = in.readInt ();
+        page.minStartTimeMillis = in.readLong ();
+        page.maxStartTimeMillis = in.readLong ();
+        for (int i = 0; i < page.outcomeCounts.length; i++) {
+            page.outcomeCounts[i] = in.readInt ();
+        }
+        return page;
+    }
+}
@@ -0,0 +1,522 @@
+package com.mintedtech.tic_tac_toe.persistence;
+
+import com.mintedtech.tic_tac_toe.metrics.EngineMetrics;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only auto-save for the game model.
+ * <p/>
+ * Two files live in the given directory:
+ * 1. A snapshot - the full game, written only when the journal is compacted
+ * 2. A journal - the events (moves, undos, new games, statistic resets) since that snapshot
+ * <p/>
+ * Events are buffered in memory as they happen and appended on flush (i.e. from onPause),
+ * so the cost of each save is proportional to what changed since the last save,
+ * not to the size of the board. Once the journal grows past a threshold it is folded
+ * into a new snapshot and restarted.
+ * <p/>
+ * The snapshot is the model's binary encoding (see TicTacToe.writeTo) guarded by a CRC,
+ * so restoring is a single read of a small, already-validated blob.
+ * <p/>
+ * Both files carry a generation number; a journal is only replayed on top of the snapshot
+ * with the same generation, so a crash in the middle of a compaction can never apply
+ * old events to a newer snapshot.
+ * <p/>
+ * flush() only hands the new events (or a copy of the game, when compacting) to the
+ * PersistenceWriter; encoding and file I/O happen on its background thread. Flushes that
+ * arrive before the writer gets to them are merged into a single write.
+ */
+public class GameJournal
+{
+    private static final int SNAPSHOT_MAGIC = 0x54545453;     // "TTTS"
+    private static final int JOURNAL_MAGIC = 0x5454544A;      // "TTTJ"
+    private static final int JOURNAL_FORMAT_VERSION = 1;
+    private static final int SNAPSHOT_FORMAT_JSON = 1;
+    private static final int SNAPSHOT_FORMAT_BINARY = 2;
+    private static final int JOURNAL_HEADER_SIZE = 4 + 1 + 8;  // magic, version, generation
+
+    // Journal is folded into a fresh snapshot once it grows past this many bytes
+    private static final int COMPACTION_THRESHOLD_BYTES = 4 * 1024;
+
+    // Record types
+    private static final int RECORD_MOVE = 1;
+    private static final int RECORD_UNDO = 2;
+    private static final int RECORD_NEW_GAME = 3;
+    private static final int RECORD_RESET_STATISTICS = 4;
+
+    private static GameJournal sInstance;
+
+    private final File mSnapshotFile, mJournalFile;
+    private final PersistenceWriter mWriter;
+    private final boolean mSyncToDisk;
+
+    // Events recorded since the last flush (caller's thread only)
+    private final ByteArrayOutputStream mPendingBytes = new ByteArrayOutputStream ();
+    private final DataOutputStream mPending = new DataOutputStream (mPendingBytes);
+    private long mJournalLength;
+
+    // Handed over by flush()/clear(), taken by the writer thread (guarded by mQueueLock)
+    private final Object mQueueLock = new Object ();
+    private final ByteArrayOutputStream mQueuedAppend = new ByteArrayOutputStream ();
+    private TicTacToe mQueuedSnapshot;
+    private boolean mQueuedClear;
+
+    // true if the files on disk cannot serve as a base for appending (missing, stale or corrupt);
+    // also guarded by mQueueLock, so that flush clears it in the same step as it queues the
+    // snapshot that fixes that, and a failure of that snapshot always sets it again after
+    private boolean mNeedsSnapshot;
+
+    // File state; only touched while holding mFileLock
+    private final Object mFileLock = new Object ();
+    private long mGeneration;
+
+    /**
+     * @param directory  where the snapshot and journal files are kept
+     * @param writer     the background writer that performs all file I/O
+     * @param syncToDisk if true, journal appends are fsynced too (survive power loss, cost more);
+     *                   a compaction's snapshot always is, as it replaces the journal
+     */
+    public GameJournal (File directory, PersistenceWriter writer, boolean syncToDisk)
+    {
+        mSnapshotFile = new File (directory, "game.snapshot");
+        mJournalFile = new File (directory, "game.journal");
+        mWriter = writer;
+        mSyncToDisk = syncToDisk;
+
+        // Cheap open: trust that the files are in sync with the last flush (onPause always runs
+        // before the Activity is destroyed); replay() validates them fully when restoring.
+        mNeedsSnapshot = !mSnapshotFile.exists () || !mJournalFile.exists ();
+        mJournalLength = mJournalFile.length ();
+        mGeneration = readSnapshotGenerationOrZero ();
+    }
+
+    /**
+     * One journal per process, so that a recreated Activity (e.g. after rotation) keeps
+     * appending in order with the writes its predecessor queued
+     *
+     * @param directory where the snapshot and journal files are kept
+     * @return the shared journal
+     */
+    public static synchronized GameJournal getInstance (File directory)
+    {
+        if (sInstance == null) {
+            sInstance = new GameJournal (directory, PersistenceWriter.getInstance (), false);
+        }
+        return sInstance;
+    }
+
+    public void recordMove (int row, int col)
+    {
+        writePending (RECORD_MOVE, row, col);
+    }
+
+    public void recordUndo ()
+    {
+        writePending (RECORD_UNDO, -1, -1);
+    }
+
+    public void recordNewGame ()
+    {
+        writePending (RECORD_NEW_GAME, -1, -1);
+    }
+
+    public void recordResetStatistics ()
+    {
+        writePending (RECORD_RESET_STATISTICS, -1, -1);
+    }
+
+    /**
+     * The game was replaced by one on a board of another size, which the journal's records
+     * cannot express; the next flush therefore writes a full snapshot instead
+     */
+    public void recordNewBoard ()
+    {
+        mPendingBytes.reset ();
+        needSnapshot ();
+    }
+
+    private void needSnapshot ()
+    {
+        synchronized (mQueueLock) {
+            mNeedsSnapshot = true;
+        }
+    }
+
+    private void writePending (int recordType, int row, int col)
+    {
+        try {
+            mPending.writeByte (recordType);
+            if (recordType == RECORD_MOVE) {
+                VarInt.write (mPending, row);
+                VarInt.write (mPending, col);
+            }
+        }
+        catch (IOException e) {
+            // cannot happen when writing to memory
+            throw new IllegalStateException (e);
+        }
+    }
+
+    /**
+     * Queues everything recorded since the last flush for the writer thread. Normally that is
+     * a small append to the journal; a full snapshot of currentGame is queued instead only if
+     * there is no valid base on disk yet or if the journal has grown past the compaction
+     * threshold. Returns without waiting for the write.
+     *
+     * @param currentGame the game whose state the recorded events have led to
+     */
+    public void flush (TicTacToe currentGame)
+    {
+        Tracer.begin ("GameJournal.flush");
+        try {
+            boolean compact;
+            synchronized (mQueueLock) {
+                compact = mNeedsSnapshot ||
+                        mJournalLength + mPendingBytes.size () > COMPACTION_THRESHOLD_BYTES;
+
+                if (!compact && mPendingBytes.size () == 0) {
+                    return;
+                }
+
+                if (compact) {
+                    // the snapshot supersedes any events that have not been written yet
+                    mQueuedSnapshot = new TicTacToe (currentGame);
+                    mQueuedAppend.reset ();
+                    mNeedsSnapshot = false;
+                }
+                else {
+                    byte[] records = mPendingBytes.toByteArray ();
+                    mQueuedAppend.write (records, 0, records.length);
+                }
+            }
+
+            if (compact) {
+                mJournalLength = JOURNAL_HEADER_SIZE;
+            }
+            else {
+                mJournalLength += mPendingBytes.size ();
+            }
+            mPendingBytes.reset ();
+
+            mWriter.submit (mJournalFile.getPath (), this::writeQueued);
+        }
+        finally {
+            Tracer.end ();
+        }
+    }
+
+    /**
+     * Removes the saved game and any pending events, e.g. when the user turns off auto-save
+     */
+    public void clear ()
+    {
+        synchronized (mQueueLock) {
+            mQueuedClear = true;
+            mQueuedSnapshot = null;
+            mQueuedAppend.reset ();
+            mNeedsSnapshot = true;
+        }
+
+        mPendingBytes.reset ();
+        mJournalLength = 0;
+
+        mWriter.submit (mJournalFile.getPath (), this::writeQueued);
+    }
+
+    /**
+     * Runs on the writer thread: performs everything queued since it last ran, in order
+     */
+    private void writeQueued ()
+    {
+        Tracer.begin ("GameJournal.write");
+        try {
+            boolean clear;
+            TicTacToe snapshot;
+            byte[] append;
+
+            synchronized (mQueueLock) {
+                clear = mQueuedClear;
+                snapshot = mQueuedSnapshot;
+                append = mQueuedAppend.toByteArray ();
+
+                mQueuedClear = false;
+                mQueuedSnapshot = null;
+                mQueuedAppend.reset ();
+            }
+
+            synchronized (mFileLock) {
+                try {
+                    if (clear) {
+                        deleteFiles ();
+                    }
+                    if (snapshot != null) {
+                        compact (snapshot);
+                    }
+                    if (append.length > 0) {
+                        appendToJournal (append);
+                    }
+                }
+                catch (IOException e) {
+                    // the files may no longer match; the next flush starts over from a snapshot
+                    needSnapshot ();
+                }
+            }
+        }
+        finally {
+            Tracer.end ();
+        }
+    }
+
+    private void deleteFiles ()
+    {
+        //noinspection ResultOfMethodCallIgnored
+        mJournalFile.delete ();
+        //noinspection ResultOfMethodCallIgnored
+        mSnapshotFile.delete ();
+    }
+
+    private void appendToJournal (byte[] records) throws IOException
+    {
+        try (FileOutputStream out = new FileOutputStream (mJournalFile, true)) {
+            out.write (records);
+            if (mSyncToDisk) {
+                out.getFD ().sync ();
+            }
+        }
+    }
+
+    private void compact (TicTacToe snapshot) throws IOException
+    {
+        long newGeneration = mGeneration + 1;
+
+        // 1. atomically replace the snapshot; it is synced whatever mSyncToDisk says, because
+        // the journal restarted next holds none of the game, and a power loss must not leave
+        // an empty snapshot behind a restarted journal
+        PersistenceWriter.writeAtomically (mSnapshotFile, encodeSnapshot (snapshot, newGeneration),
+                                           true);
+
+        // 2. restart the journal for the new generation (an old journal is now ignored anyway)
+        ByteArrayOutputStream header = new ByteArrayOutputStream (JOURNAL_HEADER_SIZE);
+        try (DataOutputStream out = new DataOutputStream (header)) {
+            out.writeInt (JOURNAL_MAGIC);
+            out.writeByte (JOURNAL_FORMAT_VERSION);
+            out.writeLong (newGeneration);
+        }
+        PersistenceWriter.writeAtomically (mJournalFile, header.toByteArray (), mSyncToDisk);
+
+        mGeneration = newGeneration;
+    }
+
+    /**
+     * Snapshot layout: magic, format, generation, payload length, payload (TicTacToe.writeTo),
+     * CRC32 of the payload
+     */
+    private byte[] encodeSnapshot (TicTacToe snapshot, long generation) throws IOException
+    {
+        long startNanos = System.nanoTime ();
+        ByteArrayOutputStream gameBytes = new ByteArrayOutputStream ();
+        try (DataOutputStream gameOut = new DataOutputStream (gameBytes)) {
+            snapshot.writeTo (gameOut);
+        }
+        EngineMetrics.GAME_CODEC.recordEncode (startNanos, gameBytes.size ());
+
+        CRC32 crc = new CRC32 ();
+        crc.update (gameBytes.toByteArray (), 0, gameBytes.size ());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream (gameBytes.size () + 25);
+        try (DataOutputStream out = new DataOutputStream (bytes)) {
+            out.writeInt (SNAPSHOT_MAGIC);
+            out.writeByte (SNAPSHOT_FORMAT_BINARY);
+            out.writeLong (generation);
+            out.writeInt (gameBytes.size ());
+            gameBytes.writeTo (out);
+            out.writeLong (crc.getValue ());
+        }
+        return bytes.toByteArray ();
+    }
+
+    private long readSnapshotGenerationOrZero ()
+    {
+        if (!mSnapshotFile.exists ()) {
+            return 0;
+        }
+
+        try (DataInputStream in = new DataInputStream (new FileInputStream (mSnapshotFile))) {
+            return in.readInt () == SNAPSHOT_MAGIC && isKnownSnapshotFormat (in.readUnsignedByte ())
+                   ? in.readLong () : 0;
+        }
+        catch (IOException e) {
+            mNeedsSnapshot = true;
+            return 0;
+        }
+    }
+
+    private boolean isKnownSnapshotFormat (int format)
+    {
+        return format == SNAPSHOT_FORMAT_JSON || format == SNAPSHOT_FORMAT_BINARY;
+    }
+
+    /**
+     * Restores the game as of the last completed write: the snapshot plus every journaled event
+     * after it. A journal that does not belong to the snapshot, or a torn/corrupt tail, is
+     * skipped and the next flush writes a fresh snapshot.
+     *
+     * @return the restored game, or null if there is no usable snapshot
+     */
+    public TicTacToe replay ()
+    {
+        Tracer.begin ("GameJournal.replay");
+        try {
+            synchronized (mFileLock) {
+                TicTacToe game = readSnapshot ();
+
+                if (game == null) {
+                    needSnapshot ();
+                    return null;
+                }
+
+                if (!replayJournal (game)) {
+                    needSnapshot ();
+                }
+
+                return game;
+            }
+        }
+        finally {
+            Tracer.end ();
+        }
+    }
+
+    private TicTacToe readSnapshot ()
+    {
+        byte[] snapshotBytes = readFileFully (mSnapshotFile);
+        if (snapshotBytes == null) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream (new ByteArrayInputStream (snapshotBytes))) {
+            if (in.readInt () != SNAPSHOT_MAGIC) {
+                return null;
+            }
+
+            int format = in.readUnsignedByte ();
+            if (!isKnownSnapshotFormat (format)) {
+                return null;
+            }
+
+            mGeneration = in.readLong ();
+
+            byte[] gameBytes = new byte[in.readInt ()];
+            in.readFully (gameBytes);
+
+            if (format == SNAPSHOT_FORMAT_JSON) {
+                // written by the first journal version
+                return TicTacToe.getGameFromJSON (new String (gameBytes, StandardCharsets.UTF_8));
+            }
+
+            CRC32 crc = new CRC32 ();
+            crc.update (gameBytes, 0, gameBytes.length);
+            if (crc.getValue () != in.readLong ()) {
+                return null;
+            }
+
+            long startNanos = System.nanoTime ();
+            TicTacToe game =
+                    TicTacToe.readFrom (new DataInputStream (new ByteArrayInputStream (gameBytes)));
+            EngineMetrics.GAME_CODEC.recordDecode (startNanos, gameBytes.length);
+            return game;
+        }
+        catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads all of file with a single read into one buffer
+     *
+     * @return the file's contents or null if it does not exist or cannot be read
+     */
+    private static byte[] readFileFully (File file)
+    {
+        long length = file.length ();
+        if (length == 0 || length > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        byte[] contents = new byte[(int) length];
+        try (DataInputStream in = new DataInputStream (new FileInputStream (file))) {
+            in.readFully (contents);
+            return contents;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the whole journal was applied cleanly
+     */
+    private boolean replayJournal (TicTacToe game)
+    {
+        byte[] journalBytes = readFileFully (mJournalFile);
+        if (journalBytes == null) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream (new ByteArrayInputStream (journalBytes))) {
+            if (in.readInt () != JOURNAL_MAGIC || in.readUnsignedByte () != JOURNAL_FORMAT_VERSION
+                    || in.readLong () != mGeneration) {
+                return false;
+            }
+
+            int recordType;
+            while ((recordType = in.read ()) != -1) {
+                applyRecord (game, recordType, in);
+            }
+            return true;
+        }
+        catch (EOFException e) {
+            // torn final record (e.g. process killed mid-append) - keep everything before it
+            return false;
+        }
+        catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void applyRecord (TicTacToe game, int recordType, DataInputStream in)
+            throws IOException
+    {
+        switch (recordType) {
+            case RECORD_MOVE:
+                int row = VarInt.read (in);
+                int col = VarInt.read (in);
+                game.attemptTurn (row, col);
+                break;
+            case RECORD_UNDO:
+                game.undoLastTurn ();
+                break;
+            case RECORD_NEW_GAME:
+                game.startGame ();
+                break;
+            case RECORD_RESET_STATISTICS:
+                game.resetStatistics ();
+                break;
+            default:
+                throw new IOException ("Unknown journal record type " + recordType);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.mintedtech.tic_tac_toe.persistence;
+
+import com.mintedtech.tic_tac_toe.metrics.PerformanceMetrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The single background thread on which all saving happens.
+ * <p/>
+ * Writes are submitted under a key (normally the path of the file they write). While a write is
+ * still waiting to run, submitting again under the same key replaces it instead of queueing
+ * another one, so rapid pause/resume cycles cost one write of the latest state, not one per cycle.
+ * Tasks therefore should capture (or read at run time) the newest state they need to write.
+ */
+public class PersistenceWriter
+{
+    private static PersistenceWriter sInstance;
+
+    private final ExecutorService mExecutor;
+    private final Map<String, Runnable> mPendingTasks = new HashMap<> ();
+
+    public PersistenceWriter ()
+    {
+        mExecutor = Executors.newSingleThreadExecutor (runnable -> {
+            Thread thread = new Thread (runnable, "persistence-writer");
+            thread.setDaemon (true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the writer shared by everything in this process that saves to disk
+     */
+    public static synchronized PersistenceWriter getInstance ()
+    {
+        if (sInstance == null) {
+            sInstance = new PersistenceWriter ();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Schedules task to run on the writer thread, replacing a not-yet-started task with this key
+     *
+     * @param key  identifies what is being written, e.g. the target file's path
+     * @param task the write; it is responsible for handling its own IOExceptions
+     */
+    public void submit (String key, Runnable task)
+    {
+        synchronized (mPendingTasks) {
+            if (mPendingTasks.put (key, task) != null) {
+                // an earlier task for this key has not started yet and will now run this one
+                return;
+            }
+        }
+
+        mExecutor.execute (() -> runPendingTask (key));
+    }
+
+    private void runPendingTask (String key)
+    {
+        Runnable task;
+        synchronized (mPendingTasks) {
+            task = mPendingTasks.remove (key);
+        }
+
+        if (task != null) {
+            long startNanos = System.nanoTime ();
+            task.run ();
+            PerformanceMetrics.PERSISTENCE_TASK.recordSince (startNanos);
+        }
+    }
+
+    /**
+     * Blocks until everything submitted so far has been written
+     */
+    public void awaitIdle () throws InterruptedException
+    {
+        try {
+            mExecutor.submit (() -> { }).get ();
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException (e);
+        }
+    }
+
+    /**
+     * Replaces target with data so that readers only ever see the old or the new contents:
+     * the bytes go to a temporary file next to target, which is then renamed over it.
+     *
+     * @param target     the file to replace
+     * @param data       the complete new contents
+     * @param syncToDisk if true, fsync the temporary file before the rename so the new contents
+     *                   survive a power loss, not just a process crash
+     * @throws IOException if the file could not be written or renamed
+     */
+    public static void writeAtomically (File target, byte[] data, boolean syncToDisk)
+            throws IOException
+    {
+        File tempFile = new File (target.getPath () + ".tmp");
+
+        try (FileOutputStream out = new FileOutputStream (tempFile)) {
+            out.write (data);
+            if (syncToDisk) {
+                out.getFD ().sync ();
+            }
+        }
+
+        if (!tempFile.renameTo (target)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete ();
+            throw new IOException ("Could not replace " + target);
+        }
+    }
+}
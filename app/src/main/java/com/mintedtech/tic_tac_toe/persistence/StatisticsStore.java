@@ -0,0 +1,270 @@
+package com.mintedtech.tic_tac_toe.persistence;
+
+import com.mintedtech.tic_tac_toe.interfaces.OnGameRecordsAppendedListener;
+import com.mintedtech.tic_tac_toe.interfaces.OnStatisticsLoadedListener;
+import com.mintedtech.tic_tac_toe.metrics.Tracer;
+import com.mintedtech.tic_tac_toe.models.GameRecord;
+import com.mintedtech.tic_tac_toe.models.GameStatistics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the GameStatistics aggregates in step with the GameHistoryStore.
+ * <p/>
+ * Each batch of games written to the history is folded into the aggregates as it is written,
+ * and the aggregates are saved (coalesced, on the writer thread) to a small snapshot that records
+ * how many history records it covers. On load, only the games after that point are read from
+ * the history, so neither opening the statistics screen nor starting the app rescans the history
+ * (apart from the one-off build when no snapshot exists yet).
+ */
+public class StatisticsStore implements OnGameRecordsAppendedListener
+{
+    private static final int SNAPSHOT_MAGIC = 0x54545341;
+
+    private static StatisticsStore sInstance;
+
+    private final File mSnapshotFile;
+    private final GameHistoryStore mHistory;
+    private final PersistenceWriter mWriter;
+
+    // null until loaded; guarded by this
+    private GameStatistics mStatistics;
+
+    public StatisticsStore (File directory, GameHistoryStore history, PersistenceWriter writer)
+    {
+        mSnapshotFile = new File (directory, "statistics.snapshot");
+        mHistory = history;
+        mWriter = writer;
+        mHistory.addListener (this);
+    }
+
+    /**
+     * @param directory where the statistics (and the history they are built from) are kept
+     * @return the statistics shared by everything in this process
+     */
+    public static synchronized StatisticsStore getInstance (File directory)
+    {
+        if (sInstance == null) {
+            sInstance = new StatisticsStore (directory, GameHistoryStore.getInstance (directory),
+                                             PersistenceWriter.getInstance ());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Loads the aggregates on the writer thread so that getStatistics later returns at once
+     */
+    public void preload ()
+    {
+        mWriter.submit (mSnapshotFile.getPath () + "#load", () -> {
+            synchronized (this) {
+                try {
+                    ensureLoaded ();
+                }
+                catch (IOException e) {
+                    // getStatistics will try again and report it
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a copy of the current aggregates (loading them first if preload has not yet)
+     * @throws IOException if neither the snapshot nor the history could be read
+     */
+    public synchronized GameStatistics getStatistics () throws IOException
+    {
+        Tracer.begin ("StatisticsStore.getStatistics");
+        try {
+            ensureLoaded ();
+            return new GameStatistics (mStatistics);
+        }
+        finally {
+            Tracer.end ();
+        }
+    }
+
+    /**
+     * getStatistics on the writer thread, for callers that must not wait on the disk or on this
+     * store while preload or a save holds it; a request still waiting is replaced by a newer one
+     *
+     * @param listener given the copy (or null if it could not be read), on the writer thread
+     */
+    public void loadStatistics (OnStatisticsLoadedListener listener)
+    {
+        mWriter.submit (mSnapshotFile.getPath () + "#get", () -> {
+            GameStatistics statistics;
+            try {
+                statistics = getStatistics ();
+            }
+            catch (IOException e) {
+                statistics = null;
+            }
+            listener.onStatisticsLoaded (statistics);
+        });
+    }
+
+    /**
+     * Clears the aggregates (on the writer thread); the history itself is kept
+     */
+    public void resetStatistics ()
+    {
+        mWriter.submit (mSnapshotFile.getPath () + "#reset", () -> {
+            synchronized (this) {
+                try {
+                    ensureLoaded ();
+                    mStatistics.reset ();
+                }
+                catch (IOException e) {
+                    return;
+                }
+            }
+            scheduleSave ();
+        });
+    }
+
+    @Override
+    public void onGameRecordsAppended (long firstRecordIndex, List<GameRecord> records)
+    {
+        synchronized (this) {
+            if (mStatistics == null) {
+                // not loaded yet; loading catches up from the history
+                return;
+            }
+
+            long recordIndex = firstRecordIndex;
+            for (GameRecord record : records) {
+                if (recordIndex++ == mStatistics.getRecordsSeen ()) {
+                    mStatistics.add (record);
+                }
+            }
+
+            if (mStatistics.getRecordsSeen () < firstRecordIndex + records.size ()) {
+                // missed a batch somehow; fill the gap from the history
+                try {
+                    catchUpFromHistory (mStatistics);
+                }
+                catch (IOException e) {
+                    mStatistics = null;
+                    return;
+                }
+            }
+        }
+        scheduleSave ();
+    }
+
+    private void ensureLoaded () throws IOException
+    {
+        if (mStatistics != null) {
+            return;
+        }
+
+        GameStatistics statistics = readSnapshot ();
+        if (statistics == null || statistics.getRecordsSeen () > mHistory.getRecordCount ()) {
+            // no usable snapshot (or one ahead of a history that was lost): build from scratch
+            statistics = new GameStatistics ();
+        }
+
+        long recordsSeenBefore = statistics.getRecordsSeen ();
+        catchUpFromHistory (statistics);
+        mStatistics = statistics;
+
+        if (statistics.getRecordsSeen () != recordsSeenBefore) {
+            scheduleSave ();
+        }
+    }
+
+    private void catchUpFromHistory (GameStatistics statistics) throws IOException
+    {
+        mHistory.scanFrom (statistics.getRecordsSeen (), record -> {
+            statistics.add (record);
+            return true;
+        });
+    }
+
+    private void scheduleSave ()
+    {
+        mWriter.submit (mSnapshotFile.getPath (), this::writeSnapshot);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Snapshot: magic, payload length, payload (GameStatistics.writeTo), CRC32 of the payload
+    // ---------------------------------------------------------------------------------------------
+
+    private void writeSnapshot ()
+    {
+        Tracer.begin ("StatisticsStore.write");
+        try {
+            try {
+                ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream ();
+                synchronized (this) {
+                    if (mStatistics == null) {
+                        return;
+                    }
+                    mStatistics.writeTo (new DataOutputStream (payloadBytes));
+                }
+                byte[] payload = payloadBytes.toByteArray ();
+
+                CRC32 crc = new CRC32 ();
+                crc.update (payload, 0, payload.length);
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream (payload.length + 16);
+                DataOutputStream out = new DataOutputStream (bytes);
+                out.writeInt (SNAPSHOT_MAGIC);
+                out.writeInt (payload.length);
+                out.write (payload, 0, payload.length);
+                out.writeLong (crc.getValue ());
+
+                PersistenceWriter.writeAtomically (mSnapshotFile, bytes.toByteArray (), false);
+            }
+            catch (IOException e) {
+                // the snapshot is only a shortcut; the aggregates can be rebuilt from the history
+            }
+        }
+        finally {
+            Tracer.end ();
+        }
+    }
+
+    private GameStatistics readSnapshot ()
+    {
+        if (!mSnapshotFile.exists ()) {
+            return null;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile (mSnapshotFile, "r")) {
+            byte[] bytes = new byte[(int) file.length ()];
+            file.readFully (bytes);
+
+            DataInputStream in = new DataInputStream (new ByteArrayInputStream (bytes));
+            if (in.readInt () != SNAPSHOT_MAGIC) {
+                return null;
+            }
+            int payloadLength = in.readInt ();
+            if (payloadLength < 0 || payloadLength > bytes.length - 16) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32 ();
+            crc.update (bytes, 8, payloadLength);
+            in.skipBytes (payloadLength);
+            if (in.readLong () != crc.getValue ()) {
+                return null;
+            }
+
+            return GameStatistics.readFrom (new DataInputStream (
+                    new ByteArrayInputStream (bytes, 8, payloadLength)));
+        }
+        catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
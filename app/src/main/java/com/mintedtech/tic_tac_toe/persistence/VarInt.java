@@ -0,0 +1,78 @@
+package com.mintedtech.tic_tac_toe.persistence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * LEB128-style variable-length encoding of non-negative ints:
+ * 7 bits per byte, high bit set on every byte except the last.
+ * Values below 128 (e.g. every row, column or cell index of a 3x3 board) take a single byte.
+ * The long variants use the same encoding, e.g. for timestamps. Reading refuses what would
+ * come out negative, as no writer produces it.
+ */
+public final class VarInt
+{
+    private VarInt ()
+    {
+    }
+
+    public static void write (DataOutput out, int value) throws IOException
+    {
+        if (value < 0) {
+            throw new IllegalArgumentException ("Cannot encode negative value " + value);
+        }
+
+        while ((value & ~0x7F) != 0) {
+            out.writeByte ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte (value);
+    }
+
+    public static int read (DataInput in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int currentByte = in.readUnsignedByte ();
+            if (shift == 28 && currentByte > 0x07) {
+                // past bit 30: no non-negative int is written that way
+                throw new IOException ("Malformed varint");
+            }
+            value |= (currentByte & 0x7F) << shift;
+            if ((currentByte & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException ("Malformed varint");
+    }
+
+    public static void writeLong (DataOutput out, long value) throws IOException
+    {
+        if (value < 0) {
+            throw new IllegalArgumentException ("Cannot encode negative value " + value);
+        }
+
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte ((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte ((int) value);
+    }
+
+    public static long readLong (DataInput in) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int currentByte = in.readUnsignedByte ();
+            if (shift == 63 && currentByte != 0) {
+                throw new IOException ("Malformed varint");
+            }
+            value |= (long) (currentByte & 0x7F) << shift;
+            if ((currentByte & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException ("Malformed varint");
+    }
+}
@@ -0,0 +1,191 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A game server's side of a cluster: takes the Gateway's orders on a port of its own. There is
+ * one gateway and its orders come one at a time, a handful per change of the cluster, so they
+ * are served on this thread over blocking streams rather than through the selector.
+ * <pre>
+ * Orders                        Answers
+ * RING     ring                 OK                       (join, or members that move nothing)
+ * HAND_OFF ring                 OK count session...      (the sessions the ring sends away)
+ * ADOPT    count session...     OK                       (once they are in this node's log)
+ * RELEASE  count id...          OK                       (once they are closed in its log)
+ * </pre>
+ * A ring is HashRing.writeTo's, a session MigratingSession.writeTo's and an ID a long. Every
+ * answer starts with its status: OK, or FAILED and a message.
+ * <p/>
+ * Moving a session takes three orders because it is on disk on two nodes for a while: the
+ * node it leaves freezes it (HAND_OFF) but only closes it in its log (RELEASE) once the node
+ * it goes to has logged it (ADOPT). A crash in between leaves a copy nobody routes to, never
+ * none.
+ */
+final class ClusterNode implements Runnable
+{
+    static final byte RING = 1, HAND_OFF = 2, ADOPT = 3, RELEASE = 4;
+    static final byte OK = 0, FAILED = 1;
+
+    private static final Logger LOG = Logger.getLogger (ClusterNode.class.getName ());
+
+    private final GameServer mServer;
+    private final int mNodeID;
+    private final ServerSocket mServerSocket;
+
+    /**
+     * @param nodeID  this node's ID on the ring, below HashRing.MAX_NODES
+     * @param address where the gateway's orders come; port 0 picks a free one
+     */
+    ClusterNode (GameServer server, int nodeID, InetSocketAddress address) throws IOException
+    {
+        if (nodeID < 0 || nodeID >= HashRing.MAX_NODES) {
+            throw new IllegalArgumentException ("Node ID out of range: " + nodeID);
+        }
+        mServer = server;
+        mNodeID = nodeID;
+        mServerSocket = new ServerSocket ();
+        mServerSocket.bind (address);
+    }
+
+    int getPort ()
+    {
+        return mServerSocket.getLocalPort ();
+    }
+
+    void stop ()
+    {
+        try {
+            mServerSocket.close ();
+        }
+        catch (IOException e) {
+            // closed anyway
+        }
+    }
+
+    @Override
+    public void run ()
+    {
+        while (!mServerSocket.isClosed ()) {
+            try (Socket socket = mServerSocket.accept ()) {
+                socket.setTcpNoDelay (true);
+                serve (new DataInputStream (new BufferedInputStream (socket.getInputStream ())),
+                       new DataOutputStream (new BufferedOutputStream (socket.getOutputStream ())));
+            }
+            catch (IOException e) {
+                if (!mServerSocket.isClosed ()) {
+                    LOG.log (Level.WARNING, "Lost the gateway", e);
+                }
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve (DataInputStream in, DataOutputStream out)
+            throws IOException, InterruptedException
+    {
+        SessionStore sessions = mServer.getSessions ();
+        while (true) {
+            byte order;
+            try {
+                order = in.readByte ();
+            }
+            catch (EOFException e) {
+                return;
+            }
+
+            switch (order) {
+                case RING:
+                    sessions.setRing (HashRing.readFrom (in), mNodeID);
+                    out.writeByte (OK);
+                    break;
+                case HAND_OFF: {
+                    HashRing ring = HashRing.readFrom (in);
+                    List<MigratingSession> leaving = sessions.handOff (ring, mNodeID);
+                    LOG.info ("Handing off " + leaving.size () + " sessions for " + ring);
+                    out.writeByte (OK);
+                    out.writeInt (leaving.size ());
+                    for (MigratingSession migrant : leaving) {
+                        migrant.writeTo (out);
+                    }
+                    break;
+                }
+                case ADOPT: {
+                    int count = in.readInt ();
+                    long position = 0;
+                    for (int i = 0; i < count; i++) {
+                        position = Math.max (position, adopt (MigratingSession.readFrom (in)));
+                    }
+                    awaitDurable (position);
+                    LOG.info ("Adopted " + count + " sessions");
+                    out.writeByte (OK);
+                    break;
+                }
+                case RELEASE: {
+                    long[] ids = new long[in.readInt ()];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = in.readLong ();
+                    }
+                    awaitDurable (sessions.release (ids));
+                    out.writeByte (OK);
+                    break;
+                }
+                default:
+                    out.writeByte (FAILED);
+                    out.writeUTF ("Unknown order " + order);
+                    out.flush ();
+                    return;
+            }
+            out.flush ();
+        }
+    }
+
+    /**
+     * Hands a session to the store, seated with its players if their gateway clients are
+     * connected here (they are by the time the gateway moves sessions; see Gateway)
+     *
+     * @return the position of its last log record
+     */
+    private long adopt (MigratingSession migrant)
+    {
+        long sessionID = migrant.getSessionID ();
+        Connection playerX = mServer.findClient (migrant.getClientX ());
+        Connection playerO = mServer.findClient (migrant.getClientO ());
+        long position = mServer.getSessions ().adopt (migrant, playerX, playerO);
+        if (position < 0) {
+            LOG.warning ("Session " + sessionID + " was here already");
+            return 0;
+        }
+
+        // as for a match: a player that disconnected meanwhile leaves at once
+        for (Connection player : new Connection[] {playerX, playerO}) {
+            if (player != null && !player.addSession (sessionID)) {
+                mServer.getSessions ().submit (sessionID, session -> session.leave (player));
+            }
+        }
+        return position;
+    }
+
+    private void awaitDurable (long position) throws InterruptedException
+    {
+        MoveLog log = mServer.getSessions ().getLog ();
+        if (log != null) {
+            CountDownLatch durable = new CountDownLatch (1);
+            log.whenDurable (position, durable::countDown);
+            durable.await ();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.ai.RandomStrategy;
+import com.mintedtech.tic_tac_toe.ai.SearchStrategy;
+import com.mintedtech.tic_tac_toe.ai.TableStrategy;
+import com.mintedtech.tic_tac_toe.metrics.Counter;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the computer's moves for every session played against it, on threads of its own so
+ * a search never holds up a session worker or the selector. Requests wait in one bounded
+ * queue; each worker takes what is waiting, up to MAX_BATCH at a time, and decides once per
+ * batch how much thought the queue can afford:
+ * <pre>
+ * queue under 1/4 full    SEARCHED  the move table, or a full search that teaches it
+ * under 1/2 full          TABLE     the move table, or a shallow search
+ * under 3/4 full          SHALLOW   a shallow search
+ * fuller                  RANDOM    a random empty space
+ * </pre>
+ * Every request also has a deadline, and a request that has already waited out a quarter of
+ * it is answered a level lower, half of it two levels, and so on, whatever the queue's depth:
+ * searches stop at the deadline with the best move so far, and a request still queued when it
+ * passes is answered at random. A request that finds the queue full is answered at random at
+ * once, by the caller. So a flood of games costs them some
+ * strength, never their moves.
+ * <p/>
+ * The strategies are the ai package's, as MainActivity's computer opponent uses them.
+ */
+public class ComputerPlayerPool
+{
+    public static final int SEARCHED = 0, TABLE = 1, SHALLOW = 2, RANDOM = 3;
+
+    private static final int MAX_BATCH = 16;
+    private static final int FULL_SEARCH_DEPTH = 9, SHALLOW_SEARCH_DEPTH = 2;
+    private static final int TABLE_CAPACITY = 1 << 20;
+
+    // the most one search may take of a request's time
+    private static final long SEARCH_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos (20);
+
+    private static final Counter[] MOVES_BY_LEVEL = {
+            ServerMetrics.COMPUTER_MOVES_SEARCHED, ServerMetrics.COMPUTER_MOVES_FROM_TABLE,
+            ServerMetrics.COMPUTER_MOVES_SHALLOW, ServerMetrics.COMPUTER_MOVES_RANDOM
+    };
+
+    /**
+     * Told each move chosen, on a pool thread or (queue full) the caller's
+     */
+    public interface MoveListener
+    {
+        /**
+         * @param position the game as it was when the move was asked for
+         * @param space    row * size + col
+         */
+        void onComputerMove (long sessionID, TicTacToe position, int space);
+    }
+
+    private final ArrayBlockingQueue<Request> mQueue;
+    private final int mQueueCapacity;
+    private final long mDeadlineNanos;
+    private final MoveListener mListener;
+    private final Thread[] mThreads;
+    private volatile boolean mRunning = true;
+
+    private final RandomStrategy mRandom = new RandomStrategy ();
+    private final SearchStrategy mShallow = new SearchStrategy (SHALLOW_SEARCH_DEPTH);
+    private final TableStrategy mTable = new TableStrategy (
+            new SearchStrategy (FULL_SEARCH_DEPTH), mShallow, TABLE_CAPACITY);
+
+    /**
+     * @param threads       how many moves may be chosen at once
+     * @param queueCapacity how many requests may wait
+     * @param deadlineNanos how long after the request a move must be chosen
+     */
+    public ComputerPlayerPool (int threads, int queueCapacity, long deadlineNanos,
+                               MoveListener listener)
+    {
+        mQueue = new ArrayBlockingQueue<> (queueCapacity);
+        mQueueCapacity = queueCapacity;
+        mDeadlineNanos = deadlineNanos;
+        mListener = listener;
+        mThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            mThreads[i] = new Thread (this::work, "computer-" + (i + 1));
+            mThreads[i].setDaemon (true);
+            mThreads[i].start ();
+        }
+    }
+
+    /**
+     * Asks for a move; any thread. The listener hears about it later, or before this returns
+     * if the queue is full.
+     *
+     * @param position not changed afterwards (pass a copy of a live game)
+     */
+    public void request (long sessionID, TicTacToe position)
+    {
+        long now = System.nanoTime ();
+        Request request = new Request (sessionID, position, now, now + mDeadlineNanos);
+        if (!mQueue.offer (request)) {
+            answer (request, RANDOM, ThreadLocalRandom.current (), 1);
+        }
+    }
+
+    /**
+     * @return how many requests are waiting
+     */
+    public int getQueueDepth ()
+    {
+        return mQueue.size ();
+    }
+
+    public void stop ()
+    {
+        mRunning = false;
+        for (Thread thread : mThreads) {
+            thread.interrupt ();
+        }
+    }
+
+    private void work ()
+    {
+        ArrayList<Request> batch = new ArrayList<> (MAX_BATCH);
+        Random random = new Random ();
+        while (mRunning) {
+            try {
+                batch.add (mQueue.take ());
+            }
+            catch (InterruptedException e) {
+                continue;       // stop was called
+            }
+            mQueue.drainTo (batch, MAX_BATCH - 1);
+
+            int depth = mQueue.size () + batch.size ();
+            ServerMetrics.COMPUTER_QUEUE_DEPTH.record (depth);
+            ServerMetrics.COMPUTER_BATCH_SIZE.record (batch.size ());
+            int level = Math.min (RANDOM, depth * 4 / mQueueCapacity);
+            for (int i = 0; i < batch.size (); i++) {
+                answer (batch.get (i), level, random, batch.size () - i);
+            }
+            batch.clear ();
+        }
+    }
+
+    /**
+     * @param share how many requests, this one included, must still be answered in the time
+     *              this one has left; its search gets that share of it
+     */
+    private void answer (Request request, int level, Random random, int share)
+    {
+        long now = System.nanoTime ();
+        long waited = now - request.mRequestedNanos;
+        level = (int) Math.max (level, Math.min (RANDOM, waited * 4 / mDeadlineNanos));
+        long deadlineNanos = now + Math.min (SEARCH_BUDGET_NANOS,
+                                             (request.mDeadlineNanos - now) / share);
+
+        TicTacToe position = request.mPosition;
+        int space;
+        switch (level) {
+            case SEARCHED:
+                space = mTable.solve (position, random, deadlineNanos);
+                break;
+            case TABLE:
+                space = mTable.chooseMove (position, random, deadlineNanos);
+                break;
+            case SHALLOW:
+                space = mShallow.chooseMove (position, random, deadlineNanos);
+                break;
+            default:
+                space = mRandom.chooseMove (position, random, deadlineNanos);
+                break;
+        }
+
+        MOVES_BY_LEVEL[level].increment ();
+        ServerMetrics.COMPUTER_MOVE.recordSince (request.mRequestedNanos);
+        if (System.nanoTime () - request.mDeadlineNanos > 0) {
+            ServerMetrics.COMPUTER_DEADLINES_MISSED.increment ();
+        }
+        mListener.onComputerMove (request.mSessionID, position, space);
+    }
+
+    private static final class Request
+    {
+        private final long mSessionID;
+        private final TicTacToe mPosition;
+        private final long mRequestedNanos, mDeadlineNanos;
+
+        Request (long sessionID, TicTacToe position, long requestedNanos, long deadlineNanos)
+        {
+            mSessionID = sessionID;
+            mPosition = position;
+            mRequestedNanos = requestedNanos;
+            mDeadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.collections.LongHashTable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One client socket. Reading, writing and the session list belong to the server's selector
+ * thread; the send methods may be called from any thread (the sessions' workers): they encode
+ * the result into this connection's output buffer and, if no flush is pending yet, ask the
+ * selector thread for one, so a burst of results costs one wake-up, one frame and one write.
+ * <p/>
+ * What a spectator is sent was encoded once for all of a session's spectators (see
+ * GameSession); those frames are queued as they are, behind the connection's own output, and
+ * written straight from the shared buffers.
+ */
+final class Connection implements FrameDecoder.RequestHandler
+{
+    // a client that lets this many bytes of results pile up unread is dropped
+    private static final int MAX_UNWRITTEN_BYTES = 1 << 20;
+
+    private final GameServer mServer;
+    private final SocketChannel mChannel;
+    private final SelectionKey mKey;
+
+    // selector thread only
+    private final ByteBuffer mReadBuffer =
+            ByteBuffer.allocate (WireFormat.LENGTH_PREFIX_BYTES + WireFormat.MAX_FRAME_LENGTH);
+
+    // guarded by itself (the matchmaker adds sessions too)
+    private final LongHashTable mSessionIDs = new LongHashTable ();
+
+    // guarded by itself
+    private final FrameEncoder mOutput = new FrameEncoder (MAX_UNWRITTEN_BYTES);
+
+    // guarded by mOutput: spectators' frames (each a view of a shared buffer), and whose
+    private final ArrayDeque<ByteBuffer> mSharedFrames = new ArrayDeque<> ();
+    private final ArrayDeque<Spectator> mSharedOwners = new ArrayDeque<> ();
+
+    // selector thread only: spectators whose frames the last flush finished
+    private final ArrayList<Spectator> mWrittenOwners = new ArrayList<> ();
+
+    private final AtomicBoolean mFlushRequested = new AtomicBoolean ();
+    private volatile boolean mClosed;
+
+    // the gateway client this connection carries (HELLO), or 0
+    private volatile long mClientID;
+    private final long mLocalPlayerID;
+
+    /**
+     * @param localPlayerID who the client is on the leaderboard unless it turns out to be a
+     *                      gateway's
+     */
+    Connection (GameServer server, SocketChannel channel, SelectionKey key, long localPlayerID)
+    {
+        mServer = server;
+        mChannel = channel;
+        mKey = key;
+        mLocalPlayerID = localPlayerID;
+    }
+
+    boolean isClosed ()
+    {
+        return mClosed;
+    }
+
+    long getClientID ()
+    {
+        return mClientID;
+    }
+
+    /**
+     * @return who plays through this connection, for the Leaderboard: the gateway's client, the
+     * same on every node, or else this connection's own number
+     */
+    long getPlayerID ()
+    {
+        long clientID = mClientID;
+        return clientID != 0 ? clientID : mLocalPlayerID;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Results (any thread)
+    // ---------------------------------------------------------------------------------------------
+
+    void sendSession (long seq, long sessionID, int rowsOrColumns)
+    {
+        synchronized (mOutput) {
+            mOutput.session (seq, sessionID, rowsOrColumns);
+        }
+        requestFlush ();
+    }
+
+    void sendJoined (long sessionID)
+    {
+        synchronized (mOutput) {
+            mOutput.joined (sessionID);
+        }
+        requestFlush ();
+    }
+
+    void sendMoved (long sessionID, int ply, int cell, int mover, int next)
+    {
+        synchronized (mOutput) {
+            mOutput.moved (sessionID, ply, cell, mover, next);
+        }
+        requestFlush ();
+    }
+
+    void sendOver (long sessionID, int winner)
+    {
+        synchronized (mOutput) {
+            mOutput.over (sessionID, winner);
+        }
+        requestFlush ();
+    }
+
+    void sendStarted (long sessionID)
+    {
+        synchronized (mOutput) {
+            mOutput.started (sessionID);
+        }
+        requestFlush ();
+    }
+
+    void sendLeft (long sessionID)
+    {
+        synchronized (mOutput) {
+            mOutput.left (sessionID);
+        }
+        requestFlush ();
+    }
+
+    void sendMatched (long seq, long sessionID, int rowsOrColumns, int player)
+    {
+        synchronized (mOutput) {
+            mOutput.matched (seq, sessionID, rowsOrColumns, player);
+        }
+        requestFlush ();
+    }
+
+    void sendError (long seq, long sessionID, int reason)
+    {
+        ServerMetrics.REQUESTS_REJECTED.increment ();
+        synchronized (mOutput) {
+            mOutput.error (seq, sessionID, reason);
+        }
+        requestFlush ();
+    }
+
+    void sendSynced (long seq)
+    {
+        synchronized (mOutput) {
+            mOutput.synced (seq);
+        }
+        requestFlush ();
+    }
+
+    void sendRanked (long seq, int rank, int rating, int wins, int losses, int draws)
+    {
+        synchronized (mOutput) {
+            mOutput.ranked (seq, rank, rating, wins, losses, draws);
+        }
+        requestFlush ();
+    }
+
+    void sendLeaderboard (long seq, long[] playerIDs, int[] ratings, int count)
+    {
+        synchronized (mOutput) {
+            mOutput.leaderboard (seq, playerIDs, ratings, count);
+        }
+        requestFlush ();
+    }
+
+    /**
+     * Queues frames shared with other connections; the spectator is told once they are written
+     */
+    void sendShared (Spectator owner, ByteBuffer frames)
+    {
+        synchronized (mOutput) {
+            mSharedFrames.add (frames.duplicate ());
+            mSharedOwners.add (owner);
+        }
+        requestFlush ();
+    }
+
+    // after a close nobody flushes, so what was sent since is simply never written
+    private void requestFlush ()
+    {
+        if (!mClosed && mFlushRequested.compareAndSet (false, true)) {
+            mServer.requestFlush (this);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Selector thread
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads what the socket has and hands every request in the complete frames to the server
+     *
+     * @return false if the client closed the connection
+     * @throws java.net.ProtocolException if the client sent something that is not a request
+     */
+    boolean read () throws IOException
+    {
+        int bytesRead = mChannel.read (mReadBuffer);
+        if (bytesRead < 0) {
+            return false;
+        }
+
+        mReadBuffer.flip ();
+        FrameDecoder.decodeRequests (mReadBuffer, this);
+        mReadBuffer.compact ();
+        return true;
+    }
+
+    /**
+     * Writes as much of the pending output as the socket takes, and asks to be called again
+     * (OP_WRITE) for the rest
+     *
+     * @return false if the client is too far behind and should be dropped
+     */
+    boolean flush () throws IOException
+    {
+        // cleared first: a send racing with this write requests another flush
+        mFlushRequested.set (false);
+
+        boolean written;
+        synchronized (mOutput) {
+            if (mOutput.isOverflowed ()) {
+                return false;
+            }
+            // non-blocking, so senders wait for a few system calls at most; a frame once begun
+            // is finished before anything else is written
+            written = writeSharedFrames (true) && mOutput.writeTo (mChannel)
+                    && writeSharedFrames (false);
+        }
+        // outside the lock: a spectator may queue a task on its session
+        for (int i = 0; i < mWrittenOwners.size (); i++) {
+            mWrittenOwners.get (i).onFramesWritten ();
+        }
+        mWrittenOwners.clear ();
+
+        mKey.interestOps (written ? SelectionKey.OP_READ
+                                  : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return true;
+    }
+
+    /**
+     * @param begunOnly only finish writing frames that a previous flush began
+     * @return false if the socket took less than that
+     */
+    private boolean writeSharedFrames (boolean begunOnly) throws IOException
+    {
+        for (ByteBuffer frames; (frames = mSharedFrames.peek ()) != null; ) {
+            if (begunOnly && frames.position () == 0) {
+                return true;
+            }
+            mChannel.write (frames);
+            if (frames.hasRemaining ()) {
+                return false;
+            }
+            mSharedFrames.poll ();
+            mWrittenOwners.add (mSharedOwners.poll ());
+        }
+        return true;
+    }
+
+    /**
+     * Remembers a session to leave when this connection closes; any thread
+     *
+     * @return false if it has closed already (and will not leave the session)
+     */
+    boolean addSession (long sessionID)
+    {
+        synchronized (mSessionIDs) {
+            if (mClosed) {
+                return false;
+            }
+            mSessionIDs.put (sessionID, 1);
+            return true;
+        }
+    }
+
+    void removeSession (long sessionID)
+    {
+        synchronized (mSessionIDs) {
+            mSessionIDs.remove (sessionID);
+        }
+    }
+
+    /**
+     * Closes the socket; later sends are dropped
+     *
+     * @param sessions where to look up the sessions this client was in, to leave them
+     */
+    void close (SessionStore sessions)
+    {
+        mClosed = true;
+        mKey.cancel ();
+        try {
+            mChannel.close ();
+        }
+        catch (IOException e) {
+            // closed anyway
+        }
+
+        // under the lock, so a session added concurrently is either left here or refused
+        synchronized (mSessionIDs) {
+            mSessionIDs.forEach ((sessionID, unused) -> {
+                sessions.submit (sessionID, session -> session.leave (this));
+                return true;
+            });
+            mSessionIDs.clear ();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Requests (selector thread, from read)
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void onNewGame (long seq, int rowsOrColumns)
+    {
+        mServer.createSession (this, seq, rowsOrColumns, false);
+    }
+
+    @Override
+    public void onComputerGame (long seq, int rowsOrColumns)
+    {
+        mServer.createSession (this, seq, rowsOrColumns, true);
+    }
+
+    @Override
+    public void onFind (long seq, int rowsOrColumns, int rating)
+    {
+        mServer.findMatch (this, seq, rowsOrColumns, rating);
+    }
+
+    @Override
+    public void onJoin (long seq, long sessionID)
+    {
+        if (mServer.submit (this, seq, sessionID, session -> session.join (this, seq))) {
+            addSession (sessionID);
+        }
+    }
+
+    @Override
+    public void onMove (long seq, long sessionID, int ply, int cell)
+    {
+        long startNanos = System.nanoTime ();
+        mServer.submit (this, seq, sessionID,
+                        session -> session.move (this, seq, ply, cell, startNanos));
+    }
+
+    @Override
+    public void onRestart (long seq, long sessionID)
+    {
+        mServer.submit (this, seq, sessionID, session -> session.restart (this, seq));
+    }
+
+    @Override
+    public void onLeave (long seq, long sessionID)
+    {
+        if (mServer.submit (this, seq, sessionID, session -> session.leave (this))) {
+            removeSession (sessionID);
+        }
+    }
+
+    @Override
+    public void onWatch (long seq, long sessionID)
+    {
+        mServer.submit (this, seq, sessionID, session -> session.watch (this));
+    }
+
+    @Override
+    public void onUnwatch (long seq, long sessionID)
+    {
+        mServer.submit (this, seq, sessionID, session -> session.unwatch (this));
+    }
+
+    @Override
+    public void onHello (long seq, long clientID)
+    {
+        if (mClientID == 0 && clientID != 0) {
+            mClientID = clientID;
+            mServer.addClient (this);
+        }
+    }
+
+    @Override
+    public void onSync (long seq)
+    {
+        // every request before it is queued by now; results held back for the log come first
+        MoveLog log = mServer.getSessions ().getLog ();
+        if (log == null) {
+            sendSynced (seq);
+        }
+        else {
+            log.whenDurable (log.getPosition (), () -> sendSynced (seq));
+        }
+    }
+
+    @Override
+    public void onRank (long seq)
+    {
+        // answered here: a rank is a lookup and a few sums, cheaper than queuing it anywhere
+        Leaderboard.Standing standing = mServer.getLeaderboard ().getStanding (getPlayerID ());
+        if (standing == null) {
+            sendRanked (seq, 0, Leaderboard.INITIAL_RATING, 0, 0, 0);
+        }
+        else {
+            sendRanked (seq, standing.getRank (), standing.getRating (), standing.getWins (),
+                        standing.getLosses (), standing.getDraws ());
+        }
+    }
+
+    @Override
+    public void onLeaders (long seq, int count)
+    {
+        int length = Math.min (count, Leaderboard.MAX_LEADERS);
+        long[] playerIDs = new long[length];
+        int[] ratings = new int[length];
+        int found = mServer.getLeaderboard ().getLeaders (playerIDs, ratings);
+        sendLeaderboard (seq, playerIDs, ratings, found);
+    }
+}
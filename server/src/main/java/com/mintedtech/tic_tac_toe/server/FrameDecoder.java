@@ -0,0 +1,298 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static com.mintedtech.tic_tac_toe.server.WireFormat.LENGTH_PREFIX_BYTES;
+import static com.mintedtech.tic_tac_toe.server.WireFormat.getVarInt;
+import static com.mintedtech.tic_tac_toe.server.WireFormat.getVarLong;
+
+/**
+ * Decodes the complete frames in a buffer (see WireFormat) and hands each message's fields to
+ * a handler as primitives, so nothing is allocated per message but the cell lists of the rare
+ * SNAPSHOT and ENDED, and LEADERBOARD's players. A frame that has not fully arrived is left in
+ * the buffer for the next call.
+ */
+public final class FrameDecoder
+{
+    /**
+     * What a server does with the requests it reads
+     */
+    public interface RequestHandler
+    {
+        void onNewGame (long seq, int rowsOrColumns);
+
+        void onJoin (long seq, long sessionID);
+
+        void onMove (long seq, long sessionID, int ply, int cell);
+
+        void onRestart (long seq, long sessionID);
+
+        void onLeave (long seq, long sessionID);
+
+        void onFind (long seq, int rowsOrColumns, int rating);
+
+        void onWatch (long seq, long sessionID);
+
+        void onUnwatch (long seq, long sessionID);
+
+        void onComputerGame (long seq, int rowsOrColumns);
+
+        void onHello (long seq, long clientID);
+
+        void onSync (long seq);
+
+        void onRank (long seq);
+
+        void onLeaders (long seq, int count);
+    }
+
+    /**
+     * What a client does with the results it reads; the player arguments are WireFormat.PLAYER_
+     * codes
+     */
+    public interface ResultHandler
+    {
+        void onSession (long seq, long sessionID, int rowsOrColumns);
+
+        void onJoined (long sessionID);
+
+        void onMoved (long sessionID, int ply, int cell, int mover, int next);
+
+        void onOver (long sessionID, int winner);
+
+        void onStarted (long sessionID);
+
+        void onLeft (long sessionID);
+
+        void onError (long seq, long sessionID, int reason);
+
+        void onMatched (long seq, long sessionID, int rowsOrColumns, int player);
+
+        /**
+         * @param moves the cells played so far, X's first
+         */
+        void onSnapshot (long sessionID, int rowsOrColumns, int[] moves);
+
+        /**
+         * @param winType         WinType ordinal
+         * @param winTypeDiagonal WinTypeDiagonal ordinal
+         */
+        void onEnded (long sessionID, int winner, int winType, int winTypeDiagonal,
+                      int[] winningCells);
+
+        void onSynced (long seq);
+
+        /**
+         * @param rank 0 if the player has not finished a game
+         */
+        void onRanked (long seq, int rank, int rating, int wins, int losses, int draws);
+
+        /**
+         * @param playerIDs the best players, best first, with their ratings
+         */
+        void onLeaderboard (long seq, long[] playerIDs, int[] ratings);
+    }
+
+    private FrameDecoder ()
+    {
+    }
+
+    /**
+     * @param in in read mode; on return, positioned after the last complete frame
+     * @throws ProtocolException if a frame holds anything but well-formed requests
+     */
+    public static void decodeRequests (ByteBuffer in, RequestHandler handler)
+            throws ProtocolException
+    {
+        int limit = in.limit ();
+        try {
+            while (beginFrame (in)) {
+                while (in.hasRemaining ()) {
+                    byte type = in.get ();
+                    switch (type) {
+                        case WireFormat.NEW:
+                            handler.onNewGame (getVarLong (in), getVarInt (in));
+                            break;
+                        case WireFormat.JOIN:
+                            handler.onJoin (getVarLong (in), getVarLong (in));
+                            break;
+                        case WireFormat.MOVE:
+                            handler.onMove (getVarLong (in), getVarLong (in), getVarInt (in),
+                                            getVarInt (in));
+                            break;
+                        case WireFormat.RESTART:
+                            handler.onRestart (getVarLong (in), getVarLong (in));
+                            break;
+                        case WireFormat.LEAVE:
+                            handler.onLeave (getVarLong (in), getVarLong (in));
+                            break;
+                        case WireFormat.FIND:
+                            handler.onFind (getVarLong (in), getVarInt (in), getVarInt (in));
+                            break;
+                        case WireFormat.WATCH:
+                            handler.onWatch (getVarLong (in), getVarLong (in));
+                            break;
+                        case WireFormat.UNWATCH:
+                            handler.onUnwatch (getVarLong (in), getVarLong (in));
+                            break;
+                        case WireFormat.COMPUTER:
+                            handler.onComputerGame (getVarLong (in), getVarInt (in));
+                            break;
+                        case WireFormat.HELLO:
+                            handler.onHello (getVarLong (in), getVarLong (in));
+                            break;
+                        case WireFormat.SYNC:
+                            handler.onSync (getVarLong (in));
+                            break;
+                        case WireFormat.RANK:
+                            handler.onRank (getVarLong (in));
+                            break;
+                        case WireFormat.LEADERS:
+                            handler.onLeaders (getVarLong (in), getVarInt (in));
+                            break;
+                        default:
+                            throw new ProtocolException ("Unknown request type " + type);
+                    }
+                }
+                in.limit (limit);
+            }
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new ProtocolException ("Malformed request: " + e);
+        }
+        finally {
+            in.limit (limit);
+        }
+    }
+
+    /**
+     * @param in in read mode; on return, positioned after the last complete frame
+     * @throws ProtocolException if a frame holds anything but well-formed results
+     */
+    public static void decodeResults (ByteBuffer in, ResultHandler handler)
+            throws ProtocolException
+    {
+        int limit = in.limit ();
+        try {
+            while (beginFrame (in)) {
+                while (in.hasRemaining ()) {
+                    byte type = in.get ();
+                    switch (type) {
+                        case WireFormat.SESSION:
+                            handler.onSession (getVarLong (in), getVarLong (in), getVarInt (in));
+                            break;
+                        case WireFormat.JOINED:
+                            handler.onJoined (getVarLong (in));
+                            break;
+                        case WireFormat.MOVED: {
+                            long sessionID = getVarLong (in);
+                            int ply = getVarInt (in), cell = getVarInt (in), players = in.get ();
+                            handler.onMoved (sessionID, ply, cell, players >> 4 & 0x0F,
+                                             players & 0x0F);
+                            break;
+                        }
+                        case WireFormat.OVER:
+                            handler.onOver (getVarLong (in), in.get ());
+                            break;
+                        case WireFormat.STARTED:
+                            handler.onStarted (getVarLong (in));
+                            break;
+                        case WireFormat.LEFT:
+                            handler.onLeft (getVarLong (in));
+                            break;
+                        case WireFormat.ERROR:
+                            handler.onError (getVarLong (in), getVarLong (in), in.get () & 0xFF);
+                            break;
+                        case WireFormat.MATCHED:
+                            handler.onMatched (getVarLong (in), getVarLong (in), getVarInt (in),
+                                               in.get ());
+                            break;
+                        case WireFormat.SNAPSHOT:
+                            handler.onSnapshot (getVarLong (in), getVarInt (in), getCells (in));
+                            break;
+                        case WireFormat.ENDED: {
+                            long sessionID = getVarLong (in);
+                            int winner = in.get (), way = in.get ();
+                            handler.onEnded (sessionID, winner, way & 3, way >> 2 & 3,
+                                             getCells (in));
+                            break;
+                        }
+                        case WireFormat.SYNCED:
+                            handler.onSynced (getVarLong (in));
+                            break;
+                        case WireFormat.RANKED:
+                            handler.onRanked (getVarLong (in), getVarInt (in), getVarInt (in),
+                                              getVarInt (in), getVarInt (in), getVarInt (in));
+                            break;
+                        case WireFormat.LEADERBOARD:
+                            decodeLeaderboard (in, handler);
+                            break;
+                        default:
+                            throw new ProtocolException ("Unknown result type " + type);
+                    }
+                }
+                in.limit (limit);
+            }
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new ProtocolException ("Malformed result: " + e);
+        }
+        finally {
+            in.limit (limit);
+        }
+    }
+
+    private static void decodeLeaderboard (ByteBuffer in, ResultHandler handler)
+    {
+        long seq = getVarLong (in);
+        int count = getVarInt (in);
+        // every player and rating take at least a byte each
+        if (count > in.remaining () / 2) {
+            throw new BufferUnderflowException ();
+        }
+        long[] playerIDs = new long[count];
+        int[] ratings = new int[count];
+        for (int i = 0; i < count; i++) {
+            playerIDs[i] = getVarLong (in);
+            ratings[i] = getVarInt (in);
+        }
+        handler.onLeaderboard (seq, playerIDs, ratings);
+    }
+
+    private static int[] getCells (ByteBuffer in)
+    {
+        int count = getVarInt (in);
+        // every cell takes at least a byte, so a bad count cannot make a huge array
+        if (count > in.remaining ()) {
+            throw new BufferUnderflowException ();
+        }
+        int[] cells = new int[count];
+        for (int i = 0; i < count; i++) {
+            cells[i] = getVarInt (in);
+        }
+        return cells;
+    }
+
+    /**
+     * If a whole frame is in the buffer, skips its length prefix and limits the buffer to its
+     * end
+     *
+     * @return false if the next frame has not fully arrived yet
+     */
+    private static boolean beginFrame (ByteBuffer in)
+    {
+        if (in.remaining () < LENGTH_PREFIX_BYTES) {
+            return false;
+        }
+        int length = in.getShort (in.position ()) & 0xFFFF;
+        if (in.remaining () < LENGTH_PREFIX_BYTES + length) {
+            return false;
+        }
+
+        in.position (in.position () + LENGTH_PREFIX_BYTES);
+        in.limit (in.position () + length);
+        return true;
+    }
+}
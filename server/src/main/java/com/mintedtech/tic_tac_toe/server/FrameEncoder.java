@@ -0,0 +1,393 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static com.mintedtech.tic_tac_toe.server.WireFormat.LENGTH_PREFIX_BYTES;
+import static com.mintedtech.tic_tac_toe.server.WireFormat.MAX_FRAME_LENGTH;
+import static com.mintedtech.tic_tac_toe.server.WireFormat.MAX_MESSAGE_LENGTH;
+import static com.mintedtech.tic_tac_toe.server.WireFormat.putVarLong;
+
+/**
+ * Encodes messages (see WireFormat) straight into one output buffer, which it grows as needed up
+ * to a limit; nothing is allocated per message. Messages join the open frame until it is
+ * full or writeTo sends it, so whatever piles up between two writes goes out as one frame.
+ * <p/>
+ * Once the output would outgrow its limit, that message and every later one are dropped and
+ * isOverflowed turns true; a server drops such a client rather than buffer for it forever.
+ * <p/>
+ * Not thread-safe.
+ */
+public final class FrameEncoder
+{
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final int mMaxCapacity;
+    private ByteBuffer mBuffer;
+
+    // where messages go once the buffer is over its limit
+    private ByteBuffer mDiscard = ByteBuffer.allocate (MAX_MESSAGE_LENGTH);
+    private boolean mOverflowed;
+
+    // where the open frame's length prefix is, or -1 if no frame is open
+    private int mFrameStart = -1;
+
+    /**
+     * @param maxCapacity how many unwritten bytes to hold before dropping messages
+     */
+    public FrameEncoder (int maxCapacity)
+    {
+        mMaxCapacity = maxCapacity;
+        mBuffer = ByteBuffer.allocate (Math.min (INITIAL_CAPACITY, maxCapacity));
+    }
+
+    /**
+     * @return whether a message was dropped because the output was full
+     */
+    public boolean isOverflowed ()
+    {
+        return mOverflowed;
+    }
+
+    /**
+     * @return whether there is anything to write
+     */
+    public boolean hasPendingBytes ()
+    {
+        return mBuffer.position () > 0;
+    }
+
+    /**
+     * Closes the open frame and hands over everything encoded so far, e.g. to send the same
+     * bytes to many clients
+     *
+     * @return the encoded frames, read-only
+     */
+    public ByteBuffer takeFrames ()
+    {
+        finishFrame ();
+        mBuffer.flip ();
+        ByteBuffer frames = ByteBuffer.allocate (mBuffer.remaining ()).put (mBuffer);
+        mBuffer.clear ();
+        frames.flip ();
+        return frames.asReadOnlyBuffer ();
+    }
+
+    /**
+     * Closes the open frame and writes as much as the channel takes
+     *
+     * @return whether everything was written
+     */
+    public boolean writeTo (WritableByteChannel channel) throws IOException
+    {
+        finishFrame ();
+        mBuffer.flip ();
+        try {
+            channel.write (mBuffer);
+            return !mBuffer.hasRemaining ();
+        }
+        finally {
+            mBuffer.compact ();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Requests
+    // ---------------------------------------------------------------------------------------------
+
+    public void newGame (long seq, int rowsOrColumns)
+    {
+        ByteBuffer out = beginMessage (WireFormat.NEW);
+        putVarLong (out, seq);
+        putVarLong (out, rowsOrColumns);
+    }
+
+    public void join (long seq, long sessionID)
+    {
+        sessionRequest (WireFormat.JOIN, seq, sessionID);
+    }
+
+    public void move (long seq, long sessionID, int ply, int cell)
+    {
+        ByteBuffer out = beginMessage (WireFormat.MOVE);
+        putVarLong (out, seq);
+        putVarLong (out, sessionID);
+        putVarLong (out, ply);
+        putVarLong (out, cell);
+    }
+
+    public void restart (long seq, long sessionID)
+    {
+        sessionRequest (WireFormat.RESTART, seq, sessionID);
+    }
+
+    public void computerGame (long seq, int rowsOrColumns)
+    {
+        ByteBuffer out = beginMessage (WireFormat.COMPUTER);
+        putVarLong (out, seq);
+        putVarLong (out, rowsOrColumns);
+    }
+
+    public void watch (long seq, long sessionID)
+    {
+        sessionRequest (WireFormat.WATCH, seq, sessionID);
+    }
+
+    public void unwatch (long seq, long sessionID)
+    {
+        sessionRequest (WireFormat.UNWATCH, seq, sessionID);
+    }
+
+    public void leave (long seq, long sessionID)
+    {
+        sessionRequest (WireFormat.LEAVE, seq, sessionID);
+    }
+
+    public void find (long seq, int rowsOrColumns, int rating)
+    {
+        ByteBuffer out = beginMessage (WireFormat.FIND);
+        putVarLong (out, seq);
+        putVarLong (out, rowsOrColumns);
+        putVarLong (out, rating);
+    }
+
+    /**
+     * @param clientID the gateway's own number for the client this connection carries
+     */
+    public void hello (long seq, long clientID)
+    {
+        ByteBuffer out = beginMessage (WireFormat.HELLO);
+        putVarLong (out, seq);
+        putVarLong (out, clientID);
+    }
+
+    public void sync (long seq)
+    {
+        putVarLong (beginMessage (WireFormat.SYNC), seq);
+    }
+
+    public void rank (long seq)
+    {
+        putVarLong (beginMessage (WireFormat.RANK), seq);
+    }
+
+    public void leaders (long seq, int count)
+    {
+        ByteBuffer out = beginMessage (WireFormat.LEADERS);
+        putVarLong (out, seq);
+        putVarLong (out, count);
+    }
+
+    private void sessionRequest (byte type, long seq, long sessionID)
+    {
+        ByteBuffer out = beginMessage (type);
+        putVarLong (out, seq);
+        putVarLong (out, sessionID);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Results
+    // ---------------------------------------------------------------------------------------------
+
+    public void session (long seq, long sessionID, int rowsOrColumns)
+    {
+        ByteBuffer out = beginMessage (WireFormat.SESSION);
+        putVarLong (out, seq);
+        putVarLong (out, sessionID);
+        putVarLong (out, rowsOrColumns);
+    }
+
+    public void joined (long sessionID)
+    {
+        putVarLong (beginMessage (WireFormat.JOINED), sessionID);
+    }
+
+    /**
+     * @param mover one of the WireFormat.PLAYER_ codes
+     * @param next  likewise; PLAYER_NONE if the move ended the game
+     */
+    public void moved (long sessionID, int ply, int cell, int mover, int next)
+    {
+        ByteBuffer out = beginMessage (WireFormat.MOVED);
+        putVarLong (out, sessionID);
+        putVarLong (out, ply);
+        putVarLong (out, cell);
+        out.put ((byte) (mover << 4 | next));
+    }
+
+    /**
+     * @param winner one of the WireFormat.PLAYER_ codes; PLAYER_NONE for a draw
+     */
+    public void over (long sessionID, int winner)
+    {
+        ByteBuffer out = beginMessage (WireFormat.OVER);
+        putVarLong (out, sessionID);
+        out.put ((byte) winner);
+    }
+
+    public void started (long sessionID)
+    {
+        putVarLong (beginMessage (WireFormat.STARTED), sessionID);
+    }
+
+    public void left (long sessionID)
+    {
+        putVarLong (beginMessage (WireFormat.LEFT), sessionID);
+    }
+
+    /**
+     * @param player WireFormat.PLAYER_X or PLAYER_O: the side the recipient plays
+     */
+    public void matched (long seq, long sessionID, int rowsOrColumns, int player)
+    {
+        ByteBuffer out = beginMessage (WireFormat.MATCHED);
+        putVarLong (out, seq);
+        putVarLong (out, sessionID);
+        putVarLong (out, rowsOrColumns);
+        out.put ((byte) player);
+    }
+
+    /**
+     * @param sessionID 0 if the request named no session (or a bad one)
+     * @param reason    one of the WireFormat.ERROR_ codes
+     */
+    public void error (long seq, long sessionID, int reason)
+    {
+        ByteBuffer out = beginMessage (WireFormat.ERROR);
+        putVarLong (out, seq);
+        putVarLong (out, sessionID);
+        out.put ((byte) reason);
+    }
+
+    /**
+     * @param moves the game's moves (cells), X's first
+     */
+    public void snapshot (long sessionID, int rowsOrColumns, int[] moves, int moveCount)
+    {
+        ByteBuffer out = beginMessage (WireFormat.SNAPSHOT, MAX_MESSAGE_LENGTH + 5 * moveCount);
+        putVarLong (out, sessionID);
+        putVarLong (out, rowsOrColumns);
+        putCells (out, moves, moveCount);
+    }
+
+    /**
+     * @param winner         one of the WireFormat.PLAYER_ codes; PLAYER_NONE for a draw
+     * @param winType        WinType ordinal
+     * @param winTypeDiagonal WinTypeDiagonal ordinal
+     */
+    public void ended (long sessionID, int winner, int winType, int winTypeDiagonal,
+                       int[] winningCells, int cellCount)
+    {
+        ByteBuffer out = beginMessage (WireFormat.ENDED, MAX_MESSAGE_LENGTH + 5 * cellCount);
+        putVarLong (out, sessionID);
+        out.put ((byte) winner);
+        out.put ((byte) (winType | winTypeDiagonal << 2));
+        putCells (out, winningCells, cellCount);
+    }
+
+    public void synced (long seq)
+    {
+        putVarLong (beginMessage (WireFormat.SYNCED), seq);
+    }
+
+    /**
+     * @param rank 0 if the player has not finished a game
+     */
+    public void ranked (long seq, int rank, int rating, int wins, int losses, int draws)
+    {
+        ByteBuffer out = beginMessage (WireFormat.RANKED, MAX_MESSAGE_LENGTH + 10);
+        putVarLong (out, seq);
+        putVarLong (out, rank);
+        putVarLong (out, rating);
+        putVarLong (out, wins);
+        putVarLong (out, losses);
+        putVarLong (out, draws);
+    }
+
+    /**
+     * @param playerIDs the best players, best first
+     */
+    public void leaderboard (long seq, long[] playerIDs, int[] ratings, int count)
+    {
+        ByteBuffer out = beginMessage (WireFormat.LEADERBOARD, MAX_MESSAGE_LENGTH + 15 * count);
+        putVarLong (out, seq);
+        putVarLong (out, count);
+        for (int i = 0; i < count; i++) {
+            putVarLong (out, playerIDs[i]);
+            putVarLong (out, ratings[i]);
+        }
+    }
+
+    private static void putCells (ByteBuffer out, int[] cells, int count)
+    {
+        putVarLong (out, count);
+        for (int i = 0; i < count; i++) {
+            putVarLong (out, cells[i]);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ByteBuffer beginMessage (byte type)
+    {
+        return beginMessage (type, MAX_MESSAGE_LENGTH);
+    }
+
+    /**
+     * Makes room for one message, in the open frame or a new one, and writes its type
+     *
+     * @param maxLength at most MAX_FRAME_LENGTH
+     * @return where to put the message's fields
+     */
+    private ByteBuffer beginMessage (byte type, int maxLength)
+    {
+        if (mFrameStart >= 0
+                && mBuffer.position () + maxLength - mFrameStart - LENGTH_PREFIX_BYTES
+                > MAX_FRAME_LENGTH) {
+            finishFrame ();
+        }
+        if (mOverflowed || !ensureRoom (LENGTH_PREFIX_BYTES + maxLength)) {
+            mOverflowed = true;
+            if (maxLength > mDiscard.capacity ()) {
+                mDiscard = ByteBuffer.allocate (maxLength);
+            }
+            mDiscard.clear ();
+            return mDiscard.put (type);
+        }
+
+        if (mFrameStart < 0) {
+            mFrameStart = mBuffer.position ();
+            mBuffer.position (mFrameStart + LENGTH_PREFIX_BYTES);
+        }
+        return mBuffer.put (type);
+    }
+
+    private void finishFrame ()
+    {
+        if (mFrameStart >= 0) {
+            int length = mBuffer.position () - mFrameStart - LENGTH_PREFIX_BYTES;
+            mBuffer.putShort (mFrameStart, (short) length);
+            mFrameStart = -1;
+        }
+    }
+
+    /**
+     * @return false if the buffer cannot grow that much
+     */
+    private boolean ensureRoom (int bytes)
+    {
+        if (mBuffer.remaining () >= bytes) {
+            return true;
+        }
+
+        int needed = mBuffer.position () + bytes;
+        if (needed > mMaxCapacity) {
+            return false;
+        }
+        int capacity = Math.min (Math.max (needed, mBuffer.capacity () * 2), mMaxCapacity);
+        mBuffer.flip ();
+        mBuffer = ByteBuffer.allocate (capacity).put (mBuffer);
+        return true;
+    }
+}
@@ -0,0 +1,514 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.metrics.MetricsRegistry;
+import com.mintedtech.tic_tac_toe.metrics.TextMetricsExporter;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hosts game sessions for any number of clients over TCP: one selector thread does all socket
+ * I/O and parses requests, and a pool of workers runs the sessions (see GameSession), so the
+ * number of open sessions is bounded by memory, not by threads.
+ * <p/>
+ * Clients speak the binary protocol described in WireFormat. A client may take part in any
+ * number of sessions at once, including both sides of one; results of a session go to both
+ * of its players, and a client that sends something that is not a request is disconnected.
+ * <p/>
+ * Every game two players finish counts on the server's Leaderboard, which clients can ask for
+ * their rank on and for its leaders.
+ * <p/>
+ * Given a log directory, the server logs every session to it (see MoveLog), snapshots every
+ * game there each SNAPSHOT_INTERVAL_SECONDS, and on start comes back with the games it held,
+ * whether it crashed or was stopped.
+ * <p/>
+ * Given a node ID and a cluster port (startCluster), the server is one node of a cluster behind
+ * a Gateway: it hosts the sessions the gateway's HashRing gives it, and hands them to another
+ * node, or takes them from one, when the gateway changes the ring (see ClusterNode).
+ */
+public class GameServer implements Runnable
+{
+    public static final int DEFAULT_PORT = 7878;
+    public static final int MIN_ROWS_OR_COLUMNS = 3, MAX_ROWS_OR_COLUMNS = 50;
+
+    private static final Logger LOG = Logger.getLogger (GameServer.class.getName ());
+    private static final int EXPECTED_SESSIONS = 1 << 16;
+    private static final int EXPECTED_PLAYERS = 1 << 16;
+    private static final int DEFAULT_IDLE_SECONDS = 60;
+    private static final int RATING_BAND_WIDTH = 100;
+    private static final long WIDEN_BAND_AFTER_NANOS = TimeUnit.SECONDS.toNanos (1);
+    private static final int COMPUTER_QUEUE_CAPACITY = 4096;
+    private static final long COMPUTER_DEADLINE_NANOS = TimeUnit.MILLISECONDS.toNanos (250);
+    private static final int SNAPSHOT_INTERVAL_SECONDS = 30;
+
+    private final Selector mSelector;
+    private final ServerSocketChannel mServerChannel;
+    private final ExecutorService mWorkers;
+    private final ComputerPlayerPool mComputerPlayers;
+    private final Leaderboard mLeaderboard = new Leaderboard (EXPECTED_PLAYERS);
+    private final SessionStore mSessions;
+    private final ScheduledExecutorService mSessionTimer;
+    private final Matchmaker mMatchmaker;
+    private final ConcurrentLinkedQueue<Connection> mFlushRequests = new ConcurrentLinkedQueue<> ();
+    private volatile boolean mRunning = true;
+
+    // selector thread only: the player ID last given to a client that connected directly
+    private long mLastPlayerID;
+
+    // a gateway's connections, by the client each carries (see WireFormat's HELLO)
+    private final ConcurrentHashMap<Long, Connection> mClients = new ConcurrentHashMap<> ();
+    private volatile ClusterNode mCluster;
+
+    /**
+     * @param address       where to listen; port 0 picks a free one (see getPort)
+     * @param workerThreads threads that run the sessions' moves; half as many more choose the
+     *                      computer's moves
+     */
+    public GameServer (InetSocketAddress address, int workerThreads) throws IOException
+    {
+        this (address, workerThreads, DEFAULT_IDLE_SECONDS);
+    }
+
+    /**
+     * @param idleSeconds how long a session may go without a request before it hibernates
+     *                    (see SessionStore)
+     */
+    public GameServer (InetSocketAddress address, int workerThreads, int idleSeconds)
+            throws IOException
+    {
+        this (address, workerThreads, idleSeconds, null);
+    }
+
+    /**
+     * @param logDirectory where to log the sessions and recover them from; null for nowhere
+     */
+    public GameServer (InetSocketAddress address, int workerThreads, int idleSeconds,
+                       File logDirectory) throws IOException
+    {
+        mSelector = Selector.open ();
+        mServerChannel = ServerSocketChannel.open ();
+        mServerChannel.bind (address, 1024);
+        mServerChannel.configureBlocking (false);
+        mServerChannel.register (mSelector, SelectionKey.OP_ACCEPT);
+
+        AtomicInteger threadNumber = new AtomicInteger ();
+        mWorkers = Executors.newFixedThreadPool (workerThreads, runnable -> {
+            Thread thread = new Thread (runnable, "session-" + threadNumber.incrementAndGet ());
+            thread.setDaemon (true);
+            return thread;
+        });
+        mComputerPlayers = new ComputerPlayerPool (
+                Math.max (1, workerThreads / 2), COMPUTER_QUEUE_CAPACITY, COMPUTER_DEADLINE_NANOS,
+                this::playComputerMove);
+        mSessions = new SessionStore (EXPECTED_SESSIONS, mWorkers, idleSeconds,
+                                      mComputerPlayers, mLeaderboard, logDirectory);
+
+        mSessionTimer = Executors.newSingleThreadScheduledExecutor (runnable -> {
+            Thread thread = new Thread (runnable, "session-timer");
+            thread.setDaemon (true);
+            return thread;
+        });
+        mSessionTimer.scheduleAtFixedRate (mSessions::tick, 1, 1, TimeUnit.SECONDS);
+        if (logDirectory != null) {
+            // at once, so the log recovered from starts over from a snapshot of what it held
+            mSessionTimer.scheduleWithFixedDelay (this::checkpoint, 0, SNAPSHOT_INTERVAL_SECONDS,
+                                                  TimeUnit.SECONDS);
+        }
+
+        mMatchmaker = new Matchmaker (MAX_ROWS_OR_COLUMNS, RATING_BAND_WIDTH,
+                                      WIDEN_BAND_AFTER_NANOS, this::startMatch);
+        Thread matchmakerThread = new Thread (mMatchmaker, "matchmaker");
+        matchmakerThread.setDaemon (true);
+        matchmakerThread.start ();
+    }
+
+    public int getPort ()
+    {
+        return mServerChannel.socket ().getLocalPort ();
+    }
+
+    public SessionStore getSessions ()
+    {
+        return mSessions;
+    }
+
+    public ComputerPlayerPool getComputerPlayers ()
+    {
+        return mComputerPlayers;
+    }
+
+    public Leaderboard getLeaderboard ()
+    {
+        return mLeaderboard;
+    }
+
+    /**
+     * Makes this server a node of a cluster, taking a Gateway's orders on a port of its own
+     *
+     * @param nodeID  this node's ID on the gateway's ring, below HashRing.MAX_NODES
+     * @param address where to listen for the gateway's orders; port 0 picks a free one
+     * @return the port it listens on
+     */
+    public int startCluster (int nodeID, InetSocketAddress address) throws IOException
+    {
+        mCluster = new ClusterNode (this, nodeID, address);
+        Thread clusterThread = new Thread (mCluster, "cluster");
+        clusterThread.setDaemon (true);
+        clusterThread.start ();
+        return mCluster.getPort ();
+    }
+
+    /**
+     * Stops the event loop (from any thread); run then closes every connection and returns
+     */
+    public void stop ()
+    {
+        mRunning = false;
+        mSelector.wakeup ();
+    }
+
+    /**
+     * The event loop; returns once stop is called
+     */
+    @Override
+    public void run ()
+    {
+        try {
+            while (mRunning) {
+                mSelector.select ();
+                flushRequested ();
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys ().iterator ();
+                while (keys.hasNext ()) {
+                    SelectionKey key = keys.next ();
+                    keys.remove ();
+                    if (!key.isValid ()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable ()) {
+                        accept ();
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment ();
+                    try {
+                        boolean open = !key.isReadable () || connection.read ();
+                        if (open && key.isValid () && key.isWritable ()) {
+                            open = connection.flush ();
+                        }
+                        if (!open) {
+                            close (connection);
+                        }
+                    }
+                    catch (IOException e) {
+                        close (connection);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            LOG.log (Level.SEVERE, "Event loop failed", e);
+        }
+        finally {
+            shutDown ();
+        }
+    }
+
+    private void accept () throws IOException
+    {
+        SocketChannel channel;
+        while ((channel = mServerChannel.accept ()) != null) {
+            channel.configureBlocking (false);
+            channel.socket ().setTcpNoDelay (true);
+            SelectionKey key = channel.register (mSelector, SelectionKey.OP_READ);
+            // negative, so they cannot be taken for a gateway's client IDs
+            key.attach (new Connection (this, channel, key, --mLastPlayerID));
+            ServerMetrics.CONNECTIONS_OPENED.increment ();
+        }
+    }
+
+    /**
+     * Called by Connection.send when a connection has new output and no flush pending
+     */
+    void requestFlush (Connection connection)
+    {
+        mFlushRequests.add (connection);
+        mSelector.wakeup ();
+    }
+
+    private void flushRequested ()
+    {
+        Connection connection;
+        while ((connection = mFlushRequests.poll ()) != null) {
+            if (connection.isClosed ()) {
+                continue;
+            }
+            try {
+                if (!connection.flush ()) {
+                    close (connection);
+                }
+            }
+            catch (IOException e) {
+                close (connection);
+            }
+        }
+    }
+
+    private void close (Connection connection)
+    {
+        if (!connection.isClosed ()) {
+            if (connection.getClientID () != 0) {
+                mClients.remove (connection.getClientID (), connection);
+            }
+            connection.close (mSessions);
+            ServerMetrics.CONNECTIONS_CLOSED.increment ();
+        }
+    }
+
+    private void shutDown ()
+    {
+        // the log first: the players leaving below would close every session in it
+        mSessionTimer.shutdown ();
+        try {
+            mSessionTimer.awaitTermination (1, TimeUnit.MINUTES);
+            mSessions.closeLog ();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+        }
+
+        for (SelectionKey key : mSelector.keys ()) {
+            if (key.attachment () instanceof Connection) {
+                close ((Connection) key.attachment ());
+            }
+        }
+        try {
+            mServerChannel.close ();
+            mSelector.close ();
+        }
+        catch (IOException e) {
+            LOG.log (Level.WARNING, "Could not close the server socket", e);
+        }
+        if (mCluster != null) {
+            mCluster.stop ();
+        }
+        mMatchmaker.stop ();
+        mComputerPlayers.stop ();
+        mWorkers.shutdown ();
+    }
+
+    /**
+     * Snapshots every game to the move log (session timer)
+     */
+    private void checkpoint ()
+    {
+        try {
+            mSessions.checkpoint ();
+        }
+        catch (IOException e) {
+            LOG.log (Level.WARNING, "Could not snapshot the games", e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Requests (selector thread, from Connection)
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * @param versusComputer whether the computer plays O, rather than somebody who joins
+     */
+    void createSession (Connection connection, long seq, int rowsOrColumns,
+                        boolean versusComputer)
+    {
+        if (rowsOrColumns < MIN_ROWS_OR_COLUMNS || rowsOrColumns > MAX_ROWS_OR_COLUMNS) {
+            connection.sendError (seq, 0, WireFormat.ERROR_BAD_BOARD_SIZE);
+            return;
+        }
+
+        GameSession session = mSessions.create (rowsOrColumns, connection, null, versusComputer);
+        connection.addSession (session.getID ());
+        connection.sendSession (seq, session.getID (), rowsOrColumns);
+        if (versusComputer) {
+            connection.sendJoined (session.getID ());
+        }
+    }
+
+    void findMatch (Connection connection, long seq, int rowsOrColumns, int rating)
+    {
+        if (rowsOrColumns < MIN_ROWS_OR_COLUMNS || rowsOrColumns > MAX_ROWS_OR_COLUMNS) {
+            connection.sendError (seq, 0, WireFormat.ERROR_BAD_BOARD_SIZE);
+            return;
+        }
+        mMatchmaker.join (new MatchRequest (connection, seq, rating, rowsOrColumns));
+    }
+
+    /**
+     * Gives two matched players a session (matchmaker thread)
+     */
+    private void startMatch (Matchmaker.Ticket x, Matchmaker.Ticket o)
+    {
+        MatchRequest requestX = (MatchRequest) x, requestO = (MatchRequest) o;
+        int rowsOrColumns = x.getRowsOrColumns ();
+        long sessionID = mSessions.create (rowsOrColumns, requestX.mConnection,
+                                           requestO.mConnection, false).getID ();
+
+        // either may have disconnected since the matchmaker looked; the other then sees LEFT
+        for (MatchRequest request : new MatchRequest[] {requestX, requestO}) {
+            Connection connection = request.mConnection;
+            if (connection.addSession (sessionID)) {
+                connection.sendMatched (request.mSeq, sessionID, rowsOrColumns,
+                                        request == requestX ? WireFormat.PLAYER_X
+                                                            : WireFormat.PLAYER_O);
+            }
+            else {
+                mSessions.submit (sessionID, session -> session.leave (connection));
+            }
+        }
+    }
+
+    /**
+     * A FIND request, waiting in the matchmaker until paired or its client disconnects
+     */
+    private static final class MatchRequest extends Matchmaker.Ticket
+    {
+        private final Connection mConnection;
+        private final long mSeq;
+
+        MatchRequest (Connection connection, long seq, int rating, int rowsOrColumns)
+        {
+            super (rating, rowsOrColumns);
+            mConnection = connection;
+            mSeq = seq;
+        }
+
+        @Override
+        public boolean isCancelled ()
+        {
+            return mConnection.isClosed ();
+        }
+    }
+
+    /**
+     * Hands the computer's move to its session (a computer player's thread)
+     */
+    private void playComputerMove (long sessionID, TicTacToe position, int cell)
+    {
+        mSessions.submit (sessionID, session -> session.computerMove (position, cell));
+    }
+
+    /**
+     * Remembers which gateway client a connection carries, once it has said (HELLO)
+     */
+    void addClient (Connection connection)
+    {
+        mClients.put (connection.getClientID (), connection);
+    }
+
+    /**
+     * @return the connection carrying that gateway client, or null
+     */
+    Connection findClient (long clientID)
+    {
+        return clientID == 0 ? null : mClients.get (clientID);
+    }
+
+    /**
+     * Queues a task on a session, or tells the client there is no such session
+     *
+     * @return whether the session exists
+     */
+    boolean submit (Connection connection, long seq, long sessionID, GameSession.Task task)
+    {
+        if (mSessions.submit (sessionID, task)) {
+            return true;
+        }
+        connection.sendError (seq, sessionID, WireFormat.ERROR_NO_SUCH_SESSION);
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs a server on localhost until the process is stopped; metrics go to standard output
+     * every minute
+     * <p/>
+     * Arguments: [--port n] [--workers n] [--idle-seconds n] [--log-dir path]
+     * [--node-id n --cluster-port n]
+     */
+    public static void main (String[] args) throws IOException
+    {
+        int port = DEFAULT_PORT;
+        int workers = Runtime.getRuntime ().availableProcessors ();
+        int idleSeconds = DEFAULT_IDLE_SECONDS;
+        File logDirectory = null;
+        int nodeID = 0, clusterPort = -1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals ("--port")) {
+                port = Integer.parseInt (args[i + 1]);
+            }
+            else if (args[i].equals ("--workers")) {
+                workers = Integer.parseInt (args[i + 1]);
+            }
+            else if (args[i].equals ("--idle-seconds")) {
+                idleSeconds = Integer.parseInt (args[i + 1]);
+            }
+            else if (args[i].equals ("--log-dir")) {
+                logDirectory = new File (args[i + 1]);
+            }
+            else if (args[i].equals ("--node-id")) {
+                nodeID = Integer.parseInt (args[i + 1]);
+            }
+            else if (args[i].equals ("--cluster-port")) {
+                clusterPort = Integer.parseInt (args[i + 1]);
+            }
+        }
+
+        GameServer server = new GameServer (
+                new InetSocketAddress (InetAddress.getLoopbackAddress (), port), workers,
+                idleSeconds, logDirectory);
+        LOG.info ("Listening on port " + server.getPort ());
+        if (clusterPort >= 0) {
+            clusterPort = server.startCluster (
+                    nodeID, new InetSocketAddress (InetAddress.getLoopbackAddress (), clusterPort));
+            LOG.info ("Node " + nodeID + " taking orders on port " + clusterPort);
+        }
+
+        Executors.newSingleThreadScheduledExecutor (runnable -> {
+            Thread thread = new Thread (runnable, "metrics");
+            thread.setDaemon (true);
+            return thread;
+        }).scheduleAtFixedRate (() -> printMetrics (server), 1, 1, TimeUnit.MINUTES);
+
+        server.run ();
+    }
+
+    private static void printMetrics (GameServer server)
+    {
+        SessionStore sessions = server.getSessions ();
+        System.out.print ("sessions open: " + sessions.size () + ", hibernating: "
+                + sessions.getHibernatingCount () + ", computer moves waiting: "
+                + server.getComputerPlayers ().getQueueDepth () + "\n"
+                + MetricsRegistry.getDefault ().exportToString (new TextMetricsExporter ()));
+    }
+}
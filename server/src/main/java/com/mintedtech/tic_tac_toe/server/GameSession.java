@@ -0,0 +1,578 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.enums.PlayerTurn;
+import com.mintedtech.tic_tac_toe.enums.WinType;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One game between two players (or one client playing both sides). The model is not
+ * thread-safe, so everything that touches it is a task in this session's mailbox: tasks run
+ * one at a time, in the order they were submitted, on whichever worker thread is free, and
+ * sessions never wait for each other.
+ * <p/>
+ * SessionStore owns the sessions: it queues the tasks, and swaps an idle session for its
+ * encoded game (and back) when no task is queued or running.
+ * <p/>
+ * The rules are TicTacToe.attemptTurn's; on top of them the session only checks what the app
+ * checks before calling it - that the move is on the board, that the game is not over, and
+ * (which the app does not need) that it comes from the player whose turn it is, for the ply
+ * the game is at. A retried move that was already played is answered again (see WireFormat).
+ * <p/>
+ * A game that two different players finish is counted on the Leaderboard as it ends.
+ * <p/>
+ * In a game against the computer, the computer plays O: after each of X's moves the session
+ * asks the ComputerPlayerPool for one and plays its answer as a move of its own (computerMove).
+ * <p/>
+ * Any number of spectators may watch. What they are sent is encoded once per change, into a
+ * read-only buffer that every spectator's connection writes from, so a move costs the same to
+ * encode for one spectator as for ten thousand; see Spectator for how slow ones are handled.
+ * <p/>
+ * With a MoveLog, each move and restart is logged as it is played, and what the players are
+ * sent is held back until the log has it on disk (deliver); the spectators, who cannot act on
+ * it, are not kept waiting. A session the store recovered from the log has no players until
+ * clients join it again: the first to join plays X, the second O. If nobody does, the store
+ * closes it (see SessionStore).
+ * <p/>
+ * In a cluster (see Gateway), a session whose ID a new node comes to own is frozen here and
+ * carried there as its encoded game (freeze), to go on with the same players.
+ */
+final class GameSession
+{
+    private static final Logger LOG = Logger.getLogger (GameSession.class.getName ());
+
+    // tasks run per turn on a worker, so one busy session cannot hold a worker for long
+    private static final int MAX_TASKS_PER_TURN = 32;
+
+    // a SNAPSHOT of the largest board, with room to spare
+    private static final int BROADCAST_CAPACITY =
+            2 * (WireFormat.LENGTH_PREFIX_BYTES + WireFormat.MAX_FRAME_LENGTH);
+
+    /**
+     * Something to do with a session, on a worker, after everything queued before it
+     */
+    interface Task
+    {
+        void run (GameSession session);
+    }
+
+    private final long mID;
+    private final TicTacToe mGame;
+    private final boolean mVersusComputer;
+    private final SessionStore mStore;
+    private final Executor mExecutor;
+
+    private final ConcurrentLinkedQueue<Task> mMailbox = new ConcurrentLinkedQueue<> ();
+    private final AtomicBoolean mScheduled = new AtomicBoolean ();
+    private final Runnable mRunTasks = this::runTasks;
+
+    // tasks only (and the store, while no task is queued or running); closed once both players
+    // left or the session moved to another node
+    private Connection mPlayerX, mPlayerO;
+    private boolean mClosed;
+    private final ArrayList<Spectator> mSpectators = new ArrayList<> (0);
+
+    // tasks only: encodes for the spectators; the game as a SNAPSHOT, until it changes
+    private FrameEncoder mBroadcast;
+    private ByteBuffer mSnapshot;
+
+    // tasks only (and the store, as for the players): where this session's last record ends
+    private long mLogPosition;
+
+    // the store only, under its stripe's lock
+    private int mLastActiveTick;
+
+    /**
+     * @param playerO        null until somebody joins, or in a game against the computer
+     * @param versusComputer whether the computer plays O
+     */
+    GameSession (long id, TicTacToe game, Connection playerX, Connection playerO,
+                 boolean versusComputer, SessionStore store, Executor executor)
+    {
+        mID = id;
+        mGame = game;
+        mVersusComputer = versusComputer;
+        mPlayerX = playerX;
+        mPlayerO = playerO;
+        mStore = store;
+        mExecutor = executor;
+    }
+
+    long getID ()
+    {
+        return mID;
+    }
+
+    TicTacToe getGame ()
+    {
+        return mGame;
+    }
+
+    Connection getPlayerX ()
+    {
+        return mPlayerX;
+    }
+
+    Connection getPlayerO ()
+    {
+        return mPlayerO;
+    }
+
+    boolean isVersusComputer ()
+    {
+        return mVersusComputer;
+    }
+
+    int getLastActiveTick ()
+    {
+        return mLastActiveTick;
+    }
+
+    void setLastActiveTick (int tick)
+    {
+        mLastActiveTick = tick;
+    }
+
+    long getLogPosition ()
+    {
+        return mLogPosition;
+    }
+
+    void setLogPosition (long position)
+    {
+        mLogPosition = position;
+    }
+
+    /**
+     * @return whether no task is queued or running; the flag is cleared after the last task
+     * finishes, so seeing it clear also makes that task's changes visible
+     */
+    boolean isIdle ()
+    {
+        return !mScheduled.get () && mMailbox.isEmpty ();
+    }
+
+    /**
+     * Forgets spectators whose connections closed; the store, while no task is queued or running
+     *
+     * @return whether anybody is still watching
+     */
+    boolean hasSpectators ()
+    {
+        pruneSpectators ();
+        return !mSpectators.isEmpty ();
+    }
+
+    /**
+     * Queues a task to run after every task submitted before it; any thread
+     */
+    void submit (Task task)
+    {
+        mMailbox.add (task);
+        if (mScheduled.compareAndSet (false, true)) {
+            mExecutor.execute (mRunTasks);
+        }
+    }
+
+    private void runTasks ()
+    {
+        try {
+            for (int i = 0; i < MAX_TASKS_PER_TURN; i++) {
+                Task task = mMailbox.poll ();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run (this);
+                }
+                catch (RuntimeException e) {
+                    // a bug in one task; the tasks behind it, and the store, still need the turn
+                    ServerMetrics.SESSION_TASKS_FAILED.increment ();
+                    LOG.log (Level.WARNING, "Task failed in session " + mID, e);
+                }
+            }
+        }
+        finally {
+            mScheduled.set (false);
+            // a task submitted after the last poll found the flag still set, so schedule it here
+            if (!mMailbox.isEmpty () && mScheduled.compareAndSet (false, true)) {
+                mExecutor.execute (mRunTasks);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Tasks
+    // ---------------------------------------------------------------------------------------------
+
+    void join (Connection player, long seq)
+    {
+        if (mPlayerX == null && mPlayerO == null && !mClosed) {
+            // recovered from the log: X's seat first
+            mPlayerX = player;
+            deliver (() -> player.sendJoined (mID));
+            if (mVersusComputer && !mGame.isGameOver ()
+                    && mGame.getCurrentPlayer () == PlayerTurn.O) {
+                // the computer's move was lost with the process that was choosing it
+                mStore.getComputerPlayers ().request (mID, new TicTacToe (mGame));
+            }
+            return;
+        }
+        if (mPlayerO != null || mPlayerX == null || mVersusComputer) {
+            deliver (() -> player.sendError (seq, mID, WireFormat.ERROR_SESSION_FULL));
+            return;
+        }
+
+        mPlayerO = player;
+        Connection playerX = getPlayer (0), playerO = getPlayer (1);
+        deliver (() -> {
+            playerX.sendJoined (mID);
+            if (playerO != null) {
+                playerO.sendJoined (mID);
+            }
+        });
+    }
+
+    /**
+     * @param ply        how many moves the player believes were made before this one
+     * @param cell       row * size + col
+     * @param startNanos when the server read the move (System.nanoTime)
+     */
+    void move (Connection player, long seq, int ply, int cell, long startNanos)
+    {
+        int rowsOrColumns = mGame.getTotalRowsOrColumns ();
+        int moveCount = mGame.getMoveCount ();
+        PlayerTurn mover = mGame.getCurrentPlayer ();
+
+        int error = 0;
+        if (ply < moveCount && mGame.getMoveAt (ply) == cell
+                && (player == mPlayerX || player == mPlayerO)) {
+            // a retry of a move already played: answer it again, change nothing
+            int retriedMover = ply % 2 == 0 ? WireFormat.PLAYER_X : WireFormat.PLAYER_O;
+            int next = ply + 1 == moveCount && mGame.isGameOver ()
+                       ? WireFormat.PLAYER_NONE
+                       : retriedMover == WireFormat.PLAYER_X ? WireFormat.PLAYER_O
+                                                              : WireFormat.PLAYER_X;
+            deliver (() -> player.sendMoved (mID, ply, cell, retriedMover, next));
+        }
+        else if (mPlayerO == null && !mVersusComputer) {
+            error = WireFormat.ERROR_WAITING_FOR_OPPONENT;
+        }
+        else if (player != (mover == PlayerTurn.X ? mPlayerX : mPlayerO)) {
+            error = WireFormat.ERROR_NOT_YOUR_TURN;
+        }
+        else if (mGame.isGameOver ()) {
+            error = WireFormat.ERROR_GAME_OVER;
+        }
+        else if (ply != moveCount) {
+            error = WireFormat.ERROR_OUT_OF_SEQUENCE;
+        }
+        else if (cell < 0 || cell >= rowsOrColumns * rowsOrColumns) {
+            error = WireFormat.ERROR_OFF_THE_BOARD;
+        }
+        else if (!mGame.isValidClick (cell / rowsOrColumns, cell % rowsOrColumns)) {
+            error = WireFormat.ERROR_SPACE_TAKEN;
+        }
+        else {
+            play (ply, cell, mover);
+            ServerMetrics.MOVE.recordSince (startNanos);
+            if (mVersusComputer && !mGame.isGameOver ()) {
+                mStore.getComputerPlayers ().request (mID, new TicTacToe (mGame));
+            }
+        }
+
+        if (error != 0) {
+            int reason = error;
+            deliver (() -> player.sendError (seq, mID, reason));
+        }
+    }
+
+    /**
+     * Plays the computer's answer to a position, unless the game has moved on from it since
+     * (a restart, or somebody else's move)
+     */
+    void computerMove (TicTacToe position, int cell)
+    {
+        int moveCount = mGame.getMoveCount ();
+        if (mClosed || mGame.isGameOver () || mGame.getCurrentPlayer () != PlayerTurn.O
+                || position.getMoveCount () != moveCount) {
+            return;
+        }
+        for (int i = 0; i < moveCount; i++) {
+            if (position.getMoveAt (i) != mGame.getMoveAt (i)) {
+                return;
+            }
+        }
+        play (moveCount, cell, PlayerTurn.O);
+    }
+
+    /**
+     * Applies and logs a checked move and tells the players and spectators
+     */
+    private void play (int ply, int cell, PlayerTurn mover)
+    {
+        int rowsOrColumns = mGame.getTotalRowsOrColumns ();
+        mGame.attemptTurn (cell / rowsOrColumns, cell % rowsOrColumns);
+        ServerMetrics.MOVES_ACCEPTED.increment ();
+        MoveLog log = mStore.getLog ();
+        if (log != null) {
+            mLogPosition = log.move (mID, ply, cell);
+        }
+
+        boolean gameOver = mGame.isGameOver ();
+        int moverCode = WireFormat.toPlayerCode (mover);
+        int next = gameOver ? WireFormat.PLAYER_NONE
+                            : WireFormat.toPlayerCode (mGame.getCurrentPlayer ());
+        int winner = gameOver && mGame.isWinner () ? moverCode : WireFormat.PLAYER_NONE;
+        Connection playerX = getPlayer (0), playerO = getPlayer (1);
+        if (gameOver && playerX != null && playerO != null && !mVersusComputer) {
+            mStore.getLeaderboard ().recordGame (playerX.getPlayerID (), playerO.getPlayerID (),
+                                                 winner);
+        }
+        deliver (() -> {
+            for (Connection each : new Connection[] {playerX, playerO}) {
+                if (each != null) {
+                    each.sendMoved (mID, ply, cell, moverCode, next);
+                    if (gameOver) {
+                        each.sendOver (mID, winner);
+                    }
+                }
+            }
+        });
+
+        mSnapshot = null;
+        if (!mSpectators.isEmpty ()) {
+            mBroadcast.moved (mID, ply, cell, moverCode, next);
+            if (gameOver) {
+                encodeEnded ();
+            }
+            broadcast ();
+        }
+    }
+
+    void restart (Connection player, long seq)
+    {
+        if (player != mPlayerX && player != mPlayerO) {
+            deliver (() -> player.sendError (seq, mID, WireFormat.ERROR_NOT_A_PLAYER));
+            return;
+        }
+
+        mGame.startGame ();
+        MoveLog log = mStore.getLog ();
+        if (log != null) {
+            mLogPosition = log.restart (mID);
+        }
+        sendToPlayers (WireFormat.STARTED);
+
+        mSnapshot = null;
+        if (!mSpectators.isEmpty ()) {
+            mBroadcast.started (mID);
+            broadcast ();
+        }
+    }
+
+    void leave (Connection player)
+    {
+        if (player != mPlayerX && player != mPlayerO) {
+            return;
+        }
+        if (player == mPlayerX) {
+            mPlayerX = null;
+        }
+        if (player == mPlayerO) {
+            mPlayerO = null;
+        }
+        sendToPlayers (WireFormat.LEFT);
+        if (!mSpectators.isEmpty ()) {
+            mBroadcast.left (mID);
+            broadcast ();
+        }
+
+        if (mPlayerX == null && mPlayerO == null) {
+            mClosed = true;
+            mStore.remove (mID);
+        }
+    }
+
+    /**
+     * Hands the session over to another node (see SessionStore.handOff): the store forgets it
+     * without closing it, and a computer move still on its way is ignored. Players and
+     * spectators are not told; the gateway moves them along with the session.
+     *
+     * @return the game and its players, to ship
+     */
+    MigratingSession freeze ()
+    {
+        mClosed = true;
+        mStore.detach (mID);
+        return new MigratingSession (mID, mVersusComputer, SessionStore.clientOf (mPlayerX),
+                                     SessionStore.clientOf (mPlayerO),
+                                     SessionStore.encode (mGame));
+    }
+
+    /**
+     * Adds a spectator and sends it the game so far; watching twice changes nothing
+     */
+    void watch (Connection connection)
+    {
+        for (Spectator spectator : mSpectators) {
+            if (spectator.getConnection () == connection) {
+                return;
+            }
+        }
+        if (mBroadcast == null) {
+            mBroadcast = new FrameEncoder (BROADCAST_CAPACITY);
+        }
+
+        Spectator spectator = new Spectator (connection, mID, mStore);
+        mSpectators.add (spectator);
+        ServerMetrics.SPECTATORS_ADDED.increment ();
+        spectator.offer (getSnapshot ());
+    }
+
+    void unwatch (Connection connection)
+    {
+        for (Iterator<Spectator> i = mSpectators.iterator (); i.hasNext (); ) {
+            if (i.next ().getConnection () == connection) {
+                i.remove ();
+            }
+        }
+    }
+
+    /**
+     * Sends a spectator that stopped lagging the game as it is now (see Spectator)
+     */
+    void catchUp (Spectator spectator)
+    {
+        if (mSpectators.contains (spectator) && spectator.resume ()) {
+            ServerMetrics.SPECTATOR_SNAPSHOTS.increment ();
+            spectator.offer (getSnapshot ());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Spectators (tasks only)
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Hands what mBroadcast encoded to every spectator
+     */
+    private void broadcast ()
+    {
+        ByteBuffer frames = mBroadcast.takeFrames ();
+        ServerMetrics.SPECTATOR_FRAMES_ENCODED.increment ();
+        pruneSpectators ();
+        for (int i = 0; i < mSpectators.size (); i++) {
+            Spectator spectator = mSpectators.get (i);
+            // its connection may have written everything before it saw the spectator lagging
+            if (!spectator.offer (frames) && spectator.isDrained ()) {
+                catchUp (spectator);
+            }
+        }
+    }
+
+    private void pruneSpectators ()
+    {
+        for (Iterator<Spectator> i = mSpectators.iterator (); i.hasNext (); ) {
+            if (i.next ().getConnection ().isClosed ()) {
+                i.remove ();
+            }
+        }
+    }
+
+    /**
+     * @return the game so far, encoded once until it changes
+     */
+    private ByteBuffer getSnapshot ()
+    {
+        if (mSnapshot == null) {
+            int moveCount = mGame.getMoveCount ();
+            int[] moves = new int[moveCount];
+            for (int i = 0; i < moveCount; i++) {
+                moves[i] = mGame.getMoveAt (i);
+            }
+            mBroadcast.snapshot (mID, mGame.getTotalRowsOrColumns (), moves, moveCount);
+            if (mGame.isGameOver ()) {
+                encodeEnded ();
+            }
+            mSnapshot = mBroadcast.takeFrames ();
+        }
+        return mSnapshot;
+    }
+
+    private void encodeEnded ()
+    {
+        int rowsOrColumns = mGame.getTotalRowsOrColumns ();
+        boolean[][] winningSpaces = mGame.getWinningSpaces ();
+        int[] cells = new int[rowsOrColumns];
+        int cellCount = 0;
+        for (int row = 0; row < rowsOrColumns; row++) {
+            for (int col = 0; col < rowsOrColumns; col++) {
+                if (winningSpaces[row][col] && cellCount < cells.length) {
+                    cells[cellCount++] = row * rowsOrColumns + col;
+                }
+            }
+        }
+
+        // a finished game keeps its last mover as the current player
+        int winner = mGame.getWinType () != WinType.NONE
+                     ? WireFormat.toPlayerCode (mGame.getCurrentPlayer ())
+                     : WireFormat.PLAYER_NONE;
+        mBroadcast.ended (mID, winner, mGame.getWinType ().ordinal (),
+                          mGame.getWinTypeDiagonal ().ordinal (), cells, cellCount);
+    }
+
+    /**
+     * Sends results to the players once every record this session has logged so far is on
+     * disk, in the order they were given (see MoveLog.whenDurable); at once without a log.
+     * results runs on another thread then, so it must only use what it captured.
+     */
+    private void deliver (Runnable results)
+    {
+        MoveLog log = mStore.getLog ();
+        if (log == null) {
+            results.run ();
+        }
+        else {
+            log.whenDurable (mLogPosition, results);
+        }
+    }
+
+    /**
+     * Delivers a STARTED or LEFT to the players there are now
+     */
+    private void sendToPlayers (byte result)
+    {
+        Connection playerX = getPlayer (0), playerO = getPlayer (1);
+        deliver (() -> {
+            for (Connection each : new Connection[] {playerX, playerO}) {
+                if (each == null) {
+                    continue;
+                }
+                if (result == WireFormat.STARTED) {
+                    each.sendStarted (mID);
+                }
+                else {
+                    each.sendLeft (mID);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param index 0 for X, 1 for O
+     * @return that player, or null if there is none or (one client playing both sides) O is X
+     */
+    private Connection getPlayer (int index)
+    {
+        return index == 0 ? mPlayerX : mPlayerO != mPlayerX ? mPlayerO : null;
+    }
+}
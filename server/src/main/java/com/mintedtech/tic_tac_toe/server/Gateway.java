@@ -0,0 +1,1006 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.collections.LongHashTable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The front door of a cluster of GameServers. Clients connect here and speak WireFormat as they
+ * would to one server; the gateway passes each request on to the node that owns its session,
+ * by consistent hashing on the session ID (see HashRing), and each result back to its client.
+ * NEW and COMPUTER go to the nodes in turn (each gives out only IDs it owns, see SessionStore),
+ * FIND to the node that owns the board size, so that players of one size meet in one matchmaker.
+ * <p/>
+ * Every client gets a connection of its own to every node, which first names the client
+ * (HELLO); a node sees each of them as an ordinary client, and a session that moves to it can
+ * seat its players on their connections there. One selector thread does all of it, decoding
+ * each request and result and encoding it again, since one client frame may hold requests for
+ * several nodes. It connects to the nodes without waiting: what a client sends a node before
+ * the connection is up, its HELLO first, is queued until it is, so a slow node holds up only
+ * the requests for it.
+ * <p/>
+ * addNode grows the cluster without dropping a game in progress. The gateway connects every
+ * client to the new node and, once the node has read their HELLOs, starts holding back the
+ * requests for the sessions that will move. A SYNC to every node then makes sure everything
+ * forwarded before is queued on its session. Each node freezes the sessions the new ring gives
+ * away, after their queued requests, and hands over their encoded games (see ClusterNode); the
+ * new node adopts them and logs them, and then the old nodes close them. A last SYNC lets the
+ * results of the frozen sessions' last requests through, and the gateway switches to the new
+ * ring and sends the held requests on to the new owner, spectators' WATCHes first. Sessions
+ * that stay where they are are never held; a moving session pauses for as long as the move
+ * takes.
+ * <p/>
+ * Each node keeps a Leaderboard of the games it hosts, by the gateway's client IDs, so a client
+ * is the same player on all of them; RANK and LEADERS go to the node that owns ID 0, and count
+ * only that node's games: the boards are not merged.
+ * <p/>
+ * Requests waiting in a node's matchmaker stay there: after a change, FINDs for their board size
+ * may go to another node. A node that fails is not replaced, and one that fails during addNode
+ * leaves the cluster as it was by then; addNode throws.
+ */
+public class Gateway implements Runnable
+{
+    public static final int DEFAULT_PORT = 7879;
+
+    private static final Logger LOG = Logger.getLogger (Gateway.class.getName ());
+
+    // a client or node that lets this many bytes pile up unread is dropped
+    private static final int MAX_UNWRITTEN_BYTES = 1 << 20;
+
+    private final Selector mSelector;
+    private final ServerSocketChannel mServerChannel;
+    private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<> ();
+    private volatile boolean mRunning = true;
+
+    // the thread changing the cluster; one at a time
+    private final Object mMembershipLock = new Object ();
+    private final ArrayList<Node> mMembers = new ArrayList<> ();
+    private HashRing mMembersRing;
+
+    // selector thread only: the ring requests are routed by and, while sessions move, the one
+    // they move to; the requests held back for those
+    private final HashMap<Integer, Node> mNodes = new HashMap<> ();
+    private final HashSet<Client> mClients = new HashSet<> ();
+    private HashRing mRing, mNextRing;
+    private int[] mRingNodeIDs;
+    private final ArrayList<HeldRequest> mHeld = new ArrayList<> ();
+    private final ArrayList<Link> mDirty = new ArrayList<> ();
+    private CountDownLatch mBarrier = new CountDownLatch (0);
+    private long mNextClientID = 1;
+    private int mNextNewGameNode;
+
+    /**
+     * @param address where clients connect; port 0 picks a free one (see getPort)
+     */
+    public Gateway (InetSocketAddress address) throws IOException
+    {
+        mSelector = Selector.open ();
+        mServerChannel = ServerSocketChannel.open ();
+        mServerChannel.bind (address, 1024);
+        mServerChannel.configureBlocking (false);
+        mServerChannel.register (mSelector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort ()
+    {
+        return mServerChannel.socket ().getLocalPort ();
+    }
+
+    /**
+     * Stops the event loop (from any thread); run then closes every connection and returns
+     */
+    public void stop ()
+    {
+        mRunning = false;
+        mSelector.wakeup ();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Changing the cluster (any thread but the selector's)
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds a node to the cluster and moves to it the sessions the new ring gives it, while the
+     * event loop runs; clients are refused until there is a first node
+     *
+     * @param address        where the node takes clients
+     * @param controlAddress where it takes orders (GameServer.startCluster)
+     * @return how many sessions moved
+     * @throws IOException if a node could not be reached or refused an order
+     */
+    public int addNode (int nodeID, InetSocketAddress address, InetSocketAddress controlAddress)
+            throws IOException, InterruptedException
+    {
+        synchronized (mMembershipLock) {
+            if (mMembersRing != null && mMembersRing.contains (nodeID)) {
+                throw new IllegalArgumentException ("Node " + nodeID + " is a member already");
+            }
+            long startNanos = System.nanoTime ();
+            Node node = new Node (nodeID, address, controlAddress);
+            HashRing ring = mMembersRing == null ? new HashRing (nodeID)
+                                                 : mMembersRing.with (nodeID);
+            List<Integer> oldNodeIDs = new ArrayList<> ();
+            for (Node member : mMembers) {
+                oldNodeIDs.add (member.mID);
+            }
+
+            // the node learns every client, and the ring, before anything is routed to it
+            onSelector (() -> {
+                mNodes.put (nodeID, node);
+                for (Client client : new ArrayList<> (mClients)) {
+                    connect (client, node);
+                }
+                return null;
+            });
+            barrier (Collections.singletonList (nodeID));
+            node.ring (ring);
+
+            int moved = 0;
+            if (!oldNodeIDs.isEmpty ()) {
+                onSelector (() -> {
+                    mNextRing = ring;
+                    return null;
+                });
+                barrier (oldNodeIDs);
+                moved = moveSessions (ring, node);
+                barrier (oldNodeIDs);
+            }
+            onSelector (() -> {
+                switchTo (ring);
+                return null;
+            });
+
+            mMembers.add (node);
+            mMembersRing = ring;
+            ServerMetrics.CLUSTER_CHANGE.recordSince (startNanos);
+            return moved;
+        }
+    }
+
+    /**
+     * Has every node but the new one hand off what the ring gives away, the new one adopt it,
+     * and the old ones close it
+     */
+    private int moveSessions (HashRing ring, Node newNode) throws IOException
+    {
+        Map<Node, List<MigratingSession>> leaving = new HashMap<> ();
+        for (Node member : mMembers) {
+            leaving.put (member, member.handOff (ring));
+        }
+
+        // only the new node can gain sessions, but ask the ring rather than assume it
+        Map<Integer, List<MigratingSession>> arriving = new HashMap<> ();
+        int moved = 0;
+        for (List<MigratingSession> sessions : leaving.values ()) {
+            for (MigratingSession migrant : sessions) {
+                arriving.computeIfAbsent (ring.ownerOf (migrant.getSessionID ()),
+                                          owner -> new ArrayList<> ()).add (migrant);
+                moved++;
+            }
+        }
+        for (Map.Entry<Integer, List<MigratingSession>> entry : arriving.entrySet ()) {
+            Node owner = entry.getKey () == newNode.mID ? newNode : findMember (entry.getKey ());
+            owner.adopt (entry.getValue ());
+        }
+
+        for (Map.Entry<Node, List<MigratingSession>> entry : leaving.entrySet ()) {
+            List<MigratingSession> sessions = entry.getValue ();
+            long[] ids = new long[sessions.size ()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = sessions.get (i).getSessionID ();
+            }
+            entry.getKey ().release (ids);
+        }
+        ServerMetrics.CLUSTER_SESSIONS_MOVED.add (moved);
+        return moved;
+    }
+
+    private Node findMember (int nodeID)
+    {
+        for (Node member : mMembers) {
+            if (member.mID == nodeID) {
+                return member;
+            }
+        }
+        throw new IllegalStateException ("No node " + nodeID);
+    }
+
+    /**
+     * Sends a SYNC on every client's connection to those nodes and waits for all the SYNCEDs
+     */
+    private void barrier (List<Integer> nodeIDs) throws InterruptedException, IOException
+    {
+        CountDownLatch barrier = onSelector (() -> {
+            int count = 0;
+            for (Client client : mClients) {
+                for (int nodeID : nodeIDs) {
+                    Upstream upstream = client.mUpstreams.get (nodeID);
+                    if (upstream != null) {
+                        upstream.mOutput.sync (0);
+                        upstream.mPendingSyncs++;
+                        markDirty (upstream);
+                        count++;
+                    }
+                }
+            }
+            mBarrier = new CountDownLatch (count);
+            return mBarrier;
+        });
+        barrier.await ();
+    }
+
+    /**
+     * Runs a task on the selector thread and waits for it
+     */
+    private <T> T onSelector (Callable<T> task) throws InterruptedException, IOException
+    {
+        FutureTask<T> future = new FutureTask<> (task);
+        mTasks.add (future);
+        mSelector.wakeup ();
+        try {
+            return future.get ();
+        }
+        catch (ExecutionException e) {
+            throw new IOException ("Gateway task failed", e.getCause ());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Event loop (selector thread)
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The event loop; returns once stop is called
+     */
+    @Override
+    public void run ()
+    {
+        try {
+            while (mRunning) {
+                mSelector.select ();
+                for (Runnable task; (task = mTasks.poll ()) != null; ) {
+                    task.run ();
+                }
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys ().iterator ();
+                while (keys.hasNext ()) {
+                    SelectionKey key = keys.next ();
+                    keys.remove ();
+                    if (!key.isValid ()) {
+                        continue;
+                    }
+                    if (key.isAcceptable ()) {
+                        accept ();
+                        continue;
+                    }
+
+                    Link link = (Link) key.attachment ();
+                    try {
+                        if (key.isConnectable ()) {
+                            finishConnect ((Upstream) link);
+                        }
+                        else if (key.isReadable () && !link.read ()) {
+                            close (link);
+                        }
+                        else if (key.isValid () && key.isWritable ()) {
+                            markDirty (link);
+                        }
+                    }
+                    catch (IOException e) {
+                        close (link);
+                    }
+                }
+                flushDirty ();
+            }
+        }
+        catch (IOException e) {
+            LOG.log (Level.SEVERE, "Gateway event loop failed", e);
+        }
+        finally {
+            for (Client client : new ArrayList<> (mClients)) {
+                close (client);
+            }
+            try {
+                mServerChannel.close ();
+                mSelector.close ();
+            }
+            catch (IOException e) {
+                LOG.log (Level.WARNING, "Could not close the gateway socket", e);
+            }
+        }
+    }
+
+    private void accept () throws IOException
+    {
+        SocketChannel channel;
+        while ((channel = mServerChannel.accept ()) != null) {
+            if (mRing == null) {
+                channel.close ();       // nowhere to send its requests yet
+                continue;
+            }
+            channel.configureBlocking (false);
+            channel.socket ().setTcpNoDelay (true);
+            Client client = new Client (channel, mNextClientID++);
+            client.mKey = channel.register (mSelector, SelectionKey.OP_READ, client);
+            mClients.add (client);
+            for (Node node : mNodes.values ()) {
+                connect (client, node);
+            }
+        }
+    }
+
+    /**
+     * Starts a client's connection to a node and names the client on it; the HELLO, and
+     * whatever else is sent on it, goes out once the connection is up (see finishConnect)
+     */
+    private void connect (Client client, Node node)
+    {
+        if (client.mClosed) {
+            return;
+        }
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open ();
+            channel.configureBlocking (false);
+            channel.socket ().setTcpNoDelay (true);
+            Upstream upstream = new Upstream (channel, client, node.mID);
+            upstream.mConnecting = !channel.connect (node.mAddress);
+            upstream.mKey = channel.register (mSelector, upstream.mConnecting
+                                                         ? SelectionKey.OP_CONNECT
+                                                         : SelectionKey.OP_READ, upstream);
+            client.mUpstreams.put (node.mID, upstream);
+            upstream.mOutput.hello (0, client.mID);
+            markDirty (upstream);
+        }
+        catch (IOException e) {
+            LOG.log (Level.WARNING, "Could not reach node " + node.mID, e);
+            if (channel != null) {
+                try {
+                    channel.close ();
+                }
+                catch (IOException closeFailed) {
+                    // closed anyway
+                }
+            }
+            close (client);
+        }
+    }
+
+    /**
+     * Completes a connection connect started, and sends what was queued on it meanwhile; a
+     * node that could not be reached closes the client, as if it had lost the connection
+     */
+    private void finishConnect (Upstream upstream) throws IOException
+    {
+        try {
+            if (!upstream.mChannel.finishConnect ()) {
+                return;
+            }
+        }
+        catch (IOException e) {
+            LOG.log (Level.WARNING, "Could not reach node " + upstream.mNodeID, e);
+            throw e;
+        }
+        upstream.mConnecting = false;
+        upstream.mKey.interestOps (SelectionKey.OP_READ);
+        markDirty (upstream);
+    }
+
+    /**
+     * Routes by the new ring from now on, and sends on what was held back for it
+     */
+    private void switchTo (HashRing ring)
+    {
+        HashRing previous = mRing;
+        mRing = ring;
+        mNextRing = null;
+        mRingNodeIDs = ring.getNodeIDs ();
+        if (previous == null) {
+            return;
+        }
+
+        // spectators of a moved session watch it again where it went; they get a new SNAPSHOT
+        for (Client client : mClients) {
+            client.mWatching.forEach ((sessionID, unused) -> {
+                int owner = ring.ownerOf (sessionID);
+                if (previous.ownerOf (sessionID) != owner) {
+                    forward (client.mUpstreams.get (owner), WireFormat.WATCH, 0, sessionID, 0, 0);
+                }
+                return true;
+            });
+        }
+
+        ArrayList<HeldRequest> held = new ArrayList<> (mHeld);
+        mHeld.clear ();
+        for (HeldRequest request : held) {
+            if (!request.mClient.mClosed) {
+                route (request.mClient, request.mType, request.mSeq, request.mSessionID,
+                       request.mPly, request.mCell);
+            }
+        }
+    }
+
+    /**
+     * Sends a request about a session to the node that owns it, or holds it back while the
+     * session moves
+     */
+    private void route (Client client, byte type, long seq, long sessionID, int ply, int cell)
+    {
+        int owner = mRing.ownerOf (sessionID);
+        if (mNextRing != null && mNextRing.ownerOf (sessionID) != owner) {
+            mHeld.add (new HeldRequest (client, type, seq, sessionID, ply, cell));
+            ServerMetrics.CLUSTER_REQUESTS_HELD.increment ();
+            return;
+        }
+
+        if (type == WireFormat.WATCH) {
+            client.mWatching.put (sessionID, 1);
+        }
+        else if (type == WireFormat.UNWATCH) {
+            client.mWatching.remove (sessionID);
+        }
+        forward (client.mUpstreams.get (owner), type, seq, sessionID, ply, cell);
+    }
+
+    private void forward (Upstream upstream, byte type, long seq, long sessionID, int ply,
+                          int cell)
+    {
+        if (upstream == null) {
+            return;     // its client closed
+        }
+        FrameEncoder out = upstream.mOutput;
+        switch (type) {
+            case WireFormat.JOIN:
+                out.join (seq, sessionID);
+                break;
+            case WireFormat.MOVE:
+                out.move (seq, sessionID, ply, cell);
+                break;
+            case WireFormat.RESTART:
+                out.restart (seq, sessionID);
+                break;
+            case WireFormat.LEAVE:
+                out.leave (seq, sessionID);
+                break;
+            case WireFormat.WATCH:
+                out.watch (seq, sessionID);
+                break;
+            case WireFormat.UNWATCH:
+                out.unwatch (seq, sessionID);
+                break;
+            default:
+                throw new IllegalArgumentException ("Not a session request: " + type);
+        }
+        markDirty (upstream);
+    }
+
+    private void markDirty (Link link)
+    {
+        if (!link.mDirty) {
+            link.mDirty = true;
+            mDirty.add (link);
+        }
+    }
+
+    /**
+     * Writes what every link has pending, and asks to be called again (OP_WRITE) for the rest
+     */
+    private void flushDirty ()
+    {
+        for (int i = 0; i < mDirty.size (); i++) {
+            Link link = mDirty.get (i);
+            link.mDirty = false;
+            if (link.mClosed) {
+                continue;
+            }
+            try {
+                if (link.mOutput.isOverflowed ()) {
+                    close (link);
+                    continue;
+                }
+                if (link.mConnecting) {
+                    continue;       // finishConnect marks it again
+                }
+                boolean written = link.mOutput.writeTo (link.mChannel);
+                link.mKey.interestOps (written ? SelectionKey.OP_READ
+                                               : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            catch (IOException e) {
+                close (link);
+            }
+        }
+        mDirty.clear ();
+    }
+
+    /**
+     * Closes a client and all its connections to the nodes, which makes it leave its sessions
+     * there; losing one of those connections closes its client too
+     */
+    private void close (Link link)
+    {
+        Client client = link instanceof Upstream ? ((Upstream) link).mClient : (Client) link;
+        if (client.mClosed) {
+            return;
+        }
+        client.closeChannel ();
+        mClients.remove (client);
+        for (Upstream upstream : client.mUpstreams.values ()) {
+            upstream.closeChannel ();
+            for (; upstream.mPendingSyncs > 0; upstream.mPendingSyncs--) {
+                mBarrier.countDown ();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * One socket and its buffers, either way
+     */
+    private abstract static class Link
+    {
+        final SocketChannel mChannel;
+        SelectionKey mKey;
+        final ByteBuffer mInput =
+                ByteBuffer.allocate (WireFormat.LENGTH_PREFIX_BYTES + WireFormat.MAX_FRAME_LENGTH);
+        final FrameEncoder mOutput = new FrameEncoder (MAX_UNWRITTEN_BYTES);
+        boolean mDirty, mClosed;
+
+        // an Upstream whose connection is not up yet: its output waits
+        boolean mConnecting;
+
+        Link (SocketChannel channel)
+        {
+            mChannel = channel;
+        }
+
+        /**
+         * @return false if the other end closed the connection
+         */
+        boolean read () throws IOException
+        {
+            if (mChannel.read (mInput) < 0) {
+                return false;
+            }
+            mInput.flip ();
+            decode (mInput);
+            mInput.compact ();
+            return true;
+        }
+
+        abstract void decode (ByteBuffer in) throws ProtocolException;
+
+        void closeChannel ()
+        {
+            mClosed = true;
+            mKey.cancel ();
+            try {
+                mChannel.close ();
+            }
+            catch (IOException e) {
+                // closed anyway
+            }
+        }
+    }
+
+    /**
+     * A client's socket: requests in, every node's results out
+     */
+    private final class Client extends Link implements FrameDecoder.RequestHandler
+    {
+        private final long mID;
+        private final HashMap<Integer, Upstream> mUpstreams = new HashMap<> ();
+
+        // the sessions it watches, to watch them again where they move
+        private final LongHashTable mWatching = new LongHashTable ();
+
+        Client (SocketChannel channel, long id)
+        {
+            super (channel);
+            mID = id;
+        }
+
+        @Override
+        void decode (ByteBuffer in) throws ProtocolException
+        {
+            FrameDecoder.decodeRequests (in, this);
+        }
+
+        private Upstream toNextNode ()
+        {
+            mNextNewGameNode = (mNextNewGameNode + 1) % mRingNodeIDs.length;
+            Upstream upstream = mUpstreams.get (mRingNodeIDs[mNextNewGameNode]);
+            markDirty (upstream);
+            return upstream;
+        }
+
+        @Override
+        public void onNewGame (long seq, int rowsOrColumns)
+        {
+            toNextNode ().mOutput.newGame (seq, rowsOrColumns);
+        }
+
+        @Override
+        public void onComputerGame (long seq, int rowsOrColumns)
+        {
+            toNextNode ().mOutput.computerGame (seq, rowsOrColumns);
+        }
+
+        @Override
+        public void onFind (long seq, int rowsOrColumns, int rating)
+        {
+            Upstream upstream = mUpstreams.get (mRing.ownerOf (rowsOrColumns));
+            upstream.mOutput.find (seq, rowsOrColumns, rating);
+            markDirty (upstream);
+        }
+
+        @Override
+        public void onJoin (long seq, long sessionID)
+        {
+            route (this, WireFormat.JOIN, seq, sessionID, 0, 0);
+        }
+
+        @Override
+        public void onMove (long seq, long sessionID, int ply, int cell)
+        {
+            route (this, WireFormat.MOVE, seq, sessionID, ply, cell);
+        }
+
+        @Override
+        public void onRestart (long seq, long sessionID)
+        {
+            route (this, WireFormat.RESTART, seq, sessionID, 0, 0);
+        }
+
+        @Override
+        public void onLeave (long seq, long sessionID)
+        {
+            route (this, WireFormat.LEAVE, seq, sessionID, 0, 0);
+        }
+
+        @Override
+        public void onWatch (long seq, long sessionID)
+        {
+            route (this, WireFormat.WATCH, seq, sessionID, 0, 0);
+        }
+
+        @Override
+        public void onUnwatch (long seq, long sessionID)
+        {
+            route (this, WireFormat.UNWATCH, seq, sessionID, 0, 0);
+        }
+
+        @Override
+        public void onHello (long seq, long clientID)
+        {
+            // the gateway names its clients itself
+        }
+
+        @Override
+        public void onSync (long seq)
+        {
+            mOutput.synced (seq);
+            markDirty (this);
+        }
+
+        @Override
+        public void onRank (long seq)
+        {
+            Upstream upstream = toLeaderboardNode ();
+            upstream.mOutput.rank (seq);
+            markDirty (upstream);
+        }
+
+        @Override
+        public void onLeaders (long seq, int count)
+        {
+            Upstream upstream = toLeaderboardNode ();
+            upstream.mOutput.leaders (seq, count);
+            markDirty (upstream);
+        }
+
+        /**
+         * @return the connection to the node that answers for the leaderboard, always the same
+         * one while the ring is
+         */
+        private Upstream toLeaderboardNode ()
+        {
+            return mUpstreams.get (mRing.ownerOf (0));
+        }
+    }
+
+    /**
+     * A client's connection to one node: its requests for that node out, results in
+     */
+    private final class Upstream extends Link implements FrameDecoder.ResultHandler
+    {
+        private final Client mClient;
+        private final int mNodeID;
+        private int mPendingSyncs;
+
+        Upstream (SocketChannel channel, Client client, int nodeID)
+        {
+            super (channel);
+            mClient = client;
+            mNodeID = nodeID;
+        }
+
+        @Override
+        void decode (ByteBuffer in) throws ProtocolException
+        {
+            FrameDecoder.decodeResults (in, this);
+        }
+
+        private FrameEncoder toClient ()
+        {
+            markDirty (mClient);
+            return mClient.mOutput;
+        }
+
+        @Override
+        public void onSession (long seq, long sessionID, int rowsOrColumns)
+        {
+            toClient ().session (seq, sessionID, rowsOrColumns);
+        }
+
+        @Override
+        public void onJoined (long sessionID)
+        {
+            toClient ().joined (sessionID);
+        }
+
+        @Override
+        public void onMoved (long sessionID, int ply, int cell, int mover, int next)
+        {
+            toClient ().moved (sessionID, ply, cell, mover, next);
+        }
+
+        @Override
+        public void onOver (long sessionID, int winner)
+        {
+            toClient ().over (sessionID, winner);
+        }
+
+        @Override
+        public void onStarted (long sessionID)
+        {
+            toClient ().started (sessionID);
+        }
+
+        @Override
+        public void onLeft (long sessionID)
+        {
+            toClient ().left (sessionID);
+        }
+
+        @Override
+        public void onError (long seq, long sessionID, int reason)
+        {
+            toClient ().error (seq, sessionID, reason);
+        }
+
+        @Override
+        public void onMatched (long seq, long sessionID, int rowsOrColumns, int player)
+        {
+            toClient ().matched (seq, sessionID, rowsOrColumns, player);
+        }
+
+        @Override
+        public void onSnapshot (long sessionID, int rowsOrColumns, int[] moves)
+        {
+            toClient ().snapshot (sessionID, rowsOrColumns, moves, moves.length);
+        }
+
+        @Override
+        public void onEnded (long sessionID, int winner, int winType, int winTypeDiagonal,
+                             int[] winningCells)
+        {
+            toClient ().ended (sessionID, winner, winType, winTypeDiagonal, winningCells,
+                               winningCells.length);
+        }
+
+        @Override
+        public void onSynced (long seq)
+        {
+            // the gateway's own (barrier)
+            mPendingSyncs--;
+            mBarrier.countDown ();
+        }
+
+        @Override
+        public void onRanked (long seq, int rank, int rating, int wins, int losses, int draws)
+        {
+            toClient ().ranked (seq, rank, rating, wins, losses, draws);
+        }
+
+        @Override
+        public void onLeaderboard (long seq, long[] playerIDs, int[] ratings)
+        {
+            toClient ().leaderboard (seq, playerIDs, ratings, playerIDs.length);
+        }
+    }
+
+    /**
+     * A request for a session that is moving, to send on once it has
+     */
+    private static final class HeldRequest
+    {
+        private final Client mClient;
+        private final byte mType;
+        private final long mSeq, mSessionID;
+        private final int mPly, mCell;
+
+        HeldRequest (Client client, byte type, long seq, long sessionID, int ply, int cell)
+        {
+            mClient = client;
+            mType = type;
+            mSeq = seq;
+            mSessionID = sessionID;
+            mPly = ply;
+            mCell = cell;
+        }
+    }
+
+    /**
+     * A member of the cluster: where its clients connect, and the gateway's line for its orders
+     * (see ClusterNode), used by the thread changing the cluster only
+     */
+    private static final class Node
+    {
+        private final int mID;
+        private final InetSocketAddress mAddress;
+        private final Socket mControl;
+        private final DataInputStream mIn;
+        private final DataOutputStream mOut;
+
+        Node (int id, InetSocketAddress address, InetSocketAddress controlAddress)
+                throws IOException
+        {
+            mID = id;
+            mAddress = address;
+            mControl = new Socket (controlAddress.getAddress (), controlAddress.getPort ());
+            mControl.setTcpNoDelay (true);
+            mIn = new DataInputStream (new BufferedInputStream (mControl.getInputStream ()));
+            mOut = new DataOutputStream (new BufferedOutputStream (mControl.getOutputStream ()));
+        }
+
+        void ring (HashRing ring) throws IOException
+        {
+            mOut.writeByte (ClusterNode.RING);
+            ring.writeTo (mOut);
+            mOut.flush ();
+            expectOK ();
+        }
+
+        List<MigratingSession> handOff (HashRing ring) throws IOException
+        {
+            mOut.writeByte (ClusterNode.HAND_OFF);
+            ring.writeTo (mOut);
+            mOut.flush ();
+            expectOK ();
+            int count = mIn.readInt ();
+            List<MigratingSession> leaving = new ArrayList<> (count);
+            for (int i = 0; i < count; i++) {
+                leaving.add (MigratingSession.readFrom (mIn));
+            }
+            return leaving;
+        }
+
+        void adopt (List<MigratingSession> sessions) throws IOException
+        {
+            mOut.writeByte (ClusterNode.ADOPT);
+            mOut.writeInt (sessions.size ());
+            for (MigratingSession migrant : sessions) {
+                migrant.writeTo (mOut);
+            }
+            mOut.flush ();
+            expectOK ();
+        }
+
+        void release (long[] ids) throws IOException
+        {
+            mOut.writeByte (ClusterNode.RELEASE);
+            mOut.writeInt (ids.length);
+            for (long id : ids) {
+                mOut.writeLong (id);
+            }
+            mOut.flush ();
+            expectOK ();
+        }
+
+        private void expectOK () throws IOException
+        {
+            byte status = mIn.readByte ();
+            if (status != ClusterNode.OK) {
+                throw new IOException ("Node " + mID + " refused: "
+                        + (status == ClusterNode.FAILED ? mIn.readUTF () : "status " + status));
+            }
+        }
+
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs a gateway on localhost in front of nodes on localhost (GameServer --node-id n
+     * --cluster-port n), until the process is stopped. More nodes are added by typing
+     * "add id port cluster-port" on standard input.
+     * <p/>
+     * Arguments: [--port n] --node id:port:cluster-port [--node ...]
+     */
+    public static void main (String[] args) throws IOException, InterruptedException
+    {
+        int port = DEFAULT_PORT;
+        List<String[]> nodes = new ArrayList<> ();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals ("--port")) {
+                port = Integer.parseInt (args[i + 1]);
+            }
+            else if (args[i].equals ("--node")) {
+                nodes.add (args[i + 1].split (":"));
+            }
+        }
+
+        Gateway gateway = new Gateway (
+                new InetSocketAddress (InetAddress.getLoopbackAddress (), port));
+        new Thread (gateway, "gateway").start ();
+        for (String[] node : nodes) {
+            gateway.addNode (node);
+        }
+        LOG.info ("Listening on port " + gateway.getPort ());
+
+        BufferedReader commands = new BufferedReader (new InputStreamReader (System.in));
+        for (String line; (line = commands.readLine ()) != null; ) {
+            String[] words = line.trim ().split ("\\s+");
+            if (words.length == 4 && words[0].equals ("add")) {
+                long startNanos = System.nanoTime ();
+                int moved = gateway.addNode (new String[] {words[1], words[2], words[3]});
+                LOG.info ("Node " + words[1] + " added; " + moved + " sessions moved in "
+                                  + (System.nanoTime () - startNanos) / 1_000_000 + " ms");
+            }
+            else if (!words[0].isEmpty ()) {
+                LOG.warning ("Expected: add id port cluster-port");
+            }
+        }
+    }
+
+    /**
+     * @param node ID, port and cluster port, on localhost
+     */
+    private int addNode (String[] node) throws IOException, InterruptedException
+    {
+        InetAddress loopback = InetAddress.getLoopbackAddress ();
+        return addNode (Integer.parseInt (node[0]),
+                        new InetSocketAddress (loopback, Integer.parseInt (node[1])),
+                        new InetSocketAddress (loopback, Integer.parseInt (node[2])));
+    }
+}
@@ -0,0 +1,139 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Which node of a cluster owns which session (see Gateway): consistent hashing on the session
+ * ID. Every node puts POINTS_PER_NODE points on a ring of 64-bit hashes, and a key belongs to
+ * the node with the first point at or after the key's own hash. A node that joins takes over
+ * only the keys that fall just before its points - about 1/n of them, from every other node
+ * alike - so adding capacity moves as few sessions as it can.
+ * <p/>
+ * Immutable; the points follow from the node IDs alone, so every node and the gateway agree
+ * on a ring by agreeing on its members.
+ */
+public final class HashRing
+{
+    /**
+     * Node IDs run from 0 to MAX_NODES - 1; a node's session IDs all leave that remainder
+     * (see SessionStore), so no two nodes ever give out the same one
+     */
+    public static final int MAX_NODES = 1024;
+
+    private static final int POINTS_PER_NODE = 128;
+
+    private final int[] mNodeIDs;
+
+    // sorted, and the node each belongs to
+    private final long[] mPoints;
+    private final int[] mOwners;
+
+    /**
+     * @param nodeIDs at least one, each below MAX_NODES
+     */
+    public HashRing (int... nodeIDs)
+    {
+        mNodeIDs = nodeIDs.clone ();
+        Arrays.sort (mNodeIDs);
+        if (mNodeIDs.length == 0 || mNodeIDs[0] < 0
+                || mNodeIDs[mNodeIDs.length - 1] >= MAX_NODES) {
+            throw new IllegalArgumentException ("Bad node IDs " + Arrays.toString (nodeIDs));
+        }
+
+        // each point with its owner in the low bits, so one sort orders both
+        long[] keyed = new long[mNodeIDs.length * POINTS_PER_NODE];
+        for (int i = 0; i < mNodeIDs.length; i++) {
+            for (int point = 0; point < POINTS_PER_NODE; point++) {
+                long hash = hash ((long) mNodeIDs[i] << 32 | point);
+                keyed[i * POINTS_PER_NODE + point] = hash & -MAX_NODES | mNodeIDs[i];
+            }
+        }
+        Arrays.sort (keyed);
+        mPoints = new long[keyed.length];
+        mOwners = new int[keyed.length];
+        for (int i = 0; i < keyed.length; i++) {
+            mPoints[i] = keyed[i];
+            mOwners[i] = (int) (keyed[i] & MAX_NODES - 1);
+        }
+    }
+
+    /**
+     * @return the members, in ascending order
+     */
+    public int[] getNodeIDs ()
+    {
+        return mNodeIDs.clone ();
+    }
+
+    public boolean contains (int nodeID)
+    {
+        return Arrays.binarySearch (mNodeIDs, nodeID) >= 0;
+    }
+
+    /**
+     * @return this ring with one more node
+     */
+    public HashRing with (int nodeID)
+    {
+        if (contains (nodeID)) {
+            return this;
+        }
+        int[] nodeIDs = Arrays.copyOf (mNodeIDs, mNodeIDs.length + 1);
+        nodeIDs[mNodeIDs.length] = nodeID;
+        return new HashRing (nodeIDs);
+    }
+
+    /**
+     * @param key a session ID, or anything else to spread over the nodes
+     * @return the ID of the node that owns it
+     */
+    public int ownerOf (long key)
+    {
+        int index = Arrays.binarySearch (mPoints, hash (key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return mOwners[index == mPoints.length ? 0 : index];
+    }
+
+    public void writeTo (DataOutput out) throws IOException
+    {
+        out.writeShort (mNodeIDs.length);
+        for (int nodeID : mNodeIDs) {
+            out.writeShort (nodeID);
+        }
+    }
+
+    public static HashRing readFrom (DataInput in) throws IOException
+    {
+        int[] nodeIDs = new int[in.readUnsignedShort ()];
+        for (int i = 0; i < nodeIDs.length; i++) {
+            nodeIDs[i] = in.readUnsignedShort ();
+        }
+        try {
+            return new HashRing (nodeIDs);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException ("Bad ring", e);
+        }
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "HashRing" + Arrays.toString (mNodeIDs);
+    }
+
+    /**
+     * SplitMix64's finalizer: consecutive session IDs land all over the ring
+     */
+    private static long hash (long key)
+    {
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
+}
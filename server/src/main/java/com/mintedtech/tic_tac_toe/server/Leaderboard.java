@@ -0,0 +1,490 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.collections.LongHashTable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Every player's wins, losses, draws and rating on this server, across all their sessions, and
+ * who leads. A game between two players (not against the computer, nor one client playing both
+ * sides) is recorded as it ends, on the worker that played its last move. Ratings are Elo's,
+ * from INITIAL_RATING, in whole points from 0 to Matchmaker.MAX_RATING.
+ * <p/>
+ * Players are spread over independently locked stripes, as SessionStore spreads sessions: a
+ * LongHashTable from player to a slot in the stripe's arrays. Recording a game holds each
+ * player's stripe lock just long enough to update their slot, so games ending on different
+ * workers almost never wait for each other.
+ * <p/>
+ * Ranks come from how many players have each rating, kept in a Fenwick tree of atomic counts:
+ * a player's rank is one more than the number of players rated higher, a sum of about
+ * log2(MAX_RATING) counts however many players there are. A game moves a player from one
+ * rating to a nearby one, and only the counts that hold one of the two but not the other
+ * change, so the counts near the tree's root, which every change would otherwise touch, are
+ * rarely written.
+ * <p/>
+ * The leaders are every player at or above a floor - a rating, and among players with that
+ * rating an ID - best first, in a short sorted list with a lock of its own; a game in which
+ * neither player is rated at least the floor's rating does not touch it. A list grown to four
+ * times MAX_LEADERS is cut back to twice that, the floor rising to the last player kept. Once
+ * fewer than MAX_LEADERS are left, the floor is lowered to the rating the tree says twice
+ * MAX_LEADERS players reach, and the list refilled by a pass over the stripes; it takes that
+ * many players dropping out of the list, so it is rare.
+ * <p/>
+ * A player is whoever a Connection says (see Connection.getPlayerID), and the board lasts as
+ * long as the server: it is not logged.
+ */
+public class Leaderboard
+{
+    public static final int INITIAL_RATING = 1500;
+
+    // the longest list getLeaders gives
+    public static final int MAX_LEADERS = 100;
+
+    private static final int STRIPE_COUNT = 256;
+
+    // the most points one game can move a rating (Elo's K)
+    private static final int K_FACTOR = 32;
+
+    // how many the leaders list is cut back to, and how many it grows to before it is
+    private static final int LEADERS_TARGET = 2 * MAX_LEADERS, LEADERS_LIMIT = 4 * MAX_LEADERS;
+
+    private static final int RATINGS = Matchmaker.MAX_RATING + 1;
+
+    private final Stripe[] mStripes = new Stripe[STRIPE_COUNT];
+    private final AtomicInteger mPlayerCount = new AtomicInteger ();
+
+    // Fenwick tree of how many players have each rating: element i (1 to RATINGS) counts the
+    // ratings from i - (i & -i) to i - 1
+    private final AtomicIntegerArray mRatingCounts = new AtomicIntegerArray (RATINGS + 1);
+
+    // guarded by mLeadersLock: every player at or above the floor, best first; players with
+    // equal ratings in order of their IDs, the lower first
+    private final Object mLeadersLock = new Object ();
+    private final long[] mLeaderIDs = new long[LEADERS_LIMIT];
+    private final int[] mLeaderRatings = new int[LEADERS_LIMIT];
+    private int mLeaderCount;
+
+    // the floor: the worst player the list must hold, by rating, then ID (guarded as the list);
+    // the rating is also read by every game, to see whether it concerns the leaders
+    private volatile int mFloor;
+    private long mFloorPlayerID = Long.MAX_VALUE;
+
+    /**
+     * A player's place on the board
+     */
+    public static final class Standing
+    {
+        private final long mPlayerID;
+        private final int mRank, mRating, mWins, mLosses, mDraws;
+
+        Standing (long playerID, int rank, int rating, int wins, int losses, int draws)
+        {
+            mPlayerID = playerID;
+            mRank = rank;
+            mRating = rating;
+            mWins = wins;
+            mLosses = losses;
+            mDraws = draws;
+        }
+
+        public long getPlayerID ()
+        {
+            return mPlayerID;
+        }
+
+        /**
+         * @return one more than the number of players rated higher, so tied players share one
+         */
+        public int getRank ()
+        {
+            return mRank;
+        }
+
+        public int getRating ()
+        {
+            return mRating;
+        }
+
+        public int getWins ()
+        {
+            return mWins;
+        }
+
+        public int getLosses ()
+        {
+            return mLosses;
+        }
+
+        public int getDraws ()
+        {
+            return mDraws;
+        }
+    }
+
+    /**
+     * @param expectedPlayers how many players to size the tables for
+     */
+    public Leaderboard (int expectedPlayers)
+    {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Stripe (expectedPlayers / STRIPE_COUNT);
+        }
+    }
+
+    private Stripe stripeFor (long playerID)
+    {
+        return mStripes[LongHashTable.stripeOf (playerID, STRIPE_COUNT)];
+    }
+
+    /**
+     * @return how many players have finished a game
+     */
+    public int getPlayerCount ()
+    {
+        return mPlayerCount.get ();
+    }
+
+    /**
+     * Counts a finished game and moves both players' ratings; any thread
+     *
+     * @param winner one of the WireFormat.PLAYER_ codes; PLAYER_NONE for a draw
+     */
+    public void recordGame (long playerX, long playerO, int winner)
+    {
+        double scoreX = winner == WireFormat.PLAYER_X ? 1
+                        : winner == WireFormat.PLAYER_O ? 0 : 0.5;
+        double expectedX =
+                1 / (1 + Math.pow (10, (ratingOf (playerO) - ratingOf (playerX)) / 400.0));
+        int change = (int) Math.round (K_FACTOR * (scoreX - expectedX));
+
+        update (playerX, WireFormat.PLAYER_X, winner, change);
+        update (playerO, WireFormat.PLAYER_O, winner, -change);
+        ServerMetrics.LEADERBOARD_GAMES.increment ();
+    }
+
+    /**
+     * @return the player's standing, or null if they have not finished a game
+     */
+    public Standing getStanding (long playerID)
+    {
+        int rating, wins, losses, draws;
+        Stripe stripe = stripeFor (playerID);
+        synchronized (stripe) {
+            int slot = stripe.slotOf (playerID);
+            if (slot < 0) {
+                return null;
+            }
+            rating = stripe.mRatings[slot];
+            wins = stripe.mWins[slot];
+            losses = stripe.mLosses[slot];
+            draws = stripe.mDraws[slot];
+        }
+        // the tree may lag a game being recorded on another thread
+        int ratedHigher = Math.max (0, mPlayerCount.get () - countRatedBelow (rating + 1));
+        return new Standing (playerID, ratedHigher + 1, rating, wins, losses, draws);
+    }
+
+    /**
+     * Copies the best players, best first; players with equal ratings in order of their IDs
+     *
+     * @return how many were copied: at most the arrays' length, and MAX_LEADERS
+     */
+    public int getLeaders (long[] playerIDs, int[] ratings)
+    {
+        synchronized (mLeadersLock) {
+            int count = Math.min (Math.min (playerIDs.length, MAX_LEADERS), mLeaderCount);
+            System.arraycopy (mLeaderIDs, 0, playerIDs, 0, count);
+            System.arraycopy (mLeaderRatings, 0, ratings, 0, count);
+            return count;
+        }
+    }
+
+    private int ratingOf (long playerID)
+    {
+        Stripe stripe = stripeFor (playerID);
+        synchronized (stripe) {
+            int slot = stripe.slotOf (playerID);
+            return slot < 0 ? INITIAL_RATING : stripe.mRatings[slot];
+        }
+    }
+
+    /**
+     * Applies one player's side of a game
+     *
+     * @param side   WireFormat.PLAYER_X or PLAYER_O: which side they played
+     * @param change how many points their rating gains (or loses, if negative)
+     */
+    private void update (long playerID, int side, int winner, int change)
+    {
+        int before, after;
+        Stripe stripe = stripeFor (playerID);
+        synchronized (stripe) {
+            int slot = stripe.slotOf (playerID);
+            if (slot < 0) {
+                slot = stripe.add (playerID);
+                before = -1;
+                after = clampRating (INITIAL_RATING + change);
+            }
+            else {
+                before = stripe.mRatings[slot];
+                after = clampRating (before + change);
+            }
+            stripe.mRatings[slot] = after;
+            if (winner == WireFormat.PLAYER_NONE) {
+                stripe.mDraws[slot]++;
+            }
+            else if (winner == side) {
+                stripe.mWins[slot]++;
+            }
+            else {
+                stripe.mLosses[slot]++;
+            }
+        }
+
+        if (before < 0) {
+            mPlayerCount.incrementAndGet ();
+            addRating (after);
+        }
+        else if (after != before) {
+            moveRating (before, after);
+        }
+
+        int floor = mFloor;
+        if (before >= floor || after >= floor) {
+            synchronized (mLeadersLock) {
+                refreshLeader (playerID);
+            }
+        }
+    }
+
+    private static int clampRating (int rating)
+    {
+        return Math.max (0, Math.min (rating, Matchmaker.MAX_RATING));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // The rating tree
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * @return the tree element after i on the way to the root, or RATINGS + 1 past it
+     */
+    private static int parentOf (int i)
+    {
+        int parent = i + (i & -i);
+        return parent <= RATINGS ? parent : RATINGS + 1;
+    }
+
+    private void addRating (int rating)
+    {
+        for (int i = rating + 1; i <= RATINGS; i = parentOf (i)) {
+            mRatingCounts.incrementAndGet (i);
+        }
+    }
+
+    /**
+     * Moves a player from one rating to another. The elements above both ratings are climbed in
+     * step, lower one first, until they meet: from there on they count both ratings, and stay as
+     * they are.
+     */
+    private void moveRating (int from, int to)
+    {
+        int i = from + 1, j = to + 1;
+        while (i != j) {
+            if (i < j) {
+                mRatingCounts.decrementAndGet (i);
+                i = parentOf (i);
+            }
+            else {
+                mRatingCounts.incrementAndGet (j);
+                j = parentOf (j);
+            }
+        }
+    }
+
+    /**
+     * @return how many players are rated below rating
+     */
+    private int countRatedBelow (int rating)
+    {
+        int count = 0;
+        for (int i = Math.min (rating, RATINGS); i > 0; i -= i & -i) {
+            count += mRatingCounts.get (i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the highest rating that at least count players have or beat; 0 if there are not
+     * that many players
+     */
+    private int ratingOfNth (int count)
+    {
+        // how many may be rated lower; walks down the tree to the highest rating that leaves it
+        int below = mPlayerCount.get () - count;
+        if (below < 0) {
+            return 0;
+        }
+        int position = 0;
+        for (int step = Integer.highestOneBit (RATINGS); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= RATINGS) {
+                int counted = mRatingCounts.get (next);
+                if (counted <= below) {
+                    position = next;
+                    below -= counted;
+                }
+            }
+        }
+        return Math.min (position, Matchmaker.MAX_RATING);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // The leaders (under mLeadersLock)
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * @return whether a player with that rating and ID is at or above the floor
+     */
+    private boolean isAtOrAboveFloor (int rating, long playerID)
+    {
+        return rating > mFloor || rating == mFloor && playerID <= mFloorPlayerID;
+    }
+
+    /**
+     * Puts a player where their rating now belongs, in the list or out of it. The rating is read
+     * again here rather than passed in, so when two games change it at once the list ends up
+     * with the later one, whichever gets here first.
+     */
+    private void refreshLeader (long playerID)
+    {
+        removeLeader (playerID);
+        Stripe stripe = stripeFor (playerID);
+        int rating;
+        synchronized (stripe) {
+            rating = stripe.mRatings[stripe.slotOf (playerID)];
+        }
+        if (isAtOrAboveFloor (rating, playerID)) {
+            insertLeader (playerID, rating);
+        }
+
+        if (mLeaderCount < MAX_LEADERS && (mFloor > 0 || mFloorPlayerID != Long.MAX_VALUE)) {
+            refill (Math.min (ratingOfNth (LEADERS_TARGET), mFloor));
+        }
+    }
+
+    /**
+     * Lowers the floor to everyone rated floor or more and fills the list from the stripes. The
+     * floor is lowered first: a game that reads the old one had already changed its players'
+     * ratings, which this pass then sees.
+     */
+    private void refill (int floor)
+    {
+        mFloor = floor;
+        mFloorPlayerID = Long.MAX_VALUE;
+        mLeaderCount = 0;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                for (int slot = 0; slot < stripe.mCount; slot++) {
+                    if (isAtOrAboveFloor (stripe.mRatings[slot], stripe.mIDs[slot])) {
+                        insertLeader (stripe.mIDs[slot], stripe.mRatings[slot]);
+                    }
+                }
+            }
+        }
+        ServerMetrics.LEADERBOARD_REFILLS.increment ();
+    }
+
+    /**
+     * Adds a player at or above the floor; a list that grows to LEADERS_LIMIT is cut back to
+     * LEADERS_TARGET, and the floor raised to the last player kept
+     */
+    private void insertLeader (long playerID, int rating)
+    {
+        int low = 0, high = mLeaderCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int ratingThere = mLeaderRatings[middle];
+            if (ratingThere > rating || ratingThere == rating && mLeaderIDs[middle] < playerID) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        System.arraycopy (mLeaderIDs, low, mLeaderIDs, low + 1, mLeaderCount - low);
+        System.arraycopy (mLeaderRatings, low, mLeaderRatings, low + 1, mLeaderCount - low);
+        mLeaderIDs[low] = playerID;
+        mLeaderRatings[low] = rating;
+
+        if (++mLeaderCount == LEADERS_LIMIT) {
+            mLeaderCount = LEADERS_TARGET;
+            mFloor = mLeaderRatings[LEADERS_TARGET - 1];
+            mFloorPlayerID = mLeaderIDs[LEADERS_TARGET - 1];
+        }
+    }
+
+    private void removeLeader (long playerID)
+    {
+        for (int i = 0; i < mLeaderCount; i++) {
+            if (mLeaderIDs[i] == playerID) {
+                System.arraycopy (mLeaderIDs, i + 1, mLeaderIDs, i, mLeaderCount - i - 1);
+                System.arraycopy (mLeaderRatings, i + 1, mLeaderRatings, i, mLeaderCount - i - 1);
+                mLeaderCount--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * One lock's worth of players; players are never removed, so the slots in use are the first
+     * mCount
+     */
+    private static final class Stripe
+    {
+        private final LongHashTable mIndex;
+        private long[] mIDs;
+        private int[] mRatings, mWins, mLosses, mDraws;
+        private int mCount;
+
+        Stripe (int expectedPlayers)
+        {
+            int capacity = Math.max (16, expectedPlayers);
+            mIndex = new LongHashTable (capacity);
+            mIDs = new long[capacity];
+            mRatings = new int[capacity];
+            mWins = new int[capacity];
+            mLosses = new int[capacity];
+            mDraws = new int[capacity];
+        }
+
+        /**
+         * @return the slot of that player, or -1
+         */
+        int slotOf (long playerID)
+        {
+            return mIndex.get (playerID, -1);
+        }
+
+        /**
+         * @return the new player's slot, its counts zero
+         */
+        int add (long playerID)
+        {
+            if (mCount == mIDs.length) {
+                int capacity = mCount * 2;
+                mIDs = Arrays.copyOf (mIDs, capacity);
+                mRatings = Arrays.copyOf (mRatings, capacity);
+                mWins = Arrays.copyOf (mWins, capacity);
+                mLosses = Arrays.copyOf (mLosses, capacity);
+                mDraws = Arrays.copyOf (mDraws, capacity);
+            }
+            int slot = mCount++;
+            mIndex.put (playerID, slot);
+            mIDs[slot] = playerID;
+            return slot;
+        }
+    }
+}
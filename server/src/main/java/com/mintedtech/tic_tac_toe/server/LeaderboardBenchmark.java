@@ -0,0 +1,186 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.metrics.MetricsRegistry;
+import com.mintedtech.tic_tac_toe.metrics.TextMetricsExporter;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records synthetic games on a Leaderboard from many threads at once, as the server's workers
+ * would, while other threads ask for ranks and the leaders, in this process and without
+ * sockets. Each player has a hidden strength, normally distributed around 1500, and wins or
+ * loses as Elo would predict from the two strengths (some games are drawn), so the ratings
+ * spread out over the run the way real ones do.
+ * <p/>
+ * Prints games, rank queries and leaders queries per second, and refills of the leaders, every
+ * second. At the end every player's rank and the leaders are checked against a full sort of the
+ * final ratings.
+ * <p/>
+ * Arguments: [--players n] [--recorders n] [--readers n] [--seconds n] [--seed n]
+ */
+public class LeaderboardBenchmark
+{
+    private static final double DRAW_CHANCE = 0.2;
+
+    public static void main (String[] args) throws InterruptedException
+    {
+        int players = 1_000_000, recorders = 4, readers = 1, seconds = 10;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            long value = Long.parseLong (args[i + 1]);
+            switch (args[i]) {
+                case "--players":
+                    players = (int) value;
+                    break;
+                case "--recorders":
+                    recorders = (int) value;
+                    break;
+                case "--readers":
+                    readers = (int) value;
+                    break;
+                case "--seconds":
+                    seconds = (int) value;
+                    break;
+                case "--seed":
+                    seed = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException ("Unknown option " + args[i]);
+            }
+        }
+
+        Random random = new Random (seed);
+        double[] strengths = new double[players];
+        for (int i = 0; i < players; i++) {
+            strengths[i] = 1500 + 300 * random.nextGaussian ();
+        }
+
+        Leaderboard leaderboard = new Leaderboard (players);
+        long deadline = System.nanoTime () + TimeUnit.SECONDS.toNanos (seconds);
+        AtomicLong rankQueries = new AtomicLong (), leadersQueries = new AtomicLong ();
+        Thread[] threads = new Thread[recorders + readers];
+        for (int i = 0; i < threads.length; i++) {
+            Random threadRandom = new Random (seed + 1 + i);
+            if (i < recorders) {
+                threads[i] = new Thread (
+                        () -> record (leaderboard, strengths, threadRandom, deadline),
+                        "recorder-" + i);
+            }
+            else {
+                threads[i] = new Thread (
+                        () -> read (leaderboard, strengths.length, threadRandom, deadline,
+                                    rankQueries, leadersQueries),
+                        "reader-" + (i - recorders));
+            }
+            threads[i].start ();
+        }
+
+        long previousGames = 0, previousRanks = 0, previousLeaders = 0;
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep (1000);
+            long games = ServerMetrics.LEADERBOARD_GAMES.sum ();
+            long ranks = rankQueries.get (), leaders = leadersQueries.get ();
+            System.out.printf (Locale.US,
+                               "%3ds games/s=%d ranks/s=%d leaders/s=%d players=%d refills=%d%n",
+                               second, games - previousGames, ranks - previousRanks,
+                               leaders - previousLeaders, leaderboard.getPlayerCount (),
+                               ServerMetrics.LEADERBOARD_REFILLS.sum ());
+            previousGames = games;
+            previousRanks = ranks;
+            previousLeaders = leaders;
+        }
+
+        for (Thread thread : threads) {
+            thread.join ();
+        }
+        check (leaderboard, players);
+        System.out.print (
+                MetricsRegistry.getDefault ().exportToString (new TextMetricsExporter ()));
+    }
+
+    private static void record (Leaderboard leaderboard, double[] strengths, Random random,
+                                long deadline)
+    {
+        int players = strengths.length;
+        while (System.nanoTime () - deadline < 0) {
+            // a batch between clock reads; player IDs start at 1, as the gateway's do
+            for (int i = 0; i < 1000; i++) {
+                int x = random.nextInt (players), o = random.nextInt (players - 1);
+                if (o >= x) {
+                    o++;
+                }
+                double expectedX = 1 / (1 + Math.pow (10, (strengths[o] - strengths[x]) / 400));
+                double roll = random.nextDouble ();
+                int winner = roll < DRAW_CHANCE ? WireFormat.PLAYER_NONE
+                             : roll < DRAW_CHANCE + (1 - DRAW_CHANCE) * expectedX
+                               ? WireFormat.PLAYER_X : WireFormat.PLAYER_O;
+                leaderboard.recordGame (x + 1, o + 1, winner);
+            }
+        }
+    }
+
+    private static void read (Leaderboard leaderboard, int players, Random random, long deadline,
+                              AtomicLong rankQueries, AtomicLong leadersQueries)
+    {
+        long[] playerIDs = new long[Leaderboard.MAX_LEADERS];
+        int[] ratings = new int[Leaderboard.MAX_LEADERS];
+        while (System.nanoTime () - deadline < 0) {
+            // a hundred players ask for their rank for every one who looks at the leaders
+            for (int i = 0; i < 100; i++) {
+                leaderboard.getStanding (1 + random.nextInt (players));
+            }
+            rankQueries.addAndGet (100);
+            leaderboard.getLeaders (playerIDs, ratings);
+            leadersQueries.incrementAndGet ();
+        }
+    }
+
+    /**
+     * Compares the board, now that nothing changes it, with a full sort of the ratings
+     */
+    private static void check (Leaderboard leaderboard, int players)
+    {
+        // rating in the high bits, the complement of the ID in the low: descending is best first
+        long[] sorted = new long[leaderboard.getPlayerCount ()];
+        int[] ranks = new int[players + 1];
+        int count = 0;
+        for (int id = 1; id <= players; id++) {
+            Leaderboard.Standing standing = leaderboard.getStanding (id);
+            if (standing != null) {
+                sorted[count++] = (long) standing.getRating () << 32 | (Integer.MAX_VALUE - id);
+                ranks[id] = standing.getRank ();
+            }
+        }
+        Arrays.sort (sorted, 0, count);
+
+        int rankErrors = 0, leaderErrors = 0;
+        for (int i = count - 1, rank = 1; i >= 0; i--) {
+            int place = count - i;
+            if (i < count - 1 && sorted[i] >>> 32 != sorted[i + 1] >>> 32) {
+                rank = place;
+            }
+            int id = Integer.MAX_VALUE - (int) sorted[i];
+            if (ranks[id] != rank) {
+                rankErrors++;
+            }
+        }
+
+        long[] playerIDs = new long[Leaderboard.MAX_LEADERS];
+        int[] ratings = new int[Leaderboard.MAX_LEADERS];
+        int leaders = leaderboard.getLeaders (playerIDs, ratings);
+        for (int i = 0; i < leaders; i++) {
+            long expected = sorted[count - 1 - i];
+            if (playerIDs[i] != Integer.MAX_VALUE - (int) expected
+                    || ratings[i] != (int) (expected >>> 32)) {
+                leaderErrors++;
+            }
+        }
+        System.out.printf (Locale.US,
+                           "checked %d players: %d wrong ranks, %d of %d leaders wrong%n",
+                           count, rankErrors, leaderErrors, leaders);
+    }
+}
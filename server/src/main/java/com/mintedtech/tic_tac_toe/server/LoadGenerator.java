@@ -0,0 +1,577 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.collections.LongHashTable;
+import com.mintedtech.tic_tac_toe.metrics.Counter;
+import com.mintedtech.tic_tac_toe.metrics.LatencyHistogram;
+import com.mintedtech.tic_tac_toe.metrics.MetricsRegistry;
+import com.mintedtech.tic_tac_toe.metrics.TextMetricsExporter;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays many games at once against a GameServer to see how it holds up. A few connections
+ * carry all the sessions; each client plays both sides of its sessions with random moves,
+ * keeps every session open (restarting games as they end) and, with --think-millis, waits
+ * that long before each move, as people would. Throughput and the move round trip (sending a
+ * move to reading its result) are printed every second.
+ * <p/>
+ * Without --port, a server is started in this process on a free localhost port, hibernating
+ * sessions after --idle-seconds; a think time longer than that makes every move revive one.
+ * <p/>
+ * With --computer 1, the clients play X only, against the server's computer player (see
+ * ComputerPlayerPool); the round trip is then that of the client's own moves.
+ * <p/>
+ * With --log-dir, the server started here logs its sessions to that directory (see MoveLog),
+ * so the round trip includes waiting for the log to force each move to disk.
+ * <p/>
+ * With --spectators, that many more connections each watch the first --watched sessions (the
+ * IDs a fresh server gives out first); --slow-spectators of them read a frame only every few
+ * milliseconds, to show that slow spectators miss moves rather than slow anybody down.
+ * <p/>
+ * Arguments: [--port n] [--connections n] [--sessions n] [--size n] [--seconds n]
+ * [--think-millis n] [--idle-seconds n] [--seed n] [--spectators n] [--watched n]
+ * [--slow-spectators n] [--computer 0|1] [--log-dir path]
+ */
+public class LoadGenerator
+{
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault ();
+    private static final Counter SESSIONS_OPENED =
+            REGISTRY.counter ("loadgen.sessions_opened", "Sessions the load generator opened");
+    private static final Counter GAMES_FINISHED =
+            REGISTRY.counter ("loadgen.games_finished", "Games the load generator played out");
+    private static final Counter ERRORS =
+            REGISTRY.counter ("loadgen.errors", "Requests the server rejected");
+    private static final LatencyHistogram ROUND_TRIP =
+            REGISTRY.latency ("loadgen.move_round_trip",
+                              "Time from sending a move to reading its result");
+    private static final Counter MOVES_WATCHED =
+            REGISTRY.counter ("loadgen.moves_watched", "Moves the spectators were sent");
+    private static final Counter SNAPSHOTS_WATCHED =
+            REGISTRY.counter ("loadgen.snapshots_watched", "Snapshots the spectators were sent");
+
+    public static void main (String[] args) throws IOException, InterruptedException
+    {
+        int port = -1, connections = 64, sessions = 50_000, size = 3, seconds = 30;
+        int idleSeconds = 60, spectators = 0, watched = 10, slowSpectators = 0;
+        long thinkMillis = 0, seed = 1;
+        boolean versusComputer = false;
+        File logDirectory = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals ("--log-dir")) {
+                logDirectory = new File (args[i + 1]);
+                continue;
+            }
+            long value = Long.parseLong (args[i + 1]);
+            switch (args[i]) {
+                case "--port":
+                    port = (int) value;
+                    break;
+                case "--connections":
+                    connections = (int) value;
+                    break;
+                case "--sessions":
+                    sessions = (int) value;
+                    break;
+                case "--size":
+                    size = (int) value;
+                    break;
+                case "--seconds":
+                    seconds = (int) value;
+                    break;
+                case "--think-millis":
+                    thinkMillis = value;
+                    break;
+                case "--idle-seconds":
+                    idleSeconds = (int) value;
+                    break;
+                case "--seed":
+                    seed = value;
+                    break;
+                case "--spectators":
+                    spectators = (int) value;
+                    break;
+                case "--watched":
+                    watched = (int) value;
+                    break;
+                case "--slow-spectators":
+                    slowSpectators = (int) value;
+                    break;
+                case "--computer":
+                    versusComputer = value != 0;
+                    break;
+                default:
+                    throw new IllegalArgumentException ("Unknown option " + args[i]);
+            }
+        }
+
+        GameServer server = null;
+        if (port < 0) {
+            server = new GameServer (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0),
+                                     Runtime.getRuntime ().availableProcessors (), idleSeconds,
+                                     logDirectory);
+            new Thread (server, "server").start ();
+            port = server.getPort ();
+        }
+        InetSocketAddress address = new InetSocketAddress (InetAddress.getLoopbackAddress (), port);
+
+        Client[] clients = new Client[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            int clientSessions = sessions / connections + (i < sessions % connections ? 1 : 0);
+            clients[i] = new Client (address, clientSessions, size, versusComputer,
+                                     TimeUnit.MILLISECONDS.toNanos (thinkMillis), seed + i);
+            threads[i] = new Thread (clients[i], "client-" + i);
+            threads[i].start ();
+        }
+
+        Watcher[] watchers = new Watcher[spectators];
+        Thread[] watcherThreads = new Thread[spectators];
+        for (int i = 0; i < spectators; i++) {
+            watchers[i] = new Watcher (address, Math.min (watched, sessions),
+                                         i < slowSpectators);
+            watcherThreads[i] = new Thread (watchers[i], "spectator-" + i);
+            watcherThreads[i].start ();
+        }
+
+        long previousMoves = 0, previousGames = 0;
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep (1000);
+            long moves = ROUND_TRIP.getCount (), games = GAMES_FINISHED.sum ();
+            System.out.printf (Locale.US,
+                               "%3ds sessions=%d moves/s=%d games/s=%d rtt p50=%.2fms "
+                                       + "p99=%.2fms errors=%d watched=%d snapshots=%d%s%n",
+                               second, SESSIONS_OPENED.sum (), moves - previousMoves,
+                               games - previousGames, ROUND_TRIP.getPercentileNanos (50) / 1e6,
+                               ROUND_TRIP.getPercentileNanos (99) / 1e6, ERRORS.sum (),
+                               MOVES_WATCHED.sum (), SNAPSHOTS_WATCHED.sum (),
+                               server == null ? "" : " hibernating="
+                                       + server.getSessions ().getHibernatingCount ()
+                                       + " computer-queue="
+                                       + server.getComputerPlayers ().getQueueDepth ());
+            previousMoves = moves;
+            previousGames = games;
+        }
+
+        for (int i = 0; i < connections; i++) {
+            clients[i].stop ();
+            threads[i].join ();
+        }
+        for (int i = 0; i < spectators; i++) {
+            watchers[i].stop ();
+            watcherThreads[i].join ();
+        }
+        if (server != null) {
+            server.stop ();
+        }
+        System.out.print (REGISTRY.exportToString (new TextMetricsExporter ()));
+    }
+
+    /**
+     * One connection and its sessions, on one thread: reads results, answers them with the
+     * next requests, and writes everything it has queued as one frame per round
+     */
+    private static final class Client implements Runnable, FrameDecoder.ResultHandler
+    {
+        // the opening burst of NEW requests is the most a client ever has unwritten
+        private static final int MAX_UNWRITTEN_BYTES = 1 << 24;
+
+        private final InetSocketAddress mAddress;
+        private final int mSessionCount, mRowsOrColumns;
+        private final boolean mVersusComputer;
+        private final long mThinkNanos;
+        private final Random mRandom;
+        private volatile boolean mStopped;
+
+        private final FrameEncoder mOutput = new FrameEncoder (MAX_UNWRITTEN_BYTES);
+        private final ByteBuffer mInput =
+                ByteBuffer.allocate (WireFormat.LENGTH_PREFIX_BYTES + WireFormat.MAX_FRAME_LENGTH);
+        private long mNextSeq;
+
+        // session ID -> slot in the arrays below
+        private final LongHashTable mSlots;
+        private final long[] mSessionIDs, mSentNanos;
+        private final int[] mPlies;
+        private final boolean[][] mTaken;
+        private int mOpenedSessions;
+
+        // sessions waiting to move, in the order they became due (the think time is constant)
+        private final int[] mDueSlots;
+        private final long[] mDueNanos;
+        private int mDueHead, mDueCount;
+
+        Client (InetSocketAddress address, int sessionCount, int rowsOrColumns,
+                boolean versusComputer, long thinkNanos, long seed)
+        {
+            mAddress = address;
+            mSessionCount = sessionCount;
+            mRowsOrColumns = rowsOrColumns;
+            mVersusComputer = versusComputer;
+            mThinkNanos = thinkNanos;
+            mRandom = new Random (seed);
+
+            mSlots = new LongHashTable (sessionCount);
+            mSessionIDs = new long[sessionCount];
+            mSentNanos = new long[sessionCount];
+            mPlies = new int[sessionCount];
+            mTaken = new boolean[sessionCount][rowsOrColumns * rowsOrColumns];
+            mDueSlots = new int[sessionCount];
+            mDueNanos = new long[sessionCount];
+        }
+
+        void stop ()
+        {
+            mStopped = true;
+        }
+
+        @Override
+        public void run ()
+        {
+            try (SocketChannel channel = SocketChannel.open (mAddress)) {
+                channel.socket ().setTcpNoDelay (true);
+                channel.configureBlocking (false);
+
+                // pipelined: every session is requested before the first result is read
+                for (int i = 0; i < mSessionCount; i++) {
+                    if (mVersusComputer) {
+                        mOutput.computerGame (mNextSeq++, mRowsOrColumns);
+                    }
+                    else {
+                        mOutput.newGame (mNextSeq++, mRowsOrColumns);
+                    }
+                }
+
+                while (!mStopped) {
+                    boolean busy = false;
+                    int bytesRead = channel.read (mInput);
+                    if (bytesRead < 0) {
+                        throw new EOFException ("The server closed the connection");
+                    }
+                    if (bytesRead > 0) {
+                        mInput.flip ();
+                        FrameDecoder.decodeResults (mInput, this);
+                        mInput.compact ();
+                        busy = true;
+                    }
+
+                    busy |= sendDueMoves ();
+                    if (mOutput.hasPendingBytes ()) {
+                        mOutput.writeTo (channel);
+                    }
+                    if (!busy) {
+                        LockSupport.parkNanos (100_000);
+                    }
+                }
+                // closing the connection ends its sessions on the server
+            }
+            catch (IOException e) {
+                if (!mStopped) {
+                    System.err.println (Thread.currentThread ().getName () + ": " + e);
+                }
+            }
+        }
+
+        @Override
+        public void onSession (long seq, long sessionID, int rowsOrColumns)
+        {
+            int slot = mOpenedSessions++;
+            mSlots.put (sessionID, slot);
+            mSessionIDs[slot] = sessionID;
+            SESSIONS_OPENED.increment ();
+            if (!mVersusComputer) {
+                mOutput.join (mNextSeq++, sessionID);
+            }
+        }
+
+        @Override
+        public void onJoined (long sessionID)
+        {
+            scheduleMove (mSlots.get (sessionID, -1));
+        }
+
+        @Override
+        public void onMoved (long sessionID, int ply, int cell, int mover, int next)
+        {
+            int slot = mSlots.get (sessionID, -1);
+            mTaken[slot][cell] = true;
+            mPlies[slot] = ply + 1;
+            // against the computer, its moves are not answers to ours
+            boolean ours = !mVersusComputer || mover == WireFormat.PLAYER_X;
+            if (ours) {
+                ROUND_TRIP.recordSince (mSentNanos[slot]);
+            }
+            if (next != WireFormat.PLAYER_NONE
+                    && (!mVersusComputer || next == WireFormat.PLAYER_X)) {
+                scheduleMove (slot);
+            }
+        }
+
+        @Override
+        public void onOver (long sessionID, int winner)
+        {
+            GAMES_FINISHED.increment ();
+            mOutput.restart (mNextSeq++, sessionID);
+        }
+
+        @Override
+        public void onStarted (long sessionID)
+        {
+            int slot = mSlots.get (sessionID, -1);
+            Arrays.fill (mTaken[slot], false);
+            mPlies[slot] = 0;
+            scheduleMove (slot);
+        }
+
+        @Override
+        public void onLeft (long sessionID)
+        {
+        }
+
+        @Override
+        public void onError (long seq, long sessionID, int reason)
+        {
+            ERRORS.increment ();
+        }
+
+        @Override
+        public void onMatched (long seq, long sessionID, int rowsOrColumns, int player)
+        {
+        }
+
+        @Override
+        public void onSnapshot (long sessionID, int rowsOrColumns, int[] moves)
+        {
+        }
+
+        @Override
+        public void onEnded (long sessionID, int winner, int winType, int winTypeDiagonal,
+                             int[] winningCells)
+        {
+        }
+
+        @Override
+        public void onSynced (long seq)
+        {
+        }
+
+        @Override
+        public void onRanked (long seq, int rank, int rating, int wins, int losses, int draws)
+        {
+        }
+
+        @Override
+        public void onLeaderboard (long seq, long[] playerIDs, int[] ratings)
+        {
+        }
+
+        private void scheduleMove (int slot)
+        {
+            int tail = (mDueHead + mDueCount++) % mDueSlots.length;
+            mDueSlots[tail] = slot;
+            mDueNanos[tail] = System.nanoTime () + mThinkNanos;
+        }
+
+        /**
+         * @return whether any move was sent
+         */
+        private boolean sendDueMoves ()
+        {
+            long now = System.nanoTime ();
+            boolean sent = false;
+            while (mDueCount > 0 && mDueNanos[mDueHead] - now <= 0) {
+                int slot = mDueSlots[mDueHead];
+                mDueHead = (mDueHead + 1) % mDueSlots.length;
+                mDueCount--;
+
+                mSentNanos[slot] = now;
+                mOutput.move (mNextSeq++, mSessionIDs[slot], mPlies[slot],
+                              getRandomEmptySpace (mTaken[slot]));
+                sent = true;
+            }
+            return sent;
+        }
+        // as MainActivity picks the computer's moves: a few random probes, then a scan
+        private int getRandomEmptySpace (boolean[] taken)
+        {
+            for (int probe = 0; probe < 8; probe++) {
+                int space = mRandom.nextInt (taken.length);
+                if (!taken[space]) {
+                    return space;
+                }
+            }
+
+            int empty = 0;
+            for (boolean spaceTaken : taken) {
+                empty += spaceTaken ? 0 : 1;
+            }
+            int pick = mRandom.nextInt (empty);
+            for (int space = 0; ; space++) {
+                if (!taken[space] && pick-- == 0) {
+                    return space;
+                }
+            }
+        }
+    }
+
+    /**
+     * One connection watching sessions 1 to watched, on one thread, with blocking reads
+     */
+    private static final class Watcher implements Runnable, FrameDecoder.ResultHandler
+    {
+        private static final long SLOW_READ_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos (20);
+
+        private final InetSocketAddress mAddress;
+        private final int mWatched;
+        private final boolean mSlow;
+        private volatile boolean mStopped;
+        private volatile SocketChannel mChannel;
+
+        private final ByteBuffer mInput =
+                ByteBuffer.allocate (WireFormat.LENGTH_PREFIX_BYTES + WireFormat.MAX_FRAME_LENGTH);
+
+        Watcher (InetSocketAddress address, int watched, boolean slow)
+        {
+            mAddress = address;
+            mWatched = watched;
+            mSlow = slow;
+        }
+
+        void stop ()
+        {
+            mStopped = true;
+            try {
+                SocketChannel channel = mChannel;
+                if (channel != null) {
+                    channel.close ();
+                }
+            }
+            catch (IOException e) {
+                // closed anyway
+            }
+        }
+
+        @Override
+        public void run ()
+        {
+            try (SocketChannel channel = SocketChannel.open ()) {
+                mChannel = channel;
+                if (mSlow) {
+                    channel.socket ().setReceiveBufferSize (4096);
+                }
+                channel.connect (mAddress);
+
+                // the players open their sessions first
+                while (SESSIONS_OPENED.sum () < mWatched && !mStopped) {
+                    LockSupport.parkNanos (1_000_000);
+                }
+                FrameEncoder output = new FrameEncoder (1 << 20);
+                for (int id = 1; id <= mWatched; id++) {
+                    output.watch (id, id);
+                }
+                while (output.hasPendingBytes ()) {
+                    output.writeTo (channel);
+                }
+
+                if (mSlow) {
+                    mInput.limit (256);
+                }
+                while (!mStopped) {
+                    if (channel.read (mInput) < 0) {
+                        throw new EOFException ("The server closed the connection");
+                    }
+                    mInput.flip ();
+                    FrameDecoder.decodeResults (mInput, this);
+                    mInput.compact ();
+                    if (mSlow) {
+                        mInput.limit (Math.min (mInput.position () + 256, mInput.capacity ()));
+                        LockSupport.parkNanos (SLOW_READ_PAUSE_NANOS);
+                    }
+                }
+            }
+            catch (IOException e) {
+                if (!mStopped) {
+                    System.err.println (Thread.currentThread ().getName () + ": " + e);
+                }
+            }
+        }
+
+        @Override
+        public void onMoved (long sessionID, int ply, int cell, int mover, int next)
+        {
+            MOVES_WATCHED.increment ();
+        }
+
+        @Override
+        public void onSnapshot (long sessionID, int rowsOrColumns, int[] moves)
+        {
+            SNAPSHOTS_WATCHED.increment ();
+        }
+
+        @Override
+        public void onError (long seq, long sessionID, int reason)
+        {
+            ERRORS.increment ();
+        }
+
+        @Override
+        public void onSession (long seq, long sessionID, int rowsOrColumns)
+        {
+        }
+
+        @Override
+        public void onJoined (long sessionID)
+        {
+        }
+
+        @Override
+        public void onOver (long sessionID, int winner)
+        {
+        }
+
+        @Override
+        public void onStarted (long sessionID)
+        {
+        }
+
+        @Override
+        public void onLeft (long sessionID)
+        {
+        }
+
+        @Override
+        public void onMatched (long seq, long sessionID, int rowsOrColumns, int player)
+        {
+        }
+
+        @Override
+        public void onEnded (long sessionID, int winner, int winType, int winTypeDiagonal,
+                             int[] winningCells)
+        {
+        }
+
+        @Override
+        public void onSynced (long seq)
+        {
+        }
+
+        @Override
+        public void onRanked (long seq, int rank, int rating, int wins, int losses, int draws)
+        {
+        }
+
+        @Override
+        public void onLeaderboard (long seq, long[] playerIDs, int[] ratings)
+        {
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a cluster on this machine and grows it under load: --nodes GameServers, each in a JVM
+ * of its own, a Gateway in front of them in this one, and a LoadGenerator playing through the
+ * gateway. After --add-after-seconds one more node is started and added, and the sessions it
+ * comes to own move to it while their games go on; the LoadGenerator's error count shows
+ * whether a request was lost or refused on the way.
+ * <p/>
+ * With --log-dir, node n logs its sessions to node-n there (see MoveLog), so every move, and
+ * every session moved, is on disk before the players hear of it.
+ * <p/>
+ * Arguments: [--nodes n] [--add-after-seconds n] [--log-dir path], and LoadGenerator's but
+ * --port, --idle-seconds and --spectators
+ */
+public class LocalCluster
+{
+    private static final long NODE_START_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos (30);
+
+    public static void main (String[] args) throws IOException, InterruptedException
+    {
+        int nodes = 3, addAfterSeconds = 10;
+        File logDirectory = null;
+        List<String> loadArgs = new ArrayList<> ();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--nodes":
+                    nodes = Integer.parseInt (args[i + 1]);
+                    break;
+                case "--add-after-seconds":
+                    addAfterSeconds = Integer.parseInt (args[i + 1]);
+                    break;
+                case "--log-dir":
+                    logDirectory = new File (args[i + 1]);
+                    break;
+                default:
+                    loadArgs.add (args[i]);
+                    loadArgs.add (args[i + 1]);
+            }
+        }
+
+        InetAddress loopback = InetAddress.getLoopbackAddress ();
+        Gateway gateway = new Gateway (new InetSocketAddress (loopback, 0));
+        Thread gatewayThread = new Thread (gateway, "gateway");
+        gatewayThread.start ();
+
+        List<Process> processes = new ArrayList<> ();
+        Runtime.getRuntime ().addShutdownHook (new Thread (() -> {
+            for (Process process : processes) {
+                process.destroyForcibly ();
+            }
+        }));
+        for (int i = 0; i < nodes; i++) {
+            startNode (gateway, i, logDirectory, processes);
+        }
+
+        int newNodeID = nodes;
+        long addAfterMillis = TimeUnit.SECONDS.toMillis (addAfterSeconds);
+        File logs = logDirectory;
+        Thread adder = new Thread (() -> {
+            try {
+                Thread.sleep (addAfterMillis);
+                long startNanos = System.nanoTime ();
+                int moved = startNode (gateway, newNodeID, logs, processes);
+                System.out.printf ("node %d added: %d sessions moved in %d ms%n", newNodeID,
+                                   moved, TimeUnit.NANOSECONDS.toMillis (
+                                           System.nanoTime () - startNanos));
+            }
+            catch (IOException e) {
+                System.out.println ("Could not add node " + newNodeID + ": " + e);
+            }
+            catch (InterruptedException e) {
+                // the load ran out first
+            }
+        }, "adder");
+        adder.start ();
+
+        loadArgs.add ("--port");
+        loadArgs.add (Integer.toString (gateway.getPort ()));
+        try {
+            LoadGenerator.main (loadArgs.toArray (new String[0]));
+        }
+        finally {
+            adder.interrupt ();
+            adder.join ();
+            gateway.stop ();
+            gatewayThread.join ();
+            for (Process process : processes) {
+                process.destroy ();
+                process.waitFor ();
+            }
+        }
+    }
+
+    /**
+     * Starts a GameServer in a new JVM and adds it to the gateway once it takes orders
+     *
+     * @return how many sessions moved to it
+     */
+    private static int startNode (Gateway gateway, int nodeID, File logDirectory,
+                                  List<Process> processes)
+            throws IOException, InterruptedException
+    {
+        int port = findFreePort (), clusterPort = findFreePort ();
+        List<String> command = new ArrayList<> ();
+        command.add (new File (System.getProperty ("java.home"), "bin/java").getPath ());
+        command.add ("-cp");
+        command.add (System.getProperty ("java.class.path"));
+        command.add (GameServer.class.getName ());
+        command.add ("--port");
+        command.add (Integer.toString (port));
+        command.add ("--node-id");
+        command.add (Integer.toString (nodeID));
+        command.add ("--cluster-port");
+        command.add (Integer.toString (clusterPort));
+        if (logDirectory != null) {
+            File nodeDirectory = new File (logDirectory, "node-" + nodeID);
+            if (!nodeDirectory.isDirectory () && !nodeDirectory.mkdirs ()) {
+                throw new IOException ("Could not create " + nodeDirectory);
+            }
+            command.add ("--log-dir");
+            command.add (nodeDirectory.getPath ());
+        }
+        synchronized (processes) {
+            processes.add (new ProcessBuilder (command).inheritIO ().start ());
+        }
+
+        InetAddress loopback = InetAddress.getLoopbackAddress ();
+        awaitListening (new InetSocketAddress (loopback, clusterPort));
+        return gateway.addNode (nodeID, new InetSocketAddress (loopback, port),
+                                new InetSocketAddress (loopback, clusterPort));
+    }
+
+    private static int findFreePort () throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket (0)) {
+            return socket.getLocalPort ();
+        }
+    }
+
+    /**
+     * Waits for a new process to open its port (the cluster port opens last)
+     */
+    private static void awaitListening (InetSocketAddress address)
+            throws IOException, InterruptedException
+    {
+        long deadline = System.nanoTime () + NODE_START_TIMEOUT_NANOS;
+        while (true) {
+            try {
+                new Socket (address.getAddress (), address.getPort ()).close ();
+                return;
+            }
+            catch (IOException e) {
+                if (System.nanoTime () > deadline) {
+                    throw e;
+                }
+                Thread.sleep (100);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pairs players who want a game on the same board size and have similar ratings. Ratings are
+ * grouped in bands; at first a player is only paired within their own band, and the longer
+ * they wait, the more bands either side of it they accept, until anyone will do.
+ * <p/>
+ * join may be called from any thread: it adds the ticket to its band's lock-free queue and
+ * wakes the matching thread (run), which alone takes tickets off the queues. Because one
+ * thread does all the pairing, a ticket can never be promised to two games and nothing
+ * needs a lock. The matching thread keeps at most one ticket per band waiting - two would
+ * already have been paired - so widening only ever compares one ticket per band.
+ */
+public class Matchmaker implements Runnable
+{
+    public static final int MAX_RATING = 4000;
+
+    // how often waiting players are looked at again to widen their bands
+    private static final long WIDEN_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos (50);
+
+    /**
+     * A player waiting for a game. Extend it to carry who the player is.
+     */
+    public static class Ticket
+    {
+        private final int mRating, mRowsOrColumns;
+        private long mJoinedNanos;
+
+        /**
+         * @param rating clamped to 0..MAX_RATING
+         */
+        public Ticket (int rating, int rowsOrColumns)
+        {
+            mRating = Math.max (0, Math.min (rating, MAX_RATING));
+            mRowsOrColumns = rowsOrColumns;
+        }
+
+        public int getRating ()
+        {
+            return mRating;
+        }
+
+        public int getRowsOrColumns ()
+        {
+            return mRowsOrColumns;
+        }
+
+        /**
+         * @return when join was called (System.nanoTime)
+         */
+        public long getJoinedNanos ()
+        {
+            return mJoinedNanos;
+        }
+
+        /**
+         * @return true if the player no longer wants a game; checked before pairing
+         */
+        public boolean isCancelled ()
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Told about each pair, on the matching thread; should return quickly
+     */
+    public interface MatchListener
+    {
+        /**
+         * @param x the player who waited longer, who moves first
+         * @param o the other player
+         */
+        void onMatch (Ticket x, Ticket o);
+    }
+
+    private final int mBandWidth, mBandCount;
+    private final long mWidenAfterNanos;
+    private final MatchListener mListener;
+
+    // by board size, created on first use
+    private final AtomicReferenceArray<Pool> mPools;
+
+    private final AtomicBoolean mWakeRequested = new AtomicBoolean ();
+    private volatile Thread mMatchingThread;
+    private volatile boolean mRunning = true;
+
+    /**
+     * @param maxRowsOrColumns largest board size tickets may ask for
+     * @param bandWidth        rating points per band
+     * @param widenAfterNanos  how long a player waits before accepting each further band on
+     *                         either side of theirs
+     */
+    public Matchmaker (int maxRowsOrColumns, int bandWidth, long widenAfterNanos,
+                       MatchListener listener)
+    {
+        mBandWidth = bandWidth;
+        mBandCount = MAX_RATING / bandWidth + 1;
+        mWidenAfterNanos = widenAfterNanos;
+        mListener = listener;
+        mPools = new AtomicReferenceArray<> (maxRowsOrColumns + 1);
+    }
+
+    /**
+     * Queues a player for a game; any thread
+     *
+     * @throws IllegalArgumentException if the board size is larger than the maximum
+     */
+    public void join (Ticket ticket)
+    {
+        int rowsOrColumns = ticket.getRowsOrColumns ();
+        if (rowsOrColumns < 0 || rowsOrColumns >= mPools.length ()) {
+            throw new IllegalArgumentException ("Board size " + rowsOrColumns);
+        }
+
+        Pool pool = mPools.get (rowsOrColumns);
+        if (pool == null) {
+            mPools.compareAndSet (rowsOrColumns, null, new Pool (mBandCount));
+            pool = mPools.get (rowsOrColumns);
+        }
+
+        ticket.mJoinedNanos = System.nanoTime ();
+        pool.mArrivals.get (ticket.getRating () / mBandWidth).add (ticket);
+        pool.mArrivalCount.incrementAndGet ();
+        ServerMetrics.MATCHMAKING_JOINS.increment ();
+
+        Thread matchingThread = mMatchingThread;
+        if (matchingThread != null && mWakeRequested.compareAndSet (false, true)) {
+            LockSupport.unpark (matchingThread);
+        }
+    }
+
+    /**
+     * Makes run return; any thread
+     */
+    public void stop ()
+    {
+        mRunning = false;
+        Thread matchingThread = mMatchingThread;
+        if (matchingThread != null) {
+            LockSupport.unpark (matchingThread);
+        }
+    }
+
+    /**
+     * The matching loop; returns once stop is called
+     */
+    @Override
+    public void run ()
+    {
+        mMatchingThread = Thread.currentThread ();
+        long nextWidenCheck = 0;
+        while (mRunning) {
+            // cleared first: a join after this point wakes the next park
+            mWakeRequested.set (false);
+
+            long now = System.nanoTime ();
+            boolean widen = now - nextWidenCheck >= 0;
+            if (widen) {
+                nextWidenCheck = now + WIDEN_CHECK_NANOS;
+            }
+            for (int i = 0; i < mPools.length (); i++) {
+                Pool pool = mPools.get (i);
+                if (pool != null) {
+                    pairArrivals (pool);
+                    if (widen && pool.mWaitingCount > 0) {
+                        pairAcrossBands (pool, now);
+                    }
+                }
+            }
+
+            if (!mWakeRequested.get ()) {
+                LockSupport.parkNanos (WIDEN_CHECK_NANOS);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Matching thread
+    // ---------------------------------------------------------------------------------------------
+
+    private void pairArrivals (Pool pool)
+    {
+        if (pool.mArrivalCount.get () == 0) {
+            return;
+        }
+
+        for (int band = 0; band < mBandCount; band++) {
+            ConcurrentLinkedQueue<Ticket> arrivals = pool.mArrivals.get (band);
+            for (Ticket ticket; (ticket = arrivals.poll ()) != null; ) {
+                pool.mArrivalCount.decrementAndGet ();
+                Ticket waiting = pool.takeWaiting (band);
+                if (ticket.isCancelled ()) {
+                    pool.putWaiting (band, waiting);
+                }
+                else if (waiting == null) {
+                    pool.putWaiting (band, ticket);
+                }
+                else {
+                    match (waiting, ticket);
+                }
+            }
+        }
+    }
+
+    private void pairAcrossBands (Pool pool, long now)
+    {
+        for (int band = 0; band < mBandCount; band++) {
+            Ticket ticket = pool.takeWaiting (band);
+            if (ticket == null) {
+                continue;
+            }
+
+            long reach = (now - ticket.getJoinedNanos ()) / mWidenAfterNanos;
+            Ticket partner = null;
+            for (int distance = 1; distance <= reach && distance < mBandCount; distance++) {
+                // of two equally close candidates, the one who waited longer
+                partner = olderOf (pool, band - distance, band + distance);
+                if (partner != null) {
+                    break;
+                }
+            }
+
+            if (partner == null) {
+                pool.putWaiting (band, ticket);
+            }
+            else if (ticket.getJoinedNanos () - partner.getJoinedNanos () <= 0) {
+                match (ticket, partner);
+            }
+            else {
+                match (partner, ticket);
+            }
+        }
+    }
+
+    /**
+     * Takes the longer-waiting of the tickets waiting in two bands (either may be out of range)
+     */
+    private Ticket olderOf (Pool pool, int band1, int band2)
+    {
+        Ticket ticket1 = band1 >= 0 ? pool.peekWaiting (band1) : null;
+        Ticket ticket2 = band2 < mBandCount ? pool.peekWaiting (band2) : null;
+        if (ticket1 == null && ticket2 == null) {
+            return null;
+        }
+
+        boolean first = ticket2 == null
+                || ticket1 != null && ticket1.getJoinedNanos () - ticket2.getJoinedNanos () <= 0;
+        return pool.takeWaiting (first ? band1 : band2);
+    }
+
+    private void match (Ticket x, Ticket o)
+    {
+        long now = System.nanoTime ();
+        ServerMetrics.MATCHMAKING_WAIT.recordNanos (now - x.getJoinedNanos ());
+        ServerMetrics.MATCHMAKING_WAIT.recordNanos (now - o.getJoinedNanos ());
+        ServerMetrics.MATCHES_MADE.increment ();
+        mListener.onMatch (x, o);
+    }
+
+    /**
+     * The players waiting for one board size
+     */
+    private static final class Pool
+    {
+        // any thread adds, the matching thread polls
+        private final List<ConcurrentLinkedQueue<Ticket>> mArrivals;
+        private final AtomicInteger mArrivalCount = new AtomicInteger ();
+
+        // matching thread only: the one unpaired ticket per band, if any
+        private final Ticket[] mWaiting;
+        private int mWaitingCount;
+
+        Pool (int bandCount)
+        {
+            mArrivals = new ArrayList<> (bandCount);
+            for (int band = 0; band < bandCount; band++) {
+                mArrivals.add (new ConcurrentLinkedQueue<> ());
+            }
+            mWaiting = new Ticket[bandCount];
+        }
+
+        /**
+         * @return the ticket waiting in a band, or null; a cancelled one is dropped
+         */
+        Ticket peekWaiting (int band)
+        {
+            Ticket ticket = mWaiting[band];
+            if (ticket != null && ticket.isCancelled ()) {
+                takeWaiting (band);
+                return null;
+            }
+            return ticket;
+        }
+
+        Ticket takeWaiting (int band)
+        {
+            Ticket ticket = mWaiting[band];
+            if (ticket != null) {
+                mWaiting[band] = null;
+                mWaitingCount--;
+            }
+            return ticket != null && ticket.isCancelled () ? null : ticket;
+        }
+
+        void putWaiting (int band, Ticket ticket)
+        {
+            if (ticket != null) {
+                mWaiting[band] = ticket;
+                mWaitingCount++;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.metrics.Histogram;
+import com.mintedtech.tic_tac_toe.metrics.MetricsRegistry;
+import com.mintedtech.tic_tac_toe.metrics.TextMetricsExporter;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a Matchmaker synthetic players, in this process and without sockets, to measure how
+ * many joins per second it pairs and how long players wait. Ratings are normally distributed
+ * around 1500; most players want 3 x 3, some larger boards. Each pair gets a new TicTacToe, as
+ * the server's sessions do.
+ * <p/>
+ * Prints joins, matches, players still waiting and wait percentiles every second. With
+ * --joins-per-second 0 the producers join as fast as they can.
+ * <p/>
+ * Arguments: [--joins-per-second n] [--producers n] [--seconds n] [--seed n]
+ */
+public class MatchmakerBenchmark
+{
+    private static final int[] BOARD_SIZES = {3, 3, 3, 3, 3, 3, 4, 4, 5, 7};
+
+    private static final Histogram RATING_GAP = MetricsRegistry.getDefault ().histogram (
+            "matchmaking.rating_gap", "Rating difference between matched players");
+
+    public static void main (String[] args) throws InterruptedException
+    {
+        int joinsPerSecond = 5000, producers = 4, seconds = 10;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            long value = Long.parseLong (args[i + 1]);
+            switch (args[i]) {
+                case "--joins-per-second":
+                    joinsPerSecond = (int) value;
+                    break;
+                case "--producers":
+                    producers = (int) value;
+                    break;
+                case "--seconds":
+                    seconds = (int) value;
+                    break;
+                case "--seed":
+                    seed = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException ("Unknown option " + args[i]);
+            }
+        }
+
+        AtomicLong gamesCreated = new AtomicLong ();
+        Matchmaker matchmaker = new Matchmaker (GameServer.MAX_ROWS_OR_COLUMNS, 100,
+                                                TimeUnit.SECONDS.toNanos (1), (x, o) -> {
+            new TicTacToe (x.getRowsOrColumns ());
+            RATING_GAP.record (Math.abs (x.getRating () - o.getRating ()));
+            gamesCreated.incrementAndGet ();
+        });
+        Thread matchingThread = new Thread (matchmaker, "matchmaker");
+        matchingThread.start ();
+
+        long deadline = System.nanoTime () + TimeUnit.SECONDS.toNanos (seconds);
+        long nanosPerJoin = joinsPerSecond > 0
+                            ? TimeUnit.SECONDS.toNanos (producers) / joinsPerSecond : 0;
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            Random random = new Random (seed + i);
+            threads[i] = new Thread (() -> produce (matchmaker, random, nanosPerJoin, deadline),
+                                     "producer-" + i);
+            threads[i].start ();
+        }
+
+        long previousJoins = 0, previousGames = 0;
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep (1000);
+            long joins = ServerMetrics.MATCHMAKING_JOINS.sum (), games = gamesCreated.get ();
+            System.out.printf (Locale.US,
+                               "%3ds joins/s=%d matches/s=%d waiting=%d wait p50=%.1fms "
+                                       + "p99=%.1fms max=%.1fms%n",
+                               second, joins - previousJoins, games - previousGames,
+                               joins - 2 * games,
+                               ServerMetrics.MATCHMAKING_WAIT.getPercentileNanos (50) / 1e6,
+                               ServerMetrics.MATCHMAKING_WAIT.getPercentileNanos (99) / 1e6,
+                               ServerMetrics.MATCHMAKING_WAIT.getMaxNanos () / 1e6);
+            previousJoins = joins;
+            previousGames = games;
+        }
+
+        for (Thread thread : threads) {
+            thread.join ();
+        }
+        matchmaker.stop ();
+        matchingThread.join ();
+        System.out.print (
+                MetricsRegistry.getDefault ().exportToString (new TextMetricsExporter ()));
+    }
+
+    private static void produce (Matchmaker matchmaker, Random random, long nanosPerJoin,
+                                 long deadline)
+    {
+        long nextJoin = System.nanoTime ();
+        while (nextJoin - deadline < 0) {
+            int rating = (int) Math.round (1500 + 350 * random.nextGaussian ());
+            int rowsOrColumns = BOARD_SIZES[random.nextInt (BOARD_SIZES.length)];
+            matchmaker.join (new Matchmaker.Ticket (rating, rowsOrColumns));
+
+            if (nanosPerJoin > 0) {
+                nextJoin += nanosPerJoin;
+                long delay = nextJoin - System.nanoTime ();
+                if (delay > 0) {
+                    LockSupport.parkNanos (delay);
+                }
+            }
+            else {
+                nextJoin = System.nanoTime ();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.persistence.VarInt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A session on its way from one node to another (see ClusterNode): its game's compact encoding
+ * (TicTacToe.writeTo) and who plays it, by the gateway's client IDs (see WireFormat's HELLO);
+ * 0 for a seat that is empty or whose player did not come through a gateway.
+ */
+final class MigratingSession
+{
+    private static final int FLAG_VERSUS_COMPUTER = 1;
+
+    private final long mSessionID;
+    private final boolean mVersusComputer;
+    private final long mClientX, mClientO;
+    private final byte[] mGame;
+
+    MigratingSession (long sessionID, boolean versusComputer, long clientX, long clientO,
+                      byte[] game)
+    {
+        mSessionID = sessionID;
+        mVersusComputer = versusComputer;
+        mClientX = clientX;
+        mClientO = clientO;
+        mGame = game;
+    }
+
+    long getSessionID ()
+    {
+        return mSessionID;
+    }
+
+    boolean isVersusComputer ()
+    {
+        return mVersusComputer;
+    }
+
+    long getClientX ()
+    {
+        return mClientX;
+    }
+
+    long getClientO ()
+    {
+        return mClientO;
+    }
+
+    byte[] getGame ()
+    {
+        return mGame;
+    }
+
+    void writeTo (DataOutput out) throws IOException
+    {
+        VarInt.writeLong (out, mSessionID);
+        out.writeByte (mVersusComputer ? FLAG_VERSUS_COMPUTER : 0);
+        VarInt.writeLong (out, mClientX);
+        VarInt.writeLong (out, mClientO);
+        VarInt.write (out, mGame.length);
+        out.write (mGame);
+    }
+
+    static MigratingSession readFrom (DataInput in) throws IOException
+    {
+        long sessionID = VarInt.readLong (in);
+        boolean versusComputer = (in.readUnsignedByte () & FLAG_VERSUS_COMPUTER) != 0;
+        long clientX = VarInt.readLong (in), clientO = VarInt.readLong (in);
+        byte[] game = new byte[VarInt.read (in)];
+        in.readFully (game);
+        return new MigratingSession (sessionID, versusComputer, clientX, clientO, game);
+    }
+}
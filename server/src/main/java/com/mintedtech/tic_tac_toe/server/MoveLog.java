@@ -0,0 +1,751 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+import com.mintedtech.tic_tac_toe.persistence.PersistenceWriter;
+import com.mintedtech.tic_tac_toe.persistence.VarInt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * The server's write-ahead log: every session created, move accepted, game restarted and
+ * session closed is appended as a record of a few bytes, so the games in play survive a crash
+ * of the process or the machine.
+ * <p/>
+ * Forcing a file to disk takes milliseconds whatever is in it, so records are not forced one by
+ * one. Sessions append to a shared in-memory batch and go on; one writer thread takes the whole
+ * batch, writes it with one FileChannel.write and forces it once, and every record that arrived
+ * while it was forcing the previous batch goes into the next. The more sessions are moving, the
+ * more records share each force. A session does not tell its players about a move until the
+ * record is on disk (whenDurable), so no client is ever told of a move a crash could take back.
+ * <p/>
+ * The log is a series of segment files (moves-[base].log) of batches: length, CRC32 and the
+ * records. A position in the log counts record bytes from the very first, across segments; a
+ * record's position is where it ends. From time to time the store writes a snapshot of every
+ * game (beginSnapshot, finishSnapshot): the log moves on to a new segment, each session's game
+ * is encoded with the position of its last record, and once the snapshot is safely on disk the
+ * segments before it are deleted. Sessions go on playing while it is taken, so recovery replays
+ * the segments from the snapshot's on, skipping each session's records up to the position its
+ * game was captured at.
+ * <p/>
+ * A session another node hands over is logged as if it had been created here and played up to
+ * where it is (adopt), so recovery needs no record of its own for it.
+ * <p/>
+ * Should writing fail, the log stops writing and from then on calls everything waiting at once:
+ * a failed disk costs the games their durability, not their play.
+ */
+final class MoveLog
+{
+    private static final Logger LOG = Logger.getLogger (MoveLog.class.getName ());
+
+    private static final int SEGMENT_MAGIC = 0x54545457;     // "TTTW"
+    private static final int SNAPSHOT_MAGIC = 0x54545443;    // "TTTC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 4 + 1 + 8;    // magic, version, base
+    private static final int BATCH_HEADER_SIZE = 4 + 4;          // length, CRC32
+    private static final String SNAPSHOT_FILE = "games.snapshot";
+
+    private static final int RECORD_CREATE = 1, RECORD_MOVE = 2, RECORD_RESTART = 3,
+            RECORD_CLOSE = 4;
+    private static final int FLAG_VERSUS_COMPUTER = 1;
+
+    // type byte and three varints
+    private static final int MAX_RECORD_LENGTH = 1 + 3 * 10;
+    private static final int INITIAL_BATCH_CAPACITY = 256 * 1024;
+
+    private final File mDirectory;
+    private final Thread mWriter;
+
+    // appended records, the writer's state and what waits for it; guarded by itself
+    private final Object mLock = new Object ();
+    private ByteBuffer mPending, mWriting;
+    private int mPendingRecords;
+    private long mAppended, mDurable, mSegmentBase;
+    private final ArrayDeque<Waiter> mWaiters = new ArrayDeque<> ();
+    private boolean mDelivering, mRollRequested, mRunning = true;
+
+    // the writer thread only (mFailed is read by beginSnapshot too)
+    private FileChannel mSegment;
+    private volatile boolean mFailed;
+    private final CRC32 mCRC = new CRC32 ();
+
+    /**
+     * Starts a new segment and the writer
+     *
+     * @param position where the log left off (Recovery.getEndPosition), 0 for a new one
+     */
+    MoveLog (File directory, long position) throws IOException
+    {
+        mDirectory = directory;
+        mAppended = mDurable = mSegmentBase = position;
+        mPending = newBatch (INITIAL_BATCH_CAPACITY);
+        mWriting = newBatch (INITIAL_BATCH_CAPACITY);
+        mSegment = openSegment (position);
+
+        mWriter = new Thread (this::write, "move-log");
+        mWriter.setDaemon (true);
+        mWriter.start ();
+    }
+
+    /**
+     * Writes whatever is still pending and closes the log
+     */
+    void stop () throws InterruptedException
+    {
+        synchronized (mLock) {
+            mRunning = false;
+            mLock.notifyAll ();
+        }
+        mWriter.join ();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Appending (any thread)
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * @return the record's position
+     */
+    long create (long sessionID, int rowsOrColumns, boolean versusComputer)
+    {
+        return append (RECORD_CREATE, sessionID, rowsOrColumns,
+                       versusComputer ? FLAG_VERSUS_COMPUTER : 0);
+    }
+
+    long move (long sessionID, int ply, int cell)
+    {
+        return append (RECORD_MOVE, sessionID, ply, cell);
+    }
+
+    long restart (long sessionID)
+    {
+        return append (RECORD_RESTART, sessionID, -1, -1);
+    }
+
+    long close (long sessionID)
+    {
+        return append (RECORD_CLOSE, sessionID, -1, -1);
+    }
+
+    /**
+     * Logs a session that another node handed over (see ClusterNode) as if it had been created
+     * and played here
+     *
+     * @return the position of its last record
+     */
+    long adopt (long sessionID, TicTacToe game, boolean versusComputer)
+    {
+        long position = create (sessionID, game.getTotalRowsOrColumns (), versusComputer);
+        for (int ply = 0; ply < game.getMoveCount (); ply++) {
+            position = move (sessionID, ply, game.getMoveAt (ply));
+        }
+        return position;
+    }
+
+    /**
+     * @return where the last record appended so far ends
+     */
+    long getPosition ()
+    {
+        synchronized (mLock) {
+            return mAppended;
+        }
+    }
+
+    /**
+     * @param first, second the record's fields after the session ID; -1 for none
+     */
+    private long append (int type, long sessionID, int first, int second)
+    {
+        synchronized (mLock) {
+            if (mPending.remaining () < MAX_RECORD_LENGTH) {
+                ByteBuffer larger = newBatch (mPending.capacity () * 2);
+                mPending.flip ().position (BATCH_HEADER_SIZE);
+                larger.put (mPending);
+                mPending = larger;
+            }
+
+            int start = mPending.position ();
+            mPending.put ((byte) type);
+            WireFormat.putVarLong (mPending, sessionID);
+            if (first >= 0) {
+                WireFormat.putVarLong (mPending, first);
+                WireFormat.putVarLong (mPending, second);
+            }
+            mAppended += mPending.position () - start;
+            if (mPendingRecords++ == 0) {
+                mLock.notifyAll ();
+            }
+            return mAppended;
+        }
+    }
+
+    /**
+     * Runs action once everything up to position is on disk: at once, on the calling thread, if
+     * it is already and nothing else is waiting; otherwise on the writer thread. Actions run in
+     * the order they were given, so results held back this way reach each client in order.
+     */
+    void whenDurable (long position, Runnable action)
+    {
+        synchronized (mLock) {
+            if (position > mDurable || mDelivering || !mWaiters.isEmpty ()) {
+                mWaiters.add (new Waiter (position, action));
+                return;
+            }
+        }
+        action.run ();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Writing (the writer thread)
+    // ---------------------------------------------------------------------------------------------
+
+    private void write ()
+    {
+        while (true) {
+            ByteBuffer batch;
+            int records;
+            long end;
+            boolean roll;
+            synchronized (mLock) {
+                while (mPendingRecords == 0 && !mRollRequested && mRunning) {
+                    waitUninterruptibly ();
+                }
+                if (mPendingRecords == 0 && !mRollRequested) {
+                    break;      // stopped, and everything is written
+                }
+
+                batch = mPending;
+                mPending = mWriting;
+                mWriting = batch;
+                records = mPendingRecords;
+                mPendingRecords = 0;
+                end = mAppended;
+                roll = mRollRequested;
+            }
+
+            if (records > 0) {
+                long startNanos = System.nanoTime ();
+                writeBatch (batch);
+                ServerMetrics.LOG_COMMIT.recordSince (startNanos);
+                ServerMetrics.LOG_BATCH_RECORDS.record (records);
+                ServerMetrics.LOG_RECORDS.add (records);
+            }
+            batch.clear ().position (BATCH_HEADER_SIZE);
+            if (roll) {
+                roll (end);
+            }
+            deliver (end);
+        }
+        closeSegment ();
+    }
+
+    private void writeBatch (ByteBuffer batch)
+    {
+        if (mFailed) {
+            return;
+        }
+
+        int length = batch.position () - BATCH_HEADER_SIZE;
+        batch.flip ().position (BATCH_HEADER_SIZE);
+        mCRC.reset ();
+        mCRC.update (batch);
+        batch.position (0);
+        batch.putInt (0, length).putInt (4, (int) mCRC.getValue ());
+        try {
+            while (batch.hasRemaining ()) {
+                mSegment.write (batch);
+            }
+            mSegment.force (false);
+        }
+        catch (IOException e) {
+            fail (e);
+        }
+    }
+
+    /**
+     * Closes the segment and starts the next at end, unless nothing was written since the
+     * current one started
+     */
+    private void roll (long end)
+    {
+        if (!mFailed && end != mSegmentBase) {
+            closeSegment ();
+            try {
+                mSegment = openSegment (end);
+            }
+            catch (IOException e) {
+                fail (e);
+            }
+        }
+        synchronized (mLock) {
+            if (!mFailed) {
+                mSegmentBase = end;
+            }
+            mRollRequested = false;
+            mLock.notifyAll ();
+        }
+    }
+
+    /**
+     * Marks everything up to end durable and runs what was waiting for it
+     */
+    private void deliver (long end)
+    {
+        ArrayList<Runnable> ready = new ArrayList<> ();
+        while (true) {
+            synchronized (mLock) {
+                mDurable = mFailed ? Long.MAX_VALUE : end;
+                while (!mWaiters.isEmpty () && mWaiters.peek ().mPosition <= mDurable) {
+                    ready.add (mWaiters.poll ().mAction);
+                }
+                mDelivering = !ready.isEmpty ();
+                if (!mDelivering) {
+                    return;
+                }
+            }
+            for (int i = 0; i < ready.size (); i++) {
+                ready.get (i).run ();
+            }
+            ready.clear ();
+        }
+    }
+
+    private void fail (IOException e)
+    {
+        LOG.log (Level.SEVERE, "Move log failed; games are no longer durable", e);
+        mFailed = true;
+        closeSegment ();
+    }
+
+    private void closeSegment ()
+    {
+        try {
+            mSegment.close ();
+        }
+        catch (IOException e) {
+            LOG.log (Level.WARNING, "Could not close a move log segment", e);
+        }
+    }
+
+    private FileChannel openSegment (long base) throws IOException
+    {
+        FileChannel segment = FileChannel.open (
+                segmentFile (mDirectory, base).toPath (), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate (SEGMENT_HEADER_SIZE);
+        header.putInt (SEGMENT_MAGIC).put ((byte) FORMAT_VERSION).putLong (base).flip ();
+        while (header.hasRemaining ()) {
+            segment.write (header);
+        }
+        segment.force (false);
+        return segment;
+    }
+
+    private void waitUninterruptibly ()
+    {
+        try {
+            mLock.wait ();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+        }
+    }
+
+    private static ByteBuffer newBatch (int capacity)
+    {
+        ByteBuffer batch = ByteBuffer.allocateDirect (capacity);
+        batch.position (BATCH_HEADER_SIZE);
+        return batch;
+    }
+
+    private static File segmentFile (File directory, long base)
+    {
+        return new File (directory, String.format ("moves-%016x.log", base));
+    }
+
+    /**
+     * A result held back until the record it reports is durable
+     */
+    private static final class Waiter
+    {
+        private final long mPosition;
+        private final Runnable mAction;
+
+        Waiter (long position, Runnable action)
+        {
+            mPosition = position;
+            mAction = action;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Snapshots
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Moves the log on to a new segment, for a snapshot to start from; blocks until the writer
+     * has done so. Add every game to the snapshot after this returns, then finishSnapshot.
+     */
+    Snapshot beginSnapshot () throws IOException, InterruptedException
+    {
+        if (mFailed) {
+            throw new IOException ("Move log failed");
+        }
+        synchronized (mLock) {
+            mRollRequested = true;
+            mLock.notifyAll ();
+            while (mRollRequested) {
+                mLock.wait ();
+            }
+            return new Snapshot (mSegmentBase);
+        }
+    }
+
+    /**
+     * Writes the snapshot (fsynced, replacing the last one at once) and deletes the segments it
+     * makes unnecessary
+     *
+     * @param nextSessionID the ID the store will give the next session
+     */
+    void finishSnapshot (Snapshot snapshot, long nextSessionID) throws IOException
+    {
+        byte[] entries = snapshot.mEntryBytes.toByteArray ();
+        CRC32 crc = new CRC32 ();
+        crc.update (entries, 0, entries.length);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream (entries.length + 41);
+        try (DataOutputStream out = new DataOutputStream (bytes)) {
+            out.writeInt (SNAPSHOT_MAGIC);
+            out.writeByte (FORMAT_VERSION);
+            out.writeLong (snapshot.mBase);
+            out.writeLong (nextSessionID);
+            out.writeInt (snapshot.mCount);
+            out.writeInt (entries.length);
+            out.write (entries);
+            out.writeLong (crc.getValue ());
+        }
+        PersistenceWriter.writeAtomically (new File (mDirectory, SNAPSHOT_FILE),
+                                           bytes.toByteArray (), true);
+        ServerMetrics.LOG_SNAPSHOT_BYTES.record (bytes.size ());
+
+        for (long base : listSegments (mDirectory)) {
+            if (base < snapshot.mBase) {
+                //noinspection ResultOfMethodCallIgnored
+                segmentFile (mDirectory, base).delete ();
+            }
+        }
+    }
+
+    /**
+     * Every game at one point of the log; add is thread-safe
+     */
+    static final class Snapshot
+    {
+        private final long mBase;
+        private final ByteArrayOutputStream mEntryBytes = new ByteArrayOutputStream ();
+        private final DataOutputStream mEntries = new DataOutputStream (mEntryBytes);
+        private int mCount;
+
+        Snapshot (long base)
+        {
+            mBase = base;
+        }
+
+        /**
+         * @param position the position of the session's last record, as of game
+         * @param game     the game's encoding (TicTacToe.writeTo)
+         */
+        synchronized void add (long sessionID, boolean versusComputer, long position,
+                               byte[] game)
+        {
+            try {
+                VarInt.writeLong (mEntries, sessionID);
+                mEntries.writeByte (versusComputer ? FLAG_VERSUS_COMPUTER : 0);
+                VarInt.writeLong (mEntries, position);
+                VarInt.write (mEntries, game.length);
+                mEntries.write (game);
+            }
+            catch (IOException e) {
+                // cannot happen when writing to memory
+                throw new IllegalStateException (e);
+            }
+            mCount++;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Recovery
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Rebuilds every game that was open when the log was last written: the last snapshot's, then
+     * each record of the segments after it. A torn or corrupt batch (the process died writing
+     * it) ends its segment's replay; nobody was told of anything in it.
+     */
+    static Recovery recover (File directory) throws IOException
+    {
+        Recovery recovery = new Recovery ();
+        readSnapshot (new File (directory, SNAPSHOT_FILE), recovery);
+
+        // a segment torn by a crash is followed by the one the next run started where it ended
+        for (long base : listSegments (directory)) {
+            if (base < recovery.mEndPosition) {
+                continue;       // before the snapshot, or torn and already read up to here
+            }
+            File segment = segmentFile (directory, base);
+            if (base > recovery.mEndPosition) {
+                LOG.warning ("Move log has a gap before " + segment);
+                break;
+            }
+            if (!replaySegment (segment, recovery)) {
+                LOG.warning ("Move log segment " + segment + " is torn at position "
+                                     + recovery.mEndPosition);
+            }
+        }
+        ServerMetrics.LOG_RECOVERED_SESSIONS.add (recovery.mGames.size ());
+        return recovery;
+    }
+
+    private static void readSnapshot (File file, Recovery recovery) throws IOException
+    {
+        if (!file.exists ()) {
+            return;
+        }
+
+        byte[] entries;
+        int count;
+        try (DataInputStream in = new DataInputStream (
+                new ByteArrayInputStream (Files.readAllBytes (file.toPath ())))) {
+            if (in.readInt () != SNAPSHOT_MAGIC || in.readUnsignedByte () != FORMAT_VERSION) {
+                throw new IOException ("Not a game snapshot: " + file);
+            }
+            recovery.mEndPosition = in.readLong ();
+            recovery.mNextSessionID = in.readLong ();
+            count = in.readInt ();
+            entries = new byte[in.readInt ()];
+            in.readFully (entries);
+
+            CRC32 crc = new CRC32 ();
+            crc.update (entries, 0, entries.length);
+            if (crc.getValue () != in.readLong ()) {
+                throw new IOException ("Game snapshot is corrupt: " + file);
+            }
+        }
+
+        // written whole and renamed into place, so a bad snapshot is not a torn write: refuse it
+        // rather than come back without its games
+        DataInputStream in = new DataInputStream (new ByteArrayInputStream (entries));
+        for (int i = 0; i < count; i++) {
+            long sessionID = VarInt.readLong (in);
+            boolean versusComputer = (in.readUnsignedByte () & FLAG_VERSUS_COMPUTER) != 0;
+            long position = VarInt.readLong (in);
+            byte[] game = new byte[VarInt.read (in)];
+            in.readFully (game);
+            recovery.mGames.put (sessionID, new RecoveredGame (
+                    sessionID, TicTacToe.readFrom (new DataInputStream (
+                            new ByteArrayInputStream (game))), versusComputer, position));
+        }
+    }
+
+    /**
+     * @return whether the segment was read to its end; false if it is torn or corrupt
+     */
+    private static boolean replaySegment (File file, Recovery recovery) throws IOException
+    {
+        ByteBuffer in = ByteBuffer.wrap (Files.readAllBytes (file.toPath ()));
+        if (in.remaining () < SEGMENT_HEADER_SIZE || in.getInt () != SEGMENT_MAGIC
+                || in.get () != FORMAT_VERSION || in.getLong () != recovery.mEndPosition) {
+            return false;
+        }
+
+        CRC32 crc = new CRC32 ();
+        while (in.remaining () >= BATCH_HEADER_SIZE) {
+            int length = in.getInt (), expectedCRC = in.getInt ();
+            if (length < 0 || length > in.remaining ()) {
+                return false;
+            }
+            ByteBuffer records = in.slice ();
+            records.limit (length);
+            in.position (in.position () + length);
+
+            crc.reset ();
+            crc.update (records.duplicate ());
+            if ((int) crc.getValue () != expectedCRC) {
+                return false;
+            }
+            try {
+                while (records.hasRemaining ()) {
+                    int start = records.position ();
+                    int type = records.get ();
+                    long sessionID = WireFormat.getVarLong (records);
+                    int first = -1, second = -1;
+                    if (type == RECORD_CREATE || type == RECORD_MOVE) {
+                        first = WireFormat.getVarInt (records);
+                        second = WireFormat.getVarInt (records);
+                    }
+                    recovery.mEndPosition += records.position () - start;
+                    recovery.apply (type, sessionID, first, second);
+                }
+            }
+            catch (BufferUnderflowException | IllegalArgumentException e) {
+                // the CRC matched, so the records themselves are wrong: a bug, not a crash
+                throw new IOException ("Unreadable move log record in " + file, e);
+            }
+        }
+        return !in.hasRemaining ();
+    }
+
+    private static long[] listSegments (File directory)
+    {
+        String[] names = directory.list ();
+        long[] bases = new long[names == null ? 0 : names.length];
+        int count = 0;
+        for (int i = 0; i < bases.length; i++) {
+            String name = names[i];
+            if (name.startsWith ("moves-") && name.endsWith (".log")) {
+                try {
+                    bases[count++] = Long.parseUnsignedLong (
+                            name.substring (6, name.length () - 4), 16);
+                }
+                catch (NumberFormatException e) {
+                    count--;
+                }
+            }
+        }
+        bases = Arrays.copyOf (bases, count);
+        Arrays.sort (bases);
+        return bases;
+    }
+
+    /**
+     * What recover found
+     */
+    static final class Recovery
+    {
+        private final HashMap<Long, RecoveredGame> mGames = new HashMap<> ();
+        private long mEndPosition, mNextSessionID = 1;
+
+        Collection<RecoveredGame> getGames ()
+        {
+            return mGames.values ();
+        }
+
+        /**
+         * @return the position after the last record read, where the log goes on
+         */
+        long getEndPosition ()
+        {
+            return mEndPosition;
+        }
+
+        /**
+         * @return an ID no session has had yet
+         */
+        long getNextSessionID ()
+        {
+            return mNextSessionID;
+        }
+
+        private void apply (int type, long sessionID, int first, int second)
+                throws IOException
+        {
+            if (type == RECORD_CREATE) {
+                mNextSessionID = Math.max (mNextSessionID, sessionID + 1);
+            }
+            RecoveredGame recovered = mGames.get (sessionID);
+            if (recovered != null && mEndPosition <= recovered.mPosition) {
+                return;     // already in the snapshot's game
+            }
+
+            switch (type) {
+                case RECORD_CREATE:
+                    mGames.put (sessionID, new RecoveredGame (
+                            sessionID, new TicTacToe (first),
+                            (second & FLAG_VERSUS_COMPUTER) != 0, mEndPosition));
+                    return;
+                case RECORD_MOVE:
+                    if (recovered != null) {
+                        TicTacToe game = recovered.mGame;
+                        int rowsOrColumns = game.getTotalRowsOrColumns ();
+                        if (game.getMoveCount () == first) {
+                            game.attemptTurn (second / rowsOrColumns, second % rowsOrColumns);
+                        }
+                    }
+                    break;
+                case RECORD_RESTART:
+                    if (recovered != null) {
+                        recovered.mGame.startGame ();
+                    }
+                    break;
+                case RECORD_CLOSE:
+                    mGames.remove (sessionID);
+                    return;
+                default:
+                    throw new IOException ("Unknown move log record type " + type);
+            }
+            if (recovered != null) {
+                recovered.mPosition = mEndPosition;
+            }
+        }
+    }
+
+    /**
+     * A session's game as the log left it
+     */
+    static final class RecoveredGame
+    {
+        private final long mSessionID;
+        private final TicTacToe mGame;
+        private final boolean mVersusComputer;
+        private long mPosition;
+
+        RecoveredGame (long sessionID, TicTacToe game, boolean versusComputer, long position)
+        {
+            mSessionID = sessionID;
+            mGame = game;
+            mVersusComputer = versusComputer;
+            mPosition = position;
+        }
+
+        long getSessionID ()
+        {
+            return mSessionID;
+        }
+
+        TicTacToe getGame ()
+        {
+            return mGame;
+        }
+
+        boolean isVersusComputer ()
+        {
+            return mVersusComputer;
+        }
+
+        /**
+         * @return the position of the session's last record
+         */
+        long getPosition ()
+        {
+            return mPosition;
+        }
+    }
+}
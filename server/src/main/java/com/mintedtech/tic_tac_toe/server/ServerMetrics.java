@@ -0,0 +1,113 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.metrics.Counter;
+import com.mintedtech.tic_tac_toe.metrics.Histogram;
+import com.mintedtech.tic_tac_toe.metrics.LatencyHistogram;
+import com.mintedtech.tic_tac_toe.metrics.MetricsRegistry;
+
+/**
+ * The game server's metrics, in the default registry next to the engine's (EngineMetrics)
+ */
+public final class ServerMetrics
+{
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault ();
+
+    // Connections and sessions
+    public static final Counter CONNECTIONS_OPENED =
+            REGISTRY.counter ("server.connections_opened", "Client connections accepted");
+    public static final Counter CONNECTIONS_CLOSED =
+            REGISTRY.counter ("server.connections_closed", "Client connections closed");
+    public static final Counter SESSIONS_CREATED =
+            REGISTRY.counter ("server.sessions_created", "Game sessions created");
+    public static final Counter SESSIONS_CLOSED =
+            REGISTRY.counter ("server.sessions_closed", "Game sessions closed, all players gone");
+    public static final Counter SESSIONS_HIBERNATED =
+            REGISTRY.counter ("server.sessions_hibernated", "Idle sessions reduced to bytes");
+    public static final Counter SESSIONS_REVIVED =
+            REGISTRY.counter ("server.sessions_revived", "Hibernating sessions brought back");
+    public static final Counter SESSION_TASKS_FAILED =
+            REGISTRY.counter ("server.session_tasks_failed", "Session tasks that threw");
+    public static final Counter SESSIONS_MIGRATED_OUT =
+            REGISTRY.counter ("cluster.sessions_out", "Sessions handed off to another node");
+    public static final Counter SESSIONS_MIGRATED_IN =
+            REGISTRY.counter ("cluster.sessions_in", "Sessions adopted from another node");
+
+    // Requests
+    public static final Counter MOVES_ACCEPTED =
+            REGISTRY.counter ("server.moves_accepted", "Moves applied to a session's game");
+    public static final Counter REQUESTS_REJECTED =
+            REGISTRY.counter ("server.requests_rejected", "Requests answered with an error");
+    public static final LatencyHistogram MOVE =
+            REGISTRY.latency ("server.move", "Time from reading a move to queuing its result");
+
+    // Matchmaking
+    public static final Counter MATCHMAKING_JOINS =
+            REGISTRY.counter ("matchmaking.joins", "Players queued for a game");
+    public static final Counter MATCHES_MADE =
+            REGISTRY.counter ("matchmaking.matches", "Pairs of players given a game");
+    public static final LatencyHistogram MATCHMAKING_WAIT =
+            REGISTRY.latency ("matchmaking.wait", "Time from queuing a player to pairing them");
+
+    public static final Counter SPECTATORS_ADDED =
+            REGISTRY.counter ("spectator.added", "Spectators that started watching a session");
+    public static final Counter SPECTATOR_FRAMES_ENCODED =
+            REGISTRY.counter ("spectator.frames_encoded", "Broadcasts encoded for spectators");
+    public static final Counter SPECTATOR_FRAMES_SHARED =
+            REGISTRY.counter ("spectator.frames_shared", "Broadcasts queued for a spectator");
+    public static final Counter SPECTATOR_FRAMES_DROPPED =
+            REGISTRY.counter ("spectator.frames_dropped", "Broadcasts a lagging spectator missed");
+    public static final Counter SPECTATOR_SNAPSHOTS =
+            REGISTRY.counter ("spectator.snapshots", "Snapshots sent to catch up a spectator");
+
+    // Computer players: moves by how hard the pool could afford to think (ComputerPlayerPool)
+    public static final Counter COMPUTER_MOVES_SEARCHED =
+            REGISTRY.counter ("computer.moves_searched", "Computer moves from a full search");
+    public static final Counter COMPUTER_MOVES_FROM_TABLE =
+            REGISTRY.counter ("computer.moves_table", "Computer moves from the move table");
+    public static final Counter COMPUTER_MOVES_SHALLOW =
+            REGISTRY.counter ("computer.moves_shallow", "Computer moves from a shallow search");
+    public static final Counter COMPUTER_MOVES_RANDOM =
+            REGISTRY.counter ("computer.moves_random", "Computer moves picked at random");
+    public static final Counter COMPUTER_DEADLINES_MISSED =
+            REGISTRY.counter ("computer.deadlines_missed", "Computer moves chosen too late");
+    public static final Histogram COMPUTER_QUEUE_DEPTH =
+            REGISTRY.histogram ("computer.queue_depth", "Computer moves waiting, per batch");
+    public static final Histogram COMPUTER_BATCH_SIZE =
+            REGISTRY.histogram ("computer.batch_size", "Computer moves taken per batch");
+    public static final LatencyHistogram COMPUTER_MOVE =
+            REGISTRY.latency ("computer.move", "Time from asking for a computer move to having it");
+
+    // The move log (MoveLog)
+    public static final Counter LOG_RECORDS =
+            REGISTRY.counter ("log.records", "Records written to the move log");
+    public static final Histogram LOG_BATCH_RECORDS =
+            REGISTRY.histogram ("log.batch_records", "Records sharing one write and force");
+    public static final LatencyHistogram LOG_COMMIT =
+            REGISTRY.latency ("log.commit", "Time to write and force one batch of records");
+    public static final LatencyHistogram LOG_SNAPSHOT =
+            REGISTRY.latency ("log.snapshot", "Time to capture and write every game");
+    public static final Histogram LOG_SNAPSHOT_BYTES =
+            REGISTRY.histogram ("log.snapshot_bytes", "Size of each snapshot of every game");
+    public static final Counter LOG_RECOVERED_SESSIONS =
+            REGISTRY.counter ("log.recovered_sessions", "Sessions rebuilt from the log at start");
+    public static final Counter LOG_UNCLAIMED_SESSIONS =
+            REGISTRY.counter ("log.unclaimed_sessions", "Recovered sessions nobody joined, closed");
+
+    // The leaderboard (Leaderboard)
+    public static final Counter LEADERBOARD_GAMES =
+            REGISTRY.counter ("leaderboard.games", "Games between two players rated as they ended");
+    public static final Counter LEADERBOARD_REFILLS =
+            REGISTRY.counter ("leaderboard.refills", "Passes over all players for leaders");
+
+    // The cluster (Gateway)
+    public static final Counter CLUSTER_SESSIONS_MOVED =
+            REGISTRY.counter ("cluster.sessions_moved", "Sessions moved to a new node");
+    public static final Counter CLUSTER_REQUESTS_HELD =
+            REGISTRY.counter ("cluster.requests_held", "Requests held back while sessions moved");
+    public static final LatencyHistogram CLUSTER_CHANGE =
+            REGISTRY.latency ("cluster.change", "Time to add a node and move its sessions to it");
+
+    private ServerMetrics ()
+    {
+    }
+}
@@ -0,0 +1,667 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.collections.LongHashTable;
+import com.mintedtech.tic_tac_toe.enums.PlayerTurn;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Every open game session on this server, by ID. IDs are never reused, so a stale ID from a
+ * client finds nothing rather than somebody else's game.
+ * <p/>
+ * The sessions are spread over independently locked stripes, each a LongHashTable from ID to a
+ * slot in its own arrays, so finding a session is a hash probe on a primitive key and requests
+ * for different sessions almost never wait for the same lock. A lock is only held to find a
+ * session and queue a task on it; the task itself runs unlocked (see GameSession).
+ * <p/>
+ * A session nobody has sent anything for idleTicks ticks (see tick) hibernates: its game is
+ * replaced by the game's compact encoding (TicTacToe.writeTo, about 20 bytes for 3 x 3) and
+ * the session object goes away. The next request for it revives it from those bytes before the
+ * request runs, so clients never notice. A session somebody is watching stays awake.
+ * <p/>
+ * Given a directory for it, the store keeps a MoveLog of its sessions there, and comes back with
+ * every game the log holds: hibernating, without players, until somebody joins (see
+ * GameSession.join). One that nobody has joined within CLAIM_IDLE_PERIODS times idleTicks is
+ * closed, so games whose players never come back do not stay in every later snapshot.
+ * checkpoint snapshots every game so the log can be cut short.
+ * <p/>
+ * On a node of a cluster (see Gateway), the store gives out only IDs that are this node's under
+ * the current HashRing: IDs congruent to the node's ID modulo HashRing.MAX_NODES, so no other
+ * node ever gives out the same one, and of those only the ones the ring gives this node. When
+ * the ring changes, handOff freezes the sessions that now belong elsewhere and hands them over
+ * as encoded games; the node that owns them adopts them, and release closes them here once
+ * that node has them on disk.
+ */
+public class SessionStore
+{
+    private static final int STRIPE_COUNT = 256;
+
+    // how many idle timeouts the players of a recovered session have to join it again
+    private static final int CLAIM_IDLE_PERIODS = 10;
+
+    private final Stripe[] mStripes = new Stripe[STRIPE_COUNT];
+    private final AtomicLong mNextID = new AtomicLong (1);
+    private final Executor mExecutor;
+    private final ComputerPlayerPool mComputerPlayers;
+    private final Leaderboard mLeaderboard;
+    private final MoveLog mLog;
+    private final TimerWheel mIdleTimer;
+    private final int mIdleTicks;
+
+    // recovered sessions nobody may have joined yet, and when to look at them next (tick only)
+    private long[] mUnclaimed = new long[0];
+    private int mUnclaimedCount, mUnclaimedCheckTick;
+
+    // held while an ID is given out and its session added, so a new ring (handOff) sees every
+    // session given out under the old one
+    private final Object mRingLock = new Object ();
+    private volatile HashRing mRing;
+    private int mNodeID;
+
+    /**
+     * @param expectedSessions how many sessions to size the tables for
+     * @param executor         what runs the sessions' tasks
+     * @param idleTicks        how many calls to tick without a request before a session
+     *                         hibernates
+     * @param computerPlayers  who chooses the computer's moves in games against it
+     * @param leaderboard      where finished games between two players are counted
+     * @param logDirectory     where to keep the move log, and recover it from; null for none
+     * @throws IOException if the log could not be recovered or started
+     */
+    public SessionStore (int expectedSessions, Executor executor, int idleTicks,
+                         ComputerPlayerPool computerPlayers, Leaderboard leaderboard,
+                         File logDirectory) throws IOException
+    {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Stripe (expectedSessions / STRIPE_COUNT);
+        }
+        mExecutor = executor;
+        mComputerPlayers = computerPlayers;
+        mLeaderboard = leaderboard;
+        mIdleTicks = idleTicks;
+        mIdleTimer = new TimerWheel (idleTicks + 1);
+
+        if (logDirectory == null) {
+            mLog = null;
+            return;
+        }
+        MoveLog.Recovery recovery = MoveLog.recover (logDirectory);
+        mUnclaimed = new long[recovery.getGames ().size ()];
+        for (MoveLog.RecoveredGame recovered : recovery.getGames ()) {
+            restore (recovered);
+            mUnclaimed[mUnclaimedCount++] = recovered.getSessionID ();
+        }
+        mUnclaimedCheckTick = CLAIM_IDLE_PERIODS * idleTicks;
+        mNextID.set (recovery.getNextSessionID ());
+        mLog = new MoveLog (logDirectory, recovery.getEndPosition ());
+    }
+
+    private Stripe stripeFor (long id)
+    {
+        return mStripes[LongHashTable.stripeOf (id, STRIPE_COUNT)];
+    }
+
+    ComputerPlayerPool getComputerPlayers ()
+    {
+        return mComputerPlayers;
+    }
+
+    Leaderboard getLeaderboard ()
+    {
+        return mLeaderboard;
+    }
+
+    /**
+     * @return the move log, or null if the sessions are not logged
+     */
+    MoveLog getLog ()
+    {
+        return mLog;
+    }
+
+    /**
+     * @param playerO        null to wait for somebody to join, or for the computer
+     * @param versusComputer whether the computer plays O
+     */
+    GameSession create (int rowsOrColumns, Connection playerX, Connection playerO,
+                        boolean versusComputer)
+    {
+        GameSession session;
+        long id;
+        synchronized (mRingLock) {
+            id = nextID ();
+            session = new GameSession (id, new TicTacToe (rowsOrColumns), playerX, playerO,
+                                       versusComputer, this, mExecutor);
+            session.setLastActiveTick (mIdleTimer.getTick ());
+            if (mLog != null) {
+                session.setLogPosition (mLog.create (id, rowsOrColumns, versusComputer));
+            }
+
+            Stripe stripe = stripeFor (id);
+            synchronized (stripe) {
+                int slot = stripe.add (id);
+                stripe.mLive[slot] = session;
+                stripe.mVersusComputer[slot] = versusComputer;
+            }
+        }
+        mIdleTimer.schedule (id, mIdleTicks);
+        ServerMetrics.SESSIONS_CREATED.increment ();
+        return session;
+    }
+
+    /**
+     * @return the next ID this node may give out (mRingLock held)
+     */
+    private long nextID ()
+    {
+        HashRing ring = mRing;
+        if (ring == null) {
+            return mNextID.getAndIncrement ();
+        }
+        while (true) {
+            long next = mNextID.get ();
+            long id = next + Math.floorMod (mNodeID - next, (long) HashRing.MAX_NODES);
+            if (mNextID.compareAndSet (next, id + 1) && ring.ownerOf (id) == mNodeID) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Queues a task on a session, reviving it first if it hibernated
+     *
+     * @return false if there is no such session
+     */
+    boolean submit (long id, GameSession.Task task)
+    {
+        Stripe stripe = stripeFor (id);
+        boolean revived;
+        synchronized (stripe) {
+            int slot = stripe.slotOf (id);
+            if (slot < 0) {
+                return false;
+            }
+
+            GameSession session = stripe.mLive[slot];
+            revived = session == null;
+            if (revived) {
+                session = revive (stripe, slot, id);
+            }
+            session.setLastActiveTick (mIdleTimer.getTick ());
+            session.submit (task);
+        }
+
+        if (revived) {
+            mIdleTimer.schedule (id, mIdleTicks);
+        }
+        return true;
+    }
+
+    /**
+     * Called by a session's last task, once both players have left
+     */
+    void remove (long id)
+    {
+        Stripe stripe = stripeFor (id);
+        synchronized (stripe) {
+            if (stripe.slotOf (id) < 0) {
+                return;
+            }
+            stripe.remove (id);
+        }
+        if (mLog != null) {
+            mLog.close (id);
+        }
+        ServerMetrics.SESSIONS_CLOSED.increment ();
+    }
+
+    /**
+     * Forgets a session that moved to another node, without closing it (its freeze task)
+     */
+    void detach (long id)
+    {
+        Stripe stripe = stripeFor (id);
+        synchronized (stripe) {
+            if (stripe.slotOf (id) >= 0) {
+                stripe.remove (id);
+            }
+        }
+        ServerMetrics.SESSIONS_MIGRATED_OUT.increment ();
+    }
+
+    /**
+     * Advances the idle timer one tick and hibernates the sessions that have been idle since
+     * idleTicks ticks ago, and closes recovered sessions nobody joined in time; call at a
+     * steady rate from one thread
+     */
+    public void tick ()
+    {
+        if (mUnclaimedCount > 0 && mIdleTimer.getTick () >= mUnclaimedCheckTick) {
+            closeUnclaimed ();
+        }
+        for (long id : mIdleTimer.advance ()) {
+            Stripe stripe = stripeFor (id);
+            int idleFor;
+            synchronized (stripe) {
+                int slot = stripe.slotOf (id);
+                GameSession session = slot < 0 ? null : stripe.mLive[slot];
+                if (session == null) {
+                    continue;       // closed or already hibernating
+                }
+
+                idleFor = mIdleTimer.getTick () - session.getLastActiveTick ();
+                if (idleFor >= mIdleTicks && session.isIdle () && !session.hasSpectators ()) {
+                    hibernate (stripe, slot, session);
+                    continue;
+                }
+            }
+            // busy since it was scheduled: look again idleTicks after its last request
+            mIdleTimer.schedule (id, Math.max (1, mIdleTicks - idleFor));
+        }
+    }
+
+    /**
+     * Closes the recovered sessions that are hibernating without players. One that is awake
+     * (a spectator, or the computer's move) is looked at again an idle timeout later; one with
+     * a player has been claimed.
+     */
+    private void closeUnclaimed ()
+    {
+        int remaining = 0;
+        for (int i = 0; i < mUnclaimedCount; i++) {
+            long id = mUnclaimed[i];
+            Stripe stripe = stripeFor (id);
+            synchronized (stripe) {
+                int slot = stripe.slotOf (id);
+                if (slot < 0) {
+                    continue;       // closed already
+                }
+                if (stripe.mLive[slot] != null) {
+                    mUnclaimed[remaining++] = id;
+                    continue;
+                }
+                if (stripe.mPlayersX[slot] != null || stripe.mPlayersO[slot] != null) {
+                    continue;       // claimed
+                }
+                stripe.remove (id);
+            }
+            mLog.close (id);
+            ServerMetrics.LOG_UNCLAIMED_SESSIONS.increment ();
+            ServerMetrics.SESSIONS_CLOSED.increment ();
+        }
+        mUnclaimedCount = remaining;
+        mUnclaimedCheckTick = mIdleTimer.getTick () + mIdleTicks;
+    }
+
+    /**
+     * @return how many sessions are open, hibernating or not
+     */
+    public int size ()
+    {
+        int size = 0;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                size += stripe.mIndex.size ();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return how many of the open sessions are hibernating
+     */
+    public int getHibernatingCount ()
+    {
+        int count = 0;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                count += stripe.mHibernatingCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes a snapshot of every game to the move log, so the log before it can be deleted;
+     * sessions go on meanwhile. Call from one thread at a time, not a session's.
+     */
+    public void checkpoint () throws IOException, InterruptedException
+    {
+        if (mLog == null) {
+            return;
+        }
+
+        long startNanos = System.nanoTime ();
+        MoveLog.Snapshot snapshot = mLog.beginSnapshot ();
+        Semaphore captured = new Semaphore (0);
+        int live = 0;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                for (int slot = 0; slot < stripe.mUsedSlots; slot++) {
+                    GameSession session = stripe.mLive[slot];
+                    if (session != null) {
+                        // the game is the session's tasks' to read
+                        live++;
+                        session.submit (each -> {
+                            snapshot.add (each.getID (), each.isVersusComputer (),
+                                          each.getLogPosition (), encode (each.getGame ()));
+                            captured.release ();
+                        });
+                    }
+                    else if (stripe.mGames[slot] != null) {
+                        snapshot.add (stripe.mIDs[slot], stripe.mVersusComputer[slot],
+                                      stripe.mLogPositions[slot], stripe.mGames[slot]);
+                    }
+                }
+            }
+        }
+        captured.acquire (live);
+
+        mLog.finishSnapshot (snapshot, mNextID.get ());
+        ServerMetrics.LOG_SNAPSHOT.recordSince (startNanos);
+    }
+
+    /**
+     * Writes what is left in the move log and closes it
+     */
+    public void closeLog () throws InterruptedException
+    {
+        if (mLog != null) {
+            mLog.stop ();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Clustering (see ClusterNode)
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Joins a cluster, or takes in a change of its members that moves no session from here
+     *
+     * @param nodeID this node's ID on the ring
+     */
+    void setRing (HashRing ring, int nodeID)
+    {
+        synchronized (mRingLock) {
+            mRing = ring;
+            mNodeID = nodeID;
+        }
+    }
+
+    /**
+     * Takes in a new ring and freezes every session it gives to another node, after whatever
+     * its tasks queued so far; the store forgets them, but they stay open in the log until
+     * release. Call from one thread at a time, not a session's.
+     *
+     * @return the frozen sessions
+     */
+    List<MigratingSession> handOff (HashRing ring, int nodeID) throws InterruptedException
+    {
+        setRing (ring, nodeID);
+
+        List<MigratingSession> leaving = Collections.synchronizedList (new ArrayList<> ());
+        Semaphore frozen = new Semaphore (0);
+        int live = 0;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                for (int slot = 0; slot < stripe.mUsedSlots; slot++) {
+                    long id = stripe.mIDs[slot];
+                    GameSession session = stripe.mLive[slot];
+                    if (session == null && stripe.mGames[slot] == null
+                            || ring.ownerOf (id) == nodeID) {
+                        continue;       // a free slot, or staying
+                    }
+                    if (session != null) {
+                        live++;
+                        session.submit (each -> {
+                            leaving.add (each.freeze ());
+                            frozen.release ();
+                        });
+                    }
+                    else {
+                        leaving.add (new MigratingSession (
+                                id, stripe.mVersusComputer[slot], clientOf (stripe.mPlayersX[slot]),
+                                clientOf (stripe.mPlayersO[slot]), stripe.mGames[slot]));
+                        stripe.remove (id);
+                        ServerMetrics.SESSIONS_MIGRATED_OUT.increment ();
+                    }
+                }
+            }
+        }
+        frozen.acquire (live);
+        return leaving;
+    }
+
+    /**
+     * Takes over a session another node handed off, hibernating, with whichever of its players
+     * are connected here already
+     *
+     * @param playerX, playerO the connections of its players' gateway clients, or null
+     * @return the position of its last log record, 0 without a log; -1 if the session is here
+     * already and was left alone
+     */
+    long adopt (MigratingSession migrant, Connection playerX, Connection playerO)
+    {
+        long id = migrant.getSessionID ();
+        TicTacToe game = decode (id, migrant.getGame ());
+        Stripe stripe = stripeFor (id);
+        long position = 0;
+        synchronized (stripe) {
+            if (stripe.slotOf (id) >= 0) {
+                return -1;
+            }
+            if (mLog != null) {
+                position = mLog.adopt (id, game, migrant.isVersusComputer ());
+            }
+            int slot = stripe.add (id);
+            stripe.mGames[slot] = migrant.getGame ();
+            stripe.mPlayersX[slot] = playerX;
+            stripe.mPlayersO[slot] = playerO;
+            stripe.mVersusComputer[slot] = migrant.isVersusComputer ();
+            stripe.mLogPositions[slot] = position;
+            stripe.mHibernatingCount++;
+        }
+        ServerMetrics.SESSIONS_MIGRATED_IN.increment ();
+
+        if (migrant.isVersusComputer () && !game.isGameOver ()
+                && game.getCurrentPlayer () == PlayerTurn.O) {
+            // the computer's move was being chosen on the node the session left
+            mComputerPlayers.request (id, game);
+        }
+        return position;
+    }
+
+    /**
+     * Closes in the log the sessions handOff froze, now that another node has them
+     *
+     * @return the position of the last record, 0 without a log
+     */
+    long release (long[] ids)
+    {
+        long position = 0;
+        if (mLog != null) {
+            for (long id : ids) {
+                position = mLog.close (id);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return the gateway client a player's connection carries; 0 for none or no player
+     */
+    static long clientOf (Connection player)
+    {
+        return player == null ? 0 : player.getClientID ();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Hibernation (stripe lock held)
+    // ---------------------------------------------------------------------------------------------
+
+    private static void hibernate (Stripe stripe, int slot, GameSession session)
+    {
+        stripe.mLive[slot] = null;
+        stripe.mGames[slot] = encode (session.getGame ());
+        stripe.mPlayersX[slot] = session.getPlayerX ();
+        stripe.mPlayersO[slot] = session.getPlayerO ();
+        stripe.mLogPositions[slot] = session.getLogPosition ();
+        stripe.mHibernatingCount++;
+        ServerMetrics.SESSIONS_HIBERNATED.increment ();
+    }
+
+    private GameSession revive (Stripe stripe, int slot, long id)
+    {
+        TicTacToe game = decode (id, stripe.mGames[slot]);
+        GameSession session = new GameSession (id, game, stripe.mPlayersX[slot],
+                                               stripe.mPlayersO[slot],
+                                               stripe.mVersusComputer[slot], this, mExecutor);
+        session.setLogPosition (stripe.mLogPositions[slot]);
+        stripe.mLive[slot] = session;
+        stripe.clearHibernated (slot);
+        stripe.mHibernatingCount--;
+        ServerMetrics.SESSIONS_REVIVED.increment ();
+        return session;
+    }
+
+    /**
+     * Adds a session recovered from the log, hibernating and without players (the constructor)
+     */
+    private void restore (MoveLog.RecoveredGame recovered)
+    {
+        long id = recovered.getSessionID ();
+        Stripe stripe = stripeFor (id);
+        synchronized (stripe) {
+            int slot = stripe.add (id);
+            stripe.mGames[slot] = encode (recovered.getGame ());
+            stripe.mVersusComputer[slot] = recovered.isVersusComputer ();
+            stripe.mLogPositions[slot] = recovered.getPosition ();
+            stripe.mHibernatingCount++;
+        }
+    }
+
+    private static TicTacToe decode (long id, byte[] encoded)
+    {
+        try {
+            return TicTacToe.readFrom (new DataInputStream (new ByteArrayInputStream (encoded)));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException ("Encoded game " + id + " is unreadable", e);
+        }
+    }
+
+    static byte[] encode (TicTacToe game)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream (32);
+        try {
+            game.writeTo (new DataOutputStream (bytes));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException ("In-memory stream failed", e);
+        }
+        return bytes.toByteArray ();
+    }
+
+    /**
+     * One lock's share of the sessions. Slot i holds either a live session (mLive[i]) or a
+     * hibernating one (mGames[i], its players and its last log position), its ID and whether
+     * the computer plays in it; freed slots are reused.
+     */
+    private static final class Stripe
+    {
+        private final LongHashTable mIndex;
+        private long[] mIDs;
+        private GameSession[] mLive;
+        private byte[][] mGames;
+        private Connection[] mPlayersX, mPlayersO;
+        private long[] mLogPositions;
+        private boolean[] mVersusComputer;
+        private int[] mFreeSlots;
+        private int mFreeCount, mUsedSlots, mHibernatingCount;
+
+        Stripe (int expectedSessions)
+        {
+            int capacity = Math.max (16, expectedSessions);
+            mIndex = new LongHashTable (capacity);
+            mIDs = new long[capacity];
+            mLive = new GameSession[capacity];
+            mGames = new byte[capacity][];
+            mPlayersX = new Connection[capacity];
+            mPlayersO = new Connection[capacity];
+            mLogPositions = new long[capacity];
+            mVersusComputer = new boolean[capacity];
+            mFreeSlots = new int[capacity];
+        }
+
+        /**
+         * @return the slot of that session, or -1
+         */
+        int slotOf (long id)
+        {
+            return mIndex.get (id, -1);
+        }
+
+        /**
+         * Gives a new session an empty slot
+         *
+         * @return the slot
+         */
+        int add (long id)
+        {
+            int slot;
+            if (mFreeCount > 0) {
+                slot = mFreeSlots[--mFreeCount];
+            }
+            else {
+                if (mUsedSlots == mLive.length) {
+                    int capacity = mLive.length * 2;
+                    mIDs = Arrays.copyOf (mIDs, capacity);
+                    mLive = Arrays.copyOf (mLive, capacity);
+                    mGames = Arrays.copyOf (mGames, capacity);
+                    mPlayersX = Arrays.copyOf (mPlayersX, capacity);
+                    mPlayersO = Arrays.copyOf (mPlayersO, capacity);
+                    mLogPositions = Arrays.copyOf (mLogPositions, capacity);
+                    mVersusComputer = Arrays.copyOf (mVersusComputer, capacity);
+                    mFreeSlots = Arrays.copyOf (mFreeSlots, capacity);
+                }
+                slot = mUsedSlots++;
+            }
+            mIndex.put (id, slot);
+            mIDs[slot] = id;
+            return slot;
+        }
+
+        void remove (long id)
+        {
+            int slot = mIndex.get (id, -1);
+            mIndex.remove (id);
+            if (mLive[slot] == null) {
+                mHibernatingCount--;
+            }
+            mLive[slot] = null;
+            mVersusComputer[slot] = false;
+            clearHibernated (slot);
+            mFreeSlots[mFreeCount++] = slot;
+        }
+
+        void clearHibernated (int slot)
+        {
+            mGames[slot] = null;
+            mPlayersX[slot] = null;
+            mPlayersO[slot] = null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One connection watching one session. The session offers it the frames it encoded once for
+ * all its spectators; the connection writes them in order and reports each one written, so the
+ * frames still queued for this spectator are counted without a queue of its own.
+ * <p/>
+ * A spectator with MAX_QUEUED_FRAMES unwritten is lagging: it is offered nothing more, however
+ * many moves are made, until its connection has written what it has. Then the session sends it
+ * one SNAPSHOT of the game as it is by then (catchUp), and it is back in step. A slow client
+ * thus costs the session a counter check per move rather than a growing buffer.
+ */
+final class Spectator
+{
+    static final int MAX_QUEUED_FRAMES = 64;
+
+    private final Connection mConnection;
+    private final long mSessionID;
+    private final SessionStore mStore;
+
+    private final AtomicInteger mQueuedFrames = new AtomicInteger ();
+    private final AtomicBoolean mLagging = new AtomicBoolean ();
+
+    Spectator (Connection connection, long sessionID, SessionStore store)
+    {
+        mConnection = connection;
+        mSessionID = sessionID;
+        mStore = store;
+    }
+
+    Connection getConnection ()
+    {
+        return mConnection;
+    }
+
+    /**
+     * Queues frames for the connection to write, unless too many are queued already; session
+     * tasks only
+     *
+     * @param frames shared by every spectator; not modified
+     * @return false if they were dropped because the spectator is lagging
+     */
+    boolean offer (ByteBuffer frames)
+    {
+        if (mLagging.get ()) {
+            ServerMetrics.SPECTATOR_FRAMES_DROPPED.increment ();
+            return false;
+        }
+        if (mQueuedFrames.get () >= MAX_QUEUED_FRAMES) {
+            mLagging.set (true);
+            ServerMetrics.SPECTATOR_FRAMES_DROPPED.increment ();
+            return false;
+        }
+
+        mQueuedFrames.incrementAndGet ();
+        mConnection.sendShared (this, frames);
+        ServerMetrics.SPECTATOR_FRAMES_SHARED.increment ();
+        return true;
+    }
+
+    /**
+     * @return whether the connection has written everything offered so far
+     */
+    boolean isDrained ()
+    {
+        return mQueuedFrames.get () == 0;
+    }
+
+    /**
+     * Ends lagging, once; whoever gets true sends the snapshot
+     */
+    boolean resume ()
+    {
+        return mLagging.compareAndSet (true, false);
+    }
+
+    /**
+     * Called by the connection (selector thread) once it has written one offer
+     */
+    void onFramesWritten ()
+    {
+        // lagging set after this check is caught by the session itself (see GameSession)
+        if (mQueuedFrames.decrementAndGet () == 0 && mLagging.get ()) {
+            mStore.submit (mSessionID, session -> session.catchUp (this));
+        }
+    }
+}
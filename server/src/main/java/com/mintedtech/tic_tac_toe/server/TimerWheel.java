@@ -0,0 +1,72 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timer wheel of long IDs: a ring of slots, one per tick, each a plain array of the IDs
+ * due at that tick, so scheduling is an append and each tick looks only at its own slot
+ * however many IDs are waiting.
+ * <p/>
+ * Timers cannot be cancelled or moved: whoever handles an ID that comes due checks whether it
+ * is really due yet and, if not, schedules it again. Delays beyond one turn of the wheel are
+ * cut to one turn for the same reason.
+ */
+final class TimerWheel
+{
+    private final long[][] mSlots;
+    private final int[] mSlotSizes;
+    private volatile int mTick;
+
+    /**
+     * @param slotCount one more than the longest delay, in ticks, that fires on time
+     */
+    TimerWheel (int slotCount)
+    {
+        mSlots = new long[slotCount][8];
+        mSlotSizes = new int[slotCount];
+    }
+
+    /**
+     * @return how many times advance has been called; any thread
+     */
+    int getTick ()
+    {
+        return mTick;
+    }
+
+    /**
+     * @param delayTicks 1 fires at the next advance
+     */
+    synchronized void schedule (long id, int delayTicks)
+    {
+        int delay = Math.max (1, Math.min (delayTicks, mSlots.length - 1));
+        int slot = (mTick + delay) % mSlots.length;
+
+        int size = mSlotSizes[slot];
+        if (size == mSlots[slot].length) {
+            mSlots[slot] = Arrays.copyOf (mSlots[slot], size * 2);
+        }
+        mSlots[slot][size] = id;
+        mSlotSizes[slot] = size + 1;
+    }
+
+    /**
+     * Moves on one tick
+     *
+     * @return the IDs that came due, which the caller now owns (they are no longer scheduled)
+     */
+    synchronized long[] advance ()
+    {
+        int tick = mTick + 1;
+        int slot = tick % mSlots.length;
+        long[] due = Arrays.copyOf (mSlots[slot], mSlotSizes[slot]);
+
+        mSlotSizes[slot] = 0;
+        if (mSlots[slot].length > 1024 && due.length < mSlots[slot].length / 4) {
+            // a burst has passed; give back most of its memory
+            mSlots[slot] = new long[mSlots[slot].length / 2];
+        }
+        mTick = tick;
+        return due;
+    }
+}
@@ -0,0 +1,552 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.ai.RandomStrategy;
+import com.mintedtech.tic_tac_toe.ai.SearchStrategy;
+import com.mintedtech.tic_tac_toe.enums.PlayerTurn;
+import com.mintedtech.tic_tac_toe.interfaces.ComputerStrategy;
+import com.mintedtech.tic_tac_toe.models.TicTacToe;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays computer strategies against each other to tell which is stronger: a round robin, in
+ * which every two players meet for the same number of games, or a Swiss tournament, in which
+ * each round pairs players with like scores who have not met yet. Games are played on every
+ * core at once. A pairing's games come in twos, colours swapped and the seed the same, so
+ * neither side gains from moving first or from luck the other did not get; every seed follows
+ * from --seed, so a tournament replays exactly as long as no search is cut short by its
+ * deadline (--move-millis).
+ * <p/>
+ * Results are rated as they come in, but in the order the games were scheduled rather than the
+ * order they finish, so the ratings too are the same on any number of threads. Each player has
+ * a Glicko rating, every game its own rating period: a rating and its deviation (RD), which
+ * shrinks as games are played, the 95% interval being the rating +- 1.96 RD. For every two
+ * players that met, the Elo difference their score implies is given with its 95% interval, and
+ * the likelihood of superiority (LOS): the chance, given their wins and losses, that the first
+ * is the stronger. The interval is Wilson's for the score, a draw counting half a win: it is
+ * never narrower than a binomial's, so it errs wide when many games are drawn, but a handful of
+ * games, all drawn or all won, cannot make it look certain. A new engine is stronger than an
+ * old one when their interval lies above zero, or the LOS is near enough to 100%; draws do not
+ * count towards the LOS.
+ * <p/>
+ * The players registered are random, the picker MainActivity's computer turn plays, and
+ * search-n, a SearchStrategy n plies deep; others are added with addPlayer.
+ * <p/>
+ * Arguments: [--players name,...] [--format round-robin|swiss] [--games n] [--rounds n]
+ * [--size n] [--threads n] [--move-millis n] [--seed n]
+ */
+public class Tournament
+{
+    public static final double INITIAL_RATING = 1500, INITIAL_DEVIATION = 350;
+
+    private static final double Q = Math.log (10) / 400;
+    private static final double Z_95 = 1.959964;
+    private static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos (1);
+
+    private final int mRowsOrColumns;
+    private final long mMoveNanos;
+    private final long mSeed;
+    private final ExecutorService mExecutor;
+    private final List<Player> mPlayers = new ArrayList<> ();
+
+    // per two players, by index: mWins[a][b] games a won against b, mDraws[a][b] == mDraws[b][a]
+    private int[][] mWins, mDraws;
+    private int mGamesScheduled;
+    private long mStartNanos;
+
+    /**
+     * @param rowsOrColumns size of the board
+     * @param threads       games played at once
+     * @param moveMillis    each move's deadline
+     * @param seed          the seed every game's seed follows from
+     */
+    public Tournament (int rowsOrColumns, int threads, long moveMillis, long seed)
+    {
+        mRowsOrColumns = rowsOrColumns;
+        mMoveNanos = TimeUnit.MILLISECONDS.toNanos (moveMillis);
+        mSeed = seed;
+        AtomicInteger threadNumber = new AtomicInteger ();
+        mExecutor = Executors.newFixedThreadPool (threads, runnable -> {
+            Thread thread = new Thread (runnable, "tournament-" + threadNumber.incrementAndGet ());
+            thread.setDaemon (true);
+            return thread;
+        });
+    }
+
+    /**
+     * The strategies a tournament can be made of, by name
+     */
+    public static Map<String, ComputerStrategy> getRegisteredStrategies ()
+    {
+        Map<String, ComputerStrategy> strategies = new LinkedHashMap<> ();
+        strategies.put ("random", new RandomStrategy ());
+        for (int depth : new int[] {1, 2, 4, 9}) {
+            strategies.put ("search-" + depth, new SearchStrategy (depth));
+        }
+        return strategies;
+    }
+
+    /**
+     * Adds a player; all players are added before the first game
+     *
+     * @param strategy called from several threads at once, each on a game of its own
+     */
+    public void addPlayer (String name, ComputerStrategy strategy)
+    {
+        if (mWins != null) {
+            throw new IllegalStateException ("The tournament has started");
+        }
+        mPlayers.add (new Player (name, strategy));
+    }
+
+    /**
+     * Every two players play gamesPerPair games, rounded up to an even number. The pairs take
+     * turns, two games at a time, so every rating moves from the start.
+     */
+    public void playRoundRobin (int gamesPerPair) throws InterruptedException
+    {
+        start ();
+        List<int[]> pairs = new ArrayList<> ();
+        for (int a = 0; a < mPlayers.size (); a++) {
+            for (int b = a + 1; b < mPlayers.size (); b++) {
+                pairs.add (new int[] {a, b});
+            }
+        }
+        play (schedule (pairs, gamesPerPair));
+    }
+
+    /**
+     * Plays rounds of a Swiss tournament, each pairing playing gamesPerPairing games, rounded up
+     * to an even number. With an odd number of players the lowest placed who has not had a bye
+     * sits the round out.
+     */
+    public void playSwiss (int rounds, int gamesPerPairing) throws InterruptedException
+    {
+        start ();
+        for (int round = 1; round <= rounds; round++) {
+            play (schedule (pairSwiss (), gamesPerPairing));
+            System.out.printf (Locale.US, "after round %d:%n", round);
+            printStandings (System.out);
+        }
+    }
+
+    public void shutdown ()
+    {
+        mExecutor.shutdownNow ();
+    }
+
+    private void start ()
+    {
+        if (mPlayers.size () < 2) {
+            throw new IllegalStateException ("A tournament needs two players");
+        }
+        if (mWins == null) {
+            mWins = new int[mPlayers.size ()][mPlayers.size ()];
+            mDraws = new int[mPlayers.size ()][mPlayers.size ()];
+            mStartNanos = System.nanoTime ();
+        }
+    }
+
+    /**
+     * Pairs players by score, then rating, each with the next below them they have not met, or
+     * failing that with the next below them
+     */
+    private List<int[]> pairSwiss ()
+    {
+        int count = mPlayers.size ();
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort (order, (a, b) -> {
+            Player first = mPlayers.get (a), second = mPlayers.get (b);
+            int byScore = Double.compare (second.getScore (), first.getScore ());
+            return byScore != 0 ? byScore : Double.compare (second.mRating, first.mRating);
+        });
+
+        boolean[] paired = new boolean[count];
+        if (count % 2 == 1) {
+            int bye = order[count - 1];
+            for (int i = count - 1; i >= 0; i--) {
+                if (!mPlayers.get (order[i]).mHadBye) {
+                    bye = order[i];
+                    break;
+                }
+            }
+            mPlayers.get (bye).mHadBye = true;
+            paired[bye] = true;
+        }
+
+        List<int[]> pairs = new ArrayList<> ();
+        for (int i = 0; i < count; i++) {
+            int a = order[i];
+            if (paired[a]) {
+                continue;
+            }
+            int b = -1;
+            for (int j = i + 1; j < count; j++) {
+                int candidate = order[j];
+                if (paired[candidate]) {
+                    continue;
+                }
+                if (b < 0) {
+                    b = candidate;
+                }
+                if (getGames (a, candidate) == 0) {
+                    b = candidate;
+                    break;
+                }
+            }
+            paired[a] = paired[b] = true;
+            pairs.add (new int[] {a, b});
+        }
+        return pairs;
+    }
+
+    private List<Game> schedule (List<int[]> pairs, int gamesPerPair)
+    {
+        List<Game> games = new ArrayList<> ();
+        for (int i = 0; i < gamesPerPair; i += 2) {
+            for (int[] pair : pairs) {
+                // the two games of a twin share a seed
+                long seed = mix (mSeed + (mGamesScheduled / 2 + 1) * 0x9E3779B97F4A7C15L);
+                for (int colour = 0; colour < 2; colour++) {
+                    games.add (new Game (games.size (), pair[colour], pair[1 - colour], seed));
+                    mGamesScheduled++;
+                }
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Plays the games on the executor and rates them in order as they finish
+     */
+    private void play (List<Game> games) throws InterruptedException
+    {
+        ExecutorCompletionService<Game> completion = new ExecutorCompletionService<> (mExecutor);
+        for (Game game : games) {
+            completion.submit (() -> {
+                game.mWinner = play (game);
+                return game;
+            });
+        }
+
+        Game[] finished = new Game[games.size ()];
+        int rated = 0;
+        long nextReport = System.nanoTime () + REPORT_NANOS;
+        while (rated < finished.length) {
+            Future<Game> future = completion.poll (nextReport - System.nanoTime (),
+                                                   TimeUnit.NANOSECONDS);
+            if (future != null) {
+                Game game = get (future);
+                finished[game.mIndex] = game;
+                while (rated < finished.length && finished[rated] != null) {
+                    rate (finished[rated]);
+                    finished[rated++] = null;
+                }
+            }
+            if (System.nanoTime () - nextReport >= 0) {
+                reportProgress (rated, games.size ());
+                nextReport += REPORT_NANOS;
+            }
+        }
+    }
+
+    private static Game get (Future<Game> future) throws InterruptedException
+    {
+        try {
+            return future.get ();
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException ("A game failed", e.getCause ());
+        }
+    }
+
+    private PlayerTurn play (Game game)
+    {
+        TicTacToe board = new TicTacToe (mRowsOrColumns);
+        Random random = new Random (game.mSeed);
+        ComputerStrategy x = mPlayers.get (game.mX).mStrategy;
+        ComputerStrategy o = mPlayers.get (game.mO).mStrategy;
+        while (!board.isGameOver ()) {
+            ComputerStrategy mover = board.getCurrentPlayer () == PlayerTurn.X ? x : o;
+            int space = mover.chooseMove (board, random, System.nanoTime () + mMoveNanos);
+            board.attemptTurn (space / mRowsOrColumns, space % mRowsOrColumns);
+        }
+        // a finished game keeps its last mover as the current player
+        return board.isWinner () ? board.getCurrentPlayer () : PlayerTurn.None;
+    }
+
+    private void rate (Game game)
+    {
+        Player x = mPlayers.get (game.mX), o = mPlayers.get (game.mO);
+        double scoreX;
+        if (game.mWinner == PlayerTurn.X) {
+            scoreX = 1;
+            x.mWins++;
+            o.mLosses++;
+            mWins[game.mX][game.mO]++;
+        }
+        else if (game.mWinner == PlayerTurn.O) {
+            scoreX = 0;
+            o.mWins++;
+            x.mLosses++;
+            mWins[game.mO][game.mX]++;
+        }
+        else {
+            scoreX = 0.5;
+            x.mDraws++;
+            o.mDraws++;
+            mDraws[game.mX][game.mO]++;
+            mDraws[game.mO][game.mX]++;
+        }
+
+        // both from their ratings before the game
+        double ratingX = x.mRating, deviationX = x.mDeviation;
+        x.rate (o.mRating, o.mDeviation, scoreX);
+        o.rate (ratingX, deviationX, 1 - scoreX);
+    }
+
+    private void reportProgress (int rated, int games)
+    {
+        Player leader = mPlayers.get (0);
+        for (Player player : mPlayers) {
+            if (player.mRating > leader.mRating) {
+                leader = player;
+            }
+        }
+        double seconds = (System.nanoTime () - mStartNanos) / 1e9;
+        int played = 0;
+        for (Player player : mPlayers) {
+            played += player.getGames ();
+        }
+        System.out.printf (Locale.US, "%5.0fs games=%d/%d games/s=%.0f leader=%s %.0f +-%.0f%n",
+                           seconds, rated, games, played / 2 / seconds, leader.mName,
+                           leader.mRating, Z_95 * leader.mDeviation);
+    }
+
+    private int getGames (int a, int b)
+    {
+        return mWins[a][b] + mWins[b][a] + mDraws[a][b];
+    }
+
+    /**
+     * Prints the players by rating, then every two that met, the stronger first
+     */
+    public void printStandings (PrintStream out)
+    {
+        List<Player> byRating = new ArrayList<> (mPlayers);
+        byRating.sort ((a, b) -> Double.compare (b.mRating, a.mRating));
+        out.printf (Locale.US, "%-12s %7s %6s %7s %6s %6s %6s %6s%n", "player", "rating",
+                    "95%", "games", "wins", "draws", "losses", "score");
+        for (Player player : byRating) {
+            out.printf (Locale.US, "%-12s %7.0f %6s %7d %6d %6d %6d %5.1f%%%n", player.mName,
+                        player.mRating, "+-" + Math.round (Z_95 * player.mDeviation),
+                        player.getGames (), player.mWins, player.mDraws, player.mLosses,
+                        100 * player.getScore () / Math.max (1, player.getGames ()));
+        }
+
+        for (int i = 0; i < byRating.size (); i++) {
+            for (int j = i + 1; j < byRating.size (); j++) {
+                int a = mPlayers.indexOf (byRating.get (i));
+                int b = mPlayers.indexOf (byRating.get (j));
+                if (getGames (a, b) > 0) {
+                    printPair (out, a, b);
+                }
+            }
+        }
+    }
+
+    private void printPair (PrintStream out, int a, int b)
+    {
+        int wins = mWins[a][b], draws = mDraws[a][b], losses = mWins[b][a];
+        int games = wins + draws + losses;
+        double score = (wins + 0.5 * draws) / games;
+        // Wilson's interval: unlike score +- z * the sample's error, it does not shrink to
+        // nothing when every game ends the same
+        double zSquared = Z_95 * Z_95;
+        double centre = (score + zSquared / (2 * games)) / (1 + zSquared / games);
+        double halfWidth = Z_95 / (1 + zSquared / games)
+                           * Math.sqrt (score * (1 - score) / games
+                                        + zSquared / (4.0 * games * games));
+        double los = wins + losses == 0 ? 0.5
+                     : 0.5 * (1 + erf ((wins - losses) / Math.sqrt (2.0 * (wins + losses))));
+        out.printf (Locale.US, "%s vs %s: +%d =%d -%d (%.1f%%) elo %s [%s, %s] LOS %.1f%%%n",
+                    mPlayers.get (a).mName, mPlayers.get (b).mName, wins, draws, losses,
+                    100 * score, formatElo (score), formatElo (centre - halfWidth),
+                    formatElo (centre + halfWidth), 100 * los);
+    }
+
+    /**
+     * The Elo difference that makes score the expected one
+     */
+    private static String formatElo (double score)
+    {
+        if (score <= 0) {
+            return "-inf";
+        }
+        if (score >= 1) {
+            return "+inf";
+        }
+        return String.format (Locale.US, "%+.0f", 0.0 - 400 * Math.log10 (1 / score - 1));
+    }
+
+    /**
+     * Abramowitz and Stegun 7.1.26, good to 1.5e-7
+     */
+    private static double erf (double x)
+    {
+        double t = 1 / (1 + 0.3275911 * Math.abs (x));
+        double y = 1 - ((((1.061405429 * t - 1.453152027) * t + 1.421413741) * t - 0.284496736)
+                        * t + 0.254829592) * t * Math.exp (-x * x);
+        return x >= 0 ? y : -y;
+    }
+
+    /**
+     * SplitMix64's finalizer, as HashRing's: neighbouring games get unrelated seeds
+     */
+    private static long mix (long key)
+    {
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
+
+    private static final class Player
+    {
+        private final String mName;
+        private final ComputerStrategy mStrategy;
+        private double mRating = INITIAL_RATING, mDeviation = INITIAL_DEVIATION;
+        private int mWins, mDraws, mLosses;
+        private boolean mHadBye;
+
+        Player (String name, ComputerStrategy strategy)
+        {
+            mName = name;
+            mStrategy = strategy;
+        }
+
+        int getGames ()
+        {
+            return mWins + mDraws + mLosses;
+        }
+
+        double getScore ()
+        {
+            return mWins + 0.5 * mDraws;
+        }
+
+        /**
+         * Glicko's update for a rating period of one game, scoring score against an opponent
+         * rated rating +- deviation. Engines do not change between games, so RD never grows back.
+         */
+        void rate (double rating, double deviation, double score)
+        {
+            double g = 1 / Math.sqrt (1 + 3 * Q * Q * deviation * deviation / (Math.PI * Math.PI));
+            double expected = 1 / (1 + Math.pow (10, -g * (mRating - rating) / 400));
+            double precision = 1 / (mDeviation * mDeviation)
+                               + Q * Q * g * g * expected * (1 - expected);
+            mRating += Q / precision * g * (score - expected);
+            mDeviation = Math.sqrt (1 / precision);
+        }
+    }
+
+    private static final class Game
+    {
+        private final int mIndex, mX, mO;
+        private final long mSeed;
+        private volatile PlayerTurn mWinner;
+
+        Game (int index, int x, int o, long seed)
+        {
+            mIndex = index;
+            mX = x;
+            mO = o;
+            mSeed = seed;
+        }
+    }
+
+    public static void main (String[] args) throws InterruptedException
+    {
+        String players = null, format = "round-robin";
+        int games = 200, rounds = 5, size = 3;
+        int threads = Runtime.getRuntime ().availableProcessors ();
+        long moveMillis = 1000, seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--players":
+                    players = args[i + 1];
+                    break;
+                case "--format":
+                    format = args[i + 1];
+                    break;
+                case "--games":
+                    games = Integer.parseInt (args[i + 1]);
+                    break;
+                case "--rounds":
+                    rounds = Integer.parseInt (args[i + 1]);
+                    break;
+                case "--size":
+                    size = Integer.parseInt (args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt (args[i + 1]);
+                    break;
+                case "--move-millis":
+                    moveMillis = Long.parseLong (args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong (args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException ("Unknown option " + args[i]);
+            }
+        }
+
+        Map<String, ComputerStrategy> registered = getRegisteredStrategies ();
+        Tournament tournament = new Tournament (size, threads, moveMillis, seed);
+        for (String name : players == null ? registered.keySet ()
+                                           : Arrays.asList (players.split (","))) {
+            ComputerStrategy strategy = registered.get (name);
+            if (strategy == null) {
+                throw new IllegalArgumentException (
+                        "Unknown player " + name + ", not one of " + registered.keySet ());
+            }
+            tournament.addPlayer (name, strategy);
+        }
+
+        System.out.printf (Locale.US, "%s, %d x %d, %d threads, seed %d%n", format, size, size,
+                           threads, seed);
+        try {
+            switch (format) {
+                case "round-robin":
+                    tournament.playRoundRobin (games);
+                    tournament.printStandings (System.out);
+                    break;
+                case "swiss":
+                    tournament.playSwiss (rounds, games);
+                    break;
+                default:
+                    throw new IllegalArgumentException ("Unknown format " + format);
+            }
+        }
+        finally {
+            tournament.shutdown ();
+        }
+    }
+}
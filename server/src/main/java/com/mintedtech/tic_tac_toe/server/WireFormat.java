@@ -0,0 +1,164 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import com.mintedtech.tic_tac_toe.enums.PlayerTurn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The game server's binary protocol. Each direction is a stream of frames: a two-byte
+ * big-endian length, then that many bytes of messages back to back. A frame holds as many
+ * messages as its sender had ready, so a burst of moves or results costs one frame, and a
+ * client may pipeline any number of requests without waiting for their results.
+ * <p/>
+ * Every message starts with its type byte; numbers are unsigned varints (seven bits per byte,
+ * low bits first), so session IDs take as few bytes as they need and a cell index
+ * (row * size + col) takes one byte on boards up to 11 x 11.
+ * <pre>
+ * Requests                              Results
+ * NEW     seq size                      SESSION seq session size   (the creator plays X)
+ * JOIN    seq session                   JOINED  session            (the joiner plays O)
+ * MOVE    seq session ply cell          MOVED   session ply cell players
+ * RESTART seq session                   OVER    session winner     (after the last MOVED)
+ * LEAVE   seq session                   STARTED session
+ * FIND    seq size rating               LEFT    session
+ * WATCH   seq session                   MATCHED seq session size player
+ * UNWATCH seq session                   ERROR   seq session reason (session 0: none)
+ * COMPUTER seq size                     SNAPSHOT session size count cell...  (spectators)
+ * HELLO   seq client                    ENDED   session winner way count cell... (spectators)
+ * SYNC    seq                           SYNCED  seq
+ * RANK    seq                           RANKED  seq rank rating wins losses draws
+ * LEADERS seq count                     LEADERBOARD seq count (player rating)...
+ * </pre>
+ * seq is the client's own request number, echoed in SESSION, MATCHED, ERROR, RANKED and
+ * LEADERBOARD so it can tell which request they answer. FIND asks the matchmaker for an
+ * opponent of a similar rating (see Matchmaker); MATCHED names the new session and which side
+ * the client plays.
+ * COMPUTER opens a session against the computer, which plays O (see ComputerPlayerPool): it is
+ * answered with SESSION and JOINED at once, and the computer's moves come as MOVED.
+ * A server that logs its sessions (see MoveLog) comes back from a restart with their games
+ * but not their players: the first JOIN of such a session takes X's side, the second O's.
+ * <p/>
+ * HELLO and SYNC are a Gateway's. HELLO names the gateway's client whose requests the
+ * connection carries, so a session migrated to this server finds its players again. SYNCED
+ * answers SYNC once every request read before it has been queued on its session, behind every
+ * result the server has already decided to send on that connection.
+ * <p/>
+ * RANK asks for the client's own place on the server's Leaderboard: rank 1 is the best, tied
+ * players share a rank, and rank 0 means the client has not finished a game against another
+ * player yet. LEADERS asks for the best count players (at most Leaderboard.MAX_LEADERS), best
+ * first. A player is the gateway's client (HELLO) on a Gateway's connection, and otherwise the
+ * connection, numbered by the server from -1 down (a negative player is ten bytes of varint).
+ * <p/>
+ * A spectator (WATCH) first gets a SNAPSHOT - the game's moves so far, X's first - and then
+ * the same MOVED, STARTED and LEFT results as the players; a finished game is followed by
+ * ENDED, with how it was won (WinType ordinal in the low two bits of way, WinTypeDiagonal's
+ * in the next two) and the winning cells. A spectator too slow to keep up misses some moves
+ * and gets a fresh SNAPSHOT instead.
+ * <p/>
+ * ply is the number of moves made so far in the current game: a MOVE whose ply was already
+ * played, to the same cell, is answered with that MOVED again rather than an error, so a
+ * client that lost the result of a move can simply send it again. players is the mover in the
+ * high four bits and the next player in the low four (None once the game is over); see
+ * toPlayerCode.
+ */
+public final class WireFormat
+{
+    public static final int LENGTH_PREFIX_BYTES = 2;
+    public static final int MAX_FRAME_LENGTH = 0xFFFF;
+
+    // type byte + five varints of at most ten bytes; SNAPSHOT and ENDED also have a cell list,
+    // RANKED a sixth varint and LEADERBOARD a list of players
+    public static final int MAX_MESSAGE_LENGTH = 1 + 5 * 10;
+
+    public static final byte NEW = 0x01, JOIN = 0x02, MOVE = 0x03, RESTART = 0x04, LEAVE = 0x05,
+            FIND = 0x06, WATCH = 0x07, UNWATCH = 0x08, COMPUTER = 0x09, HELLO = 0x0A,
+            SYNC = 0x0B, RANK = 0x0C, LEADERS = 0x0D;
+
+    public static final byte SESSION = 0x41, JOINED = 0x42, MOVED = 0x43, OVER = 0x44,
+            STARTED = 0x45, LEFT = 0x46, ERROR = 0x47, MATCHED = 0x48, SNAPSHOT = 0x49,
+            ENDED = 0x4A, SYNCED = 0x4B, RANKED = 0x4C, LEADERBOARD = 0x4D;
+
+    public static final int PLAYER_NONE = 0, PLAYER_X = 1, PLAYER_O = 2;
+
+    public static final int ERROR_NO_SUCH_SESSION = 1, ERROR_SESSION_FULL = 2,
+            ERROR_WAITING_FOR_OPPONENT = 3, ERROR_NOT_YOUR_TURN = 4, ERROR_GAME_OVER = 5,
+            ERROR_OFF_THE_BOARD = 6, ERROR_SPACE_TAKEN = 7, ERROR_OUT_OF_SEQUENCE = 8,
+            ERROR_BAD_BOARD_SIZE = 9, ERROR_NOT_A_PLAYER = 10;
+
+    private static final String[] ERROR_DESCRIPTIONS = {
+            "unknown error", "no such session", "session is full", "waiting for a second player",
+            "not your turn", "game over", "off the board", "space taken", "out of sequence",
+            "board size out of range", "not a player"
+    };
+
+    private WireFormat ()
+    {
+    }
+
+    public static void putVarLong (ByteBuffer out, long value)
+    {
+        while ((value & ~0x7FL) != 0) {
+            out.put ((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put ((byte) value);
+    }
+
+    /**
+     * @throws java.nio.BufferUnderflowException if the varint runs past the buffer's limit
+     * @throws IllegalArgumentException          if it is longer than ten bytes
+     */
+    public static long getVarLong (ByteBuffer in)
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get ();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException ("Varint longer than ten bytes");
+    }
+
+    /**
+     * As getVarLong, for fields that must fit in an int
+     */
+    public static int getVarInt (ByteBuffer in)
+    {
+        long value = getVarLong (in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException ("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    public static int toPlayerCode (PlayerTurn player)
+    {
+        switch (player) {
+            case X:
+                return PLAYER_X;
+            case O:
+                return PLAYER_O;
+            default:
+                return PLAYER_NONE;
+        }
+    }
+
+    public static PlayerTurn toPlayerTurn (int playerCode)
+    {
+        switch (playerCode) {
+            case PLAYER_X:
+                return PlayerTurn.X;
+            case PLAYER_O:
+                return PlayerTurn.O;
+            default:
+                return PlayerTurn.None;
+        }
+    }
+
+    public static String describeError (int reason)
+    {
+        return ERROR_DESCRIPTIONS[reason > 0 && reason < ERROR_DESCRIPTIONS.length ? reason : 0];
+    }
+}
@@ -0,0 +1,126 @@
+package com.mintedtech.tic_tac_toe.models;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * TicTacToe.writeTo and readFrom: games in every state come back as they were, and streams no
+ * game would write are refused with an IOException
+ */
+public class TicTacToeEncodingTest
+{
+    // a 3 x 3 game: version, size, 3 bytes of players, 2 of winning spaces, then the state byte
+    private static final int CURRENT_ROW_OFFSET = 8;
+
+    @Test
+    public void gamesRoundTripInEveryState () throws IOException
+    {
+        Random random = new Random (42);
+        for (int size = 3; size <= 5; size++) {
+            TicTacToe game = new TicTacToe (size);
+            for (int turn = 0; turn < 200; turn++) {
+                if (game.isGameOver () && random.nextInt (3) > 0) {
+                    game.startGame ();
+                }
+                else if (game.isCanUndo () && random.nextInt (5) == 0) {
+                    game.undoLastTurn ();
+                }
+                else if (!game.isGameOver ()) {
+                    playRandomSpace (game, random);
+                }
+
+                byte[] encoded = encode (game);
+                assertArrayEquals (encoded, encode (decode (encoded)));
+            }
+        }
+    }
+
+    @Test
+    public void undoPositionOffTheBoardIsRefused () throws IOException
+    {
+        byte[] encoded = encode (gameWithMoves (4, 0));
+        encoded[CURRENT_ROW_OFFSET] = 3;
+        assertRefused (encoded);
+    }
+
+    @Test
+    public void moveOnAnEmptySpaceIsRefused () throws IOException
+    {
+        TicTacToe game = gameWithMoves (4, 0);
+        byte[] encoded = encode (game);
+        // the last byte is the last move's space
+        encoded[encoded.length - 1] = 8;
+        assertRefused (encoded);
+    }
+
+    @Test
+    public void movesOutOfTurnAreRefused () throws IOException
+    {
+        TicTacToe game = gameWithMoves (4, 0);
+        byte[] encoded = encode (game);
+        // the two moves swapped: O first
+        encoded[encoded.length - 2] = 0;
+        encoded[encoded.length - 1] = 4;
+        assertRefused (encoded);
+    }
+
+    @Test
+    public void negativeBoardSizeIsRefused ()
+    {
+        // version 1, then -1 as a five-byte varint
+        assertRefused (new byte[] {1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+    }
+
+    private static TicTacToe gameWithMoves (int... spaces)
+    {
+        TicTacToe game = new TicTacToe (3);
+        for (int space : spaces) {
+            game.attemptTurn (space / 3, space % 3);
+        }
+        return game;
+    }
+
+    private static void playRandomSpace (TicTacToe game, Random random)
+    {
+        int size = game.getTotalRowsOrColumns ();
+        int row, col;
+        do {
+            row = random.nextInt (size);
+            col = random.nextInt (size);
+        }
+        while (!game.isValidClick (row, col));
+        game.attemptTurn (row, col);
+    }
+
+    private static void assertRefused (byte[] encoded)
+    {
+        try {
+            decode (encoded);
+            fail ("Decoded a damaged game");
+        }
+        catch (IOException expected) {
+            // and nothing unchecked
+        }
+    }
+
+    private static byte[] encode (TicTacToe game) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+        game.writeTo (new DataOutputStream (bytes));
+        return bytes.toByteArray ();
+    }
+
+    private static TicTacToe decode (byte[] encoded) throws IOException
+    {
+        return TicTacToe.readFrom (new DataInputStream (new ByteArrayInputStream (encoded)));
+    }
+}
@@ -0,0 +1,442 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FrameEncoder and FrameDecoder against each other, and the decoder against frames no encoder
+ * would write
+ */
+public class FrameCodecTest
+{
+    private static final int MAX_CAPACITY = 1 << 20;
+
+    @Test
+    public void varintsRoundTrip ()
+    {
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+        ByteBuffer buffer = ByteBuffer.allocate (10 * values.length);
+        for (long value : values) {
+            WireFormat.putVarLong (buffer, value);
+        }
+        buffer.flip ();
+        for (long value : values) {
+            assertEquals (value, WireFormat.getVarLong (buffer));
+        }
+        assertFalse (buffer.hasRemaining ());
+    }
+
+    @Test
+    public void varintsUseOneByteUpTo127 ()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate (10);
+        WireFormat.putVarLong (buffer, 127);
+        assertEquals (1, buffer.position ());
+        WireFormat.putVarLong (buffer, 128);
+        assertEquals (3, buffer.position ());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void varintLongerThanTenBytesIsRejected ()
+    {
+        byte[] bytes = new byte[11];
+        Arrays.fill (bytes, (byte) 0x80);
+        WireFormat.getVarLong (ByteBuffer.wrap (bytes));
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void varintTooLargeForAnIntIsRejected ()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate (10);
+        WireFormat.putVarLong (buffer, Integer.MAX_VALUE + 1L);
+        buffer.flip ();
+        WireFormat.getVarInt (buffer);
+    }
+
+    @Test
+    public void requestsRoundTripInOneFrame () throws ProtocolException
+    {
+        FrameEncoder encoder = new FrameEncoder (MAX_CAPACITY);
+        encoder.newGame (1, 3);
+        encoder.join (2, 40_000_000_000L);
+        encoder.move (3, 7, 4, 8);
+        encoder.restart (4, 7);
+        encoder.leave (5, 7);
+        encoder.find (6, 5, 1500);
+        encoder.watch (7, 9);
+        encoder.unwatch (8, 9);
+        encoder.computerGame (9, 4);
+        encoder.hello (10, 123456789);
+        encoder.sync (11);
+        encoder.rank (12);
+        encoder.leaders (13, 100);
+        ByteBuffer frames = encoder.takeFrames ();
+
+        // a burst of requests is one frame
+        assertEquals (frames.remaining () - WireFormat.LENGTH_PREFIX_BYTES,
+                      frames.getShort (0) & 0xFFFF);
+
+        Recorder recorder = new Recorder ();
+        FrameDecoder.decodeRequests (frames, recorder);
+        assertEquals (Arrays.asList (
+                "new 1 3", "join 2 40000000000", "move 3 7 4 8", "restart 4 7", "leave 5 7",
+                "find 6 5 1500", "watch 7 9", "unwatch 8 9", "computer 9 4", "hello 10 123456789",
+                "sync 11", "rank 12", "leaders 13 100"), recorder.mMessages);
+        assertFalse (frames.hasRemaining ());
+    }
+
+    @Test
+    public void resultsRoundTrip () throws ProtocolException
+    {
+        FrameEncoder encoder = new FrameEncoder (MAX_CAPACITY);
+        encoder.session (1, 7, 3);
+        encoder.joined (7);
+        encoder.moved (7, 4, 8, WireFormat.PLAYER_X, WireFormat.PLAYER_O);
+        encoder.over (7, WireFormat.PLAYER_NONE);
+        encoder.started (7);
+        encoder.left (7);
+        encoder.error (2, 0, WireFormat.ERROR_NOT_A_PLAYER);
+        encoder.matched (3, 8, 5, WireFormat.PLAYER_O);
+        encoder.snapshot (7, 3, new int[] {4, 0, 8, 99}, 3);
+        encoder.ended (7, WireFormat.PLAYER_X, 1, 2, new int[] {0, 4, 8}, 3);
+        encoder.synced (4);
+        encoder.ranked (5, 12, 1634, 10, 3, 2);
+        encoder.leaderboard (6, new long[] {-1, 42, 0}, new int[] {1700, 1650, 0}, 2);
+
+        Recorder recorder = new Recorder ();
+        ByteBuffer frames = encoder.takeFrames ();
+        FrameDecoder.decodeResults (frames, recorder);
+        assertEquals (Arrays.asList (
+                "session 1 7 3", "joined 7", "moved 7 4 8 1 2", "over 7 0", "started 7", "left 7",
+                "error 2 0 10", "matched 3 8 5 2", "snapshot 7 3 [4, 0, 8]",
+                "ended 7 1 1 2 [0, 4, 8]", "synced 4", "ranked 5 12 1634 10 3 2",
+                "leaderboard 6 [-1, 42] [1700, 1650]"), recorder.mMessages);
+        assertFalse (frames.hasRemaining ());
+    }
+
+    @Test
+    public void partialFrameWaitsForTheRest () throws ProtocolException
+    {
+        FrameEncoder encoder = new FrameEncoder (MAX_CAPACITY);
+        encoder.move (1, 7, 0, 4);
+        ByteBuffer first = encoder.takeFrames ();
+        encoder.move (2, 7, 2, 5);
+        ByteBuffer second = encoder.takeFrames ();
+
+        // the whole first frame and part of the second, as a read might leave them
+        ByteBuffer buffer = ByteBuffer.allocate (first.remaining () + second.remaining ());
+        buffer.put (first);
+        ByteBuffer secondCopy = second.duplicate ();
+        secondCopy.limit (secondCopy.position () + 3);
+        buffer.put (secondCopy);
+        buffer.flip ();
+
+        Recorder recorder = new Recorder ();
+        FrameDecoder.decodeRequests (buffer, recorder);
+        assertEquals (Arrays.asList ("move 1 7 0 4"), recorder.mMessages);
+        assertEquals (3, buffer.remaining ());
+
+        // the rest arrives
+        buffer.compact ();
+        second.position (second.position () + 3);
+        buffer.put (second);
+        buffer.flip ();
+        FrameDecoder.decodeRequests (buffer, recorder);
+        assertEquals (Arrays.asList ("move 1 7 0 4", "move 2 7 2 5"), recorder.mMessages);
+        assertFalse (buffer.hasRemaining ());
+    }
+
+    @Test
+    public void longBurstIsSplitIntoFullFrames () throws ProtocolException
+    {
+        FrameEncoder encoder = new FrameEncoder (MAX_CAPACITY);
+        int moves = 20_000;
+        for (int i = 0; i < moves; i++) {
+            encoder.move (i, 1L << 40, i, i % 9);
+        }
+        ByteBuffer frames = encoder.takeFrames ();
+        assertTrue (frames.remaining () > WireFormat.MAX_FRAME_LENGTH);
+
+        Recorder recorder = new Recorder ();
+        FrameDecoder.decodeRequests (frames, recorder);
+        assertEquals (moves, recorder.mMessages.size ());
+        assertEquals ("move 19999 1099511627776 19999 1", recorder.mMessages.get (moves - 1));
+    }
+
+    @Test
+    public void overflowDropsMessagesAndSaysSo ()
+    {
+        FrameEncoder encoder = new FrameEncoder (256);
+        for (int i = 0; i < 1000 && !encoder.isOverflowed (); i++) {
+            encoder.joined (i);
+        }
+        assertTrue (encoder.isOverflowed ());
+        assertTrue (encoder.takeFrames ().remaining () <= 256);
+    }
+
+    @Test
+    public void unknownTypeIsAProtocolError ()
+    {
+        assertMalformedRequests (frame (0x7F, 1));
+        assertMalformedResults (frame (WireFormat.NEW, 1, 3));
+    }
+
+    @Test
+    public void messageCutShortInsideItsFrameIsAProtocolError ()
+    {
+        // MOVE with its cell missing, and a varint whose last byte says more follows
+        assertMalformedRequests (frame (WireFormat.MOVE, 1, 7, 0));
+        assertMalformedRequests (frame (WireFormat.JOIN, 1, 0x80));
+    }
+
+    @Test
+    public void hugeCellCountIsAProtocolError ()
+    {
+        // SNAPSHOT of session 7, 3 x 3, claiming 2^28 cells; must not allocate them
+        assertMalformedResults (frame (WireFormat.SNAPSHOT, 7, 3, 0x80, 0x80, 0x80, 0x80, 0x01));
+        assertMalformedResults (frame (WireFormat.LEADERBOARD, 1, 0xFF, 0xFF, 0x03, 1, 1));
+    }
+
+    @Test
+    public void emptyBufferDecodesNothing () throws ProtocolException
+    {
+        Recorder recorder = new Recorder ();
+        ByteBuffer buffer = ByteBuffer.allocate (1);
+        buffer.put ((byte) 0).flip ();
+        FrameDecoder.decodeRequests (buffer, recorder);
+        assertTrue (recorder.mMessages.isEmpty ());
+        assertEquals (1, buffer.remaining ());
+    }
+
+    @Test
+    public void playerCodesRoundTrip ()
+    {
+        for (int code : new int[] {WireFormat.PLAYER_NONE, WireFormat.PLAYER_X,
+                                   WireFormat.PLAYER_O}) {
+            assertEquals (code, WireFormat.toPlayerCode (WireFormat.toPlayerTurn (code)));
+        }
+    }
+
+    /**
+     * One frame of the given bytes
+     */
+    private static ByteBuffer frame (int... bytes)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate (WireFormat.LENGTH_PREFIX_BYTES + bytes.length);
+        buffer.putShort ((short) bytes.length);
+        for (int b : bytes) {
+            buffer.put ((byte) b);
+        }
+        buffer.flip ();
+        return buffer;
+    }
+
+    private static void assertMalformedRequests (ByteBuffer frame)
+    {
+        try {
+            FrameDecoder.decodeRequests (frame, new Recorder ());
+            fail ("Decoded a malformed request");
+        }
+        catch (ProtocolException expected) {
+            // the server drops such a client
+        }
+    }
+
+    private static void assertMalformedResults (ByteBuffer frame)
+    {
+        try {
+            FrameDecoder.decodeResults (frame, new Recorder ());
+            fail ("Decoded a malformed result");
+        }
+        catch (ProtocolException expected) {
+            // a client gives up on such a server
+        }
+    }
+
+    /**
+     * Writes down every message it is handed, one string each
+     */
+    private static final class Recorder
+            implements FrameDecoder.RequestHandler, FrameDecoder.ResultHandler
+    {
+        private final List<String> mMessages = new ArrayList<> ();
+
+        private void record (String name, Object... fields)
+        {
+            StringBuilder message = new StringBuilder (name);
+            for (Object field : fields) {
+                message.append (' ').append (field);
+            }
+            mMessages.add (message.toString ());
+        }
+
+        @Override
+        public void onNewGame (long seq, int rowsOrColumns)
+        {
+            record ("new", seq, rowsOrColumns);
+        }
+
+        @Override
+        public void onJoin (long seq, long sessionID)
+        {
+            record ("join", seq, sessionID);
+        }
+
+        @Override
+        public void onMove (long seq, long sessionID, int ply, int cell)
+        {
+            record ("move", seq, sessionID, ply, cell);
+        }
+
+        @Override
+        public void onRestart (long seq, long sessionID)
+        {
+            record ("restart", seq, sessionID);
+        }
+
+        @Override
+        public void onLeave (long seq, long sessionID)
+        {
+            record ("leave", seq, sessionID);
+        }
+
+        @Override
+        public void onFind (long seq, int rowsOrColumns, int rating)
+        {
+            record ("find", seq, rowsOrColumns, rating);
+        }
+
+        @Override
+        public void onWatch (long seq, long sessionID)
+        {
+            record ("watch", seq, sessionID);
+        }
+
+        @Override
+        public void onUnwatch (long seq, long sessionID)
+        {
+            record ("unwatch", seq, sessionID);
+        }
+
+        @Override
+        public void onComputerGame (long seq, int rowsOrColumns)
+        {
+            record ("computer", seq, rowsOrColumns);
+        }
+
+        @Override
+        public void onHello (long seq, long clientID)
+        {
+            record ("hello", seq, clientID);
+        }
+
+        @Override
+        public void onSync (long seq)
+        {
+            record ("sync", seq);
+        }
+
+        @Override
+        public void onRank (long seq)
+        {
+            record ("rank", seq);
+        }
+
+        @Override
+        public void onLeaders (long seq, int count)
+        {
+            record ("leaders", seq, count);
+        }
+
+        @Override
+        public void onSession (long seq, long sessionID, int rowsOrColumns)
+        {
+            record ("session", seq, sessionID, rowsOrColumns);
+        }
+
+        @Override
+        public void onJoined (long sessionID)
+        {
+            record ("joined", sessionID);
+        }
+
+        @Override
+        public void onMoved (long sessionID, int ply, int cell, int mover, int next)
+        {
+            record ("moved", sessionID, ply, cell, mover, next);
+        }
+
+        @Override
+        public void onOver (long sessionID, int winner)
+        {
+            record ("over", sessionID, winner);
+        }
+
+        @Override
+        public void onStarted (long sessionID)
+        {
+            record ("started", sessionID);
+        }
+
+        @Override
+        public void onLeft (long sessionID)
+        {
+            record ("left", sessionID);
+        }
+
+        @Override
+        public void onError (long seq, long sessionID, int reason)
+        {
+            record ("error", seq, sessionID, reason);
+        }
+
+        @Override
+        public void onMatched (long seq, long sessionID, int rowsOrColumns, int player)
+        {
+            record ("matched", seq, sessionID, rowsOrColumns, player);
+        }
+
+        @Override
+        public void onSnapshot (long sessionID, int rowsOrColumns, int[] moves)
+        {
+            record ("snapshot", sessionID, rowsOrColumns, Arrays.toString (moves));
+        }
+
+        @Override
+        public void onEnded (long sessionID, int winner, int winType, int winTypeDiagonal,
+                             int[] winningCells)
+        {
+            record ("ended", sessionID, winner, winType, winTypeDiagonal,
+                    Arrays.toString (winningCells));
+        }
+
+        @Override
+        public void onSynced (long seq)
+        {
+            record ("synced", seq);
+        }
+
+        @Override
+        public void onRanked (long seq, int rank, int rating, int wins, int losses, int draws)
+        {
+            record ("ranked", seq, rank, rating, wins, losses, draws);
+        }
+
+        @Override
+        public void onLeaderboard (long seq, long[] playerIDs, int[] ratings)
+        {
+            assertEquals (playerIDs.length, ratings.length);
+            record ("leaderboard", seq, Arrays.toString (playerIDs), Arrays.toString (ratings));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * HashRing's ownership: every key has one member for its owner, the same one on every node, and
+ * a node that joins takes only its share of the keys
+ */
+public class HashRingTest
+{
+    private static final int KEYS = 100000;
+
+    @Test
+    public void everyKeyBelongsToAMember ()
+    {
+        HashRing ring = new HashRing (7, 3, 500);
+        for (long key = 0; key < KEYS; key++) {
+            int owner = ring.ownerOf (key);
+            assertTrue ("Key " + key + " went to " + owner, ring.contains (owner));
+        }
+    }
+
+    @Test
+    public void ringsWithTheSameMembersAgree ()
+    {
+        HashRing first = new HashRing (1, 2, 3);
+        HashRing second = new HashRing (3, 1, 2);
+        HashRing grown = new HashRing (1, 2).with (3);
+        assertArrayEquals (new int[] {1, 2, 3}, second.getNodeIDs ());
+        for (long key = 0; key < KEYS; key++) {
+            assertEquals (first.ownerOf (key), second.ownerOf (key));
+            assertEquals (first.ownerOf (key), grown.ownerOf (key));
+        }
+    }
+
+    @Test
+    public void consecutiveKeysAreSpreadEvenly ()
+    {
+        int[] nodeIDs = {0, 1, 2, 3};
+        HashRing ring = new HashRing (nodeIDs);
+        int[] counts = new int[nodeIDs.length];
+        for (long key = 0; key < KEYS; key++) {
+            counts[ring.ownerOf (key)]++;
+        }
+        // 128 points a node keep every share well within a third of the even one
+        int even = KEYS / nodeIDs.length;
+        for (int count : counts) {
+            assertTrue (Arrays.toString (counts), Math.abs (count - even) < even / 3);
+        }
+    }
+
+    @Test
+    public void aJoiningNodeTakesOnlyItsShare ()
+    {
+        HashRing before = new HashRing (0, 1, 2);
+        HashRing after = before.with (3);
+        int moved = 0;
+        for (long key = 0; key < KEYS; key++) {
+            int owner = after.ownerOf (key);
+            if (owner != before.ownerOf (key)) {
+                assertEquals ("Key " + key + " moved between old nodes", 3, owner);
+                moved++;
+            }
+        }
+        // about a quarter of the keys, taken from the others alike
+        assertTrue ("Moved " + moved, moved > KEYS / 6 && moved < KEYS / 3);
+    }
+
+    @Test
+    public void withAMemberIsTheSameRing ()
+    {
+        HashRing ring = new HashRing (4, 5);
+        assertSame (ring, ring.with (5));
+    }
+
+    @Test
+    public void badNodeIDsAreRefused ()
+    {
+        int[][] bad = {{}, {-1}, {HashRing.MAX_NODES}};
+        for (int[] nodeIDs : bad) {
+            try {
+                new HashRing (nodeIDs);
+                fail ("Accepted " + Arrays.toString (nodeIDs));
+            }
+            catch (IllegalArgumentException expected) {
+                // as documented
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsThroughItsWireForm () throws IOException
+    {
+        HashRing ring = new HashRing (9, 0, HashRing.MAX_NODES - 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+        ring.writeTo (new DataOutputStream (bytes));
+
+        HashRing read = HashRing.readFrom (new DataInputStream (
+                new ByteArrayInputStream (bytes.toByteArray ())));
+        assertArrayEquals (ring.getNodeIDs (), read.getNodeIDs ());
+        for (long key = 0; key < 1000; key++) {
+            assertEquals (ring.ownerOf (key), read.ownerOf (key));
+        }
+    }
+
+    @Test
+    public void malformedWireFormIsAnIOException ()
+    {
+        // one node, with an ID past MAX_NODES
+        byte[] bytes = {0, 1, (byte) 0xFF, (byte) 0xFF};
+        try {
+            HashRing.readFrom (new DataInputStream (new ByteArrayInputStream (bytes)));
+            fail ("Read a ring with a bad node ID");
+        }
+        catch (IOException expected) {
+            // refused rather than thrown as unchecked
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.mintedtech.tic_tac_toe.server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * MoveLog's recovery: from whole segments, from segments a crash tore or corrupted, and from a
+ * snapshot and the segments after it
+ */
+public class MoveLogTest
+{
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder ();
+
+    @Test
+    public void recoversEveryGameStillOpen () throws Exception
+    {
+        File directory = mFolder.getRoot ();
+        MoveLog log = new MoveLog (directory, 0);
+        log.create (1, 3, false);
+        log.create (2, 3, true);
+        log.move (1, 0, 4);
+        log.move (1, 1, 0);
+        log.move (2, 0, 8);
+        log.create (3, 4, false);
+        log.close (3);
+        long end = log.getPosition ();
+        log.stop ();
+
+        MoveLog.Recovery recovery = MoveLog.recover (directory);
+        Map<Long, MoveLog.RecoveredGame> games = byID (recovery);
+        assertEquals (2, games.size ());
+        assertEquals (end, recovery.getEndPosition ());
+        assertEquals (4, recovery.getNextSessionID ());
+
+        MoveLog.RecoveredGame first = games.get (1L);
+        assertFalse (first.isVersusComputer ());
+        assertEquals (2, first.getGame ().getMoveCount ());
+        assertEquals (4, first.getGame ().getMoveAt (0));
+        assertEquals (0, first.getGame ().getMoveAt (1));
+        assertTrue (games.get (2L).isVersusComputer ());
+        assertEquals (8, games.get (2L).getGame ().getMoveAt (0));
+    }
+
+    @Test
+    public void tornLastBatchIsDroppedAndTheLogGoesOnAfterIt () throws Exception
+    {
+        File directory = mFolder.getRoot ();
+        MoveLog log = new MoveLog (directory, 0);
+        log.create (1, 3, false);
+        long durable = log.move (1, 0, 4);
+        log.stop ();
+
+        // the process died writing the next batch: its header and part of its records
+        File segment = onlySegment (directory);
+        try (RandomAccessFile file = new RandomAccessFile (segment, "rw")) {
+            file.seek (file.length ());
+            file.writeInt (40);
+            file.writeInt (0x12345678);
+            file.write (new byte[] {2, 1, 1});
+        }
+
+        MoveLog.Recovery recovery = MoveLog.recover (directory);
+        assertEquals (durable, recovery.getEndPosition ());
+        assertEquals (1, byID (recovery).get (1L).getGame ().getMoveCount ());
+
+        // the next run starts a segment where the torn one left off
+        log = new MoveLog (directory, recovery.getEndPosition ());
+        log.move (1, 1, 0);
+        log.stop ();
+
+        recovery = MoveLog.recover (directory);
+        assertEquals (2, byID (recovery).get (1L).getGame ().getMoveCount ());
+    }
+
+    @Test
+    public void corruptBatchEndsTheReplay () throws Exception
+    {
+        File directory = mFolder.getRoot ();
+        MoveLog log = new MoveLog (directory, 0);
+        log.create (1, 3, false);
+        long durable = log.move (1, 0, 4);
+        awaitDurable (log, durable);
+        long firstBatchesEnd = onlySegment (directory).length ();
+
+        log.move (1, 1, 0);
+        log.stop ();
+
+        // a flipped bit in the later batch's record
+        try (RandomAccessFile file = new RandomAccessFile (onlySegment (directory), "rw")) {
+            long offset = file.length () - 1;
+            assertTrue (offset > firstBatchesEnd);
+            file.seek (offset);
+            int b = file.read ();
+            file.seek (offset);
+            file.write (b ^ 0x01);
+        }
+
+        MoveLog.Recovery recovery = MoveLog.recover (directory);
+        assertEquals (durable, recovery.getEndPosition ());
+        assertEquals (1, byID (recovery).get (1L).getGame ().getMoveCount ());
+    }
+
+    @Test
+    public void snapshotReplacesTheSegmentsBeforeIt () throws Exception
+    {
+        File directory = mFolder.getRoot ();
+        MoveLog log = new MoveLog (directory, 0);
+        log.create (1, 3, false);
+        long position = log.move (1, 0, 4);
+        log.create (2, 3, false);
+        log.close (2);
+
+        MoveLog.Snapshot snapshot = log.beginSnapshot ();
+        MoveLog.Recovery before = MoveLog.recover (directory);
+        MoveLog.RecoveredGame game = byID (before).get (1L);
+        snapshot.add (1, false, position, SessionStore.encode (game.getGame ()));
+        // a move played while the snapshot was taken, after the game was captured
+        log.move (1, 1, 0);
+        log.finishSnapshot (snapshot, 3);
+        log.move (1, 2, 8);
+        long end = log.getPosition ();
+        log.stop ();
+
+        File[] segments = directory.listFiles ((dir, name) -> name.startsWith ("moves-"));
+        assertEquals (1, segments.length);
+
+        MoveLog.Recovery recovery = MoveLog.recover (directory);
+        Map<Long, MoveLog.RecoveredGame> games = byID (recovery);
+        assertEquals (1, games.size ());
+        assertEquals (3, games.get (1L).getGame ().getMoveCount ());
+        assertEquals (8, games.get (1L).getGame ().getMoveAt (2));
+        assertEquals (end, recovery.getEndPosition ());
+        assertEquals (3, recovery.getNextSessionID ());
+    }
+
+    @Test
+    public void corruptSnapshotIsRefused () throws Exception
+    {
+        File directory = mFolder.getRoot ();
+        MoveLog log = new MoveLog (directory, 0);
+        long position = log.create (1, 3, false);
+        MoveLog.Snapshot snapshot = log.beginSnapshot ();
+        snapshot.add (1, false, position, SessionStore.encode (
+                byID (MoveLog.recover (directory)).get (1L).getGame ()));
+        log.finishSnapshot (snapshot, 2);
+        log.stop ();
+
+        try (RandomAccessFile file = new RandomAccessFile (
+                new File (directory, "games.snapshot"), "rw")) {
+            // the last byte of the entries, before their CRC
+            long offset = file.length () - 9;
+            file.seek (offset);
+            int b = file.read ();
+            file.seek (offset);
+            file.write (b ^ 0x01);
+        }
+        try {
+            MoveLog.recover (directory);
+            fail ("Recovered from a corrupt snapshot");
+        }
+        catch (IOException expected) {
+            // refused rather than come back without its games
+        }
+    }
+
+    private static Map<Long, MoveLog.RecoveredGame> byID (MoveLog.Recovery recovery)
+    {
+        Map<Long, MoveLog.RecoveredGame> games = new HashMap<> ();
+        for (MoveLog.RecoveredGame game : recovery.getGames ()) {
+            games.put (game.getSessionID (), game);
+        }
+        return games;
+    }
+
+    private static File onlySegment (File directory)
+    {
+        File[] segments = directory.listFiles ((dir, name) -> name.startsWith ("moves-"));
+        assertEquals (1, segments.length);
+        return segments[0];
+    }
+
+    private static void awaitDurable (MoveLog log, long position) throws InterruptedException
+    {
+        CountDownLatch durable = new CountDownLatch (1);
+        log.whenDurable (position, durable::countDown);
+        assertTrue (durable.await (10, TimeUnit.SECONDS));
+    }
+}